@@ -12,6 +12,7 @@ import nl.inholland.bank_api.model.enums.AccountStatus;
 import nl.inholland.bank_api.repository.AccountRepository;
 import nl.inholland.bank_api.repository.TransactionRepository;
 import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.AccountActivityService;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -27,17 +28,24 @@ public class MyApplicationRunner implements ApplicationRunner {
     private final AccountRepository accountRepository;
     private final PasswordEncoder passwordEncoder;
     private final TransactionRepository transactionRepository;
+    private final AccountActivityService accountActivityService;
 
-    public MyApplicationRunner(UserRepository userRepository, AccountRepository accountRepository, PasswordEncoder passwordEncoder, TransactionRepository transactionRepository) {
+    public MyApplicationRunner(UserRepository userRepository, AccountRepository accountRepository, PasswordEncoder passwordEncoder, TransactionRepository transactionRepository, AccountActivityService accountActivityService) {
         this.userRepository = userRepository;
         this.accountRepository = accountRepository;
         this.passwordEncoder = passwordEncoder;
         this.transactionRepository = transactionRepository;
+        this.accountActivityService = accountActivityService;
     }
 
     @Override
     @Transactional
     public void run(ApplicationArguments args) throws Exception {
+        // Another instance sharing the database already seeded it
+        if (userRepository.count() > 0) {
+            return;
+        }
+
         List<User> users = userRepository.saveAll(
                 List.of(
                         User.builder()
@@ -132,7 +140,7 @@ public class MyApplicationRunner implements ApplicationRunner {
 
         accountRepository.saveAll(List.of(checking, savings));
 
-        transactionRepository.saveAll(
+        List<Transaction> transactions = transactionRepository.saveAll(
                 List.of(
                         Transaction.builder()
                                 .amount(BigDecimal.valueOf(250.00))
@@ -145,5 +153,6 @@ public class MyApplicationRunner implements ApplicationRunner {
                                 .build()
                 )
         );
+        accountActivityService.recordTransfers(transactions);
     }
 }
\ No newline at end of file
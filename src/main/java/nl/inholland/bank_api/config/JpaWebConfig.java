@@ -0,0 +1,29 @@
+package nl.inholland.bank_api.config;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Open entity manager in view as Spring Boot sets it up (spring.jpa.open-in-view is switched off for this),
+// except for the event streams: they stay open for minutes and would each hold a database connection
+@Configuration
+public class JpaWebConfig {
+    public static final String[] EVENT_STREAM_ENDPOINTS = {
+            "/atm/transactions/*/events"
+    };
+
+    @Bean
+    public WebMvcConfigurer openEntityManagerInViewConfigurer(EntityManagerFactory entityManagerFactory) {
+        OpenEntityManagerInViewInterceptor interceptor = new OpenEntityManagerInViewInterceptor();
+        interceptor.setEntityManagerFactory(entityManagerFactory);
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addWebRequestInterceptor(interceptor).excludePathPatterns(EVENT_STREAM_ENDPOINTS);
+            }
+        };
+    }
+}
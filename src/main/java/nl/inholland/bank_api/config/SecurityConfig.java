@@ -1,5 +1,6 @@
 package nl.inholland.bank_api.config;
 
+import jakarta.servlet.DispatcherType;
 import nl.inholland.bank_api.constant.SecurityConstants;
 import nl.inholland.bank_api.filter.JwtFilter;
 import nl.inholland.bank_api.filter.RequestSizeFilter;
@@ -53,6 +54,8 @@ public class SecurityConfig {
                 .authorizeHttpRequests(
                         auth -> auth
                                 .requestMatchers(SecurityConstants.PUBLIC_ENDPOINTS).permitAll()
+                                // Completing an event stream dispatches again; the request was authorized when it came in
+                                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                                 .anyRequest().authenticated() // All other endpoints require auth
                 )
                 .addFilterBefore(requestSizeFilter, UsernamePasswordAuthenticationFilter.class)
@@ -33,12 +33,41 @@ public class ErrorMessages {
     public static final String ACCOUNT_NOT_FOUND = "Account not found";
     public static final String INSUFFICIENT_BALANCE = "Insufficient balance";
     public static final String DAILY_WITHDRAWAL_LIMIT_EXCEEDED = "Daily withdrawal limit exceeded";
+    public static final String DAILY_LIMIT_EXCEEDED = "Daily limit exceeded";
+    public static final String SAME_ACCOUNT_TRANSFER = "Source and target account must be different";
+    public static final String BALANCE_STRIPES_RANGE = "Number of balance stripes must be between 0 and 64";
+    public static final String INVALID_PERIOD = "Start of the period must not be after its end";
+    public static final String INVALID_CURSOR = "Invalid cursor, pass back the nextCursor of the previous page";
+    public static final String INVALID_EXPORT_FORMAT = "Export format must be csv or ndjson";
+    public static final String TOO_MANY_EXPORTS = "Too many exports are running, try again later";
+    public static final String BATCH_EMPTY = "Batch must contain at least one transfer";
+    public static final String BATCH_SIZE_EXCEEDED = "Batch contains more transfers than allowed";
+    public static final String IDEMPOTENCY_KEY_INVALID = "Idempotency-Key must be between 1 and 255 characters";
+    public static final String IDEMPOTENCY_KEY_REUSED = "Idempotency-Key was already used for a different request";
+    public static final String IDEMPOTENCY_REQUEST_IN_PROGRESS = "A request with this Idempotency-Key is still being processed";
+    public static final String ATM_BACKLOG_FULL = "Too many ATM transactions are waiting to be processed, try again later";
+    public static final String ATM_ACCOUNT_BACKLOG_FULL = "Too many ATM transactions of this account are waiting to be processed";
+    public static final String WITHDRAWAL_CANCELLED = "Withdrawal was cancelled at the terminal";
+    public static final String HOLD_NOT_OPEN = "Transaction has no open hold, it was posted or released already";
+    public static final String ATM_BATCH_EMPTY = "Batch must contain at least one operation";
+    public static final String ATM_BATCH_SIZE_EXCEEDED = "Batch contains more operations than allowed";
+    public static final String ATM_BATCH_MALFORMED = "Batch could not be read";
+    public static final String ATM_BATCH_IN_PROGRESS = "Operations of this batch are being uploaded by another request";
+    public static final String TERMINAL_ID_REQUIRED = "Terminal id is required";
+    public static final String INVALID_TERMINAL_ID_FORMAT = "Terminal id may only contain lowercase letters, digits and dashes";
+    public static final String TERMINAL_SEQUENCE_REQUIRED = "Sequence number is required";
+    public static final String TERMINAL_SEQUENCE_DUPLICATE = "Sequence numbers must be unique within a batch";
+    public static final String TERMINAL_SEQUENCE_REUSED = "Sequence number was already used for a different operation";
+    public static final String TERMINAL_TIMESTAMP_REQUIRED = "Timestamp is required";
+    public static final String INVALID_TERMINAL_SIGNATURE = "Unknown terminal or invalid signature";
+    public static final String TRANSFER_SEQUENCER_STOPPED = "Transfer sequencer is not running";
     public static final String REQUEST_PAYLOAD_TOO_LARGE = "Request payload too large";
     public static final String MISSING_TOKEN_OR_AUTHORIZATION_HEADER = "Missing token or Authorization header";
     public static final String EXPIRED_TOKEN = "Expired Token";
     public static final String MALFORMED_TOKEN = "Malformed Token";
     public static final String INVALID_TOKEN_SIGNATURE = "Invalid token signature";
     public static final String UNSUPPORTED_TOKEN = "Unsupported token";
+    public static final String MISSING_USER_ID_CLAIM = "Token does not identify a user";
 
     public static final String UNKNOWN_ERROR_KEY = "Unknown error key";
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package nl.inholland.bank_api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import nl.inholland.bank_api.model.dto.ExceptionDTO;
+import nl.inholland.bank_api.service.AccountActivityService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class AccountActivityController {
+    private final AccountActivityService accountActivityService;
+
+    public AccountActivityController(AccountActivityService accountActivityService) {
+        this.accountActivityService = accountActivityService;
+    }
+
+    @Operation(
+            summary = "Backfill the account histories (EMPLOYEE only)",
+            description = "Migration or recovery operation, for example after importing transactions directly into the database. Adds the history lines of succeeded transfers and ATM transactions that have none. Compares every transaction with the histories, so run it outside busy hours."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Missing lines added",
+                    content = @Content(mediaType = "application/json")
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – Only employees can backfill the histories",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @PreAuthorize("hasRole('EMPLOYEE')")
+    @PostMapping("/activity/backfill")
+    public ResponseEntity<Map<String, Integer>> backfillActivity() {
+        return ResponseEntity.ok(Map.of("lines", accountActivityService.backfill()));
+    }
+}
@@ -14,6 +14,7 @@ import nl.inholland.bank_api.model.dto.AccountDTO;
 import nl.inholland.bank_api.model.dto.AccountWithUserDTO;
 import nl.inholland.bank_api.model.dto.ExceptionDTO;
 import nl.inholland.bank_api.model.dto.UpdateAccountLimitsDTO;
+import nl.inholland.bank_api.model.dto.UpdateBalanceStripesDTO;
 import nl.inholland.bank_api.service.AccountService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -738,6 +739,41 @@ public class AccountController {
         return ResponseEntity.ok().build();
     }
 
+    @Operation(
+            summary = "Set the balance stripes of a high-volume account (EMPLOYEE only)",
+            description = "Credits to a striped account are spread over sub-balances that are folded back into the balance in the background. Use 0 to switch striping off."
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Balance stripes updated"),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Invalid number of stripes",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – You do not have access to this resource",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Account not found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @PreAuthorize("hasRole('EMPLOYEE')")
+    @PutMapping("/accounts/{iban}/stripes")
+    public ResponseEntity<Void> updateBalanceStripes(@PathVariable String iban, @Valid @RequestBody UpdateBalanceStripesDTO dto) {
+        accountService.updateBalanceStripes(iban, dto);
+        return ResponseEntity.ok().build();
+    }
+
 
     @Operation(
             summary = "Create default accounts for a user (EMPLOYEE only)",
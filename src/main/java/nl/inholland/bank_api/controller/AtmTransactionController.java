@@ -1,38 +1,53 @@
 package nl.inholland.bank_api.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import jakarta.validation.Valid;
+import nl.inholland.bank_api.model.dto.AtmBatchUploadDTO;
+import nl.inholland.bank_api.model.dto.AtmBatchUploadResponseDTO;
 import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
 import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
 import nl.inholland.bank_api.model.dto.ExceptionDTO;
 import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.service.AccountService;
+import nl.inholland.bank_api.service.AtmBatchUploadService;
 import nl.inholland.bank_api.service.AtmTransactionService;
+import nl.inholland.bank_api.service.IdempotencyService;
 import nl.inholland.bank_api.service.UserService;
+import nl.inholland.bank_api.util.TerminalSignatureVerifier;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("atm")
 public class AtmTransactionController {
     private final AtmTransactionService atmTransactionService;
+    private final AtmBatchUploadService batchUploadService;
     private final AccountService accountService;
     private final UserService userService;
+    private final IdempotencyService idempotencyService;
 
     public AtmTransactionController(
             AtmTransactionService atmTransactionService,
+            AtmBatchUploadService batchUploadService,
             AccountService accountService,
-            UserService userService
+            UserService userService,
+            IdempotencyService idempotencyService
     ) {
         this.atmTransactionService = atmTransactionService;
+        this.batchUploadService = batchUploadService;
         this.accountService = accountService;
         this.userService = userService;
+        this.idempotencyService = idempotencyService;
     }
 
     @Operation(
@@ -40,7 +55,9 @@ public class AtmTransactionController {
             description = """
                         This endpoint allows a customer to initiate an ATM transaction on one of their accounts.
                         The transaction can be a deposit (adding funds) or a withdrawal (removing funds).
-                        The transaction will be marked as PENDING initially and processed asynchronously by the system.
+                        A withdrawal is approved or declined right away: an approved withdrawal is returned as
+                        PENDING and its amount is held until it is posted, a declined one is returned as FAILED
+                        with the reason. Deposits are PENDING and processed asynchronously by the system.
                         The authenticated user must be the owner of the account.
                     """,
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
@@ -86,19 +103,135 @@ public class AtmTransactionController {
                             mediaType = "application/json",
                             schema = @Schema(implementation = ExceptionDTO.class)
                     )
+            ),
+            @ApiResponse(
+                    responseCode = "409",
+                    description = "Idempotency-Key reused for a different request or still being processed",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "Too many ATM transactions of this account are pending, retry after the Retry-After seconds",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "The ATM backlog is too large, retry after the Retry-After seconds",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
             )
     })
     @PostMapping("transactions")
     public ResponseEntity<AtmTransactionDTO> createTransaction(
             @Valid @RequestBody AtmTransactionRequestDTO dto,
+            @Parameter(description = "Retries with the same key return the first response instead of creating another transaction")
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
             Authentication authentication
     ) {
         String email = authentication.getName();
         User currentUser = userService.getUserByEmail(email);
         Account account = accountService.fetchAccountByIban(dto.iban);
 
-        AtmTransactionDTO createdTransaction = atmTransactionService.createTransaction(dto, account, currentUser);
-        return ResponseEntity.status(201).body(createdTransaction);
+        String scope = "atm-transactions:" + currentUser.getId();
+        return idempotencyService.execute(scope, idempotencyKey, dto, AtmTransactionDTO.class, () -> {
+            AtmTransactionDTO createdTransaction = atmTransactionService.createTransaction(dto, account, currentUser);
+            return ResponseEntity.status(201).body(createdTransaction);
+        });
+    }
+
+    @Operation(
+            summary = "Upload ATM transactions recorded offline",
+            description = """
+                        This endpoint lets a terminal upload the deposits and withdrawals it recorded while it
+                        was offline. The body is signed by the terminal: the Base64 HMAC-SHA256 of the exact
+                        request body with the terminal's key goes in the X-Terminal-Signature header.
+                        Operations are stored as PENDING and processed in sequence order. The cash of a withdrawal
+                        was already paid out, so it is always posted, even beyond the balance or the daily
+                        withdrawal limit. Operations the terminal uploaded before are not stored again, so a batch
+                        can safely be resent; a sequence number reused for another operation is rejected. The response maps
+                        every sequence number to its transaction ID. Customers may only upload operations on
+                        their own accounts.
+                    """,
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    description = "Operations recorded by the terminal",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = AtmBatchUploadDTO.class)
+                    )
+            )
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Batch stored, see the transaction ID of every sequence number",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = AtmBatchUploadResponseDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "The batch is malformed, empty, too large or repeats a sequence number",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Unauthorized – JWT token is missing or invalid",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Unknown terminal, invalid signature or an account of another user",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Account not found for IBAN",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "409",
+                    description = "The same operations are being uploaded by another request",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "The ATM backlog is too large, retry after the Retry-After seconds",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @PostMapping(value = "transactions/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<AtmBatchUploadResponseDTO> uploadBatch(
+            @RequestBody byte[] body,
+            @RequestHeader(value = TerminalSignatureVerifier.HEADER, required = false) String signature,
+            Authentication authentication
+    ) {
+        User currentUser = userService.getUserByEmail(authentication.getName());
+        return ResponseEntity.ok(batchUploadService.upload(body, signature, currentUser));
     }
 
     @Operation(
@@ -142,4 +275,98 @@ public class AtmTransactionController {
         AtmTransactionDTO transaction = atmTransactionService.getTransaction(id);
         return ResponseEntity.ok(transaction);
     }
+
+    @Operation(
+            summary = "Release the hold of an approved ATM withdrawal",
+            description = """
+                    For a withdrawal that was approved but not paid out, for example because the terminal could
+                    not dispense the cash. The held amount becomes available again and the withdrawal is marked
+                    as FAILED. Only possible until the withdrawal has been posted. Only accessible by employees;
+                    terminals report a failed dispense through the ATM gateway.
+                    """
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Hold released",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = AtmTransactionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Unauthorized – JWT token is missing or invalid",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – Only employees can release a hold",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Transaction not found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "409",
+                    description = "The transaction has no open hold, it was posted or released already",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @PostMapping("transactions/{id}/release")
+    @PreAuthorize("hasRole('EMPLOYEE')")
+    public ResponseEntity<AtmTransactionDTO> releaseHold(@PathVariable Long id) {
+        return ResponseEntity.ok(atmTransactionService.releaseHold(id));
+    }
+
+    @Operation(
+            summary = "Stream the status of an ATM transaction",
+            description = """
+                    Opens a Server-Sent Events stream that sends one "status" event with the transaction
+                    as soon as it has been processed, then closes. For a transaction that was already
+                    processed the event is sent right away. When the stream ends without an event the
+                    client should reconnect. The authenticated user must be the owner of the account
+                    associated with the transaction.
+                    """
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Stream opened",
+                    content = @Content(
+                            mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                            schema = @Schema(implementation = AtmTransactionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Unauthorized – JWT token is missing or invalid",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – You do not have access to this transaction",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Transaction not found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @GetMapping(value = "transactions/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTransactionStatus(@PathVariable Long id) {
+        return atmTransactionService.subscribeToStatus(id);
+    }
 }
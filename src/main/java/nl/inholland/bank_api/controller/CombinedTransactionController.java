@@ -8,17 +8,21 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
+import jakarta.servlet.http.HttpServletResponse;
 import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ServiceUnavailableException;
 import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
 import nl.inholland.bank_api.model.dto.CombinedTransactionFullHistoryDTO;
 import nl.inholland.bank_api.model.dto.ExceptionDTO;
 import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
 import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.ExportFormat;
 import nl.inholland.bank_api.model.enums.UserRole;
 import nl.inholland.bank_api.service.AccountService;
 import nl.inholland.bank_api.service.CombinedTransactionService;
 import nl.inholland.bank_api.service.UserService;
 import org.springdoc.core.annotations.ParameterObject;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -27,10 +31,21 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping
@@ -41,10 +56,21 @@ public class CombinedTransactionController {
 
     private final AccountService accountService;
 
-    public CombinedTransactionController(CombinedTransactionService combinedTransactionService, UserService userService, AccountService accountService) {
+    // Each export holds a pooled connection in a read-only transaction for as long as the client reads
+    private final Semaphore exportPermits;
+
+    @Value("${bank.export.timeout:PT30M}")
+    private Duration exportTimeout;
+
+    @Value("${bank.export.retry-after:PT30S}")
+    private Duration exportRetryAfter;
+
+    public CombinedTransactionController(CombinedTransactionService combinedTransactionService, UserService userService, AccountService accountService,
+                                         @Value("${bank.export.max-concurrent:4}") int maxConcurrentExports) {
         this.combinedTransactionService = combinedTransactionService;
         this.userService = userService;
         this.accountService = accountService;
+        this.exportPermits = new Semaphore(maxConcurrentExports);
     }
 
     @Operation(
@@ -173,15 +199,24 @@ public class CombinedTransactionController {
     })
     @PreAuthorize("hasRole('EMPLOYEE')")
     @GetMapping("combined-transactions")
-    public Page<CombinedTransactionFullHistoryDTO> getAllCombinedTransactions(
+    public ResponseEntity<?> getAllCombinedTransactions(
             @Parameter(description = "Page number (zero-based)", example = "0")
             @RequestParam(defaultValue = "0") int page,
 
             @Parameter(description = "Number of transactions per page", example = "10")
-            @RequestParam(defaultValue = "10") int size
+            @RequestParam(defaultValue = "10") int size,
+
+            @Parameter(description = "Switches to cursor mode: empty for the first page, then the nextCursor of the previous page. The page number is ignored.")
+            @RequestParam(required = false) String cursor,
+
+            @Parameter(description = "Cursor mode only: also count the whole history", example = "false")
+            @RequestParam(defaultValue = "false") boolean includeTotal
     ) {
+        if (cursor != null) {
+            return ResponseEntity.ok(combinedTransactionService.getAllCombinedTransactions(cursor, size, includeTotal));
+        }
         Pageable pageable = PageRequest.of(page, size);
-        return combinedTransactionService.getAllCombinedTransactions(pageable);
+        return ResponseEntity.ok(combinedTransactionService.getAllCombinedTransactions(pageable));
     }
 
     @Operation(
@@ -201,6 +236,10 @@ public class CombinedTransactionController {
         • description (partial match)
 
         Pagination and sorting are also supported using standard Pageable parameters.
+
+        For long histories pass cursor (empty for the first page) to page by cursor instead:
+        the response holds the page and a nextCursor to pass for the next page, and only counts
+        the whole history when includeTotal=true.
     """
     )
     @ApiResponses({
@@ -232,9 +271,106 @@ public class CombinedTransactionController {
             )
     })
     @GetMapping("/accounts/{accountId}/transactions")
-    public ResponseEntity<Page<CombinedTransactionDTO>> getAllAccountTransactions(
-            @PathVariable Long accountId, @ModelAttribute TransactionFilterDTO transactionFilterDTO, @ParameterObject Pageable pageable, Authentication authentication)
+    public ResponseEntity<?> getAllAccountTransactions(
+            @PathVariable Long accountId, @ModelAttribute TransactionFilterDTO transactionFilterDTO, @ParameterObject Pageable pageable,
+            @RequestParam(required = false) String cursor, @RequestParam(defaultValue = "false") boolean includeTotal,
+            Authentication authentication)
+    {
+        checkAccountAccess(accountId, authentication);
+        if (cursor != null) {
+            return ResponseEntity.ok(combinedTransactionService.getFilteredTransactions(
+                    accountId, transactionFilterDTO, cursor, pageable.getPageSize(), includeTotal));
+        }
+        Page<CombinedTransactionDTO> transactions = combinedTransactionService.getFilteredTransactions(
+                accountId, transactionFilterDTO, pageable);
+
+        return ResponseEntity.ok(transactions);
+    }
+
+    @Operation(
+            summary = "Export the transactions of an account",
+            description = """
+        Streams the whole history of the account, newest first, as CSV (with a header row) or as
+        newline-delimited JSON with one transaction per line. Takes the same filters as
+        /accounts/{accountId}/transactions and the same access rules apply.
+
+        The response is gzip-compressed when the request sends Accept-Encoding: gzip. Only a few exports run at
+        a time; when they are all taken the request is answered with 503 and Retry-After.
+    """
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "The history, streamed as it is read",
+                    content = {@Content(mediaType = "text/csv"), @Content(mediaType = "application/x-ndjson")}),
+            @ApiResponse(responseCode = "400", description = "Unknown export format",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = ExceptionDTO.class))),
+            @ApiResponse(responseCode = "401", description = "Unauthorized – JWT token is missing or invalid",
+                    content = @Content(schema = @Schema(hidden = true))),
+            @ApiResponse(responseCode = "403", description = "Forbidden – You do not have access to this account",
+                    content = @Content(schema = @Schema(hidden = true))),
+            @ApiResponse(responseCode = "503", description = "Too many exports are running, retry after the Retry-After header",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = ExceptionDTO.class)))
+    })
+    @GetMapping("/accounts/{accountId}/transactions/export")
+    public WebAsyncTask<Void> exportAccountTransactions(
+            @PathVariable Long accountId, @ModelAttribute TransactionFilterDTO transactionFilterDTO,
+            @Parameter(description = "csv or ndjson", example = "csv") @RequestParam(defaultValue = "csv") String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            Authentication authentication,
+            HttpServletResponse response)
     {
+        checkAccountAccess(accountId, authentication);
+        ExportFormat exportFormat = switch (format.toLowerCase()) {
+            case "csv" -> ExportFormat.CSV;
+            case "ndjson" -> ExportFormat.NDJSON;
+            default -> throw new IllegalArgumentException(ErrorMessages.INVALID_EXPORT_FORMAT);
+        };
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        if (!exportPermits.tryAcquire()) {
+            throw new ServiceUnavailableException(ErrorMessages.TOO_MANY_EXPORTS, exportRetryAfter);
+        }
+
+        String extension = exportFormat == ExportFormat.CSV ? "csv" : "ndjson";
+        response.setContentType(exportFormat == ExportFormat.CSV
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8).toString()
+                : MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("account-" + accountId + "-transactions." + extension).build().toString());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        // Runs after the headers are sent, so only the checks above can still turn into an error response. The
+        // permit goes back when the export ends, or when the request completes before the export started
+        AtomicBoolean started = new AtomicBoolean();
+        WebAsyncTask<Void> task = new WebAsyncTask<>(exportTimeout.toMillis(), () -> {
+            if (started.getAndSet(true)) {
+                return null;
+            }
+            try {
+                OutputStream out = response.getOutputStream();
+                if (gzip) {
+                    GZIPOutputStream compressed = new GZIPOutputStream(out, 8192);
+                    combinedTransactionService.exportTransactions(accountId, transactionFilterDTO, exportFormat, compressed);
+                    compressed.finish();
+                } else {
+                    combinedTransactionService.exportTransactions(accountId, transactionFilterDTO, exportFormat, out);
+                }
+                out.flush();
+            } finally {
+                exportPermits.release();
+            }
+            return null;
+        });
+        task.onCompletion(() -> {
+            if (!started.getAndSet(true)) {
+                exportPermits.release();
+            }
+        });
+        return task;
+    }
+
+    private void checkAccountAccess(Long accountId, Authentication authentication) {
         String email = authentication.getName();
         User currentUser = userService.getUserByEmail(email);
         boolean isEmployee = UserRole.EMPLOYEE.equals(currentUser.getRole());
@@ -243,9 +379,5 @@ public class CombinedTransactionController {
         if (!ownsAccount && !isEmployee) {
             throw new AccessDeniedException(ErrorMessages.ACCESS_DENIED);
         }
-        Page<CombinedTransactionDTO> transactions = combinedTransactionService.getFilteredTransactions(
-                accountId, transactionFilterDTO, pageable);
-
-        return ResponseEntity.ok(transactions);
     }
-}
\ No newline at end of file
+}
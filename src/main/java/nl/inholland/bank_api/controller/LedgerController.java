@@ -0,0 +1,113 @@
+package nl.inholland.bank_api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import nl.inholland.bank_api.model.dto.AccountBalanceDTO;
+import nl.inholland.bank_api.model.dto.AccountStatementDTO;
+import nl.inholland.bank_api.model.dto.ExceptionDTO;
+import nl.inholland.bank_api.service.LedgerService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+
+@RestController
+public class LedgerController {
+    private final LedgerService ledgerService;
+
+    public LedgerController(LedgerService ledgerService) {
+        this.ledgerService = ledgerService;
+    }
+
+    @Operation(
+            summary = "Get the balance of an account at a point in time",
+            description = "Replays the ledger from the nearest balance snapshot. Without a timestamp the current balance is returned."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Balance calculated",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = AccountBalanceDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – You do not have permission to access this account",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Account not found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @GetMapping("/accounts/{iban}/balance")
+    public ResponseEntity<AccountBalanceDTO> getBalance(
+            @Parameter(description = "The IBAN of the account", required = true, example = "NL91ABNA0417164300")
+            @PathVariable String iban,
+            @Parameter(description = "Point in time (ISO 8601), defaults to now", example = "2025-06-01T12:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime at
+    ) {
+        return ResponseEntity.ok(ledgerService.getBalanceAt(iban, at == null ? LocalDateTime.now() : at));
+    }
+
+    @Operation(
+            summary = "Get the statement of an account",
+            description = "Lists the ledger entries of the period with the opening, closing and running balances."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Statement created",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = AccountStatementDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Bad Request – The start of the period is after its end",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – You do not have permission to access this account",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Account not found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @GetMapping("/accounts/{iban}/statement")
+    public ResponseEntity<AccountStatementDTO> getStatement(
+            @Parameter(description = "The IBAN of the account", required = true, example = "NL91ABNA0417164300")
+            @PathVariable String iban,
+            @Parameter(description = "Start of the period (ISO 8601, exclusive)", required = true, example = "2025-06-01T00:00:00")
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "End of the period (ISO 8601, inclusive), defaults to now", example = "2025-07-01T00:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to
+    ) {
+        return ResponseEntity.ok(ledgerService.getStatement(iban, from, to == null ? LocalDateTime.now() : to));
+    }
+}
@@ -0,0 +1,61 @@
+package nl.inholland.bank_api.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import nl.inholland.bank_api.model.dto.ExceptionDTO;
+import nl.inholland.bank_api.service.LimitAccountingService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class LimitController {
+    private final LimitAccountingService limitAccountingService;
+
+    public LimitController(LimitAccountingService limitAccountingService) {
+        this.limitAccountingService = limitAccountingService;
+    }
+
+    @Operation(
+            summary = "Rebuild the daily limit totals from the history (EMPLOYEE only)",
+            description = "Recovery operation, for example after restoring a backup. The totals from the given day are deleted and summed again from the transfers and ATM withdrawals. Transfers and withdrawals that are processed while it runs may be counted wrong, so only run it while no instance processes them."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Totals rebuilt",
+                    content = @Content(mediaType = "application/json")
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – Only employees can rebuild the totals",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @PreAuthorize("hasRole('EMPLOYEE')")
+    @PostMapping("/limits/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildLimitTotals(
+            @Parameter(description = "First day to rebuild (ISO 8601), defaults to today", example = "2025-06-01")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from
+    ) {
+        LocalDate day = from == null ? LocalDate.now() : from;
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("from", day);
+        body.put("rows", limitAccountingService.rebuildFromHistory(day));
+        return ResponseEntity.ok(body);
+    }
+}
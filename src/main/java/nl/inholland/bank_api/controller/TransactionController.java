@@ -1,31 +1,47 @@
 package nl.inholland.bank_api.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import jakarta.validation.Valid;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
 import nl.inholland.bank_api.model.dto.ExceptionDTO;
+import nl.inholland.bank_api.model.dto.TransactionBatchItemDTO;
 import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.service.IdempotencyService;
 import nl.inholland.bank_api.service.TransactionService;
+import nl.inholland.bank_api.util.JwtUtil;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import java.net.URI;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("transactions")
 @Validated
 public class TransactionController {
     private final TransactionService transactionService;
+    private final IdempotencyService idempotencyService;
 
-    public TransactionController(TransactionService transactionService) {
+    public TransactionController(TransactionService transactionService, IdempotencyService idempotencyService) {
         this.transactionService = transactionService;
+        this.idempotencyService = idempotencyService;
     }
 
     @Operation(
@@ -69,6 +85,24 @@ public class TransactionController {
                             )
                     )
             ),
+            @ApiResponse(
+                    responseCode = "202",
+                    description = "Transaction accepted for settlement (async mode)",
+                    content = @Content(
+                            mediaType = "application/json",
+                            examples = @ExampleObject(
+                                    name = "Transaction Accepted",
+                                    summary = "Pending transaction with status URL",
+                                    value = """
+                                            {
+                                              "id": 42,
+                                              "status": "PENDING",
+                                              "statusUrl": "/transactions/42"
+                                            }
+                                            """
+                            )
+                    )
+            ),
             @ApiResponse(
                     responseCode = "400",
                     description = "Bad Request – Validation or business logic error",
@@ -125,12 +159,118 @@ public class TransactionController {
                                             """
                             )
                     )
+            ),
+            @ApiResponse(
+                    responseCode = "409",
+                    description = "Conflict – Idempotency-Key reused for a different request or still being processed",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
             )
     })
 
     @PostMapping()
-    public ResponseEntity<?> postTransaction(@Valid @RequestBody TransactionRequestDTO dto) {
-        Long id = transactionService.postTransaction(dto);
-        return ResponseEntity.status(201).body(Collections.singletonMap("id", id));
+    public ResponseEntity<?> postTransaction(
+            @Valid @RequestBody TransactionRequestDTO dto,
+            @Parameter(description = "Retries with the same key return the first response instead of transferring again")
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            Authentication authentication
+    ) {
+        Long initiatorId = getInitiatorId(authentication);
+        return idempotencyService.execute("transactions:" + initiatorId, idempotencyKey, dto, Object.class, () -> {
+            Long id = transactionService.postTransaction(dto, initiatorId);
+            if (!transactionService.isAsync()) {
+                return ResponseEntity.status(201).body(Collections.singletonMap("id", id));
+            }
+
+            // Async mode: the transfer is settled in the background, the client follows it at the status URL
+            String statusUrl = "/transactions/" + id;
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("id", id);
+            body.put("status", Status.PENDING);
+            body.put("statusUrl", statusUrl);
+            return ResponseEntity.accepted().location(URI.create(statusUrl)).body(body);
+        });
+    }
+
+    @Operation(
+            summary = "Get a transaction by ID",
+            description = "Returns the transfer with its current status. In async mode a transfer stays PENDING until it has been settled."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Transaction found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = CombinedTransactionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "403",
+                    description = "Forbidden – You are not involved in this transaction",
+                    content = @Content(schema = @Schema(hidden = true))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Transaction not found",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @GetMapping("/{id}")
+    public ResponseEntity<CombinedTransactionDTO> getTransaction(@PathVariable Long id) {
+        return ResponseEntity.ok(transactionService.getTransaction(id));
+    }
+
+    @Operation(
+            summary = "Post a batch of transactions",
+            description = "Execute many transfers in one request, for example payroll or sweep jobs. The transfers are applied in order in a single database transaction and every transfer gets its own status."
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Batch processed, see the status of every transfer",
+                    content = @Content(
+                            mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = TransactionBatchItemDTO.class))
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Bad Request – The batch is empty or too large, or a transfer in it is invalid",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "401",
+                    description = "Unauthorized – JWT token missing or invalid",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = ExceptionDTO.class)
+                    )
+            )
+    })
+    @PostMapping("/batch")
+    public ResponseEntity<List<TransactionBatchItemDTO>> postTransactions(
+            @RequestBody List<@Valid TransactionRequestDTO> dtos, Authentication authentication
+    ) {
+        Long initiatorId = getInitiatorId(authentication);
+        return ResponseEntity.ok(transactionService.postTransactions(dtos, initiatorId));
+    }
+
+    // The initiator is only ever taken from the token, never from the request body
+    private Long getInitiatorId(Authentication authentication) {
+        Long initiatorId = JwtUtil.getUserId(authentication);
+        if (initiatorId == null) {
+            throw new BadCredentialsException(ErrorMessages.MISSING_USER_ID_CLAIM);
+        }
+
+        return initiatorId;
     }
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import lombok.extern.java.Log;
 import nl.inholland.bank_api.constant.ErrorMessages;
 import nl.inholland.bank_api.model.dto.ExceptionDTO;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -19,6 +20,7 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.logging.Level;
 
@@ -34,6 +36,12 @@ public class GlobalExceptionHandler {
                 ));
     }
 
+    private ResponseEntity<ExceptionDTO> withRetryAfter(ResponseEntity<ExceptionDTO> response, Duration retryAfter) {
+        return ResponseEntity.status(response.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfter.toSeconds())))
+                .body(response.getBody());
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ExceptionDTO> handleGeneric(Exception e) {
         log.log(Level.SEVERE, ErrorMessages.UNHANDLED_EXCEPTION, e);
@@ -127,6 +135,19 @@ public class GlobalExceptionHandler {
         return buildError(HttpStatus.CONFLICT, e, e.getMessage());
     }
 
+    // Rejected before any work was done, the client may retry after the given number of seconds
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<ExceptionDTO> handleTooManyRequests(TooManyRequestsException e) {
+        log.warning(e.getMessage());
+        return withRetryAfter(buildError(HttpStatus.TOO_MANY_REQUESTS, e, e.getMessage()), e.getRetryAfter());
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<ExceptionDTO> handleServiceUnavailable(ServiceUnavailableException e) {
+        log.warning(e.getMessage());
+        return withRetryAfter(buildError(HttpStatus.SERVICE_UNAVAILABLE, e, e.getMessage()), e.getRetryAfter());
+    }
+
     @ExceptionHandler(DisabledException.class)
     public ResponseEntity<ExceptionDTO> handleDisabledException(DisabledException e) {
         log.severe(e.getMessage());
@@ -0,0 +1,16 @@
+package nl.inholland.bank_api.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+// The service is overloaded for everyone; answered with 503 and Retry-After
+@Getter
+public class ServiceUnavailableException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public ServiceUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
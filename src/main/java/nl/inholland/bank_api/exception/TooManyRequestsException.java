@@ -0,0 +1,16 @@
+package nl.inholland.bank_api.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+// One client has too much work outstanding; answered with 429 and Retry-After
+@Getter
+public class TooManyRequestsException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public TooManyRequestsException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
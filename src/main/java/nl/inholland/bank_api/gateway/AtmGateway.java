@@ -0,0 +1,402 @@
+package nl.inholland.bank_api.gateway;
+
+import io.jsonwebtoken.JwtException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.constant.RegexPatterns;
+import nl.inholland.bank_api.exception.ConflictException;
+import nl.inholland.bank_api.exception.ServiceUnavailableException;
+import nl.inholland.bank_api.exception.TooManyRequestsException;
+import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
+import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.service.AccountService;
+import nl.inholland.bank_api.service.AtmTransactionService;
+import nl.inholland.bank_api.service.UserService;
+import nl.inholland.bank_api.util.JwtUtil;
+import nl.inholland.bank_api.util.TerminalSignatureVerifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+// TCP gateway for ATM terminals, see AtmGatewayProtocol. One selector thread does all socket I/O; the requests
+// go to a worker pool and call AtmTransactionService like the REST endpoints do. A terminal authenticates
+// once per connection instead of sending a JWT with every request, the session ends when the JWT expires.
+@Component
+@ConditionalOnProperty(name = "bank.atm.gateway.enabled", havingValue = "true")
+@Log
+public class AtmGateway {
+    private final AtmTransactionService atmTransactionService;
+    private final AccountService accountService;
+    private final UserService userService;
+    private final JwtUtil jwtUtil;
+    private final TerminalSignatureVerifier signatureVerifier;
+    private final Queue<Session> interestChanges = new ConcurrentLinkedQueue<>();
+
+    // 0 picks a free port
+    @Value("${bank.atm.gateway.port:9400}")
+    private int port;
+
+    @Value("${bank.atm.gateway.workers:8}")
+    private int workerCount;
+
+    // Reading from a terminal stops while this many of its requests wait for a worker
+    @Value("${bank.atm.gateway.max-pipelined:256}")
+    private int maxPipelined;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    public AtmGateway(
+            AtmTransactionService atmTransactionService,
+            AccountService accountService,
+            UserService userService,
+            JwtUtil jwtUtil,
+            TerminalSignatureVerifier signatureVerifier
+    ) {
+        this.atmTransactionService = atmTransactionService;
+        this.accountService = accountService;
+        this.userService = userService;
+        this.jwtUtil = jwtUtil;
+        this.signatureVerifier = signatureVerifier;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+
+        workers = Executors.newFixedThreadPool(workerCount,
+                Thread.ofPlatform().daemon().name("atm-gateway-worker-", 0).factory());
+        running = true;
+        selectorThread = Thread.ofPlatform().daemon().name("atm-gateway").start(this::run);
+        log.info("ATM gateway listening on port " + port);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+        running = false;
+        selector.wakeup();
+        selectorThread.join();
+        workers.shutdown();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Session changed;
+                while ((changed = interestChanges.poll()) != null) {
+                    changed.updateInterest();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            session.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.write();
+                        }
+                    } catch (IOException e) {
+                        session.close();
+                    }
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "ATM gateway selector failed", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Session session = new Session(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+    }
+
+    // Runs on a worker, one request of a session at a time
+    private ByteBuffer handle(Session session, ByteBuffer request) {
+        byte type = request.get();
+        if (type == AtmGatewayProtocol.AUTH) {
+            return authenticate(session, request);
+        }
+
+        int requestId = request.getInt();
+        if (session.authentication == null || !Instant.now().isBefore(session.expiresAt)) {
+            session.closeAfterWrite = true;
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.UNAUTHENTICATED, null);
+        }
+
+        SecurityContextHolder.getContext().setAuthentication(session.authentication);
+        try {
+            AtmTransactionDTO transaction = switch (type) {
+                case AtmGatewayProtocol.STATUS -> atmTransactionService.getTransaction(request.getLong());
+                case AtmGatewayProtocol.DISPENSE_FAILED ->
+                        atmTransactionService.releaseHoldForTerminal(request.getLong(), session.terminalId);
+                default -> createTransaction(session, type, request);
+            };
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.OK, transaction);
+        } catch (ConflictException e) {
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.CONFLICT, null);
+        } catch (AccessDeniedException e) {
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.FORBIDDEN, null);
+        } catch (EntityNotFoundException e) {
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.NOT_FOUND, null);
+        } catch (IllegalArgumentException e) {
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.INVALID, null);
+        } catch (TooManyRequestsException | ServiceUnavailableException e) {
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.BUSY, null);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "ATM gateway request " + requestId + " failed", e);
+            return AtmGatewayProtocol.response(type, requestId, AtmGatewayProtocol.ERROR, null);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    // The terminal signs the JWT with its key, so no other terminal can send operation ids in its name
+    private ByteBuffer authenticate(Session session, ByteBuffer request) {
+        String terminalId = AtmGatewayProtocol.readTerminalId(request);
+        byte[] signature = new byte[AtmGatewayProtocol.SIGNATURE_LENGTH];
+        request.get(signature);
+        byte[] token = new byte[Short.toUnsignedInt(request.getShort())];
+        request.get(token);
+        // A failed re-AUTH must not leave the requests pipelined after it running as the previous principal
+        session.authentication = null;
+        try {
+            if (!terminalId.matches(RegexPatterns.TERMINAL_ID)) {
+                throw new AccessDeniedException(ErrorMessages.INVALID_TERMINAL_SIGNATURE);
+            }
+            signatureVerifier.verify(terminalId, token, signature);
+
+            String jwt = new String(token, StandardCharsets.US_ASCII);
+            Authentication authentication = jwtUtil.validateToken(jwt);
+            Instant expiresAt = jwtUtil.getExpiration(jwt);
+            if (expiresAt == null) {
+                throw new AccessDeniedException(ErrorMessages.UNSUPPORTED_TOKEN);
+            }
+
+            session.user = userService.getUserByEmail(authentication.getName());
+            session.terminalId = terminalId;
+            session.expiresAt = expiresAt;
+            session.authentication = authentication;
+            return AtmGatewayProtocol.response(AtmGatewayProtocol.AUTH, 0, AtmGatewayProtocol.OK, null);
+        } catch (JwtException | AuthenticationException | AccessDeniedException e) {
+            session.closeAfterWrite = true;
+            return AtmGatewayProtocol.response(AtmGatewayProtocol.AUTH, 0, AtmGatewayProtocol.UNAUTHENTICATED, null);
+        }
+    }
+
+    // Same checks as the validation of AtmTransactionRequestDTO
+    private AtmTransactionDTO createTransaction(Session session, byte type, ByteBuffer request) {
+        long operationId = request.getLong();
+        long cents = request.getLong();
+        String iban = AtmGatewayProtocol.readIban(request);
+        if (cents <= 0) {
+            throw new IllegalArgumentException(ErrorMessages.AMOUNT_MINIMUM);
+        }
+        if (!iban.matches(RegexPatterns.IBAN)) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_IBAN_FORMAT);
+        }
+
+        AtmTransactionRequestDTO dto = new AtmTransactionRequestDTO();
+        dto.iban = iban;
+        dto.type = type == AtmGatewayProtocol.DEPOSIT ? AtmTransactionType.DEPOSIT : AtmTransactionType.WITHDRAW;
+        dto.amount = BigDecimal.valueOf(cents, 2);
+        return atmTransactionService.createTransaction(
+                dto, accountService.fetchAccountByIban(iban), session.user, session.terminalId, operationId);
+    }
+
+    private class Session {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(
+                AtmGatewayProtocol.AUTH_HEADER_LENGTH + AtmGatewayProtocol.MAX_TOKEN_LENGTH);
+        private final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<>();
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private SelectionKey key;
+        private volatile Authentication authentication;
+        private volatile User user;
+        private volatile String terminalId;
+        private volatile Instant expiresAt;
+        private volatile boolean closeAfterWrite;
+
+        private Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Selector thread
+        private void read() throws IOException {
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+
+            input.flip();
+            int framed = 0;
+            while (input.hasRemaining()) {
+                int length = frameLength();
+                if (length < 0) {
+                    close();
+                    return;
+                }
+                if (length == 0 || input.remaining() < length) {
+                    break;
+                }
+
+                ByteBuffer request = ByteBuffer.allocate(length);
+                input.get(request.array());
+                requests.add(request);
+                framed++;
+            }
+            input.compact();
+
+            if (framed > 0) {
+                inFlight.addAndGet(framed);
+                updateInterest();
+                drain();
+            }
+        }
+
+        // Length of the next request, 0 when its header is incomplete, -1 for a malformed request
+        private int frameLength() {
+            byte type = input.get(input.position());
+            if (type != AtmGatewayProtocol.AUTH) {
+                return AtmGatewayProtocol.requestLength(type);
+            }
+            if (input.remaining() < AtmGatewayProtocol.AUTH_HEADER_LENGTH) {
+                return 0;
+            }
+
+            int tokenLength = AtmGatewayProtocol.readTokenLength(input, input.position());
+            return tokenLength > AtmGatewayProtocol.MAX_TOKEN_LENGTH
+                    ? -1
+                    : AtmGatewayProtocol.AUTH_HEADER_LENGTH + tokenLength;
+        }
+
+        // Selector thread
+        private void write() throws IOException {
+            ByteBuffer response;
+            while ((response = responses.peek()) != null) {
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    return;
+                }
+                responses.poll();
+            }
+
+            if (closeAfterWrite && inFlight.get() == 0) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        // Selector thread
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+
+            int ops = closeAfterWrite || inFlight.get() >= maxPipelined ? 0 : SelectionKey.OP_READ;
+            if (!responses.isEmpty() || closeAfterWrite) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        // One worker at a time per session, so the responses keep the order of the requests
+        private void drain() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+
+            workers.execute(() -> {
+                ByteBuffer request;
+                while ((request = requests.poll()) != null) {
+                    responses.add(handle(this, request));
+                    inFlight.decrementAndGet();
+                    interestChanges.add(this);
+                    selector.wakeup();
+                }
+
+                draining.set(false);
+                if (!requests.isEmpty()) {
+                    drain();
+                }
+            });
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Could not close an ATM gateway connection", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package nl.inholland.bank_api.gateway;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
+import nl.inholland.bank_api.model.enums.Status;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Binary protocol of the ATM terminal gateway, numbers are big-endian.
+// A session starts with AUTH: type, terminal id (ASCII, space padded, 64 bytes), HMAC-SHA256 of the JWT with the
+// terminal's key (32 bytes), token length (unsigned short), the JWT of the terminal's user. Once the JWT has
+// expired every request is answered with UNAUTHENTICATED and the connection is closed; a terminal that wants
+// to keep it open sends AUTH again with a new token before then.
+// All other messages have a fixed length per type:
+//   DEPOSIT, WITHDRAW  type, request id (int), operation id (long), amount in cents (long),
+//                      IBAN (ASCII, space padded)                                                  55 bytes
+//   STATUS             type, request id (int), transaction id (long)                               13 bytes
+//   DISPENSE_FAILED    type, request id (int), transaction id (long)                               13 bytes
+//   response           type | RESPONSE, request id (int), result, transaction id (long),
+//                      status, failure reason                                                      16 bytes
+// Requests may be pipelined; the responses of a session come back in request order. The operation id is a
+// sequence number of the terminal, unique like the ones of its batch uploads: a deposit or withdrawal that is
+// sent again with the same operation id, for example after a reconnect, returns the transaction it created.
+// DISPENSE_FAILED releases the hold of an approved withdrawal the terminal could not pay out; a terminal can
+// only send it for withdrawals it created.
+public final class AtmGatewayProtocol {
+    public static final byte AUTH = 0x01;
+    public static final byte DEPOSIT = 0x02;
+    public static final byte WITHDRAW = 0x03;
+    public static final byte STATUS = 0x04;
+    public static final byte DISPENSE_FAILED = 0x05;
+    public static final byte RESPONSE = (byte) 0x80;
+
+    public static final int TERMINAL_ID_LENGTH = 64;
+    public static final int SIGNATURE_LENGTH = 32;
+    public static final int AUTH_HEADER_LENGTH = 1 + TERMINAL_ID_LENGTH + SIGNATURE_LENGTH + 2;
+    public static final int MAX_TOKEN_LENGTH = 4096;
+    public static final int IBAN_LENGTH = 34;
+    public static final int TRANSACTION_REQUEST_LENGTH = 1 + 4 + 8 + 8 + IBAN_LENGTH;
+    public static final int STATUS_REQUEST_LENGTH = 1 + 4 + 8;
+    public static final int RESPONSE_LENGTH = 1 + 4 + 1 + 8 + 1 + 1;
+
+    // Results
+    public static final byte OK = 0;
+    public static final byte UNAUTHENTICATED = 1;
+    public static final byte FORBIDDEN = 2;
+    public static final byte NOT_FOUND = 3;
+    public static final byte INVALID = 4;
+    public static final byte ERROR = 5;
+
+    // Turned away by admission control, the terminal should retry later
+    public static final byte BUSY = 6;
+
+    // The withdrawal has no open hold anymore, it was posted or released already
+    public static final byte CONFLICT = 7;
+
+    // Transaction statuses, NONE when the response carries no transaction
+    public static final byte NONE = 0;
+    public static final byte PENDING = 1;
+    public static final byte SUCCEEDED = 2;
+    public static final byte FAILED = 3;
+
+    // Failure reasons
+    public static final byte INSUFFICIENT_BALANCE = 1;
+    public static final byte DAILY_WITHDRAWAL_LIMIT_EXCEEDED = 2;
+    public static final byte OTHER_REASON = 3;
+
+    private AtmGatewayProtocol() {
+    }
+
+    // Length of a request of this type, -1 for AUTH and unknown types
+    public static int requestLength(byte type) {
+        return switch (type) {
+            case DEPOSIT, WITHDRAW -> TRANSACTION_REQUEST_LENGTH;
+            case STATUS, DISPENSE_FAILED -> STATUS_REQUEST_LENGTH;
+            default -> -1;
+        };
+    }
+
+    public static void writeAuth(ByteBuffer buffer, String terminalId, byte[] signature, String token) {
+        byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+        buffer.put(AUTH).put(padded(terminalId, TERMINAL_ID_LENGTH)).put(signature)
+                .putShort((short) bytes.length).put(bytes);
+    }
+
+    public static void writeTransactionRequest(
+            ByteBuffer buffer, byte type, int requestId, long operationId, long cents, String iban) {
+        buffer.put(type).putInt(requestId).putLong(operationId).putLong(cents).put(padded(iban, IBAN_LENGTH));
+    }
+
+    public static void writeStatusRequest(ByteBuffer buffer, int requestId, long transactionId) {
+        buffer.put(STATUS).putInt(requestId).putLong(transactionId);
+    }
+
+    public static void writeDispenseFailed(ByteBuffer buffer, int requestId, long transactionId) {
+        buffer.put(DISPENSE_FAILED).putInt(requestId).putLong(transactionId);
+    }
+
+    public static String readIban(ByteBuffer buffer) {
+        return readPadded(buffer, IBAN_LENGTH);
+    }
+
+    public static String readTerminalId(ByteBuffer buffer) {
+        return readPadded(buffer, TERMINAL_ID_LENGTH);
+    }
+
+    // Length of the JWT of an AUTH request, the buffer starts at its type
+    public static int readTokenLength(ByteBuffer buffer, int position) {
+        return Short.toUnsignedInt(buffer.getShort(position + AUTH_HEADER_LENGTH - 2));
+    }
+
+    public static ByteBuffer response(byte type, int requestId, byte result, AtmTransactionDTO transaction) {
+        ByteBuffer buffer = ByteBuffer.allocate(RESPONSE_LENGTH)
+                .put((byte) (type | RESPONSE))
+                .putInt(requestId)
+                .put(result)
+                .putLong(transaction == null ? 0 : transaction.id())
+                .put(transaction == null ? NONE : statusCode(Status.valueOf(transaction.status())))
+                .put(transaction == null ? NONE : reasonCode(transaction.failureReason()));
+        return buffer.flip();
+    }
+
+    private static byte statusCode(Status status) {
+        return switch (status) {
+            case SUCCEEDED -> SUCCEEDED;
+            case FAILED -> FAILED;
+
+            // Terminals do not need to tell a claimed transaction from a pending one
+            case PENDING, PROCESSING -> PENDING;
+        };
+    }
+
+    private static byte reasonCode(String failureReason) {
+        if (failureReason == null) {
+            return NONE;
+        }
+
+        return switch (failureReason) {
+            case ErrorMessages.INSUFFICIENT_BALANCE -> INSUFFICIENT_BALANCE;
+            case ErrorMessages.DAILY_WITHDRAWAL_LIMIT_EXCEEDED -> DAILY_WITHDRAWAL_LIMIT_EXCEEDED;
+            default -> OTHER_REASON;
+        };
+    }
+
+    private static String readPadded(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    private static byte[] padded(String text, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) ' ');
+        byte[] value = text.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(value, 0, bytes, 0, Math.min(value.length, length));
+        return bytes;
+    }
+}
@@ -5,29 +5,12 @@ import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
 import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.Transaction;
 import nl.inholland.bank_api.model.entities.User;
-import nl.inholland.bank_api.model.enums.Operation;
 import nl.inholland.bank_api.model.enums.Status;
-import nl.inholland.bank_api.repository.TransactionRepository;
-import nl.inholland.bank_api.service.AccountService;
-import nl.inholland.bank_api.service.UserService;
 import org.springframework.stereotype.Component;
 
-import java.math.BigDecimal;
-import java.time.LocalDate;
-
 @Component
 public class TransactionMapper {
 
-    AccountService accountService;
-    UserService userService;
-    TransactionRepository transactionRepository;
-
-    public TransactionMapper(AccountService accountService, UserService userService, TransactionRepository transactionRepository) {
-        this.accountService = accountService;
-        this.userService = userService;
-        this.transactionRepository = transactionRepository;
-    }
-
     public CombinedTransactionDTO toCombinedDTO(Transaction t) {
         CombinedTransactionDTO dto = new CombinedTransactionDTO();
         dto.id = t.getId();
@@ -38,50 +21,18 @@ public class TransactionMapper {
         dto.description = t.getDescription();
         dto.timestamp = t.getTimestamp();
         dto.status = t.getStatus();
+        dto.failureReason = t.getFailureReason();
         return dto;
     }
 
-    public Transaction toEntity(TransactionRequestDTO dto) {
-        Transaction transaction = new Transaction();
-
-        Account sourceAccount = accountService.fetchAccountByIban(dto.getSourceAccount());
-        Account targetAccount = accountService.fetchAccountByIban(dto.getTargetAccount());
-        User initiatedBy = userService.getUserById(dto.getInitiatedBy());
-
-        transaction.setSourceAccount(sourceAccount);
-        transaction.setTargetAccount(targetAccount);
-        transaction.setInitiatedBy(initiatedBy);
-        transaction.setAmount(dto.getAmount());
-        transaction.setDescription(dto.getDescription());
-
-        if (isTransactionSuccessful(sourceAccount, targetAccount, dto.getAmount())) {
-            transaction.setStatus(Status.SUCCEEDED);
-            accountService.updateBalance(sourceAccount, dto.getAmount(), Operation.SUBTRACTION);
-            accountService.updateBalance(targetAccount, dto.getAmount(), Operation.ADDITION);
-        } else {
-            transaction.setStatus(Status.FAILED);
-        }
-
-        return transaction;
-    }
-
-    private boolean isTransactionSuccessful(Account sourceAccount, Account targetAccount, BigDecimal amount) {
-        if (sourceAccount == null || targetAccount == null || sourceAccount == targetAccount) {
-            return false;
-        }
-
-        // Check absolute limit
-        BigDecimal resultingBalance = sourceAccount.getBalance().subtract(amount);
-        if (resultingBalance.compareTo(sourceAccount.getAbsoluteLimit()) < 0) {
-            return false; // would go below absolute limit
-        }
-
-        // Check daily limit
-        BigDecimal totalToday = transactionRepository.sumAmountForAccountToday(sourceAccount.getId(), LocalDate.now());
-        if (totalToday.add(amount).compareTo(sourceAccount.getDailyLimit()) > 0) {
-            return false; // daily limit exceeded
-        }
-
-        return true;
+    public Transaction toEntity(TransactionRequestDTO dto, Account sourceAccount, Account targetAccount, User initiatedBy, Status status) {
+        return Transaction.builder()
+                .sourceAccount(sourceAccount)
+                .targetAccount(targetAccount)
+                .initiatedBy(initiatedBy)
+                .amount(dto.getAmount())
+                .description(dto.getDescription())
+                .status(status)
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,19 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Schema(description = "Balance of an account at a point in time")
+public record AccountBalanceDTO(
+        @Schema(description = "IBAN of the account", example = "NL91ABNA0417164300")
+        String iban,
+
+        @Schema(description = "Point in time of the balance", example = "2025-06-07T00:00:00")
+        LocalDateTime at,
+
+        @Schema(description = "Balance in EUR", example = "1000.00")
+        BigDecimal balance
+) {
+}
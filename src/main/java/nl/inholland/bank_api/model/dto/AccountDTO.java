@@ -12,4 +12,7 @@ public class AccountDTO {
     public String status;
     public String type;
     public BigDecimal balance;
+
+    // Balance minus the ATM withdrawals that were approved but not posted yet
+    public BigDecimal availableBalance;
 }
\ No newline at end of file
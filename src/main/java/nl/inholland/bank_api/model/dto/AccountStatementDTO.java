@@ -0,0 +1,28 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Schema(description = "Journal entries of an account in a period with opening and closing balance")
+public record AccountStatementDTO(
+        @Schema(description = "IBAN of the account", example = "NL91ABNA0417164300")
+        String iban,
+
+        @Schema(description = "Start of the period, exclusive", example = "2025-06-01T00:00:00")
+        LocalDateTime from,
+
+        @Schema(description = "End of the period, inclusive", example = "2025-07-01T00:00:00")
+        LocalDateTime to,
+
+        @Schema(description = "Balance at the start of the period", example = "1000.00")
+        BigDecimal openingBalance,
+
+        @Schema(description = "Balance at the end of the period", example = "975.00")
+        BigDecimal closingBalance,
+
+        List<LedgerEntryDTO> entries
+) {
+}
@@ -0,0 +1,21 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import nl.inholland.bank_api.constant.ErrorMessages;
+
+import java.time.LocalDateTime;
+
+@Schema(
+        description = "Deposit or withdrawal recorded by a terminal while it was offline",
+        requiredProperties = {"sequence", "timestamp", "iban", "type", "amount"}
+)
+public class AtmBatchOperationDTO extends AtmTransactionRequestDTO {
+    @Schema(example = "1042", description = "Sequence number of the operation at the terminal, unique per terminal")
+    @NotNull(message = ErrorMessages.TERMINAL_SEQUENCE_REQUIRED)
+    public Long sequence;
+
+    @Schema(example = "2025-05-24T21:40:02", description = "Time the operation happened at the terminal")
+    @NotNull(message = ErrorMessages.TERMINAL_TIMESTAMP_REQUIRED)
+    public LocalDateTime timestamp;
+}
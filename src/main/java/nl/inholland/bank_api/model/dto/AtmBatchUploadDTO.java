@@ -0,0 +1,26 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.constant.RegexPatterns;
+
+import java.util.List;
+
+@Schema(
+        description = "Operations a terminal recorded while it was offline",
+        requiredProperties = {"terminalId", "operations"}
+)
+public class AtmBatchUploadDTO {
+    @Schema(example = "atm-0001", description = "ID of the terminal that signed the batch")
+    @NotBlank(message = ErrorMessages.TERMINAL_ID_REQUIRED)
+    @Pattern(regexp = RegexPatterns.TERMINAL_ID, message = ErrorMessages.INVALID_TERMINAL_ID_FORMAT)
+    public String terminalId;
+
+    @Schema(description = "Operations in any order, they are processed in sequence order")
+    @NotEmpty(message = ErrorMessages.ATM_BATCH_EMPTY)
+    public List<@Valid AtmBatchOperationDTO> operations;
+}
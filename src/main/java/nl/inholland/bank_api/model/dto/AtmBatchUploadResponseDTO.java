@@ -0,0 +1,19 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Map;
+
+@Schema(description = "Result of an offline batch upload")
+public record AtmBatchUploadResponseDTO(
+        @Schema(description = "ID of the terminal that uploaded the batch", example = "atm-0001")
+        String terminalId,
+
+        @Schema(description = "Transaction ID per sequence number, including operations uploaded before",
+                example = "{\"1041\": 87, \"1042\": 88}")
+        Map<Long, Long> transactionIds,
+
+        @Schema(description = "Number of operations stored by this upload, the rest had been uploaded before", example = "1")
+        int created
+) {
+}
@@ -0,0 +1,17 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+@Schema(description = "Page of a history in cursor mode")
+public record CursorPageDTO<T>(
+        List<T> content,
+
+        @Schema(description = "Pass as cursor to get the next page, null on the last page", example = "MjAyNS0wNi0wN1QxNDo1NToyMy4xMjN8MHw0Mg")
+        String nextCursor,
+
+        @Schema(description = "Number of rows in the whole history, only when includeTotal=true", example = "137", nullable = true)
+        Long totalElements
+) {
+}
@@ -0,0 +1,33 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Schema(description = "Journal entry on an account statement")
+public record LedgerEntryDTO(
+        @Schema(description = "ID of the journal entry", example = "1001")
+        Long id,
+
+        @Schema(description = "DEBIT lowers the balance, CREDIT raises it", example = "DEBIT")
+        EntryDirection direction,
+
+        @Schema(description = "Amount in EUR", example = "25.00")
+        BigDecimal amount,
+
+        @Schema(description = "Kind of movement the entry belongs to", example = "TRANSFER")
+        LedgerReferenceType referenceType,
+
+        @Schema(description = "ID of the transfer or ATM transaction", example = "42")
+        Long referenceId,
+
+        @Schema(description = "When the entry was written", example = "2025-06-07T14:55:23.123")
+        LocalDateTime createdAt,
+
+        @Schema(description = "Balance after this entry", example = "975.00")
+        BigDecimal balanceAfter
+) {
+}
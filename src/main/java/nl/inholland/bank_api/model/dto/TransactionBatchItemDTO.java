@@ -0,0 +1,20 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import nl.inholland.bank_api.model.enums.Status;
+
+@Schema(description = "Outcome of a single transfer in a batch")
+public record TransactionBatchItemDTO(
+        @Schema(description = "Position of the transfer in the request", example = "0")
+        int index,
+
+        @Schema(description = "ID of the stored transaction, empty when the transfer was rejected", example = "42")
+        Long id,
+
+        @Schema(description = "Status of the transfer", example = "SUCCEEDED")
+        Status status,
+
+        @Schema(description = "Reason the transfer failed, if any", example = "Insufficient balance")
+        String failureReason
+) {
+}
@@ -1,19 +1,27 @@
 package nl.inholland.bank_api.model.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import nl.inholland.bank_api.constant.ErrorMessages;
 
 import java.math.BigDecimal;
 
 public class TransactionRequestDTO {
+    @NotBlank(message = ErrorMessages.IBAN_REQUIRED)
     @JsonProperty("sourceAccount")
     private String sourceAccount;
 
+    @NotBlank(message = ErrorMessages.IBAN_REQUIRED)
     @JsonProperty("targetAccount")
     private String targetAccount;
 
     @JsonProperty("initiatedBy")
     private Long initiatedBy;
 
+    @NotNull(message = ErrorMessages.AMOUNT_REQUIRED)
+    @DecimalMin(value = "0.01", message = ErrorMessages.AMOUNT_MINIMUM)
     @JsonProperty("amount")
     private BigDecimal amount;
 
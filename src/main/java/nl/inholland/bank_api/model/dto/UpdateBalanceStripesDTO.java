@@ -0,0 +1,20 @@
+package nl.inholland.bank_api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.service.BalanceStripingService;
+
+@Data
+@Schema(description = "DTO for switching balance striping of a high-volume account on or off.")
+public class UpdateBalanceStripesDTO {
+        @Schema(description = "Number of sub-balances that take the incoming credits, 0 switches striping off.",
+                example = "16")
+        @NotNull(message = ErrorMessages.BALANCE_STRIPES_RANGE)
+        @Min(value = 0, message = ErrorMessages.BALANCE_STRIPES_RANGE)
+        @Max(value = BalanceStripingService.MAX_STRIPES, message = ErrorMessages.BALANCE_STRIPES_RANGE)
+        private Integer stripes;
+}
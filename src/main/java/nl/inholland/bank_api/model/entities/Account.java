@@ -36,7 +36,9 @@ public class Account {
     @Enumerated(EnumType.STRING)
     private AccountType type;
 
-    @Column(nullable = false, columnDefinition = "DECIMAL(15,2) DEFAULT 0.00")
+    // Only changed by the guarded queries after the account is created, so saving a loaded account for a limit or
+    // status change never writes a stale balance back over a concurrent posting
+    @Column(nullable = false, columnDefinition = "DECIMAL(15,2) DEFAULT 0.00", updatable = false)
     private BigDecimal balance;
 
     @Column(nullable = false)
@@ -47,4 +49,22 @@ public class Account {
 
     @Column(nullable = false)
     private BigDecimal dailyLimit;
+
+    // Number of balance_stripe rows that take the credits of a hot account, 0 when the account is not striped.
+    // Only changed by a query, like the balance.
+    @Column(nullable = false, columnDefinition = "INT DEFAULT 0", updatable = false)
+    private int balanceStripes;
+
+    // Sum of the open ATM withdrawal holds, only changed by queries so a saved entity never writes it back
+    @Column(nullable = false, columnDefinition = "DECIMAL(15,2) DEFAULT 0.00", insertable = false, updatable = false)
+    private BigDecimal heldAmount;
+
+    public boolean isStriped() {
+        return balanceStripes > 0;
+    }
+
+    // Not loaded yet for an account that was created in the same session
+    public BigDecimal getHeldAmount() {
+        return heldAmount == null ? BigDecimal.ZERO : heldAmount;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package nl.inholland.bank_api.model.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+import nl.inholland.bank_api.model.enums.Status;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// One line of an account's transaction history, written with the balance change it shows. A transfer has a line
+// on both accounts, an ATM transaction one on its account. The index has the history order: newest first, then
+// transfers before ATM transactions (TRANSFER sorts after ATM), then by id.
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(
+        name = "account_activity",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"account_id", "reference_type", "reference_id"}),
+        indexes = {
+                @Index(
+                        name = "idx_account_activity_account_timestamp",
+                        columnList = "account_id, timestamp DESC, reference_type DESC, reference_id"
+                ),
+                // Description searches read the transfers the description index found by their ids, and H2 only
+                // looks up an IN list on the first column of an index
+                @Index(name = "idx_account_activity_reference", columnList = "reference_id, account_id")
+        }
+)
+public class AccountActivity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    @Column(name = "reference_type", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private LedgerReferenceType referenceType;
+
+    @Column(name = "reference_id", nullable = false)
+    private Long referenceId;
+
+    // DEBIT when the money left the account
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private EntryDirection direction;
+
+    // The other account of a transfer, null for ATM transactions
+    @Column(name = "counterpart_iban")
+    private String counterpartIban;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    // The type of an ATM transaction
+    private String description;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    // Of the transaction, not of when the line was written
+    private LocalDateTime timestamp;
+}
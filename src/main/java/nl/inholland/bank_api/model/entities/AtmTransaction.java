@@ -6,6 +6,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.HoldStatus;
 import nl.inholland.bank_api.model.enums.Status;
 import org.hibernate.annotations.CreationTimestamp;
 
@@ -17,6 +18,16 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @Builder
 @Entity
+@Table(
+        uniqueConstraints = @UniqueConstraint(columnNames = {"terminal_id", "terminal_sequence"}),
+        indexes = {
+                // Status first, so the pending scan only reads the PENDING and PROCESSING rows however large the history is
+                @Index(name = "idx_atm_transaction_status_timestamp", columnList = "status, timestamp"),
+                // For the histories, read newest first per account and for the whole bank
+                @Index(name = "idx_atm_transaction_account_timestamp", columnList = "account_id, timestamp"),
+                @Index(name = "idx_atm_transaction_timestamp", columnList = "timestamp")
+        }
+)
 public class AtmTransaction {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -26,7 +37,8 @@ public class AtmTransaction {
     @JoinColumn(name = "account_id", nullable = false)
     private Account account;
 
-    @ManyToOne
+    // Only its id is read, so the user row is not loaded with every transaction
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "initiated_by", nullable = false)
     private User initiatedBy;
 
@@ -47,4 +59,28 @@ public class AtmTransaction {
 
     @Column
     private String failureReason;
+
+    // Instance that claimed the transaction, its claim can be taken over once the lease has ended
+    @Column(name = "claimed_by")
+    private String claimedBy;
+
+    @Column(name = "lease_until")
+    private LocalDateTime leaseUntil;
+
+    // Only set for operations a terminal uploaded after it was offline or sent through the gateway. The sequence
+    // number is unique per terminal, the client timestamp is when an uploaded operation happened at the terminal
+    @Column(name = "terminal_id")
+    private String terminalId;
+
+    @Column(name = "terminal_sequence")
+    private Long terminalSequence;
+
+    @Column(name = "client_timestamp")
+    private LocalDateTime clientTimestamp;
+
+    // Set for withdrawals that were authorized when they were created. While the hold is open its amount
+    // counts against the available balance and the daily total; posting the withdrawal captures it
+    @Column(name = "hold_status")
+    @Enumerated(EnumType.STRING)
+    private HoldStatus holdStatus;
 }
\ No newline at end of file
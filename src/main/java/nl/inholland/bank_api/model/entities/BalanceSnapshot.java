@@ -0,0 +1,38 @@
+package nl.inholland.bank_api.model.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Balance of an account including every ledger entry up to and including lastEntryId
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(
+        name = "balance_snapshot",
+        indexes = @Index(name = "idx_balance_snapshot_account_taken_at", columnList = "account_id, taken_at")
+)
+public class BalanceSnapshot {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    @Column(nullable = false)
+    private BigDecimal balance;
+
+    @Column(name = "last_entry_id", nullable = false)
+    private Long lastEntryId;
+
+    @Column(name = "taken_at", nullable = false)
+    private LocalDateTime takenAt;
+}
@@ -0,0 +1,34 @@
+package nl.inholland.bank_api.model.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// Credits of a striped account that have not been folded into Account.balance yet
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(
+        name = "balance_stripe",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"account_id", "stripe"})
+)
+public class BalanceStripe {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    @Column(nullable = false)
+    private int stripe;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+}
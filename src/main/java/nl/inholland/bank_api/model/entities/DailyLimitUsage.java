@@ -0,0 +1,40 @@
+package nl.inholland.bank_api.model.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.inholland.bank_api.model.enums.LimitKind;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Running total of what an account spent on one day, used for the daily limit checks
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(
+        name = "daily_limit_usage",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"account_id", "usage_date", "kind"})
+)
+public class DailyLimitUsage {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    @Column(name = "usage_date", nullable = false)
+    private LocalDate usageDate;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private LimitKind kind;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+}
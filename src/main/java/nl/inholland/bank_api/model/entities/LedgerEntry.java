@@ -0,0 +1,52 @@
+package nl.inholland.bank_api.model.entities;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// One leg of a money movement. Entries are only ever appended, every movement has a debit and a credit.
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(
+        name = "ledger_entry",
+        indexes = {
+                @Index(name = "idx_ledger_entry_account_id", columnList = "account_id, id"),
+                @Index(name = "idx_ledger_entry_account_created_at", columnList = "account_id, created_at")
+        }
+)
+public class LedgerEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Null for the leg on the bank's ATM cash position
+    @Column(name = "account_id")
+    private Long accountId;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private EntryDirection direction;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    @Column(name = "reference_type", nullable = false)
+    @Enumerated(EnumType.STRING)
+    private LedgerReferenceType referenceType;
+
+    @Column(name = "reference_id", nullable = false)
+    private Long referenceId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -16,7 +16,15 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @Builder
 @Entity
-@Table(name = "transaction")
+@Table(
+        name = "transaction",
+        // For the histories, read newest first per account and for the whole bank
+        indexes = {
+                @Index(name = "idx_transaction_source_account_timestamp", columnList = "source_account_id, timestamp"),
+                @Index(name = "idx_transaction_target_account_timestamp", columnList = "target_account_id, timestamp"),
+                @Index(name = "idx_transaction_timestamp", columnList = "timestamp")
+        }
+)
 public class Transaction {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -47,4 +55,7 @@ public class Transaction {
     @Column()
     @Enumerated(EnumType.STRING)
     private Status status;
+
+    @Column
+    private String failureReason;
 }
\ No newline at end of file
@@ -0,0 +1,6 @@
+package nl.inholland.bank_api.model.enums;
+
+public enum EntryDirection {
+    DEBIT,
+    CREDIT
+}
@@ -0,0 +1,7 @@
+package nl.inholland.bank_api.model.enums;
+
+public enum HoldStatus {
+    OPEN,
+    CAPTURED,
+    RELEASED
+}
@@ -0,0 +1,6 @@
+package nl.inholland.bank_api.model.enums;
+
+public enum LimitKind {
+    TRANSFER,
+    ATM_WITHDRAWAL
+}
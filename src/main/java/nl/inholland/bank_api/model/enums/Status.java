@@ -3,5 +3,7 @@ package nl.inholland.bank_api.model.enums;
 public enum Status {
     SUCCEEDED,
     FAILED,
-    PENDING
+    PENDING,
+    // Claimed by an instance for processing, see AtmClaimService
+    PROCESSING
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+// Appends history lines with one JDBC batch, like the journal entries written next to them
+@Repository
+public class AccountActivityBatchRepository {
+    private static final String INSERT_ACTIVITY =
+            "INSERT INTO account_activity (account_id, reference_type, reference_id, direction, counterpart_iban, " +
+            "amount, description, status, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AccountActivityBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void append(List<AccountActivity> activities) {
+        if (activities.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_ACTIVITY, activities, activities.size(), (statement, activity) -> {
+            statement.setLong(1, activity.getAccountId());
+            statement.setString(2, activity.getReferenceType().name());
+            statement.setLong(3, activity.getReferenceId());
+            statement.setString(4, activity.getDirection().name());
+            statement.setString(5, activity.getCounterpartIban());
+            statement.setBigDecimal(6, activity.getAmount());
+            statement.setString(7, activity.getDescription());
+            statement.setString(8, activity.getStatus().name());
+            statement.setTimestamp(9, activity.getTimestamp() == null ? null : Timestamp.valueOf(activity.getTimestamp()));
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+// The backfill only adds the lines that are missing, so it can run again at any time
+public interface AccountActivityRepository extends JpaRepository<AccountActivity, Long> {
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO account_activity (account_id, reference_type, reference_id, direction, " +
+            "counterpart_iban, amount, description, status, timestamp) " +
+            "SELECT t.source_account_id, 'TRANSFER', t.id, 'DEBIT', ta.iban, t.amount, t.description, 'SUCCEEDED', t.timestamp " +
+            "FROM transaction t " +
+            "LEFT JOIN account ta ON t.target_account_id = ta.id " +
+            "WHERE t.status = 'SUCCEEDED' AND t.source_account_id IS NOT NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM account_activity a WHERE a.account_id = t.source_account_id " +
+            "AND a.reference_type = 'TRANSFER' AND a.reference_id = t.id)", nativeQuery = true)
+    int insertMissingOutgoingTransfers();
+
+    // A transfer between an account and itself only has its outgoing line
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO account_activity (account_id, reference_type, reference_id, direction, " +
+            "counterpart_iban, amount, description, status, timestamp) " +
+            "SELECT t.target_account_id, 'TRANSFER', t.id, 'CREDIT', sa.iban, t.amount, t.description, 'SUCCEEDED', t.timestamp " +
+            "FROM transaction t " +
+            "LEFT JOIN account sa ON t.source_account_id = sa.id " +
+            "WHERE t.status = 'SUCCEEDED' AND t.target_account_id IS NOT NULL " +
+            "AND (t.source_account_id IS NULL OR t.source_account_id <> t.target_account_id) " +
+            "AND NOT EXISTS (SELECT 1 FROM account_activity a WHERE a.account_id = t.target_account_id " +
+            "AND a.reference_type = 'TRANSFER' AND a.reference_id = t.id)", nativeQuery = true)
+    int insertMissingIncomingTransfers();
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO account_activity (account_id, reference_type, reference_id, direction, " +
+            "counterpart_iban, amount, description, status, timestamp) " +
+            "SELECT t.account_id, 'ATM', t.id, CASE WHEN t.type = 'DEPOSIT' THEN 'CREDIT' ELSE 'DEBIT' END, NULL, " +
+            "t.amount, CAST(t.type AS VARCHAR), 'SUCCEEDED', t.timestamp " +
+            "FROM atm_transaction t " +
+            "WHERE t.status = 'SUCCEEDED' " +
+            "AND NOT EXISTS (SELECT 1 FROM account_activity a WHERE a.account_id = t.account_id " +
+            "AND a.reference_type = 'ATM' AND a.reference_id = t.id)", nativeQuery = true)
+    int insertMissingAtmTransactions();
+}
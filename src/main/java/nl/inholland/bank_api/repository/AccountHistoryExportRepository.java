@@ -0,0 +1,54 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Reads a whole account history through a forward-only, read-only result set, fetch size rows at a time,
+// so an export holds one row at a time however long the history is
+@Repository
+public class AccountHistoryExportRepository {
+    private static final int COLUMNS = 10;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransferDescriptionIndex descriptionIndex;
+
+    public AccountHistoryExportRepository(DataSource dataSource, TransferDescriptionIndex descriptionIndex,
+                                          @Value("${bank.export.fetch-size:1000}") int fetchSize) {
+        this.descriptionIndex = descriptionIndex;
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.setFetchSize(fetchSize);
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(template);
+    }
+
+    // Hands over the rows in history order, with the layout of CombinedTransactionRepository.findAccountHistory.
+    // The array is not kept, the consumer must write it out before it returns.
+    @Transactional(readOnly = true)
+    public void streamAccountHistory(Long accountId, TransactionFilterDTO filter, Consumer<Object[]> consumer) {
+        Map<String, Object> parameters = new HashMap<>();
+        String sql = CombinedTransactionRepository.accountHistoryQuery(filter,
+                CombinedTransactionRepository.descriptionCandidates(descriptionIndex, accountId, filter), null, parameters);
+        List<String> iban = jdbcTemplate.queryForList("SELECT iban FROM account WHERE id = :accountId",
+                Map.of("accountId", accountId), String.class);
+        parameters.put("accountId", accountId);
+        parameters.put("accountIban", iban.isEmpty() ? null : iban.getFirst());
+
+        jdbcTemplate.query(sql, parameters, (RowCallbackHandler) resultSet -> {
+            Object[] row = new Object[COLUMNS];
+            for (int i = 0; i < COLUMNS; i++) {
+                row[i] = resultSet.getObject(i + 1);
+            }
+            consumer.accept(row);
+        });
+    }
+}
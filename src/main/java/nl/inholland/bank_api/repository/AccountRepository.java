@@ -1,21 +1,108 @@
 package nl.inholland.bank_api.repository;
 
+import jakarta.persistence.LockModeType;
 import nl.inholland.bank_api.model.entities.Account;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface AccountRepository extends JpaRepository<Account, Long> {
     Optional<Account> findByIban(String iban);
+    List<Account> findByIbanIn(Collection<String> ibans);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.iban IN :ibans ORDER BY a.id")
+    List<Account> findByIbanInForUpdate(@Param("ibans") Collection<String> ibans);
+
+    // Striped targets are left unlocked, their credits go to the stripes instead of the account row
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a " +
+            "WHERE a.iban = :sourceIban OR (a.iban = :targetIban AND a.balanceStripes = 0) ORDER BY a.id")
+    List<Account> findTransferAccountsForUpdate(@Param("sourceIban") String sourceIban,
+            @Param("targetIban") String targetIban);
+
+    @Query("SELECT a.id FROM Account a WHERE a.balanceStripes > 0")
+    List<Long> findStripedAccountIds();
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET balance_stripes = :stripes WHERE id = :id", nativeQuery = true)
+    int updateBalanceStripes(@Param("id") Long id, @Param("stripes") int stripes);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.id IN :ids ORDER BY a.id")
+    List<Account> findByIdInForUpdate(@Param("ids") Collection<Long> ids);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.id = :id")
+    Optional<Account> findByIdForUpdate(@Param("id") Long id);
+
     List<Account> findByUserId(Long userId);
     boolean existsByIban(String iban);
 
     @Query("SELECT a FROM Account a WHERE a.user.firstName = :firstName AND a.user.lastName = :lastName AND a.user.id != :id")
     List<Account> findByFirstNameAndLastName(@Param("firstName") String firstName, @Param("lastName") String lastName, @Param("id") Long id);
     Page<Account> findAll(Pageable pageable);
-}
\ No newline at end of file
+
+    // Guarded debit: returns 0 when the balance minus the open holds would drop below the absolute limit
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET balance = balance - :amount " +
+            "WHERE id = :id " +
+            "AND balance - held_amount - :amount >= absolute_limit", nativeQuery = true)
+    int decreaseBalance(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    // Guarded debit of a striped account, the credits that were not folded yet count towards the balance.
+    // The caller must hold the account lock, otherwise a concurrent fold could be counted twice.
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET balance = balance - :amount " +
+            "WHERE id = :id " +
+            "AND balance + (SELECT COALESCE(SUM(s.amount), 0) FROM balance_stripe s WHERE s.account_id = :id) " +
+            "- held_amount - :amount >= absolute_limit", nativeQuery = true)
+    int decreaseStripedBalance(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET balance = balance + :amount WHERE id = :id", nativeQuery = true)
+    int increaseBalance(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    // Guarded hold, the same check as a debit but the amount is only reserved
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET held_amount = held_amount + :amount " +
+            "WHERE id = :id " +
+            "AND balance - held_amount - :amount >= absolute_limit", nativeQuery = true)
+    int increaseHeldAmount(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    // Guarded hold on a striped account, the caller must hold the account lock like for decreaseStripedBalance
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET held_amount = held_amount + :amount " +
+            "WHERE id = :id " +
+            "AND balance + (SELECT COALESCE(SUM(s.amount), 0) FROM balance_stripe s WHERE s.account_id = :id) " +
+            "- held_amount - :amount >= absolute_limit", nativeQuery = true)
+    int increaseStripedHeldAmount(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET held_amount = held_amount - :amount WHERE id = :id", nativeQuery = true)
+    int decreaseHeldAmount(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    // Debits a held amount, it was checked when the hold was placed
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE account SET balance = balance - :amount, held_amount = held_amount - :amount " +
+            "WHERE id = :id", nativeQuery = true)
+    int captureHeldAmount(@Param("id") Long id, @Param("amount") BigDecimal amount);
+}
@@ -0,0 +1,106 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Writes batches of ATM transactions and their results with one JDBC batch instead of one statement per entity
+@Repository
+public class AtmTransactionBatchRepository {
+    private static final String UPDATE_RESULT =
+            "UPDATE atm_transaction SET status = ?, failure_reason = ?, hold_status = ? WHERE id = ?";
+    private static final String DECREASE_HELD_AMOUNT =
+            "UPDATE account SET held_amount = held_amount - ? WHERE id = ?";
+    private static final String INCREASE_HELD_AMOUNT =
+            "UPDATE account SET held_amount = held_amount + ? WHERE id = ?";
+    private static final String INSERT_TRANSACTION =
+            "INSERT INTO atm_transaction (account_id, initiated_by, type, amount, timestamp, status, " +
+            "terminal_id, terminal_sequence, client_timestamp, hold_status) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AtmTransactionBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void updateResults(List<AtmTransaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(UPDATE_RESULT, transactions, transactions.size(), (statement, transaction) -> {
+            statement.setString(1, transaction.getStatus().name());
+            if (transaction.getFailureReason() != null) {
+                statement.setString(2, transaction.getFailureReason());
+            } else {
+                statement.setNull(2, Types.VARCHAR);
+            }
+            if (transaction.getHoldStatus() != null) {
+                statement.setString(3, transaction.getHoldStatus().name());
+            } else {
+                statement.setNull(3, Types.VARCHAR);
+            }
+            statement.setLong(4, transaction.getId());
+        });
+    }
+
+    // The captured holds of a batch, one update per account
+    public int[] decreaseHeldAmounts(Map<Long, BigDecimal> amounts) {
+        List<Object[]> arguments = amounts.entrySet().stream()
+                .map(amount -> new Object[]{amount.getValue(), amount.getKey()})
+                .toList();
+        return jdbcTemplate.batchUpdate(DECREASE_HELD_AMOUNT, arguments);
+    }
+
+    // Holds that are placed without the check of a guarded hold, one update per account
+    public int[] increaseHeldAmounts(Map<Long, BigDecimal> amounts) {
+        List<Object[]> arguments = amounts.entrySet().stream()
+                .map(amount -> new Object[]{amount.getValue(), amount.getKey()})
+                .toList();
+        return jdbcTemplate.batchUpdate(INCREASE_HELD_AMOUNT, arguments);
+    }
+
+    // Returns the generated ids in the order of the given transactions
+    public List<Long> insertTransactions(List<AtmTransaction> transactions) {
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_TRANSACTION, new String[]{"id"})) {
+                for (AtmTransaction transaction : transactions) {
+                    statement.setLong(1, transaction.getAccount().getId());
+                    statement.setLong(2, transaction.getInitiatedBy().getId());
+                    statement.setString(3, transaction.getType().name());
+                    statement.setBigDecimal(4, transaction.getAmount());
+                    statement.setTimestamp(5, Timestamp.valueOf(transaction.getTimestamp()));
+                    statement.setString(6, transaction.getStatus().name());
+                    statement.setString(7, transaction.getTerminalId());
+                    statement.setLong(8, transaction.getTerminalSequence());
+                    statement.setTimestamp(9, Timestamp.valueOf(transaction.getClientTimestamp()));
+                    if (transaction.getHoldStatus() != null) {
+                        statement.setString(10, transaction.getHoldStatus().name());
+                    } else {
+                        statement.setNull(10, Types.VARCHAR);
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                List<Long> ids = new ArrayList<>(transactions.size());
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        ids.add(keys.getLong(1));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+}
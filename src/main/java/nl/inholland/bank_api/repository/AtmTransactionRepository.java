@@ -1,19 +1,80 @@
 package nl.inholland.bank_api.repository;
 
+import jakarta.persistence.LockModeType;
 import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
 import nl.inholland.bank_api.model.enums.Status;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface AtmTransactionRepository extends JpaRepository<AtmTransaction, Long> {
     List<AtmTransaction> findByStatus(Status status);
     List<AtmTransaction> findByAccountId(Long accountId);
 
+    @Query("SELECT t.id FROM AtmTransaction t " +
+            "WHERE (t.status = 'PENDING' AND t.timestamp < :before) " +
+            "OR (t.status = 'PROCESSING' AND t.leaseUntil < :now) ORDER BY t.id")
+    List<Long> findClaimableIds(@Param("before") LocalDateTime before,
+                                @Param("now") LocalDateTime now,
+                                Pageable pageable);
+
+    // Conditional, so a row that another instance claimed or processed in the meantime is left alone
+    @Modifying
+    @Query("UPDATE AtmTransaction t SET t.status = 'PROCESSING', t.claimedBy = :instanceId, t.leaseUntil = :leaseUntil " +
+            "WHERE t.id IN :ids AND (t.status = 'PENDING' OR (t.status = 'PROCESSING' AND t.leaseUntil < :now))")
+    int claim(@Param("ids") List<Long> ids,
+              @Param("instanceId") String instanceId,
+              @Param("leaseUntil") LocalDateTime leaseUntil,
+              @Param("now") LocalDateTime now);
+
+    @Query("SELECT t.id AS id, t.account.id AS accountId FROM AtmTransaction t " +
+            "WHERE t.id IN :ids AND t.status = 'PROCESSING' AND t.claimedBy = :instanceId ORDER BY t.id")
+    List<PendingAtmTransaction> findClaimed(@Param("ids") List<Long> ids, @Param("instanceId") String instanceId);
+
+    // The accounts come with the same statement; the initiating users are not loaded, only their ids are read
+    @Query("SELECT t FROM AtmTransaction t JOIN FETCH t.account WHERE t.id IN :ids ORDER BY t.id")
+    List<AtmTransaction> findByIdInWithAccount(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT t.account.id AS accountId, COUNT(t) AS pending, MIN(t.timestamp) AS oldest FROM AtmTransaction t " +
+            "WHERE t.status IN ('PENDING', 'PROCESSING') GROUP BY t.account.id")
+    List<AccountBacklog> findBacklogByAccount();
+
+    @Query("SELECT DISTINCT t.account.id FROM AtmTransaction t WHERE t.id IN :ids")
+    List<Long> findAccountIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Conditional, so a hold is given up at most once and never after it was captured
+    @Modifying
+    @Query("UPDATE AtmTransaction t SET t.holdStatus = 'RELEASED', t.status = 'FAILED', t.failureReason = :reason " +
+            "WHERE t.id = :id AND t.holdStatus = 'OPEN'")
+    int cancelHeldWithdrawal(@Param("id") Long id, @Param("reason") String reason);
+
+    Optional<AtmTransaction> findByTerminalIdAndTerminalSequence(String terminalId, Long terminalSequence);
+
+    @Query("SELECT t.terminalSequence AS sequence, t.id AS id, t.type AS type, t.account.iban AS iban, " +
+            "t.amount AS amount FROM AtmTransaction t " +
+            "WHERE t.terminalId = :terminalId AND t.terminalSequence IN :sequences")
+    List<TerminalOperation> findByTerminalSequences(@Param("terminalId") String terminalId,
+                                                    @Param("sequences") Collection<Long> sequences);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM AtmTransaction t WHERE t.id IN :ids ORDER BY t.id")
+    List<AtmTransaction> findByIdInForUpdate(@Param("ids") Collection<Long> ids);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM AtmTransaction t WHERE t.id = :id")
+    Optional<AtmTransaction> findByIdForUpdate(@Param("id") Long id);
+
     @Query("SELECT COALESCE(SUM(t.amount), 0) " +
             "FROM AtmTransaction t " +
             "WHERE t.account.id = :accountId " +
@@ -22,4 +83,30 @@ public interface AtmTransactionRepository extends JpaRepository<AtmTransaction,
             "AND t.status = 'SUCCEEDED'")
     BigDecimal sumTodayWithdrawalsByAccount(@Param("accountId") Long accountId,
                                             @Param("date") LocalDate date);
+
+    interface PendingAtmTransaction {
+        Long getId();
+
+        Long getAccountId();
+    }
+
+    interface AccountBacklog {
+        Long getAccountId();
+
+        long getPending();
+
+        LocalDateTime getOldest();
+    }
+
+    interface TerminalOperation {
+        Long getSequence();
+
+        Long getId();
+
+        AtmTransactionType getType();
+
+        String getIban();
+
+        BigDecimal getAmount();
+    }
 }
@@ -0,0 +1,13 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.BalanceSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface BalanceSnapshotRepository extends JpaRepository<BalanceSnapshot, Long> {
+    Optional<BalanceSnapshot> findFirstByAccountIdAndTakenAtLessThanEqualOrderByTakenAtDesc(Long accountId, LocalDateTime at);
+
+    Optional<BalanceSnapshot> findFirstByAccountIdAndTakenAtGreaterThanOrderByTakenAtAsc(Long accountId, LocalDateTime at);
+}
@@ -0,0 +1,42 @@
+package nl.inholland.bank_api.repository;
+
+import jakarta.persistence.LockModeType;
+import nl.inholland.bank_api.model.entities.BalanceStripe;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+public interface BalanceStripeRepository extends JpaRepository<BalanceStripe, Long> {
+    // Only locks one of the stripes, so concurrent credits to the same account rarely wait for each other
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE balance_stripe SET amount = amount + :amount " +
+            "WHERE account_id = :accountId AND stripe = :stripe", nativeQuery = true)
+    int addToStripe(@Param("accountId") Long accountId,
+            @Param("stripe") int stripe,
+            @Param("amount") BigDecimal amount);
+
+    @Query("SELECT COALESCE(SUM(s.amount), 0) FROM BalanceStripe s WHERE s.accountId = :accountId")
+    BigDecimal sumByAccountId(@Param("accountId") Long accountId);
+
+    // Waits for the credits in flight and keeps new ones out until the caller commits
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM BalanceStripe s WHERE s.accountId = :accountId ORDER BY s.stripe")
+    List<BalanceStripe> findByAccountIdForUpdate(@Param("accountId") Long accountId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE balance_stripe SET amount = 0 WHERE account_id = :accountId", nativeQuery = true)
+    int clearStripes(@Param("accountId") Long accountId);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM BalanceStripe s WHERE s.accountId = :accountId")
+    int deleteByAccountId(@Param("accountId") Long accountId);
+}
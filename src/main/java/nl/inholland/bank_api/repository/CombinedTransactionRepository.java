@@ -2,57 +2,230 @@ package nl.inholland.bank_api.repository;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
+import nl.inholland.bank_api.util.HistoryCursor;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+// Histories are read newest first, transfers before ATM transactions with the same timestamp, then by id, and
+// only as far as the page needs. The history of an account is read from account_activity, with a cursor each page
+// is a range scan on its (account, timestamp) index whatever its position in the history. The history of the bank
+// merges the transaction tables, which are read through their timestamp indexes.
 @Repository
 public class CombinedTransactionRepository {
+    // One line of account_activity as a history row: id, type, kind, source_iban, target_iban, amount,
+    // description, timestamp, status, failure_reason. Only succeeded transactions have lines, so there is no
+    // failure reason. The account is the source of what left it and the target of what came in.
+    private static final String SOURCE_IBAN = "CASE WHEN direction = 'DEBIT' THEN CAST(:accountIban AS VARCHAR) ELSE counterpart_iban END";
+    private static final String TARGET_IBAN = "CASE WHEN direction = 'CREDIT' THEN CAST(:accountIban AS VARCHAR) ELSE counterpart_iban END";
+    private static final String ACCOUNT_HISTORY = """
+            SELECT reference_id AS id, CAST(reference_type AS VARCHAR) AS type,
+                   CASE WHEN reference_type = 'TRANSFER' THEN 0 ELSE 1 END AS kind,
+                   %s AS source_iban, %s AS target_iban,
+                   amount, description, timestamp, status, CAST(NULL AS VARCHAR) AS failure_reason
+            FROM account_activity
+            WHERE account_id = :accountId
+            """.formatted(SOURCE_IBAN, TARGET_IBAN);
+
+    // Every transaction of the bank. Each leg selects: source_iban, target_iban, initiated_by, amount, timestamp,
+    // type, status, id, kind
+    private static final List<HistoryLeg> ALL_HISTORY = List.of(
+            new HistoryLeg(HistoryCursor.TRANSFER, """
+                    SELECT sa.iban AS source_iban, ta.iban AS target_iban, t.initiated_by, t.amount, t.timestamp,
+                           CAST('TRANSFER' AS VARCHAR) AS type, t.status, t.id, 0 AS kind
+                    FROM transaction t
+                    LEFT JOIN account sa ON t.source_account_id = sa.id
+                    LEFT JOIN account ta ON t.target_account_id = ta.id
+                    """, "t.id", "t.timestamp"),
+            new HistoryLeg(HistoryCursor.ATM, """
+                    SELECT a.iban AS source_iban, NULL AS target_iban, at.initiated_by, at.amount, at.timestamp,
+                           CAST(at.type AS VARCHAR) AS type, at.status, at.id, 1 AS kind
+                    FROM atm_transaction at
+                    LEFT JOIN account a ON at.account_id = a.id
+                    """, "at.id", "at.timestamp"));
+
+    private final TransferDescriptionIndex descriptionIndex;
 
     @PersistenceContext
     private EntityManager entityManager;
 
+    public CombinedTransactionRepository(TransferDescriptionIndex descriptionIndex) {
+        this.descriptionIndex = descriptionIndex;
+    }
+
     //used in unit testing
     public void setEntityManager(EntityManager entityManager) {
         this.entityManager = entityManager;
     }
 
     public List<Object[]> findAllCombined(int size, int offset) {
-        String sql = """
-    SELECT sa.iban AS source_iban,
-           ta.iban AS target_iban,
-           t.initiated_by,
-           t.amount,
-           t.timestamp,
-           CAST('TRANSFER' AS VARCHAR) AS type,
-           t.status
-    FROM transaction t
-    LEFT JOIN account sa ON t.source_account_id = sa.id
-    LEFT JOIN account ta ON t.target_account_id = ta.id
-
-    UNION ALL
-
-    SELECT a.iban,
-           NULL,
-           at.initiated_by,
-           at.amount,
-           at.timestamp,
-            CAST(at.type AS VARCHAR),
-           at.status
-    FROM atm_transaction at
-    LEFT JOIN account a ON at.account_id = a.id
-
-    ORDER BY timestamp DESC
-    LIMIT :size OFFSET :offset
-    """;
-
-
-        return entityManager.createNativeQuery(sql)
-                .setParameter("size", size)
-                .setParameter("offset", offset)
-                .getResultList();
+        return findPage(ALL_HISTORY, null, size, offset);
     }
 
+    // The rows after the cursor, or the first rows when it is null
+    public List<Object[]> findAllCombinedAfter(HistoryCursor cursor, int size) {
+        return findPage(ALL_HISTORY, cursor, size, 0);
+    }
+
+    public List<Object[]> findAccountHistory(Long accountId, TransactionFilterDTO filter, int size, long offset) {
+        return findAccountPage(accountId, filter, null, size, offset);
+    }
+
+    public List<Object[]> findAccountHistoryAfter(Long accountId, TransactionFilterDTO filter, HistoryCursor cursor, int size) {
+        return findAccountPage(accountId, filter, cursor, size, 0);
+    }
+
+    public long countAccountHistory(Long accountId, TransactionFilterDTO filter) {
+        Map<String, Object> parameters = new HashMap<>();
+        List<String> conditions = new ArrayList<>();
+        addFilter(filter, descriptionCandidates(descriptionIndex, accountId, filter), conditions, parameters);
+        String sql = "SELECT COUNT(*) FROM account_activity WHERE account_id = :accountId" +
+                conditions.stream().map(condition -> "\nAND " + condition).collect(Collectors.joining());
+
+        Query query = bindAccount(entityManager.createNativeQuery(sql), accountId, sql);
+        parameters.forEach(query::setParameter);
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    private List<Object[]> findAccountPage(Long accountId, TransactionFilterDTO filter, HistoryCursor cursor,
+                                           int size, long offset) {
+        Map<String, Object> parameters = new HashMap<>();
+        String sql = accountHistoryQuery(filter, descriptionCandidates(descriptionIndex, accountId, filter), cursor,
+                parameters) + "\nLIMIT :size OFFSET :offset";
+        parameters.put("size", size);
+        parameters.put("offset", offset);
+
+        Query query = bindAccount(entityManager.createNativeQuery(sql), accountId, sql);
+        parameters.forEach(query::setParameter);
+        return query.getResultList();
+    }
+
+    // The lines of an account's history after the cursor, in history order, also used by the export. Takes the
+    // accountId and accountIban parameters. TRANSFER sorts after ATM, the order matches the index so the scan
+    // stops after the rows that are read.
+    static String accountHistoryQuery(TransactionFilterDTO filter, List<Long> descriptionCandidates, HistoryCursor cursor,
+                                      Map<String, Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        addFilter(filter, descriptionCandidates, conditions, parameters);
+        if (cursor != null) {
+            String sameTime = cursor.kind() == HistoryCursor.TRANSFER
+                    ? "(reference_type = 'ATM' OR reference_id > :cursorId)"
+                    : "reference_type = 'ATM' AND reference_id > :cursorId";
+            conditions.add("(timestamp < :cursorTime OR (timestamp = :cursorTime AND " + sameTime + "))");
+            parameters.put("cursorTime", cursor.timestamp());
+            parameters.put("cursorId", cursor.id());
+        }
+        return ACCOUNT_HISTORY +
+                conditions.stream().map(condition -> "AND " + condition + "\n").collect(Collectors.joining()) +
+                "ORDER BY timestamp DESC, reference_type DESC, reference_id";
+    }
+
+    // The account's own IBAN is the same on every line, it is only read when the query needs it
+    private Query bindAccount(Query query, Long accountId, String sql) {
+        query.setParameter("accountId", accountId);
+        if (sql.contains(":accountIban")) {
+            List<?> iban = entityManager.createNativeQuery("SELECT iban FROM account WHERE id = :accountId")
+                    .setParameter("accountId", accountId)
+                    .getResultList();
+            query.setParameter("accountIban", iban.isEmpty() ? null : iban.getFirst());
+        }
+        return query;
+    }
+
+    // The transfers of the account that may match the description filter, null when the history must be scanned
+    static List<Long> descriptionCandidates(TransferDescriptionIndex descriptionIndex, Long accountId,
+                                            TransactionFilterDTO filter) {
+        if (filter == null || !isSet(filter.getDescription())) {
+            return null;
+        }
+        return descriptionIndex.findCandidates(accountId, filter.getDescription());
+    }
+
+    // The filter with the same meaning as before it was moved into SQL: blank values and unknown comparisons
+    // are ignored, dates are inclusive, descriptions match case-insensitively
+    private static void addFilter(TransactionFilterDTO filter, List<Long> descriptionCandidates, List<String> conditions,
+                                  Map<String, Object> parameters) {
+        if (filter == null) {
+            return;
+        }
+        if (isSet(filter.getStartDate())) {
+            conditions.add("timestamp >= :startTime");
+            parameters.put("startTime", LocalDate.parse(filter.getStartDate()).atStartOfDay());
+        }
+        if (isSet(filter.getEndDate())) {
+            conditions.add("timestamp < :endTime");
+            parameters.put("endTime", LocalDate.parse(filter.getEndDate()).plusDays(1).atStartOfDay());
+        }
+        if (filter.getAmount() != null && filter.getComparison() != null) {
+            String operator = switch (filter.getComparison()) {
+                case "lt" -> "<";
+                case "gt" -> ">";
+                case "eq" -> "=";
+                default -> null;
+            };
+            if (operator != null) {
+                conditions.add("amount " + operator + " :amount");
+                parameters.put("amount", filter.getAmount());
+            }
+        }
+        if (isSet(filter.getSourceIban())) {
+            conditions.add(SOURCE_IBAN + " = :sourceIban");
+            parameters.put("sourceIban", filter.getSourceIban());
+        }
+        if (isSet(filter.getTargetIban())) {
+            conditions.add(TARGET_IBAN + " = :targetIban");
+            parameters.put("targetIban", filter.getTargetIban());
+        }
+        if (isSet(filter.getDescription())) {
+            conditions.add("LOWER(description) LIKE :description ESCAPE '\\'");
+            parameters.put("description", "%" + escapeLike(filter.getDescription().toLowerCase(Locale.ROOT)) + "%");
+            // Only the candidates are read, through the reference index
+            if (descriptionCandidates != null && descriptionCandidates.isEmpty()) {
+                conditions.add("FALSE");
+            } else if (descriptionCandidates != null) {
+                conditions.add("reference_type = 'TRANSFER' AND reference_id IN (:descriptionCandidates)");
+                parameters.put("descriptionCandidates", descriptionCandidates);
+            }
+        }
+    }
+
+    private static boolean isSet(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    // No leg needs more than offset + size rows, whatever the others contribute
+    private List<Object[]> findPage(List<HistoryLeg> legs, HistoryCursor cursor, int size, long offset) {
+        Map<String, Object> parameters = new HashMap<>();
+        List<String> selects = new ArrayList<>();
+        for (int i = 0; i < legs.size(); i++) {
+            HistoryLeg leg = legs.get(i);
+            selects.add("SELECT * FROM (" + leg.query(cursor, parameters) +
+                    "ORDER BY " + leg.timestamp() + " DESC, " + leg.id() + "\n" +
+                    "LIMIT :legLimit) leg" + i + "\n");
+        }
+        String sql = String.join("UNION ALL\n", selects) +
+                "ORDER BY timestamp DESC, kind, id\n" +
+                "LIMIT :size OFFSET :offset";
+        parameters.put("legLimit", offset + size);
+        parameters.put("size", size);
+        parameters.put("offset", offset);
+
+        Query query = entityManager.createNativeQuery(sql);
+        parameters.forEach(query::setParameter);
+        return query.getResultList();
+    }
 
     public long countAllCombined() {
         String sql = "SELECT COUNT(*) FROM (" +
@@ -64,4 +237,26 @@ public class CombinedTransactionRepository {
         Object result = entityManager.createNativeQuery(sql).getSingleResult();
         return ((Number) result).longValue();
     }
-}
\ No newline at end of file
+
+    private record HistoryLeg(int kind, String select, String id, String timestamp) {
+        // The rows after the cursor in history order. Within a leg the kind is fixed, so it only decides
+        // whether the rows with the cursor's timestamp come before or after it
+        private String query(HistoryCursor cursor, Map<String, Object> parameters) {
+            if (cursor == null) {
+                return select;
+            }
+
+            String condition;
+            if (kind > cursor.kind()) {
+                condition = timestamp + " <= :cursorTime";
+            } else if (kind < cursor.kind()) {
+                condition = timestamp + " < :cursorTime";
+            } else {
+                condition = "(" + timestamp + " < :cursorTime OR (" + timestamp + " = :cursorTime AND " + id + " > :cursorId))";
+                parameters.put("cursorId", cursor.id());
+            }
+            parameters.put("cursorTime", cursor.timestamp());
+            return select + "WHERE " + condition + "\n";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.DailyLimitUsage;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface DailyLimitUsageRepository extends JpaRepository<DailyLimitUsage, Long> {
+    @Query("SELECT u.amount FROM DailyLimitUsage u " +
+            "WHERE u.accountId = :accountId AND u.usageDate = :date AND u.kind = :kind")
+    Optional<BigDecimal> findAmount(@Param("accountId") Long accountId,
+            @Param("date") LocalDate date,
+            @Param("kind") LimitKind kind);
+
+    List<DailyLimitUsage> findByAccountIdInAndUsageDateAndKind(Collection<Long> accountIds, LocalDate usageDate, LimitKind kind);
+
+    // Adds to the running total, creating the row for the first debit of the day
+    @Transactional
+    @Modifying
+    @Query(value = "MERGE INTO daily_limit_usage u " +
+            "USING (VALUES (CAST(:accountId AS BIGINT), CAST(:date AS DATE), CAST(:kind AS VARCHAR))) " +
+            "AS s(account_id, usage_date, kind) " +
+            "ON u.account_id = s.account_id AND u.usage_date = s.usage_date AND u.kind = s.kind " +
+            "WHEN MATCHED THEN UPDATE SET u.amount = u.amount + :amount " +
+            "WHEN NOT MATCHED THEN INSERT (account_id, usage_date, kind, amount) " +
+            "VALUES (s.account_id, s.usage_date, s.kind, :amount)", nativeQuery = true)
+    int addAmount(@Param("accountId") Long accountId,
+            @Param("date") LocalDate date,
+            @Param("kind") String kind,
+            @Param("amount") BigDecimal amount);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM DailyLimitUsage u WHERE u.usageDate >= :from")
+    int deleteFromDate(@Param("from") LocalDate from);
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO daily_limit_usage (account_id, usage_date, kind, amount) " +
+            "SELECT t.source_account_id, CAST(t.timestamp AS DATE), 'TRANSFER', SUM(t.amount) " +
+            "FROM transaction t " +
+            "WHERE t.status = 'SUCCEEDED' AND t.source_account_id IS NOT NULL " +
+            "AND t.timestamp >= :from " +
+            "GROUP BY t.source_account_id, CAST(t.timestamp AS DATE)", nativeQuery = true)
+    int insertTransferUsageFromHistory(@Param("from") LocalDateTime from);
+
+    // Withdrawals with an open hold count from the moment they were authorized
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO daily_limit_usage (account_id, usage_date, kind, amount) " +
+            "SELECT t.account_id, CAST(t.timestamp AS DATE), 'ATM_WITHDRAWAL', SUM(t.amount) " +
+            "FROM atm_transaction t " +
+            "WHERE (t.status = 'SUCCEEDED' OR t.hold_status = 'OPEN') AND t.type = 'WITHDRAW' " +
+            "AND t.timestamp >= :from " +
+            "GROUP BY t.account_id, CAST(t.timestamp AS DATE)", nativeQuery = true)
+    int insertAtmWithdrawalUsageFromHistory(@Param("from") LocalDateTime from);
+}
@@ -0,0 +1,42 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.LedgerEntry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+// Appends journal entries with one JDBC batch, they are never read back in the same transaction
+@Repository
+public class LedgerBatchRepository {
+    private static final String INSERT_ENTRY =
+            "INSERT INTO ledger_entry (account_id, direction, amount, reference_type, reference_id, created_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LedgerBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void append(List<LedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_ENTRY, entries, entries.size(), (statement, entry) -> {
+            if (entry.getAccountId() != null) {
+                statement.setLong(1, entry.getAccountId());
+            } else {
+                statement.setNull(1, Types.BIGINT);
+            }
+            statement.setString(2, entry.getDirection().name());
+            statement.setBigDecimal(3, entry.getAmount());
+            statement.setString(4, entry.getReferenceType().name());
+            statement.setLong(5, entry.getReferenceId());
+            statement.setTimestamp(6, Timestamp.valueOf(entry.getCreatedAt()));
+        });
+    }
+}
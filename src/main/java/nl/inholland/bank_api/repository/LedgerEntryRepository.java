@@ -0,0 +1,53 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.LedgerEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
+    String SIGNED_AMOUNT = "CASE WHEN e.direction = 'CREDIT' THEN e.amount ELSE -e.amount END";
+
+    // Entries are appended while the account is locked and snapshots are taken under the same lock, so the
+    // entries after a snapshot are never older than it. The time bounds keep the scans on the created_at index.
+    @Query(value = "SELECT COALESCE(SUM(" + SIGNED_AMOUNT + "), 0) FROM ledger_entry e " +
+            "WHERE e.account_id = :accountId AND e.created_at >= :takenAt AND e.created_at <= :until " +
+            "AND e.id > :afterId", nativeQuery = true)
+    BigDecimal sumAfterSnapshot(@Param("accountId") Long accountId,
+            @Param("afterId") Long afterId,
+            @Param("takenAt") LocalDateTime takenAt,
+            @Param("until") LocalDateTime until);
+
+    // Entries between a point in time and a later snapshot, used to walk back from that snapshot
+    @Query(value = "SELECT COALESCE(SUM(" + SIGNED_AMOUNT + "), 0) FROM ledger_entry e " +
+            "WHERE e.account_id = :accountId AND e.created_at > :after AND e.created_at <= :takenAt " +
+            "AND e.id <= :upToId", nativeQuery = true)
+    BigDecimal sumBeforeSnapshot(@Param("accountId") Long accountId,
+            @Param("upToId") Long upToId,
+            @Param("takenAt") LocalDateTime takenAt,
+            @Param("after") LocalDateTime after);
+
+    @Query(value = "SELECT COALESCE(SUM(" + SIGNED_AMOUNT + "), 0) FROM ledger_entry e " +
+            "WHERE e.account_id = :accountId AND e.created_at > :after", nativeQuery = true)
+    BigDecimal sumAfter(@Param("accountId") Long accountId, @Param("after") LocalDateTime after);
+
+    @Query("SELECT e FROM LedgerEntry e " +
+            "WHERE e.accountId = :accountId AND e.createdAt > :from AND e.createdAt <= :to ORDER BY e.id")
+    List<LedgerEntry> findStatementEntries(@Param("accountId") Long accountId,
+            @Param("from") LocalDateTime from,
+            @Param("to") LocalDateTime to);
+
+    @Query("SELECT MAX(e.id) FROM LedgerEntry e WHERE e.accountId = :accountId")
+    Long findLastEntryId(@Param("accountId") Long accountId);
+
+    // Accounts with entries that are not covered by their latest snapshot yet
+    @Query(value = "SELECT DISTINCT e.account_id FROM ledger_entry e " +
+            "WHERE e.account_id IS NOT NULL AND e.id > COALESCE(" +
+            "(SELECT MAX(s.last_entry_id) FROM balance_snapshot s WHERE s.account_id = e.account_id), 0)",
+            nativeQuery = true)
+    List<Long> findAccountsWithUnsnapshottedEntries();
+}
@@ -1,13 +1,17 @@
 package nl.inholland.bank_api.repository;
 
+import jakarta.persistence.LockModeType;
 import nl.inholland.bank_api.model.entities.Transaction;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.util.List;
+import java.util.Optional;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
     List<Transaction> findBySourceAccount_IdOrTargetAccount_Id(Long sourceId, Long targetId);
@@ -19,5 +23,29 @@ public interface TransactionRepository extends JpaRepository<Transaction, Long>
     BigDecimal sumAmountForAccountToday(@Param("accountId") Long accountId,
             @Param("date") LocalDate date);
 
+    // Only the IBANs, so the accounts can be locked before they are loaded into the persistence context
+    @Query("SELECT t.sourceAccount.iban AS sourceIban, t.targetAccount.iban AS targetIban " +
+            "FROM Transaction t WHERE t.id = :id")
+    Optional<TransferIbans> findIbansById(@Param("id") Long id);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM Transaction t WHERE t.id = :id")
+    Optional<Transaction> findByIdForUpdate(@Param("id") Long id);
+
+    @Query("SELECT t.id AS id, t.sourceAccount.id AS sourceAccountId FROM Transaction t " +
+            "WHERE t.status = 'PENDING' AND t.timestamp < :before ORDER BY t.id")
+    List<PendingTransfer> findPendingBefore(@Param("before") LocalDateTime before);
+
+    interface TransferIbans {
+        String getSourceIban();
+
+        String getTargetIban();
+    }
+
+    interface PendingTransfer {
+        Long getId();
+
+        Long getSourceAccountId();
+    }
 
 }
\ No newline at end of file
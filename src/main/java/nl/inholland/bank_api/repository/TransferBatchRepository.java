@@ -0,0 +1,74 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.Transaction;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Writes a whole batch of transfers with JDBC batching. Hibernate cannot batch inserts of IDENTITY entities.
+@Repository
+public class TransferBatchRepository {
+    private static final String ADJUST_BALANCE =
+            "UPDATE account SET balance = balance + ? WHERE id = ?";
+    private static final String INSERT_TRANSACTION =
+            "INSERT INTO transaction (source_account_id, target_account_id, initiated_by, amount, description, status, failure_reason, timestamp) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TransferBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public int[] adjustBalances(Map<Long, BigDecimal> deltas) {
+        List<Object[]> arguments = deltas.entrySet().stream()
+                .map(delta -> new Object[]{delta.getValue(), delta.getKey()})
+                .toList();
+        return jdbcTemplate.batchUpdate(ADJUST_BALANCE, arguments);
+    }
+
+    // Returns the generated ids in the order of the given transactions
+    public List<Long> insertTransactions(List<Transaction> transactions) {
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_TRANSACTION, new String[]{"id"})) {
+                for (Transaction transaction : transactions) {
+                    statement.setLong(1, transaction.getSourceAccount().getId());
+                    statement.setLong(2, transaction.getTargetAccount().getId());
+                    statement.setLong(3, transaction.getInitiatedBy().getId());
+                    statement.setBigDecimal(4, transaction.getAmount());
+                    if (transaction.getDescription() != null) {
+                        statement.setString(5, transaction.getDescription());
+                    } else {
+                        statement.setNull(5, Types.VARCHAR);
+                    }
+                    statement.setString(6, transaction.getStatus().name());
+                    if (transaction.getFailureReason() != null) {
+                        statement.setString(7, transaction.getFailureReason());
+                    } else {
+                        statement.setNull(7, Types.VARCHAR);
+                    }
+                    statement.setTimestamp(8, Timestamp.valueOf(transaction.getTimestamp()));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                List<Long> ids = new ArrayList<>(transactions.size());
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        ids.add(keys.getLong(1));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+}
@@ -0,0 +1,337 @@
+package nl.inholland.bank_api.repository;
+
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Trigram index over the descriptions of the transfer lines in account_activity, per account. A description
+// search looks up the transfers that have every trigram of the text instead of scanning the whole history.
+// The candidates are still matched with LIKE, so a transfer that has the trigrams but not the text is never
+// returned. A lookup first reads the lines added since the last catch-up, so it also finds the transfers
+// settled by other instances. Lookups within catchUpInterval of the last catch-up skip it, so a new transfer
+// can be missing from the results for at most that long.
+@Repository
+@Log
+public class TransferDescriptionIndex {
+    private static final int FETCH_SIZE = 1000;
+    private static final int MAX_PENDING_IDS = 1000;
+    private static final String TRANSFER_LINES = """
+            SELECT id, account_id, reference_type, reference_id, description FROM account_activity
+            WHERE reference_type = 'TRANSFER' AND description IS NOT NULL AND id <= ?
+            ORDER BY reference_id
+            """;
+    private static final String LINES_AFTER = """
+            SELECT id, account_id, reference_type, reference_id, description FROM account_activity
+            WHERE id > ? ORDER BY id
+            """;
+    private static final String LINES_IN = """
+            SELECT id, account_id, reference_type, reference_id, description FROM account_activity
+            WHERE id IN (%s)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int maxCandidates;
+    private final Duration pendingTimeout;
+    private final long catchUpIntervalNanos;
+    private final Map<Long, AccountTrigrams> accounts = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private volatile long lastCatchUp;
+
+    // Highest line id read so far, and the lower ids that were missing when it was read: their transaction
+    // may still commit. Only used while holding the lock of the index.
+    private final Map<Long, Instant> pendingIds = new LinkedHashMap<>();
+    private long lastId;
+
+    // Above maxCandidates the text is common in the account, and a scan of its history finds a page just as soon.
+    // pendingTimeout must be longer than any transaction that writes account activity.
+    public TransferDescriptionIndex(DataSource dataSource,
+                                    @Value("${bank.search.description-index.enabled:true}") boolean enabled,
+                                    @Value("${bank.search.description-index.max-candidates:1000}") int maxCandidates,
+                                    @Value("${bank.search.description-index.pending-timeout:PT1M}") Duration pendingTimeout,
+                                    @Value("${bank.search.description-index.catch-up-interval:PT1S}") Duration catchUpInterval) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.enabled = enabled;
+        this.maxCandidates = maxCandidates;
+        this.pendingTimeout = pendingTimeout;
+        this.catchUpIntervalNanos = catchUpInterval.toNanos();
+    }
+
+    // Reads every transfer line the first time, afterwards only the lines added since
+    public void build() {
+        if (!enabled) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int lines = ready ? catchUp() : load();
+        lastCatchUp = System.nanoTime();
+        ready = true;
+        log.info("Indexed the descriptions of " + lines + " transfer lines in " +
+                (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // In transfer order, so the postings are only appended to
+    private synchronized int load() {
+        Long top = jdbcTemplate.queryForObject("SELECT MAX(id) FROM account_activity", Long.class);
+        if (top == null) {
+            return 0;
+        }
+
+        // Read before the lines, so a line that commits while they are read is either indexed or pending
+        Set<Long> present = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT id FROM account_activity WHERE id > ? AND id <= ?", Long.class, top - MAX_PENDING_IDS, top));
+        int[] lines = new int[1];
+        jdbcTemplate.query(TRANSFER_LINES, (RowCallbackHandler) resultSet -> lines[0] += add(resultSet), top);
+
+        Instant deadline = Instant.now().plus(pendingTimeout);
+        for (long id = Math.max(1, top - MAX_PENDING_IDS + 1); id <= top; id++) {
+            if (!present.contains(id)) {
+                pendingIds.put(id, deadline);
+            }
+        }
+        lastId = top;
+        return lines[0];
+    }
+
+    // Adds the lines above the last id read and the pending lines that have committed since, returns the
+    // number of transfer lines added
+    private synchronized int catchUp() {
+        int[] lines = new int[1];
+        Instant now = Instant.now();
+        if (!pendingIds.isEmpty()) {
+            pendingIds.values().removeIf(deadline -> deadline.isBefore(now));
+        }
+        if (!pendingIds.isEmpty()) {
+            String placeholders = String.join(",", Collections.nCopies(pendingIds.size(), "?"));
+            jdbcTemplate.query(String.format(LINES_IN, placeholders), (RowCallbackHandler) resultSet -> {
+                pendingIds.remove(resultSet.getLong(1));
+                lines[0] += add(resultSet);
+            }, pendingIds.keySet().toArray());
+        }
+
+        Instant deadline = now.plus(pendingTimeout);
+        jdbcTemplate.query(LINES_AFTER, (RowCallbackHandler) resultSet -> {
+            long id = resultSet.getLong(1);
+            // Ids are handed out before their transaction commits, so a gap may still fill. Only the newest
+            // are kept, an older transaction would have committed long ago.
+            for (long missing = Math.max(lastId + 1, id - MAX_PENDING_IDS); missing < id; missing++) {
+                pendingIds.put(missing, deadline);
+            }
+            if (pendingIds.size() > MAX_PENDING_IDS) {
+                Iterator<Long> oldest = pendingIds.keySet().iterator();
+                while (pendingIds.size() > MAX_PENDING_IDS) {
+                    oldest.next();
+                    oldest.remove();
+                }
+            }
+            lastId = id;
+            lines[0] += add(resultSet);
+        }, lastId);
+        return lines[0];
+    }
+
+    // Concurrent lookups only wait for the lock when a catch-up is due, and then only one of them runs it
+    private void catchUpIfDue() {
+        if (System.nanoTime() - lastCatchUp < catchUpIntervalNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (System.nanoTime() - lastCatchUp < catchUpIntervalNanos) {
+                return;
+            }
+            catchUp();
+            lastCatchUp = System.nanoTime();
+        }
+    }
+
+    private int add(ResultSet resultSet) throws SQLException {
+        String description = resultSet.getString(5);
+        if (!LedgerReferenceType.TRANSFER.name().equals(resultSet.getString(3)) || description == null) {
+            return 0;
+        }
+        add(resultSet.getLong(2), resultSet.getLong(4), description);
+        return 1;
+    }
+
+    // Ids of the transfers of the account whose description may contain the text, sorted. Null when the index
+    // cannot narrow the search: before it is built, for text shorter than a trigram, for text that also matches
+    // ATM lines (described by their type) and when there are more than maxCandidates.
+    public List<Long> findCandidates(Long accountId, String text) {
+        if (!ready || text == null || text.length() < 3) {
+            return null;
+        }
+        // Locale independent, like LOWER in the query that matches the candidates
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (AtmTransactionType type : AtmTransactionType.values()) {
+            if (type.name().toLowerCase(Locale.ROOT).contains(lower)) {
+                return null;
+            }
+        }
+        catchUpIfDue();
+
+        AccountTrigrams trigrams = accounts.get(accountId);
+        long[] ids = trigrams == null ? new long[0] : trigrams.find(trigrams(lower));
+        if (ids.length > maxCandidates) {
+            return null;
+        }
+        List<Long> candidates = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            candidates.add(id);
+        }
+        return candidates;
+    }
+
+    private void add(long accountId, long transferId, String description) {
+        accounts.computeIfAbsent(accountId, id -> new AccountTrigrams())
+                .add(transferId, trigrams(description.toLowerCase(Locale.ROOT)));
+    }
+
+    // Three UTF-16 characters packed into one key
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add((long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    private static class AccountTrigrams {
+        private final Map<Long, Postings> postings = new HashMap<>();
+
+        synchronized void add(long transferId, Set<Long> trigrams) {
+            for (Long trigram : trigrams) {
+                postings.computeIfAbsent(trigram, key -> new Postings()).add(transferId);
+            }
+        }
+
+        // Starts from the shortest list, so there are never more candidates than transfers with the rarest trigram
+        synchronized long[] find(Set<Long> trigrams) {
+            List<Postings> lists = new ArrayList<>();
+            for (Long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                if (list == null) {
+                    return new long[0];
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list.count));
+
+            long[] ids = lists.getFirst().decode();
+            for (int i = 1; i < lists.size() && ids.length > 0; i++) {
+                ids = lists.get(i).retain(ids);
+            }
+            return ids;
+        }
+    }
+
+    // Sorted transfer ids, each stored as the difference to the one before in seven-bit groups, so most take
+    // one or two bytes
+    private static class Postings {
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int count;
+        private long last;
+
+        void add(long id) {
+            if (count > 0 && id <= last) {
+                if (id < last) {
+                    insert(id);
+                }
+                return;
+            }
+            write(id - last);
+            last = id;
+            count++;
+        }
+
+        // A transfer committed after one with a higher id, so the list is written again
+        private void insert(long id) {
+            long[] ids = decode();
+            if (Arrays.binarySearch(ids, id) >= 0) {
+                return;
+            }
+            length = 0;
+            count = 0;
+            last = 0;
+            boolean added = false;
+            for (long existing : ids) {
+                if (!added && id < existing) {
+                    add(id);
+                    added = true;
+                }
+                add(existing);
+            }
+        }
+
+        private void write(long delta) {
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+            }
+            while (delta >= 0x80) {
+                bytes[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+        }
+
+        long[] decode() {
+            Reader reader = new Reader();
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = reader.next();
+            }
+            return ids;
+        }
+
+        // The ids that are also in this list, both lists are walked once
+        long[] retain(long[] ids) {
+            Reader reader = new Reader();
+            long[] kept = new long[ids.length];
+            int size = 0;
+            int next = 0;
+            for (int i = 0; i < count && next < ids.length; i++) {
+                long id = reader.next();
+                while (next < ids.length && ids[next] < id) {
+                    next++;
+                }
+                if (next < ids.length && ids[next] == id) {
+                    kept[size++] = id;
+                    next++;
+                }
+            }
+            return Arrays.copyOf(kept, size);
+        }
+
+        private class Reader {
+            private int position;
+            private long id;
+
+            long next() {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    delta |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                return id;
+            }
+        }
+    }
+}
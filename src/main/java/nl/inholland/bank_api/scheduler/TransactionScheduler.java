@@ -1,26 +1,62 @@
 package nl.inholland.bank_api.scheduler;
 
 import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.service.AtmProcessingQueue;
 import nl.inholland.bank_api.service.AtmTransactionService;
+import nl.inholland.bank_api.service.TransferSettlementPipeline;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 public class TransactionScheduler {
     private final AtmTransactionService atmTransactionService;
+    private final ObjectProvider<AtmProcessingQueue> atmProcessingQueue;
+    private final ObjectProvider<TransferSettlementPipeline> settlementPipeline;
+
+    @Value("${bank.atm.batch.enabled:false}")
+    private boolean batchEnabled;
 
-    public TransactionScheduler(AtmTransactionService atmTransactionService) {
+    public TransactionScheduler(
+            AtmTransactionService atmTransactionService,
+            ObjectProvider<AtmProcessingQueue> atmProcessingQueue,
+            ObjectProvider<TransferSettlementPipeline> settlementPipeline
+    ) {
         this.atmTransactionService = atmTransactionService;
+        this.atmProcessingQueue = atmProcessingQueue;
+        this.settlementPipeline = settlementPipeline;
     }
 
-    @Scheduled(fixedRate = 5000)
+    @Scheduled(fixedDelayString = "${bank.scheduler.sweep-interval:PT30S}")
     public void processAllPendingTransactions() {
-        for (AtmTransaction transaction : atmTransactionService.getPendingTransactions()) {
-            atmTransactionService.processTransaction(transaction);
+        // New ATM transactions are processed by the queue, this only recovers the ones it never received
+        AtmProcessingQueue queue = atmProcessingQueue.getIfAvailable();
+        if (queue != null) {
+            queue.sweepPending();
+        } else {
+            // Batch by batch, so other instances can claim the rest of the backlog in the meantime
+            List<AtmTransactionRepository.PendingAtmTransaction> claimed;
+            while (!(claimed = atmTransactionService.claimPendingTransactions()).isEmpty()) {
+                List<Long> ids = claimed.stream().map(AtmTransactionRepository.PendingAtmTransaction::getId).toList();
+                if (batchEnabled) {
+                    atmTransactionService.processBatch(ids);
+                    continue;
+                }
+
+                for (AtmTransaction transaction : atmTransactionService.loadForProcessing(ids)) {
+                    atmTransactionService.processTransaction(transaction);
+                }
+            }
         }
 
-        /*for (Transaction transaction : transactionService.getPendingTransactions()) {
-            transactionService.processTransaction(transaction);
-        }*/
+        // Pending transfers are settled by the pipeline, this only recovers the ones it never received
+        TransferSettlementPipeline pipeline = settlementPipeline.getIfAvailable();
+        if (pipeline != null) {
+            pipeline.sweepPending();
+        }
     }
 }
@@ -0,0 +1,128 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.transaction.Transactional;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountActivityBatchRepository;
+import nl.inholland.bank_api.repository.AccountActivityRepository;
+import nl.inholland.bank_api.repository.TransferDescriptionIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Keeps account_activity, the read model the account histories are served from: one line per account for every
+// succeeded transfer and ATM transaction, so a history page does not have to merge and join the transaction tables
+@Service
+@Log
+public class AccountActivityService {
+    private final AccountActivityBatchRepository activityBatchRepository;
+    private final AccountActivityRepository activityRepository;
+    private final TransferDescriptionIndex descriptionIndex;
+
+    // One-off migration for a database written before account_activity existed, see backfill()
+    @Value("${bank.activity.backfill-on-startup:false}")
+    private boolean backfillOnStartup;
+
+    public AccountActivityService(AccountActivityBatchRepository activityBatchRepository,
+                                  AccountActivityRepository activityRepository,
+                                  TransferDescriptionIndex descriptionIndex) {
+        this.activityBatchRepository = activityBatchRepository;
+        this.activityRepository = activityRepository;
+        this.descriptionIndex = descriptionIndex;
+    }
+
+    // Must run in the transaction that changed the balances, after the transfers have their ids
+    public void recordTransfers(List<Transaction> transactions) {
+        List<AccountActivity> activities = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            if (transaction.getStatus() != Status.SUCCEEDED) {
+                continue;
+            }
+
+            Account source = transaction.getSourceAccount();
+            Account target = transaction.getTargetAccount();
+            activities.add(transferLine(transaction, source, EntryDirection.DEBIT, target));
+            if (!Objects.equals(source.getId(), target.getId())) {
+                activities.add(transferLine(transaction, target, EntryDirection.CREDIT, source));
+            }
+        }
+
+        activityBatchRepository.append(activities);
+    }
+
+    public void recordAtmTransaction(AtmTransaction transaction) {
+        recordAtmTransactions(List.of(transaction));
+    }
+
+    public void recordAtmTransactions(List<AtmTransaction> transactions) {
+        List<AccountActivity> activities = new ArrayList<>();
+        for (AtmTransaction transaction : transactions) {
+            if (transaction.getStatus() != Status.SUCCEEDED) {
+                continue;
+            }
+
+            activities.add(AccountActivity.builder()
+                    .accountId(transaction.getAccount().getId())
+                    .referenceType(LedgerReferenceType.ATM)
+                    .referenceId(transaction.getId())
+                    .direction(transaction.getType() == AtmTransactionType.DEPOSIT ? EntryDirection.CREDIT : EntryDirection.DEBIT)
+                    .amount(transaction.getAmount())
+                    .description(transaction.getType().name())
+                    .status(transaction.getStatus())
+                    .timestamp(transaction.getTimestamp())
+                    .build());
+        }
+
+        activityBatchRepository.append(activities);
+    }
+
+    // Adds the lines of transactions written before the read model existed or while it was not maintained. A
+    // migration or recovery job: each query compares the whole transaction table with account_activity
+    @Transactional
+    public int backfill() {
+        int lines = activityRepository.insertMissingOutgoingTransfers()
+                + activityRepository.insertMissingIncomingTransfers()
+                + activityRepository.insertMissingAtmTransactions();
+
+        if (lines > 0) {
+            log.info("Backfilled " + lines + " account activity lines");
+        }
+        return lines;
+    }
+
+    // The description index reads the backfilled lines like any other new lines
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareAtStartup() {
+        if (backfillOnStartup) {
+            backfill();
+        }
+        descriptionIndex.build();
+    }
+
+    private static AccountActivity transferLine(Transaction transaction, Account account, EntryDirection direction,
+                                                Account counterpart) {
+        return AccountActivity.builder()
+                .accountId(account.getId())
+                .referenceType(LedgerReferenceType.TRANSFER)
+                .referenceId(transaction.getId())
+                .direction(direction)
+                .counterpartIban(counterpart.getIban())
+                .amount(transaction.getAmount())
+                .description(transaction.getDescription())
+                .status(transaction.getStatus())
+                .timestamp(transaction.getTimestamp())
+                .build();
+    }
+}
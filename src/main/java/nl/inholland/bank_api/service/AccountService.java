@@ -6,6 +6,7 @@ import nl.inholland.bank_api.mapper.AccountMapper;
 import nl.inholland.bank_api.model.dto.AccountDTO;
 import nl.inholland.bank_api.model.dto.AccountWithUserDTO;
 import nl.inholland.bank_api.model.dto.UpdateAccountLimitsDTO;
+import nl.inholland.bank_api.model.dto.UpdateBalanceStripesDTO;
 import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.model.enums.AccountStatus;
@@ -27,10 +28,16 @@ public class AccountService {
     private static final String BANK_CODE = "INHO0";
     private static final String COUNTRY_CODE = "NL";
     private final AccountMapper accountMapper;
+    private final BalanceStripingService balanceStripingService;
 
-    public AccountService(AccountRepository accountRepository, AccountMapper accountMapper) {
+    public AccountService(
+            AccountRepository accountRepository,
+            AccountMapper accountMapper,
+            BalanceStripingService balanceStripingService
+    ) {
         this.accountRepository = accountRepository;
         this.accountMapper = accountMapper;
+        this.balanceStripingService = balanceStripingService;
     }
 
     public Account fetchAccountByIban(String iban) {
@@ -42,14 +49,20 @@ public class AccountService {
         return toDTO(fetchAccountByIban(iban));
     }
 
-    public void updateBalance(Account account, BigDecimal amount, Operation operation) {
+    // Returns false when a subtraction would take the balance below the absolute limit
+    public boolean updateBalance(Account account, BigDecimal amount, Operation operation) {
         if (operation == Operation.ADDITION) {
-            account.setBalance(account.getBalance().add(amount));
+            balanceStripingService.credit(account, amount);
+            return true;
         } else if (operation == Operation.SUBTRACTION) {
-            account.setBalance(account.getBalance().subtract(amount));
+            return balanceStripingService.debit(account, amount);
         }
 
-        accountRepository.save(account);
+        return false;
+    }
+
+    public void updateBalanceStripes(String iban, UpdateBalanceStripesDTO dto) {
+        balanceStripingService.setStripes(iban, dto.getStripes());
     }
 
     public List<AccountDTO> fetchAccountsByName(String firstName, String lastName, Long id) {
@@ -83,7 +96,11 @@ public class AccountService {
         dto.setIban(account.getIban());
         dto.setStatus(account.getStatus().name());
         dto.setType(account.getType().name());
-        dto.setBalance(account.getBalance());
+        BigDecimal balance = balanceStripingService.getBalance(account);
+        dto.setBalance(balance);
+        if (balance != null) {
+            dto.setAvailableBalance(balance.subtract(account.getHeldAmount()));
+        }
 
         if (account.getUser() != null) {
             dto.setUserId(account.getUser().getId());
@@ -0,0 +1,174 @@
+package nl.inholland.bank_api.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ServiceUnavailableException;
+import nl.inholland.bank_api.exception.TooManyRequestsException;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Turns new ATM transactions away while the backlog is too large, before anything is stored.
+// The backlog is counted in memory: up when a transaction is admitted, down once it has been processed.
+// Every refresh interval the counters are reset from the database, which also picks up the transactions
+// that other instances created or processed.
+@Service
+public class AtmAdmissionService {
+    private final AtmTransactionRepository transactionRepository;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Counter rejectedForAccount;
+    private final Counter rejectedForBacklog;
+    private volatile Map<Long, AtomicInteger> pendingByAccount = new ConcurrentHashMap<>();
+    private volatile LocalDateTime oldestPending;
+
+    @Value("${bank.atm.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bank.atm.admission.max-pending:5000}")
+    private int maxPending;
+
+    @Value("${bank.atm.admission.max-pending-per-account:20}")
+    private int maxPendingPerAccount;
+
+    // Age of the oldest pending transaction
+    @Value("${bank.atm.admission.max-lag:PT1M}")
+    private Duration maxLag;
+
+    @Value("${bank.atm.admission.retry-after:PT5S}")
+    private Duration retryAfter;
+
+    public AtmAdmissionService(AtmTransactionRepository transactionRepository, MeterRegistry meterRegistry) {
+        this.transactionRepository = transactionRepository;
+        this.rejectedForAccount = Counter.builder("bank.atm.admission.rejected")
+                .tag("reason", "account")
+                .description("ATM transactions turned away because their account had too many pending")
+                .register(meterRegistry);
+        this.rejectedForBacklog = Counter.builder("bank.atm.admission.rejected")
+                .tag("reason", "backlog")
+                .description("ATM transactions turned away because of the total backlog or settlement lag")
+                .register(meterRegistry);
+        Gauge.builder("bank.atm.admission.pending", pending, AtomicInteger::get)
+                .description("Pending ATM transactions as counted for admission")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${bank.atm.admission.refresh-interval:PT5S}")
+    public void refresh() {
+        Map<Long, AtomicInteger> byAccount = new ConcurrentHashMap<>();
+        int total = 0;
+        LocalDateTime oldest = null;
+        for (AtmTransactionRepository.AccountBacklog backlog : transactionRepository.findBacklogByAccount()) {
+            byAccount.put(backlog.getAccountId(), new AtomicInteger((int) backlog.getPending()));
+            total += (int) backlog.getPending();
+            if (oldest == null || backlog.getOldest().isBefore(oldest)) {
+                oldest = backlog.getOldest();
+            }
+        }
+
+        pendingByAccount = byAccount;
+        pending.set(total);
+        oldestPending = oldest;
+    }
+
+    // Counts the transaction as pending, or throws when it may not be created now.
+    // Call release when it is not stored after all.
+    public void admit(Long accountId) {
+        if (!enabled) {
+            return;
+        }
+
+        if (pending.get() >= maxPending || isLagging()) {
+            rejectedForBacklog.increment();
+            throw new ServiceUnavailableException(ErrorMessages.ATM_BACKLOG_FULL, retryAfter);
+        }
+
+        AtomicInteger forAccount = pendingByAccount.computeIfAbsent(accountId, id -> new AtomicInteger());
+        if (forAccount.incrementAndGet() > maxPendingPerAccount) {
+            forAccount.decrementAndGet();
+            rejectedForAccount.increment();
+            throw new TooManyRequestsException(ErrorMessages.ATM_ACCOUNT_BACKLOG_FULL, retryAfter);
+        }
+        pending.incrementAndGet();
+    }
+
+    // For operations a terminal recorded while offline. They already happened at the terminal,
+    // so only the total backlog turns them away, not the share of their accounts
+    public void admitUploaded(List<Long> accountIds) {
+        if (!enabled) {
+            return;
+        }
+
+        if (pending.get() + accountIds.size() > maxPending || isLagging()) {
+            rejectedForBacklog.increment();
+            throw new ServiceUnavailableException(ErrorMessages.ATM_BACKLOG_FULL, retryAfter);
+        }
+
+        for (Long accountId : accountIds) {
+            pendingByAccount.computeIfAbsent(accountId, id -> new AtomicInteger()).incrementAndGet();
+        }
+        pending.addAndGet(accountIds.size());
+    }
+
+    public void release(Long accountId) {
+        if (!enabled) {
+            return;
+        }
+
+        decrement(pendingByAccount.get(accountId));
+        if (decrement(pending) == 0) {
+            oldestPending = null;
+        }
+    }
+
+    // Must run in the processing transaction; the counters go down once it has committed
+    public void releaseAfterCommit(List<AtmTransaction> processed) {
+        List<Long> accountIds = processed.stream()
+                .map(transaction -> transaction.getAccount().getId())
+                .toList();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            accountIds.forEach(this::release);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                accountIds.forEach(AtmAdmissionService.this::release);
+            }
+        });
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public int getPendingCount(Long accountId) {
+        AtomicInteger forAccount = pendingByAccount.get(accountId);
+        return forAccount == null ? 0 : forAccount.get();
+    }
+
+    private boolean isLagging() {
+        LocalDateTime oldest = oldestPending;
+        return oldest != null && oldest.isBefore(LocalDateTime.now().minus(maxLag));
+    }
+
+    // Never below 0: the counters may have been reset in between
+    private static int decrement(AtomicInteger counter) {
+        return counter == null ? 0 : counter.updateAndGet(value -> Math.max(0, value - 1));
+    }
+}
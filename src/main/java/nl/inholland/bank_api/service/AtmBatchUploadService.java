@@ -0,0 +1,209 @@
+package nl.inholland.bank_api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.transaction.Transactional;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ConstraintViolationException;
+import jakarta.validation.Validator;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ConflictException;
+import nl.inholland.bank_api.model.dto.AtmBatchOperationDTO;
+import nl.inholland.bank_api.model.dto.AtmBatchUploadDTO;
+import nl.inholland.bank_api.model.dto.AtmBatchUploadResponseDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.HoldStatus;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionBatchRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.util.TerminalSignatureVerifier;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Stores the operations a terminal recorded while it was offline as PENDING ATM transactions.
+// Operations the terminal uploaded before are recognised by their sequence number and not stored again,
+// so a terminal can resend a batch it got no answer for. New operations are inserted in sequence order,
+// which the settlement pipeline then follows per account. The cash of an uploaded withdrawal is already
+// paid out, so it is stored with an open hold that is placed without any check: posting captures it like an
+// approved withdrawal and never declines it, and an overdraft or a daily limit breach is recorded instead.
+@Service
+public class AtmBatchUploadService {
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TerminalSignatureVerifier signatureVerifier;
+    private final AccountRepository accountRepository;
+    private final AtmTransactionRepository transactionRepository;
+    private final AtmTransactionBatchRepository atmTransactionBatchRepository;
+    private final AtmAdmissionService admissionService;
+    private final LimitAccountingService limitAccountingService;
+    private final ObjectProvider<AtmProcessingQueue> processingQueue;
+
+    @Value("${bank.atm.upload.max-size:1000}")
+    private int maxSize;
+
+    public AtmBatchUploadService(
+            ObjectMapper objectMapper,
+            Validator validator,
+            TerminalSignatureVerifier signatureVerifier,
+            AccountRepository accountRepository,
+            AtmTransactionRepository transactionRepository,
+            AtmTransactionBatchRepository atmTransactionBatchRepository,
+            AtmAdmissionService admissionService,
+            LimitAccountingService limitAccountingService,
+            ObjectProvider<AtmProcessingQueue> processingQueue
+    ) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.signatureVerifier = signatureVerifier;
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.atmTransactionBatchRepository = atmTransactionBatchRepository;
+        this.admissionService = admissionService;
+        this.limitAccountingService = limitAccountingService;
+        this.processingQueue = processingQueue;
+    }
+
+    // The body is taken as sent, the signature covers its exact bytes
+    @Transactional
+    public AtmBatchUploadResponseDTO upload(byte[] body, String signature, User uploadedBy) {
+        AtmBatchUploadDTO batch = read(body);
+        signatureVerifier.verify(batch.terminalId, body, signature);
+
+        List<AtmBatchOperationDTO> operations = batch.operations.stream()
+                .sorted(Comparator.comparing(operation -> operation.sequence))
+                .toList();
+        Map<String, Account> accounts = findAccounts(operations, uploadedBy);
+
+        // A sequence number that is used again must describe the same operation, like on the gateway
+        Map<Long, AtmBatchOperationDTO> bySequence = operations.stream()
+                .collect(Collectors.toMap(operation -> operation.sequence, Function.identity()));
+        Map<Long, Long> transactionIds = new TreeMap<>();
+        transactionRepository.findByTerminalSequences(batch.terminalId, bySequence.keySet())
+                .forEach(uploaded -> {
+                    AtmBatchOperationDTO operation = bySequence.get(uploaded.getSequence());
+                    if (uploaded.getType() != operation.type || !uploaded.getIban().equals(operation.iban)
+                            || uploaded.getAmount().compareTo(operation.amount) != 0) {
+                        throw new IllegalArgumentException(ErrorMessages.TERMINAL_SEQUENCE_REUSED);
+                    }
+                    transactionIds.put(uploaded.getSequence(), uploaded.getId());
+                });
+
+        // Received now; the time at the terminal is kept apart, so lag and daily totals use the server clock
+        LocalDateTime now = LocalDateTime.now();
+        List<AtmTransaction> created = operations.stream()
+                .filter(operation -> !transactionIds.containsKey(operation.sequence))
+                .map(operation -> AtmTransaction.builder()
+                        .account(accounts.get(operation.iban))
+                        .initiatedBy(uploadedBy)
+                        .type(operation.type)
+                        .amount(operation.amount)
+                        .timestamp(now)
+                        .status(Status.PENDING)
+                        .terminalId(batch.terminalId)
+                        .terminalSequence(operation.sequence)
+                        .clientTimestamp(operation.timestamp)
+                        .holdStatus(operation.type == AtmTransactionType.WITHDRAW ? HoldStatus.OPEN : null)
+                        .build())
+                .toList();
+        if (created.isEmpty()) {
+            return new AtmBatchUploadResponseDTO(batch.terminalId, transactionIds, 0);
+        }
+
+        List<Long> accountIds = created.stream()
+                .map(transaction -> transaction.getAccount().getId())
+                .toList();
+        admissionService.admitUploaded(accountIds);
+        List<Long> ids;
+        try {
+            ids = atmTransactionBatchRepository.insertTransactions(created);
+        } catch (DuplicateKeyException e) {
+            accountIds.forEach(admissionService::release);
+            throw new ConflictException(ErrorMessages.ATM_BATCH_IN_PROGRESS);
+        } catch (RuntimeException e) {
+            accountIds.forEach(admissionService::release);
+            throw e;
+        }
+
+        // In account id order, like every other balance change
+        Map<Long, BigDecimal> withdrawn = new TreeMap<>();
+        created.stream()
+                .filter(transaction -> transaction.getHoldStatus() == HoldStatus.OPEN)
+                .forEach(transaction -> withdrawn.merge(transaction.getAccount().getId(), transaction.getAmount(),
+                        BigDecimal::add));
+        atmTransactionBatchRepository.increaseHeldAmounts(withdrawn);
+        withdrawn.forEach((accountId, amount) ->
+                limitAccountingService.recordUsage(accountId, LimitKind.ATM_WITHDRAWAL, amount));
+
+        // In sequence order, the worker of an account processes them in the order they are submitted
+        AtmProcessingQueue queue = processingQueue.getIfAvailable();
+        for (int i = 0; i < created.size(); i++) {
+            transactionIds.put(created.get(i).getTerminalSequence(), ids.get(i));
+            if (queue != null) {
+                queue.submitAfterCommit(ids.get(i), accountIds.get(i));
+            }
+        }
+
+        return new AtmBatchUploadResponseDTO(batch.terminalId, transactionIds, created.size());
+    }
+
+    private AtmBatchUploadDTO read(byte[] body) {
+        AtmBatchUploadDTO batch;
+        try {
+            batch = objectMapper.readValue(body, AtmBatchUploadDTO.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(ErrorMessages.ATM_BATCH_MALFORMED);
+        }
+        if (batch == null) {
+            throw new IllegalArgumentException(ErrorMessages.ATM_BATCH_MALFORMED);
+        }
+
+        Set<ConstraintViolation<AtmBatchUploadDTO>> violations = validator.validate(batch);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+        if (batch.operations.size() > maxSize) {
+            throw new IllegalArgumentException(ErrorMessages.ATM_BATCH_SIZE_EXCEEDED);
+        }
+        if (batch.operations.stream().map(operation -> operation.sequence).distinct().count() < batch.operations.size()) {
+            throw new IllegalArgumentException(ErrorMessages.TERMINAL_SEQUENCE_DUPLICATE);
+        }
+
+        return batch;
+    }
+
+    // Customers may only upload operations on their own accounts, employees on any account.
+    // Checked for resent operations too, their ids are only returned to whoever could create them
+    private Map<String, Account> findAccounts(List<AtmBatchOperationDTO> operations, User uploadedBy) {
+        Set<String> ibans = operations.stream()
+                .map(operation -> operation.iban)
+                .collect(Collectors.toSet());
+        Map<String, Account> accounts = accountRepository.findByIbanIn(ibans).stream()
+                .collect(Collectors.toMap(Account::getIban, Function.identity()));
+        if (accounts.size() < ibans.size()) {
+            throw new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND);
+        }
+
+        if (uploadedBy.getRole() != UserRole.EMPLOYEE && accounts.values().stream()
+                .anyMatch(account -> !account.getUser().getId().equals(uploadedBy.getId()))) {
+            throw new AccessDeniedException(ErrorMessages.ACCESS_DENIED);
+        }
+
+        return accounts;
+    }
+}
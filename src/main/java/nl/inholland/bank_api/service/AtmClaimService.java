@@ -0,0 +1,63 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.transaction.Transactional;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+// Lets several instances share the ATM backlog. A sweep claims a bounded batch of pending transactions by
+// moving them to PROCESSING under its instance id with a lease. If the instance stops before processing
+// them, the lease runs out and another instance claims them again.
+@Service
+public class AtmClaimService {
+    private final AtmTransactionRepository transactionRepository;
+    private final String instanceId;
+
+    @Value("${bank.atm.claim.batch-size:100}")
+    private int batchSize;
+
+    @Value("${bank.atm.claim.lease:PT1M}")
+    private Duration lease;
+
+    public AtmClaimService(
+            AtmTransactionRepository transactionRepository,
+            @Value("${bank.instance-id:}") String instanceId
+    ) {
+        this.transactionRepository = transactionRepository;
+        this.instanceId = instanceId.isBlank() ? UUID.randomUUID().toString() : instanceId;
+    }
+
+    // Claims transactions that are pending for longer than minAge or whose lease has ended, oldest first
+    @Transactional
+    public List<AtmTransactionRepository.PendingAtmTransaction> claim(Duration minAge) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> ids = transactionRepository.findClaimableIds(now.minus(minAge), now, PageRequest.ofSize(batchSize));
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        // Rows taken by another instance between the select and the update are not returned
+        transactionRepository.claim(ids, instanceId, now.plus(lease), now);
+        return transactionRepository.findClaimed(ids, instanceId);
+    }
+
+    public boolean isClaimedByThisInstance(AtmTransaction transaction) {
+        return transaction.getStatus() == Status.PROCESSING && instanceId.equals(transaction.getClaimedBy());
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
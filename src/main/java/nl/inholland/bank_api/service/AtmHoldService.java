@@ -0,0 +1,91 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.transaction.Transactional;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.enums.HoldStatus;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+
+// Authorizes ATM withdrawals while the customer waits at the terminal. The amount is held on the account right
+// away, against the available balance and the daily withdrawal total, and the withdrawal is posted later with
+// the other pending ATM transactions. An approved withdrawal may already have been paid out, so its hold never
+// expires and posting always captures it, however late; only a release cancels the withdrawal.
+@Service
+public class AtmHoldService {
+    private final AtmTransactionRepository transactionRepository;
+    private final AccountRepository accountRepository;
+    private final BalanceStripingService balanceStripingService;
+    private final LimitAccountingService limitAccountingService;
+
+    public AtmHoldService(
+            AtmTransactionRepository transactionRepository,
+            AccountRepository accountRepository,
+            BalanceStripingService balanceStripingService,
+            LimitAccountingService limitAccountingService
+    ) {
+        this.transactionRepository = transactionRepository;
+        this.accountRepository = accountRepository;
+        this.balanceStripingService = balanceStripingService;
+        this.limitAccountingService = limitAccountingService;
+    }
+
+    // Stores the withdrawal as PENDING with an open hold when it is approved, or as FAILED when it is declined
+    @Transactional
+    public AtmTransaction authorize(AtmTransaction withdrawal) {
+        Account account = withdrawal.getAccount();
+        BigDecimal amount = withdrawal.getAmount();
+
+        // The guarded hold locks the account, so the daily total cannot change before this commits
+        String failureReason = null;
+        if (!balanceStripingService.hold(account, amount)) {
+            failureReason = ErrorMessages.INSUFFICIENT_BALANCE;
+        } else if (limitAccountingService.getUsedToday(account.getId(), LimitKind.ATM_WITHDRAWAL).add(amount)
+                .compareTo(account.getWithdrawLimit()) > 0) {
+            balanceStripingService.releaseHold(account, amount);
+            failureReason = ErrorMessages.DAILY_WITHDRAWAL_LIMIT_EXCEEDED;
+        }
+
+        if (failureReason == null) {
+            limitAccountingService.recordUsage(account.getId(), LimitKind.ATM_WITHDRAWAL, amount);
+            withdrawal.setHoldStatus(HoldStatus.OPEN);
+            withdrawal.setStatus(Status.PENDING);
+        } else {
+            withdrawal.setStatus(Status.FAILED);
+            withdrawal.setFailureReason(failureReason);
+        }
+        return transactionRepository.save(withdrawal);
+    }
+
+    // Gives up the hold of a withdrawal that was not paid out and cancels it, as long as it was not posted yet.
+    // Returns null when the hold is not open anymore.
+    @Transactional
+    public AtmTransaction release(Long transactionId) {
+        AtmTransaction transaction = transactionRepository.findById(transactionId).orElse(null);
+        if (transaction == null || transaction.getHoldStatus() != HoldStatus.OPEN) {
+            return null;
+        }
+
+        // Account first, like posting. The conditional update decides, the loaded hold status may be outdated
+        accountRepository.findByIdForUpdate(transaction.getAccount().getId());
+        if (transactionRepository.cancelHeldWithdrawal(transactionId, ErrorMessages.WITHDRAWAL_CANCELLED) == 0) {
+            return null;
+        }
+
+        balanceStripingService.releaseHold(transaction.getAccount(), transaction.getAmount());
+        limitAccountingService.revokeUsage(transaction.getAccount().getId(), transaction.getTimestamp().toLocalDate(),
+                LimitKind.ATM_WITHDRAWAL, transaction.getAmount());
+
+        // Mirrors the update, for the caller
+        transaction.setHoldStatus(HoldStatus.RELEASED);
+        transaction.setStatus(Status.FAILED);
+        transaction.setFailureReason(ErrorMessages.WITHDRAWAL_CANCELLED);
+        return transaction;
+    }
+}
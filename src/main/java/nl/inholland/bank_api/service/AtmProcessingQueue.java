@@ -0,0 +1,276 @@
+package nl.inholland.bank_api.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+// Processes ATM transactions as soon as they are committed. Transactions are routed to the worker that owns
+// their account, so accounts are processed in parallel while each account keeps submission order.
+// The scheduler only recovers the ones that never reached a worker, because its queue was full or
+// the instance stopped before processing them. Once a worker's queue was full, its new transactions are
+// left to the scheduler as well until it has caught up, so none of them overtakes a skipped one.
+@Service
+@ConditionalOnProperty(name = "bank.atm.queue.enabled", havingValue = "true", matchIfMissing = true)
+@Log
+public class AtmProcessingQueue {
+    private final AtmTransactionService atmTransactionService;
+    private final AtmClaimService claimService;
+    private final AtmTransactionRepository transactionRepository;
+    private final MeterRegistry meterRegistry;
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    private final Timer settlementLag;
+
+    @Value("${bank.atm.queue.workers:4}")
+    private int workerCount;
+
+    // Virtual threads only pay off with more workers than database connections can serve at once
+    @Value("${bank.atm.queue.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    // Per worker
+    @Value("${bank.atm.queue.capacity:10000}")
+    private int queueCapacity;
+
+    // Workers take everything queued for them, up to this many, and process it as one batch
+    @Value("${bank.atm.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${bank.atm.batch.max-size:100}")
+    private int batchMaxSize;
+
+    // Pending ATM transactions older than this are picked up by the recovery sweep
+    @Value("${bank.atm.sweep-after:PT10S}")
+    private Duration sweepAfter;
+
+    private Worker[] workers;
+    private volatile boolean running;
+
+    public AtmProcessingQueue(
+            AtmTransactionService atmTransactionService,
+            AtmClaimService claimService,
+            AtmTransactionRepository transactionRepository,
+            MeterRegistry meterRegistry
+    ) {
+        this.atmTransactionService = atmTransactionService;
+        this.claimService = claimService;
+        this.transactionRepository = transactionRepository;
+        this.meterRegistry = meterRegistry;
+        this.settlementLag = Timer.builder("bank.atm.settlement.lag")
+                .description("Time between the creation and the processing of an ATM transaction")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+            workers[i].thread.start();
+        }
+
+        Gauge.builder("bank.atm.queue.depth", this, AtmProcessingQueue::getQueueDepth)
+                .description("ATM transactions waiting to be processed")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Worker worker : workers) {
+            worker.thread.join();
+        }
+    }
+
+    // The worker must not see the transaction before it is committed, so it is queued after the commit
+    public void submitAfterCommit(Long transactionId, Long accountId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(transactionId, accountId);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                enqueue(transactionId, accountId);
+            }
+        });
+    }
+
+    // Claims and queues transactions that were never queued or were lost with another instance.
+    // Stops claiming once the workers have enough to do, so other instances get the rest of the backlog.
+    public int sweepPending() {
+        // Everything skipped before this was old enough to be claimed by this sweep
+        LocalDateTime skippedBefore = LocalDateTime.now().minus(sweepAfter);
+        int found = 0;
+        List<AtmTransactionRepository.PendingAtmTransaction> claimed;
+        try {
+            do {
+                claimed = claimService.claim(sweepAfter);
+                for (AtmTransactionRepository.PendingAtmTransaction pending : claimed) {
+                    if (requeue(pending.getId(), pending.getAccountId())) {
+                        found++;
+                    }
+                }
+            } while (claimed.size() == claimService.getBatchSize()
+                    && getQueueDepth() < claimService.getBatchSize() * workers.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return found;
+        }
+
+        // Only a sweep that claimed the whole backlog has queued every skipped transaction
+        if (claimed.size() < claimService.getBatchSize()) {
+            for (Worker worker : workers) {
+                worker.resume(skippedBefore);
+            }
+        }
+
+        if (found > 0) {
+            log.info("Recovered " + found + " pending ATM transactions");
+        }
+        return found;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    // Never blocks the committing thread, a transaction the worker does not take stays PENDING for the sweep
+    private boolean enqueue(Long transactionId, Long accountId) {
+        if (!queued.add(transactionId)) {
+            return false;
+        }
+
+        if (!workerFor(accountId).offer(transactionId)) {
+            queued.remove(transactionId);
+            return false;
+        }
+        return true;
+    }
+
+    // The sweep queues oldest first, so it waits for room instead of skipping
+    private boolean requeue(Long transactionId, Long accountId) throws InterruptedException {
+        if (!queued.add(transactionId)) {
+            return false;
+        }
+
+        BlockingQueue<Long> queue = workerFor(accountId).queue;
+        while (!queue.offer(transactionId, 100, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                queued.remove(transactionId);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Worker workerFor(Long accountId) {
+        return workers[Math.floorMod(accountId, workers.length)];
+    }
+
+    private void process(Long transactionId) {
+        try {
+            AtmTransaction transaction = transactionRepository.findById(transactionId).orElse(null);
+            if (transaction != null) {
+                atmTransactionService.processTransaction(transaction);
+                settlementLag.record(Duration.between(transaction.getTimestamp(), LocalDateTime.now()));
+            }
+        } catch (RuntimeException e) {
+            // Stays PENDING, the recovery sweep retries it
+            log.log(Level.WARNING, "Could not process ATM transaction " + transactionId, e);
+        } finally {
+            queued.remove(transactionId);
+        }
+    }
+
+    private void processBatch(List<Long> transactionIds) {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            for (AtmTransaction transaction : atmTransactionService.processBatch(transactionIds)) {
+                settlementLag.record(Duration.between(transaction.getTimestamp(), now));
+            }
+        } catch (RuntimeException e) {
+            // Stay PENDING, the recovery sweep retries them
+            log.log(Level.WARNING, "Could not process a batch of " + transactionIds.size() + " ATM transactions", e);
+        } finally {
+            transactionIds.forEach(queued::remove);
+        }
+    }
+
+    private class Worker {
+        private final BlockingQueue<Long> queue = new LinkedBlockingQueue<>(queueCapacity);
+        private final Thread thread;
+
+        // When the last transaction was skipped, null while new transactions are queued
+        private LocalDateTime skippedAt;
+
+        private Worker(int index) {
+            Thread.Builder builder = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+            thread = builder.name("atm-processing-" + index).unstarted(this::run);
+        }
+
+        private synchronized boolean offer(Long transactionId) {
+            if (skippedAt == null && queue.offer(transactionId)) {
+                return true;
+            }
+            skippedAt = LocalDateTime.now();
+            return false;
+        }
+
+        private synchronized void resume(LocalDateTime skippedBefore) {
+            if (skippedAt != null && skippedAt.isBefore(skippedBefore)) {
+                skippedAt = null;
+            }
+        }
+
+        private void run() {
+            while (running) {
+                try {
+                    Long transactionId = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (transactionId == null) {
+                        continue;
+                    }
+
+                    if (batchEnabled) {
+                        List<Long> batch = new ArrayList<>();
+                        batch.add(transactionId);
+                        queue.drainTo(batch, batchMaxSize - 1);
+                        processBatch(batch);
+                    } else {
+                        process(transactionId);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.mapper.AtmTransactionMapper;
+import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Open status streams of ATM transactions, keyed by transaction id. Every stream gets one event with the
+// final status and is then closed. While a stream waits the servlet request is suspended, so no thread is held.
+@Service
+public class AtmStatusNotifier {
+    public static final String STATUS_EVENT = "status";
+
+    private final AtmTransactionRepository transactionRepository;
+    private final AtmTransactionMapper transactionMapper;
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    // Clients reconnect when the stream ends without a status, as EventSource does
+    @Value("${bank.atm.events.timeout:PT2M}")
+    private Duration timeout;
+
+    public AtmStatusNotifier(AtmTransactionRepository transactionRepository, AtmTransactionMapper transactionMapper) {
+        this.transactionRepository = transactionRepository;
+        this.transactionMapper = transactionMapper;
+    }
+
+    public SseEmitter subscribe(Long transactionId) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        emitter.onCompletion(() -> unsubscribe(transactionId, emitter));
+        subscribers.compute(transactionId, (id, emitters) -> {
+            Set<SseEmitter> set = emitters != null ? emitters : ConcurrentHashMap.newKeySet();
+            set.add(emitter);
+            return set;
+        });
+
+        // Read after registering, so a settlement that commits in between is not missed
+        transactionRepository.findById(transactionId)
+                .filter(AtmStatusNotifier::isSettled)
+                .ifPresent(transaction -> notify(transactionMapper.toAtmTransactionDTO(transaction)));
+        return emitter;
+    }
+
+    // Must run in the settling transaction; the streams are told once it has committed
+    public void publishAfterCommit(List<AtmTransaction> transactions) {
+        List<AtmTransactionDTO> results = transactions.stream()
+                .map(transactionMapper::toAtmTransactionDTO)
+                .toList();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            results.forEach(this::notify);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                results.forEach(AtmStatusNotifier.this::notify);
+            }
+        });
+    }
+
+    // Catches transactions that were settled by another instance
+    @Scheduled(fixedDelayString = "${bank.atm.events.poll-interval:PT5S}")
+    public void notifySettledElsewhere() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        for (AtmTransaction transaction : transactionRepository.findAllById(List.copyOf(subscribers.keySet()))) {
+            if (isSettled(transaction)) {
+                notify(transactionMapper.toAtmTransactionDTO(transaction));
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void notify(AtmTransactionDTO result) {
+        Set<SseEmitter> emitters = subscribers.remove(result.id());
+        if (emitters == null) {
+            return;
+        }
+
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name(STATUS_EVENT).id(String.valueOf(result.id())).data(result));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+
+                // The client went away or the stream timed out
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    private static boolean isSettled(AtmTransaction transaction) {
+        return transaction.getStatus() != Status.PENDING && transaction.getStatus() != Status.PROCESSING;
+    }
+
+    private void unsubscribe(Long transactionId, SseEmitter emitter) {
+        subscribers.computeIfPresent(transactionId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
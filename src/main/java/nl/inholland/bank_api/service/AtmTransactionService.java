@@ -3,6 +3,7 @@ package nl.inholland.bank_api.service;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ConflictException;
 import nl.inholland.bank_api.mapper.AtmTransactionMapper;
 import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
 import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
@@ -10,39 +11,179 @@ import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.AtmTransaction;
 import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.HoldStatus;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.model.enums.Operation;
 import nl.inholland.bank_api.model.enums.Status;
 import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionBatchRepository;
 import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.TransferBatchRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.math.BigDecimal;
-import java.time.LocalDate;
-import java.util.List;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class AtmTransactionService {
     private final AtmTransactionRepository transactionRepository;
+    private final AtmTransactionBatchRepository atmTransactionBatchRepository;
+    private final TransferBatchRepository transferBatchRepository;
     private final AccountRepository accountRepository;
     private final AtmTransactionMapper transactionMapper;
+    private final LimitAccountingService limitAccountingService;
+    private final LedgerService ledgerService;
+    private final AccountActivityService accountActivityService;
+    private final BalanceStripingService balanceStripingService;
+    private final AtmClaimService claimService;
+    private final AtmStatusNotifier statusNotifier;
+    private final AtmAdmissionService admissionService;
+    private final AtmHoldService holdService;
+    private final ObjectProvider<AtmProcessingQueue> processingQueue;
+
+    // Withdrawals are approved or declined when they are created and hold their amount until they are posted
+    @Value("${bank.atm.holds.enabled:true}")
+    private boolean holdsEnabled;
 
     public AtmTransactionService(
             AtmTransactionRepository atmTransactionRepository,
+            AtmTransactionBatchRepository atmTransactionBatchRepository,
+            TransferBatchRepository transferBatchRepository,
             AccountRepository accountRepository,
-            AtmTransactionMapper atmTransactionMapper) {
+            AtmTransactionMapper atmTransactionMapper,
+            LimitAccountingService limitAccountingService,
+            LedgerService ledgerService,
+            AccountActivityService accountActivityService,
+            BalanceStripingService balanceStripingService,
+            AtmClaimService claimService,
+            AtmStatusNotifier statusNotifier,
+            AtmAdmissionService admissionService,
+            AtmHoldService holdService,
+            ObjectProvider<AtmProcessingQueue> processingQueue) {
         this.transactionRepository = atmTransactionRepository;
+        this.atmTransactionBatchRepository = atmTransactionBatchRepository;
+        this.transferBatchRepository = transferBatchRepository;
         this.accountRepository = accountRepository;
         this.transactionMapper = atmTransactionMapper;
+        this.limitAccountingService = limitAccountingService;
+        this.ledgerService = ledgerService;
+        this.accountActivityService = accountActivityService;
+        this.balanceStripingService = balanceStripingService;
+        this.claimService = claimService;
+        this.statusNotifier = statusNotifier;
+        this.admissionService = admissionService;
+        this.holdService = holdService;
+        this.processingQueue = processingQueue;
     }
 
     @PreAuthorize("@securityService.isOwnerOfAccount(#dto.iban)")
     public AtmTransactionDTO createTransaction(AtmTransactionRequestDTO dto, Account account, User initiatedBy) {
-        AtmTransaction transaction = transactionMapper.toEntity(dto, account, initiatedBy);
-        AtmTransaction saved = transactionRepository.save(transaction);
+        return create(dto, account, initiatedBy, null, null);
+    }
+
+    // For terminals that resend an operation after a reconnect. The operation id is a sequence number of the
+    // terminal, like the ones of a batch upload, so a resent operation returns the transaction it created.
+    @PreAuthorize("@securityService.isOwnerOfAccount(#dto.iban)")
+    public AtmTransactionDTO createTransaction(AtmTransactionRequestDTO dto, Account account, User initiatedBy,
+                                               String terminalId, long terminalSequence) {
+        Optional<AtmTransaction> existing = transactionRepository.findByTerminalIdAndTerminalSequence(terminalId, terminalSequence);
+        if (existing.isPresent()) {
+            return replay(existing.get(), dto, account);
+        }
+
+        try {
+            return create(dto, account, initiatedBy, terminalId, terminalSequence);
+        } catch (DataIntegrityViolationException e) {
+            // Resent while the first one was still being stored
+            return replay(transactionRepository.findByTerminalIdAndTerminalSequence(terminalId, terminalSequence)
+                    .orElseThrow(() -> e), dto, account);
+        }
+    }
+
+    private AtmTransactionDTO create(AtmTransactionRequestDTO dto, Account account, User initiatedBy,
+                                     String terminalId, Long terminalSequence) {
+        // Rejected before anything is stored when the backlog or this account's share of it is too large
+        admissionService.admit(account.getId());
+        AtmTransaction saved;
+        try {
+            AtmTransaction transaction = transactionMapper.toEntity(dto, account, initiatedBy);
+            transaction.setTerminalId(terminalId);
+            transaction.setTerminalSequence(terminalSequence);
+            saved = holdsEnabled && transaction.getType() == AtmTransactionType.WITHDRAW
+                    ? holdService.authorize(transaction)
+                    : transactionRepository.save(transaction);
+        } catch (RuntimeException e) {
+            admissionService.release(account.getId());
+            throw e;
+        }
+
+        // Declined right away, nothing left to process
+        if (saved.getStatus() == Status.FAILED) {
+            admissionService.release(account.getId());
+            return transactionMapper.toAtmTransactionDTO(saved);
+        }
+
+        // Approved withdrawals are posted by the sweep once they are older than bank.atm.sweep-after, together
+        // with the rest of the backlog, which leaves the terminal time to release the hold when no cash came out.
+        // The queue is only absent when bank.atm.queue.enabled=false, the scheduler then processes everything
+        AtmProcessingQueue queue = processingQueue.getIfAvailable();
+        if (queue != null && saved.getHoldStatus() == null) {
+            queue.submitAfterCommit(saved.getId(), account.getId());
+        }
 
         return transactionMapper.toAtmTransactionDTO(saved);
     }
 
+    // A sequence number that is used again must describe the same operation
+    private AtmTransactionDTO replay(AtmTransaction existing, AtmTransactionRequestDTO dto, Account account) {
+        if (!existing.getAccount().getId().equals(account.getId()) || existing.getType() != dto.type
+                || existing.getAmount().compareTo(dto.amount) != 0) {
+            throw new IllegalArgumentException(ErrorMessages.TERMINAL_SEQUENCE_REUSED);
+        }
+        return transactionMapper.toAtmTransactionDTO(existing);
+    }
+
+    // For a withdrawal that was approved but not paid out, while it has not been posted yet. Employees only,
+    // a customer cannot take back a withdrawal once it is approved
+    public AtmTransactionDTO releaseHold(Long id) {
+        if (!transactionRepository.existsById(id)) {
+            throw new EntityNotFoundException(ErrorMessages.TRANSACTION_NOT_FOUND);
+        }
+        return release(id);
+    }
+
+    // The terminal that approved the withdrawal reports that it could not dispense the cash. Its session is
+    // authenticated with the terminal's key, and it can only release the withdrawals it created itself
+    public AtmTransactionDTO releaseHoldForTerminal(Long id, String terminalId) {
+        AtmTransaction transaction = transactionRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.TRANSACTION_NOT_FOUND));
+        if (!terminalId.equals(transaction.getTerminalId())) {
+            throw new AccessDeniedException(ErrorMessages.ACCESS_DENIED);
+        }
+        return release(id);
+    }
+
+    private AtmTransactionDTO release(Long id) {
+        AtmTransaction released = holdService.release(id);
+        if (released == null) {
+            throw new ConflictException(ErrorMessages.HOLD_NOT_OPEN);
+        }
+
+        statusNotifier.publishAfterCommit(List.of(released));
+        admissionService.releaseAfterCommit(List.of(released));
+        return transactionMapper.toAtmTransactionDTO(released);
+    }
+
     @PreAuthorize("@securityService.isOwnerOfTransactionAccount(#id)")
     public AtmTransactionDTO getTransaction(Long id) {
         AtmTransaction transaction = transactionRepository.findById(id)
@@ -51,41 +192,155 @@ public class AtmTransactionService {
         return transactionMapper.toAtmTransactionDTO(transaction);
     }
 
+    @PreAuthorize("@securityService.isOwnerOfTransactionAccount(#id)")
+    public SseEmitter subscribeToStatus(Long id) {
+        if (!transactionRepository.existsById(id)) {
+            throw new EntityNotFoundException(ErrorMessages.TRANSACTION_NOT_FOUND);
+        }
+
+        return statusNotifier.subscribe(id);
+    }
+
     @Transactional
-    public void processTransaction(AtmTransaction transaction) {
+    public void processTransaction(AtmTransaction pending) {
+        // The account is locked first, like transfers, so concurrent withdrawals see each other's totals.
+        // A deposit to a striped account only touches one of its stripes.
+        if (pending.getType() == AtmTransactionType.WITHDRAW || !pending.getAccount().isStriped()) {
+            accountRepository.findByIdForUpdate(pending.getAccount().getId());
+        }
+
+        // Skipped when it was processed or claimed by another instance after it was loaded
+        AtmTransaction transaction = transactionRepository.findByIdForUpdate(pending.getId()).orElse(null);
+        if (transaction == null || (transaction.getStatus() != Status.PENDING
+                && !claimService.isClaimedByThisInstance(transaction))) {
+            return;
+        }
+
         Account account = transaction.getAccount();
         BigDecimal amount = transaction.getAmount();
 
-        if (transaction.getType() == AtmTransactionType.DEPOSIT) {
-            BigDecimal newBalance = account.getBalance().add(amount);
+        if (transaction.getHoldStatus() == HoldStatus.OPEN) {
+            // Checked and counted towards the daily total when the hold was placed
+            balanceStripingService.captureHold(account, amount);
+            transaction.setHoldStatus(HoldStatus.CAPTURED);
+            setTransactionStatus(transaction, Status.SUCCEEDED, null);
+        } else if (transaction.getType() == AtmTransactionType.DEPOSIT) {
+            updateBalance(transaction, Operation.ADDITION);
             setTransactionStatus(transaction, Status.SUCCEEDED, null);
-            updateBalance(transaction, newBalance);
         } else {
+            String failureReason = findWithdrawalViolation(account, amount,
+                    balanceStripingService.getAvailableBalance(account), () -> getTodayTotal(account));
 
-            // Check against absolute limit
-            BigDecimal projectedBalance = account.getBalance().subtract(amount);
-            if (projectedBalance.compareTo(account.getAbsoluteLimit()) < 0) {
-                setTransactionStatus(transaction, Status.FAILED, ErrorMessages.INSUFFICIENT_BALANCE);
-            } else {
-
-                // Check the daily withdrawal limit
-                BigDecimal todayTotal = getTodayTotal(account).add(amount);
-                boolean isDailyLimitExceeded = todayTotal.compareTo(account.getWithdrawLimit()) > 0;
-
-                if (isDailyLimitExceeded) {
-                    setTransactionStatus(transaction, Status.FAILED, ErrorMessages.DAILY_WITHDRAWAL_LIMIT_EXCEEDED);
+            if (failureReason == null) {
+                if (updateBalance(transaction, Operation.SUBTRACTION)) {
+                    limitAccountingService.recordUsage(account.getId(), LimitKind.ATM_WITHDRAWAL, amount);
                 } else {
-                    setTransactionStatus(transaction, Status.SUCCEEDED, null);
-                    updateBalance(transaction, projectedBalance);
+
+                    // The balance changed since the transaction was loaded
+                    failureReason = ErrorMessages.INSUFFICIENT_BALANCE;
                 }
             }
+            setTransactionStatus(transaction, failureReason == null ? Status.SUCCEEDED : Status.FAILED, failureReason);
         }
 
         transactionRepository.save(transaction);
+        ledgerService.recordAtmTransaction(transaction);
+        accountActivityService.recordAtmTransaction(transaction);
+        statusNotifier.publishAfterCommit(List.of(transaction));
+        admissionService.releaseAfterCommit(List.of(transaction));
+    }
+
+    // Same checks as processTransaction, applied oldest first per account against running balances and totals.
+    // Writes each balance once and all transaction rows with one JDBC batch. Returns the processed transactions.
+    @Transactional
+    public List<AtmTransaction> processBatch(List<Long> transactionIds) {
+        if (transactionIds.isEmpty()) {
+            return List.of();
+        }
+
+        // Accounts first, in id order like every other balance change, then the transactions themselves
+        Map<Long, Account> accounts = accountRepository
+                .findByIdInForUpdate(transactionRepository.findAccountIdsByIdIn(transactionIds)).stream()
+                .collect(Collectors.toMap(Account::getId, Function.identity()));
+        List<AtmTransaction> pending = transactionRepository.findByIdInForUpdate(transactionIds).stream()
+                .filter(transaction -> transaction.getStatus() == Status.PENDING
+                        || claimService.isClaimedByThisInstance(transaction))
+                .sorted(Comparator.comparing(AtmTransaction::getTimestamp).thenComparing(AtmTransaction::getId))
+                .toList();
+
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        accounts.values().forEach(account ->
+                balances.put(account.getId(), balanceStripingService.getAvailableBalance(account)));
+        Map<Long, BigDecimal> withdrawnToday = limitAccountingService.getUsedToday(accounts.keySet(), LimitKind.ATM_WITHDRAWAL);
+        Map<Long, BigDecimal> withdrawnInBatch = new TreeMap<>();
+        Map<Long, BigDecimal> balanceChanges = new TreeMap<>();
+        Map<Long, BigDecimal> capturedHolds = new TreeMap<>();
+        List<AtmTransaction> processed = new ArrayList<>();
+
+        for (AtmTransaction transaction : pending) {
+            Account account = accounts.get(transaction.getAccount().getId());
+            BigDecimal amount = transaction.getAmount();
+            boolean deposit = transaction.getType() == AtmTransactionType.DEPOSIT;
+            boolean held = transaction.getHoldStatus() == HoldStatus.OPEN;
+            String failureReason = deposit || held ? null : findWithdrawalViolation(account, amount,
+                    balances.get(account.getId()), () -> withdrawnToday.get(account.getId()));
+
+            if (held) {
+                // Already taken from the available balance and the daily total when the hold was placed
+                balanceChanges.merge(account.getId(), amount.negate(), BigDecimal::add);
+                capturedHolds.merge(account.getId(), amount, BigDecimal::add);
+            } else if (failureReason == null) {
+                BigDecimal change = deposit ? amount : amount.negate();
+                balances.merge(account.getId(), change, BigDecimal::add);
+                balanceChanges.merge(account.getId(), change, BigDecimal::add);
+                if (!deposit) {
+                    withdrawnToday.merge(account.getId(), amount, BigDecimal::add);
+                    withdrawnInBatch.merge(account.getId(), amount, BigDecimal::add);
+                }
+            }
+
+            // A copy, changing the managed entity would make Hibernate write every row again on commit
+            processed.add(AtmTransaction.builder()
+                    .id(transaction.getId())
+                    .account(account)
+                    .initiatedBy(transaction.getInitiatedBy())
+                    .type(transaction.getType())
+                    .amount(amount)
+                    .timestamp(transaction.getTimestamp())
+                    .status(failureReason == null ? Status.SUCCEEDED : Status.FAILED)
+                    .failureReason(failureReason)
+                    .claimedBy(transaction.getClaimedBy())
+                    .leaseUntil(transaction.getLeaseUntil())
+                    .holdStatus(held ? HoldStatus.CAPTURED : transaction.getHoldStatus())
+                    .build());
+        }
+
+        // The accounts are locked, so the balances can be adjusted without the guarded updates
+        balanceChanges.values().removeIf(change -> change.signum() == 0);
+        transferBatchRepository.adjustBalances(balanceChanges);
+        atmTransactionBatchRepository.decreaseHeldAmounts(capturedHolds);
+        withdrawnInBatch.forEach((accountId, amount) ->
+                limitAccountingService.recordUsage(accountId, LimitKind.ATM_WITHDRAWAL, amount));
+        atmTransactionBatchRepository.updateResults(processed);
+        ledgerService.recordAtmTransactions(processed);
+        accountActivityService.recordAtmTransactions(processed);
+        statusNotifier.publishAfterCommit(processed);
+        admissionService.releaseAfterCommit(processed);
+        return processed;
     }
 
-    public List<AtmTransaction> getPendingTransactions() {
-        return transactionRepository.findByStatus(Status.PENDING);
+    // Claims the next batch of pending transactions for this instance, only their ids and accounts are read
+    public List<AtmTransactionRepository.PendingAtmTransaction> claimPendingTransactions() {
+        return claimService.claim(Duration.ZERO);
+    }
+
+    // Loads claimed transactions for processTransaction with their accounts, in one statement
+    public List<AtmTransaction> loadForProcessing(List<Long> transactionIds) {
+        if (transactionIds.isEmpty()) {
+            return List.of();
+        }
+
+        return transactionRepository.findByIdInWithAccount(transactionIds);
     }
 
     private void setTransactionStatus(AtmTransaction transaction, Status status, String failureReason) {
@@ -93,14 +348,35 @@ public class AtmTransactionService {
         transaction.setFailureReason(failureReason);
     }
 
-    private void updateBalance(AtmTransaction transaction, BigDecimal balance) {
-        Account account = transaction.getAccount();
-        account.setBalance(balance);
-        accountRepository.save(account);
+    private boolean updateBalance(AtmTransaction transaction, Operation operation) {
+        if (operation == Operation.ADDITION) {
+            balanceStripingService.credit(transaction.getAccount(), transaction.getAmount());
+            return true;
+        }
+
+        return balanceStripingService.debit(transaction.getAccount(), transaction.getAmount());
+    }
+
+    private String findWithdrawalViolation(
+            Account account,
+            BigDecimal amount,
+            BigDecimal balance,
+            Supplier<BigDecimal> withdrawnToday
+    ) {
+        // Check against absolute limit
+        if (balance.subtract(amount).compareTo(account.getAbsoluteLimit()) < 0) {
+            return ErrorMessages.INSUFFICIENT_BALANCE;
+        }
+
+        // Check the daily withdrawal limit
+        if (withdrawnToday.get().add(amount).compareTo(account.getWithdrawLimit()) > 0) {
+            return ErrorMessages.DAILY_WITHDRAWAL_LIMIT_EXCEEDED;
+        }
+
+        return null;
     }
 
     private BigDecimal getTodayTotal(Account account) {
-        BigDecimal todayTotal = transactionRepository.sumTodayWithdrawalsByAccount(account.getId(), LocalDate.now());
-        return todayTotal != null ? todayTotal : BigDecimal.ZERO;
+        return limitAccountingService.getUsedToday(account.getId(), LimitKind.ATM_WITHDRAWAL);
     }
 }
@@ -0,0 +1,155 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.transaction.Transactional;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.BalanceStripe;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.BalanceStripeRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+
+// Balance changes for every money path. Credits to a striped account are spread over its stripe rows
+// instead of serializing on the account row, and are folded back into Account.balance in the background.
+@Service
+@Log
+public class BalanceStripingService {
+    public static final int MAX_STRIPES = 64;
+
+    private final AccountRepository accountRepository;
+    private final BalanceStripeRepository stripeRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public BalanceStripingService(
+            AccountRepository accountRepository,
+            BalanceStripeRepository stripeRepository,
+            PlatformTransactionManager transactionManager
+    ) {
+        this.accountRepository = accountRepository;
+        this.stripeRepository = stripeRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public void credit(Account account, BigDecimal amount) {
+        if (account.isStriped()) {
+            int stripe = ThreadLocalRandom.current().nextInt(account.getBalanceStripes());
+            if (stripeRepository.addToStripe(account.getId(), stripe, amount) == 1) {
+                return;
+            }
+        }
+
+        // Not striped, or striping was switched off after the account was loaded
+        accountRepository.increaseBalance(account.getId(), amount);
+    }
+
+    // Returns false when the balance would drop below the absolute limit
+    public boolean debit(Account account, BigDecimal amount) {
+        if (!account.isStriped()) {
+            return accountRepository.decreaseBalance(account.getId(), amount) == 1;
+        }
+
+        // The stripes may only be counted while no fold can move them, a no-op when the caller holds the lock
+        accountRepository.findByIdForUpdate(account.getId());
+        return accountRepository.decreaseStripedBalance(account.getId(), amount) == 1;
+    }
+
+    // Balance including the credits that were not folded yet
+    public BigDecimal getBalance(Account account) {
+        if (!account.isStriped()) {
+            return account.getBalance();
+        }
+
+        return account.getBalance().add(stripeRepository.sumByAccountId(account.getId()));
+    }
+
+    // What debits may use: the balance minus the open ATM withdrawal holds
+    public BigDecimal getAvailableBalance(Account account) {
+        return getBalance(account).subtract(account.getHeldAmount());
+    }
+
+    // Reserves the amount with the same check as a debit. Returns false when the available balance is too low
+    public boolean hold(Account account, BigDecimal amount) {
+        if (!account.isStriped()) {
+            return accountRepository.increaseHeldAmount(account.getId(), amount) == 1;
+        }
+
+        accountRepository.findByIdForUpdate(account.getId());
+        return accountRepository.increaseStripedHeldAmount(account.getId(), amount) == 1;
+    }
+
+    public void releaseHold(Account account, BigDecimal amount) {
+        accountRepository.decreaseHeldAmount(account.getId(), amount);
+    }
+
+    // Turns the hold into a debit
+    public void captureHold(Account account, BigDecimal amount) {
+        accountRepository.captureHeldAmount(account.getId(), amount);
+    }
+
+    // Moves the stripes into Account.balance and returns the new balance. The caller must hold the account lock;
+    // the stripes stay locked until the caller commits, so the result matches every committed credit.
+    public BigDecimal foldLocked(Account account) {
+        BigDecimal folded = BigDecimal.ZERO;
+        for (BalanceStripe stripe : stripeRepository.findByAccountIdForUpdate(account.getId())) {
+            folded = folded.add(stripe.getAmount());
+        }
+
+        if (folded.signum() != 0) {
+            accountRepository.increaseBalance(account.getId(), folded);
+            stripeRepository.clearStripes(account.getId());
+        }
+        return account.getBalance().add(folded);
+    }
+
+    @Scheduled(fixedDelayString = "${bank.accounts.striping.fold-interval:PT5S}")
+    public int foldAll() {
+        int folded = 0;
+        for (Long accountId : accountRepository.findStripedAccountIds()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> foldLocked(lock(accountId)));
+                folded++;
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Could not fold the balance stripes of account " + accountId, e);
+            }
+        }
+        return folded;
+    }
+
+    // Folds the current stripes and replaces them with the given number of empty ones, 0 switches striping off
+    @Transactional
+    public void setStripes(String iban, int stripes) {
+        if (stripes < 0 || stripes > MAX_STRIPES) {
+            throw new IllegalArgumentException(ErrorMessages.BALANCE_STRIPES_RANGE);
+        }
+
+        Account account = accountRepository.findByIbanInForUpdate(List.of(iban.trim())).stream()
+                .findFirst()
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+        foldLocked(account);
+        stripeRepository.deleteByAccountId(account.getId());
+
+        List<BalanceStripe> rows = new ArrayList<>();
+        for (int i = 0; i < stripes; i++) {
+            rows.add(BalanceStripe.builder().accountId(account.getId()).stripe(i).amount(BigDecimal.ZERO).build());
+        }
+        stripeRepository.saveAll(rows);
+
+        // A query instead of saving the entity, which would write its stale balance back
+        accountRepository.updateBalanceStripes(account.getId(), stripes);
+    }
+
+    private Account lock(Long accountId) {
+        return accountRepository.findByIdForUpdate(accountId)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+    }
+}
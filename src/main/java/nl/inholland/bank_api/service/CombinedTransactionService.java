@@ -1,119 +1,144 @@
 package nl.inholland.bank_api.service;
 
-import nl.inholland.bank_api.mapper.AtmTransactionMapper;
-import nl.inholland.bank_api.mapper.TransactionMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
 import nl.inholland.bank_api.model.dto.CombinedTransactionFullHistoryDTO;
+import nl.inholland.bank_api.model.dto.CursorPageDTO;
 import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
 import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.ExportFormat;
 import nl.inholland.bank_api.model.enums.Status;
-import nl.inholland.bank_api.repository.AtmTransactionRepository;
-import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.AccountHistoryExportRepository;
 import nl.inholland.bank_api.repository.CombinedTransactionRepository;
+import nl.inholland.bank_api.util.HistoryCursor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
 
+import java.io.*;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.function.Function;
 
 @Service
 public class CombinedTransactionService {
-    private final AtmTransactionRepository atmTransactionRepository;
-    private final TransactionRepository transactionRepository;
-    private final AtmTransactionMapper atmTransactionMapper;
-    private final TransactionMapper transactionMapper;
+    private static final String CSV_HEADER =
+            "id,type,sourceIban,targetIban,amount,description,timestamp,status,failureReason\n";
+
     private final CombinedTransactionRepository combinedTransactionRepository;
+    private final AccountHistoryExportRepository exportRepository;
+    private final ObjectWriter rowWriter;
 
-    public CombinedTransactionService(AtmTransactionRepository atmTransactionRepository, TransactionRepository transactionRepository, AtmTransactionMapper atmTransactionMapper, TransactionMapper transactionMapper, CombinedTransactionRepository combinedTransactionRepository) {
-        this.atmTransactionRepository = atmTransactionRepository;
-        this.transactionRepository = transactionRepository;
-        this.atmTransactionMapper = atmTransactionMapper;
-        this.transactionMapper = transactionMapper;
+    public CombinedTransactionService(CombinedTransactionRepository combinedTransactionRepository,
+                                      AccountHistoryExportRepository exportRepository,
+                                      ObjectMapper objectMapper) {
         this.combinedTransactionRepository = combinedTransactionRepository;
+        this.exportRepository = exportRepository;
+        this.rowWriter = objectMapper.writerFor(CombinedTransactionDTO.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
+    // Filtered, ordered and paged by the database, only the requested page is read
     public Page<CombinedTransactionDTO> getFilteredTransactions(Long accountId, TransactionFilterDTO filterDTO, Pageable pageable) {
-        Stream<CombinedTransactionDTO> combinedStream = getCombinedTransactionStream(accountId);
-        List<CombinedTransactionDTO> filteredList = applyFilters(combinedStream, filterDTO).collect(Collectors.toList());
-
-        int start = (int) pageable.getOffset();
-        int end = Math.min(start + pageable.getPageSize(), filteredList.size());
-        List<CombinedTransactionDTO> pageContent = start <= end ? filteredList.subList(start, end) : Collections.emptyList();
-
-        return new PageImpl<>(pageContent, pageable, filteredList.size());
-    }
-
-    private Stream<CombinedTransactionDTO> getCombinedTransactionStream(Long accountId) {
-        Stream<CombinedTransactionDTO> transferStream = transactionRepository
-                .findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId)
-                .stream()
-                .map(transactionMapper::toCombinedDTO);
-
-        Stream<CombinedTransactionDTO> atmStream = atmTransactionRepository
-                .findByAccountId(accountId)
-                .stream()
-                .map(atmTransactionMapper::toCombinedDTO);
+        List<CombinedTransactionDTO> pageContent = combinedTransactionRepository
+                .findAccountHistory(accountId, filterDTO, pageable.getPageSize(), pageable.getOffset()).stream()
+                .map(this::mapToAccountHistoryDTO)
+                .toList();
 
-        return Stream.concat(transferStream, atmStream)
-                .sorted((a, b) -> b.timestamp.compareTo(a.timestamp));
+        // Counted only when the page does not already tell the total
+        return PageableExecutionUtils.getPage(pageContent, pageable,
+                () -> combinedTransactionRepository.countAccountHistory(accountId, filterDTO));
     }
 
-    private Stream<CombinedTransactionDTO> applyFilters(Stream<CombinedTransactionDTO> stream, TransactionFilterDTO filterDTO) {
-        return stream.filter(dto -> matchesFilters(dto, filterDTO));
+    // Cursor mode: the page after the cursor, counted only when asked for
+    public CursorPageDTO<CombinedTransactionDTO> getFilteredTransactions(Long accountId, TransactionFilterDTO filterDTO,
+                                                                         String cursor, int size, boolean includeTotal) {
+        List<Object[]> rows = combinedTransactionRepository.findAccountHistoryAfter(
+                accountId, filterDTO, HistoryCursor.decode(cursor), size + 1);
+        Long total = includeTotal ? combinedTransactionRepository.countAccountHistory(accountId, filterDTO) : null;
+        return toCursorPage(rows, size, total, this::mapToAccountHistoryDTO, row -> new HistoryCursor(
+                toLocalDateTime(row[7]), ((Number) row[2]).intValue(), ((Number) row[0]).longValue()));
     }
 
-    private boolean matchesFilters(CombinedTransactionDTO dto, TransactionFilterDTO filterDTO) {
-        return dto.status == Status.SUCCEEDED &&
-                matchesDate(dto.timestamp, filterDTO) &&
-                matchesAmount(dto.amount, filterDTO) &&
-                matchesIbans(dto.sourceIban, dto.targetIban, filterDTO) &&
-                matchesDescription(dto.description, filterDTO);
-    }
+    // Writes the whole filtered history in history order, each row as soon as it is read. Nothing is flushed
+    // before the end, the buffers only keep the response from being written in tiny chunks.
+    public void exportTransactions(Long accountId, TransactionFilterDTO filterDTO, ExportFormat format, OutputStream out)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // JSON lines are ended explicitly, instead of separated by a space
+        JsonGenerator generator = format == ExportFormat.NDJSON
+                ? rowWriter.createGenerator(writer).setRootValueSeparator(null)
+                : null;
+        if (generator == null) {
+            writer.write(CSV_HEADER);
+        }
 
-    private boolean matchesDate(LocalDateTime timestamp, TransactionFilterDTO filter) {
-        if (filter.getStartDate() != null && !filter.getStartDate().isBlank()) {
-            LocalDate start = LocalDate.parse(filter.getStartDate());
-            if (timestamp.toLocalDate().isBefore(start)) return false;
+        try {
+            exportRepository.streamAccountHistory(accountId, filterDTO, row -> {
+                CombinedTransactionDTO dto = mapToAccountHistoryDTO(row);
+                try {
+                    if (generator != null) {
+                        rowWriter.writeValue(generator, dto);
+                        generator.writeRaw('\n');
+                    } else {
+                        writeCsvRow(writer, dto);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // The client went away, there is nobody left to tell
+            throw e.getCause();
         }
-        if (filter.getEndDate() != null && !filter.getEndDate().isBlank()) {
-            LocalDate end = LocalDate.parse(filter.getEndDate());
-            if (timestamp.toLocalDate().isAfter(end)) return false;
+
+        if (generator != null) {
+            generator.flush();
         }
-        return true;
+        writer.flush();
     }
 
-    private boolean matchesDescription(String description, TransactionFilterDTO filter) {
-        return filter.getDescription() == null || filter.getDescription().isBlank()
-                || (description != null && description.toLowerCase().contains(filter.getDescription().toLowerCase()));
+    private static void writeCsvRow(Writer writer, CombinedTransactionDTO dto) throws IOException {
+        writer.write(dto.id + "," + dto.type + "," + csv(dto.sourceIban) + "," + csv(dto.targetIban) + "," +
+                dto.amount.toPlainString() + "," + csv(dto.description) + "," + dto.timestamp + "," +
+                dto.status + "," + csv(dto.failureReason) + "\n");
     }
 
-    private boolean matchesAmount(BigDecimal amount, TransactionFilterDTO filter) {
-        if (filter.getAmount() != null && filter.getComparison() != null) {
-            int cmp = amount.compareTo(filter.getAmount());
-            return switch (filter.getComparison()) {
-                case "lt" -> cmp < 0;
-                case "gt" -> cmp > 0;
-                case "eq" -> cmp == 0;
-                default -> true;
-            };
+    // RFC 4180: quoted when it holds a separator, a quote or a line break, quotes doubled. Text a spreadsheet
+    // would read as a formula gets a leading quote, descriptions are typed by customers
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+            value = "'" + value;
         }
-        return true;
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
     }
 
-    private boolean matchesIbans(String sourceIban, String targetIban, TransactionFilterDTO filter) {
-        if (filter.getSourceIban() != null && !filter.getSourceIban().isBlank() && !filter.getSourceIban().equals(sourceIban))
-            return false;
-        if (filter.getTargetIban() != null && !filter.getTargetIban().isBlank() && !filter.getTargetIban().equals(targetIban))
-            return false;
-        return true;
+    private CombinedTransactionDTO mapToAccountHistoryDTO(Object[] row) {
+        CombinedTransactionDTO dto = new CombinedTransactionDTO();
+        dto.id = ((Number) row[0]).longValue();
+        dto.type = (String) row[1];
+        dto.sourceIban = (String) row[3];
+        dto.targetIban = (String) row[4];
+        dto.amount = (BigDecimal) row[5];
+        dto.description = (String) row[6];
+        dto.timestamp = toLocalDateTime(row[7]);
+        dto.status = Status.valueOf((String) row[8]);
+        dto.failureReason = (String) row[9];
+        return dto;
     }
 
     public Page<CombinedTransactionFullHistoryDTO> getAllCombinedTransactions(Pageable pageable) {
@@ -130,18 +155,27 @@ public class CombinedTransactionService {
         return new PageImpl<>(dtos, pageable, total);
     }
 
+    public CursorPageDTO<CombinedTransactionFullHistoryDTO> getAllCombinedTransactions(String cursor, int size, boolean includeTotal) {
+        List<Object[]> rows = combinedTransactionRepository.findAllCombinedAfter(HistoryCursor.decode(cursor), size + 1);
+        Long total = includeTotal ? combinedTransactionRepository.countAllCombined() : null;
+        return toCursorPage(rows, size, total, this::mapToCombinedTransactionDTO, row -> new HistoryCursor(
+                toLocalDateTime(row[4]), ((Number) row[8]).intValue(), ((Number) row[7]).longValue()));
+    }
+
+    // One row more than the page is read, it tells whether there is a next page
+    private static <T> CursorPageDTO<T> toCursorPage(List<Object[]> rows, int size, Long total,
+                                                     Function<Object[], T> mapper, Function<Object[], HistoryCursor> key) {
+        List<Object[]> page = rows.size() > size ? rows.subList(0, size) : rows;
+        String nextCursor = rows.size() > size ? key.apply(page.getLast()).encode() : null;
+        return new CursorPageDTO<>(page.stream().map(mapper).toList(), nextCursor, total);
+    }
+
     private CombinedTransactionFullHistoryDTO mapToCombinedTransactionDTO(Object[] row) {
         String sourceIban = (String) row[0];
         String targetIban = (String) row[1];
         Long initiatedBy = ((Number) row[2]).longValue();
         BigDecimal amount = (BigDecimal) row[3];
-        LocalDateTime timestamp;
-
-        if (row[4] instanceof Timestamp ts) {
-            timestamp = ts.toLocalDateTime();
-        } else {
-            timestamp = (LocalDateTime) row[4];
-        }
+        LocalDateTime timestamp = toLocalDateTime(row[4]);
 
         String typeStr = (String) row[5];
         String statusStr = (String) row[6];
@@ -156,4 +190,11 @@ public class CombinedTransactionService {
                 Status.valueOf(statusStr)
         );
     }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp ts) {
+            return ts.toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
 }
@@ -0,0 +1,310 @@
+package nl.inholland.bank_api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ConflictException;
+import nl.inholland.bank_api.model.entities.IdempotencyRecord;
+import nl.inholland.bank_api.repository.IdempotencyRecordRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+// Replays the stored response of a request that is retried with the same Idempotency-Key.
+// Recent responses are kept in a bounded in-memory LRU in front of the idempotency_record table.
+@Service
+@Log
+public class IdempotencyService {
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final TypeReference<LinkedHashMap<String, List<String>>> HEADERS_TYPE = new TypeReference<>() {
+    };
+
+    private final IdempotencyRecordRepository recordRepository;
+    private final ObjectMapper objectMapper;
+    private final Map<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, StoredResponse> cache;
+    private final Counter memoryHits;
+    private final Counter storeHits;
+    private final Counter inFlightHits;
+    private final Counter misses;
+
+    // Follows this instance's inserts and deletes, the purge job corrects it for those of other instances
+    private final AtomicLong storeSize = new AtomicLong();
+
+    @Value("${bank.idempotency.cache.max-entries:10000}")
+    private int maxCacheEntries;
+
+    @Value("${bank.idempotency.ttl:PT24H}")
+    private Duration ttl;
+
+    // How long a duplicate on the same instance waits for the first execution before it gets a conflict.
+    // The claim itself ends with a stored response or a failure that was rolled back. A claim abandoned by an
+    // instance that stopped in between is released when it expires after the TTL, not never.
+    @Value("${bank.idempotency.wait-timeout:PT30S}")
+    private Duration waitTimeout;
+
+    public IdempotencyService(
+            IdempotencyRecordRepository recordRepository,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry
+    ) {
+        this.recordRepository = recordRepository;
+        this.objectMapper = objectMapper;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredResponse> eldest) {
+                return size() > maxCacheEntries;
+            }
+        });
+
+        this.memoryHits = lookupCounter(meterRegistry, "memory");
+        this.storeHits = lookupCounter(meterRegistry, "store");
+        this.inFlightHits = lookupCounter(meterRegistry, "in_flight");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        Gauge.builder("bank.idempotency.cache.size", cache, Map::size)
+                .description("Responses held in the in-memory LRU")
+                .register(meterRegistry);
+        Gauge.builder("bank.idempotency.store.size", storeSize, AtomicLong::get)
+                .description("Rows in the idempotency_record table, recounted by every purge")
+                .register(meterRegistry);
+    }
+
+    // Runs the action once per scope and key; without a key the action always runs
+    public <T> ResponseEntity<T> execute(
+            String scope,
+            String key,
+            Object request,
+            Class<T> responseType,
+            Supplier<ResponseEntity<T>> action
+    ) {
+        if (key == null) {
+            return action.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(ErrorMessages.IDEMPOTENCY_KEY_INVALID);
+        }
+
+        String storeKey = scope + ":" + key;
+        String requestHash = hash(request);
+
+        StoredResponse cached = getCached(storeKey);
+        if (cached != null) {
+            memoryHits.increment();
+            return replay(cached, requestHash, responseType);
+        }
+
+        // Concurrent duplicates wait for the first execution instead of running the action again
+        CompletableFuture<StoredResponse> execution = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(storeKey, execution);
+        if (running != null) {
+            inFlightHits.increment();
+            return replay(await(running), requestHash, responseType);
+        }
+
+        try {
+            StoredResponse stored = findStored(storeKey);
+            if (stored != null) {
+                storeHits.increment();
+                cache.put(storeKey, stored);
+                execution.complete(stored);
+                return replay(stored, requestHash, responseType);
+            }
+
+            misses.increment();
+            return executeAndStore(storeKey, requestHash, action, execution);
+        } catch (RuntimeException e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(storeKey, execution);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${bank.idempotency.purge-interval:PT10M}")
+    public void purgeExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        synchronized (cache) {
+            cache.values().removeIf(stored -> stored.expiresAt().isBefore(now));
+        }
+
+        int deleted = recordRepository.deleteExpired(now);
+        if (deleted > 0) {
+            log.info("Purged " + deleted + " expired idempotency records");
+        }
+        storeSize.set(recordRepository.count());
+    }
+
+    private <T> ResponseEntity<T> executeAndStore(
+            String storeKey,
+            String requestHash,
+            Supplier<ResponseEntity<T>> action,
+            CompletableFuture<StoredResponse> execution
+    ) {
+        LocalDateTime now = LocalDateTime.now();
+        IdempotencyRecord record = claim(IdempotencyRecord.builder()
+                .idempotencyKey(storeKey)
+                .requestHash(requestHash)
+                .createdAt(now)
+                .expiresAt(now.plus(ttl))
+                .build());
+
+        ResponseEntity<T> response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            // Failed requests are not stored, so the client can retry them with the same key
+            storeSize.addAndGet(-recordRepository.deleteByKey(storeKey));
+            throw e;
+        }
+
+        // Headers the controller set, such as the Location of an accepted transfer
+        Map<String, List<String>> headers = new LinkedHashMap<>(response.getHeaders());
+        StoredResponse stored = new StoredResponse(requestHash, response.getStatusCode().value(), headers,
+                toJson(response.getBody()), LocalDateTime.now().plus(ttl));
+        record.setStatusCode(stored.statusCode());
+        record.setResponseHeaders(headers.isEmpty() ? null : toJson(headers));
+        record.setResponseBody(stored.body());
+        record.setExpiresAt(stored.expiresAt());
+        try {
+            recordRepository.save(record);
+        } catch (RuntimeException e) {
+            // The action has already been committed, the claim stays until it expires so a retry gets a conflict
+            // instead of a second run
+            log.log(Level.SEVERE, "Could not store the response for idempotency key " + storeKey, e);
+        }
+
+        cache.put(storeKey, stored);
+        execution.complete(stored);
+        return response;
+    }
+
+    // The unique key makes sure only one instance executes the request
+    private IdempotencyRecord claim(IdempotencyRecord record) {
+        try {
+            IdempotencyRecord saved = recordRepository.saveAndFlush(record);
+            storeSize.incrementAndGet();
+            return saved;
+        } catch (DataIntegrityViolationException e) {
+            throw new ConflictException(ErrorMessages.IDEMPOTENCY_REQUEST_IN_PROGRESS);
+        }
+    }
+
+    private StoredResponse getCached(String storeKey) {
+        StoredResponse stored = cache.get(storeKey);
+        if (stored != null && stored.expiresAt().isBefore(LocalDateTime.now())) {
+            cache.remove(storeKey);
+            return null;
+        }
+
+        return stored;
+    }
+
+    private StoredResponse findStored(String storeKey) {
+        IdempotencyRecord record = recordRepository.findByIdempotencyKey(storeKey).orElse(null);
+        if (record == null) {
+            return null;
+        }
+        if (record.getExpiresAt().isBefore(LocalDateTime.now())) {
+            storeSize.addAndGet(-recordRepository.deleteByKey(storeKey));
+            return null;
+        }
+        if (record.getStatusCode() == null) {
+            throw new ConflictException(ErrorMessages.IDEMPOTENCY_REQUEST_IN_PROGRESS); // running on another instance
+        }
+
+        return new StoredResponse(record.getRequestHash(), record.getStatusCode(), fromJson(record.getResponseHeaders()),
+                record.getResponseBody(), record.getExpiresAt());
+    }
+
+    private StoredResponse await(CompletableFuture<StoredResponse> running) {
+        try {
+            return running.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ConflictException(ErrorMessages.IDEMPOTENCY_REQUEST_IN_PROGRESS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConflictException(ErrorMessages.IDEMPOTENCY_REQUEST_IN_PROGRESS);
+        } catch (ExecutionException e) {
+            // The duplicate gets the same error as the first execution
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> ResponseEntity<T> replay(StoredResponse stored, String requestHash, Class<T> responseType) {
+        if (!stored.requestHash().equals(requestHash)) {
+            throw new ConflictException(ErrorMessages.IDEMPOTENCY_KEY_REUSED);
+        }
+
+        try {
+            T body = stored.body() == null ? null : objectMapper.readValue(stored.body(), responseType);
+            return ResponseEntity.status(stored.statusCode())
+                    .headers(headers -> stored.headers().forEach(headers::addAll))
+                    .header(REPLAYED_HEADER, "true")
+                    .body(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String toJson(Object body) {
+        try {
+            return body == null ? null : objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, List<String>> fromJson(String headers) {
+        try {
+            return headers == null ? Map.of() : objectMapper.readValue(headers, HEADERS_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String hash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("bank.idempotency.lookups")
+                .description("Requests with an Idempotency-Key by where the response came from")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record StoredResponse(
+            String requestHash, int statusCode, Map<String, List<String>> headers, String body, LocalDateTime expiresAt) {
+    }
+}
@@ -0,0 +1,204 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.AccountBalanceDTO;
+import nl.inholland.bank_api.model.dto.AccountStatementDTO;
+import nl.inholland.bank_api.model.dto.LedgerEntryDTO;
+import nl.inholland.bank_api.model.entities.*;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.BalanceSnapshotRepository;
+import nl.inholland.bank_api.repository.LedgerBatchRepository;
+import nl.inholland.bank_api.repository.LedgerEntryRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+// Double-entry journal of every balance change, with periodic balance snapshots per account.
+// Historic balances are the nearest snapshot plus the entries written since.
+@Service
+@Log
+public class LedgerService {
+    private final LedgerBatchRepository ledgerBatchRepository;
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final BalanceSnapshotRepository snapshotRepository;
+    private final AccountRepository accountRepository;
+    private final BalanceStripingService balanceStripingService;
+    private final TransactionTemplate transactionTemplate;
+
+    public LedgerService(
+            LedgerBatchRepository ledgerBatchRepository,
+            LedgerEntryRepository ledgerEntryRepository,
+            BalanceSnapshotRepository snapshotRepository,
+            AccountRepository accountRepository,
+            BalanceStripingService balanceStripingService,
+            PlatformTransactionManager transactionManager
+    ) {
+        this.ledgerBatchRepository = ledgerBatchRepository;
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.accountRepository = accountRepository;
+        this.balanceStripingService = balanceStripingService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // Must run in the transaction that changed the balances, after the account rows were updated
+    public void recordTransfers(List<Transaction> transactions) {
+        LocalDateTime now = LocalDateTime.now();
+        List<LedgerEntry> entries = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            if (transaction.getStatus() != Status.SUCCEEDED) {
+                continue;
+            }
+
+            entries.add(entry(transaction.getSourceAccount().getId(), EntryDirection.DEBIT,
+                    transaction.getAmount(), LedgerReferenceType.TRANSFER, transaction.getId(), now));
+            entries.add(entry(transaction.getTargetAccount().getId(), EntryDirection.CREDIT,
+                    transaction.getAmount(), LedgerReferenceType.TRANSFER, transaction.getId(), now));
+        }
+
+        ledgerBatchRepository.append(entries);
+    }
+
+    public void recordAtmTransaction(AtmTransaction transaction) {
+        recordAtmTransactions(List.of(transaction));
+    }
+
+    // The other leg of an ATM movement is the bank's cash position
+    public void recordAtmTransactions(List<AtmTransaction> transactions) {
+        LocalDateTime now = LocalDateTime.now();
+        List<LedgerEntry> entries = new ArrayList<>();
+        for (AtmTransaction transaction : transactions) {
+            if (transaction.getStatus() != Status.SUCCEEDED) {
+                continue;
+            }
+
+            boolean deposit = transaction.getType() == AtmTransactionType.DEPOSIT;
+            entries.add(entry(transaction.getAccount().getId(), deposit ? EntryDirection.CREDIT : EntryDirection.DEBIT,
+                    transaction.getAmount(), LedgerReferenceType.ATM, transaction.getId(), now));
+            entries.add(entry(null, deposit ? EntryDirection.DEBIT : EntryDirection.CREDIT,
+                    transaction.getAmount(), LedgerReferenceType.ATM, transaction.getId(), now));
+        }
+
+        ledgerBatchRepository.append(entries);
+    }
+
+    @PreAuthorize("@securityService.canViewAccount(#iban)")
+    public AccountBalanceDTO getBalanceAt(String iban, LocalDateTime at) {
+        Account account = findAccount(iban);
+        return new AccountBalanceDTO(iban, at, balanceAt(account, at));
+    }
+
+    @PreAuthorize("@securityService.canViewAccount(#iban)")
+    public AccountStatementDTO getStatement(String iban, LocalDateTime from, LocalDateTime to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_PERIOD);
+        }
+
+        Account account = findAccount(iban);
+        BigDecimal opening = balanceAt(account, from);
+        BigDecimal running = opening;
+        List<LedgerEntryDTO> entries = new ArrayList<>();
+        for (LedgerEntry entry : ledgerEntryRepository.findStatementEntries(account.getId(), from, to)) {
+            running = running.add(signed(entry));
+            entries.add(new LedgerEntryDTO(entry.getId(), entry.getDirection(), entry.getAmount(),
+                    entry.getReferenceType(), entry.getReferenceId(), entry.getCreatedAt(), running));
+        }
+
+        return new AccountStatementDTO(iban, from, to, opening, running, entries);
+    }
+
+    // Snapshots every account with journal entries since its last snapshot
+    @Scheduled(fixedDelayString = "${bank.ledger.snapshot-interval:PT15M}")
+    public int takeSnapshots() {
+        int taken = 0;
+        for (Long accountId : ledgerEntryRepository.findAccountsWithUnsnapshottedEntries()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> takeSnapshot(accountId));
+                taken++;
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Could not snapshot the balance of account " + accountId, e);
+            }
+        }
+
+        if (taken > 0) {
+            log.info("Took " + taken + " balance snapshots");
+        }
+        return taken;
+    }
+
+    // With the account and its stripes locked no balance change is in flight,
+    // so the balance matches the journal up to the last entry
+    private void takeSnapshot(Long accountId) {
+        Account account = accountRepository.findByIdForUpdate(accountId)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+        BigDecimal balance = account.isStriped() ? balanceStripingService.foldLocked(account) : account.getBalance();
+        snapshotRepository.save(BalanceSnapshot.builder()
+                .accountId(accountId)
+                .balance(balance)
+                .lastEntryId(ledgerEntryRepository.findLastEntryId(accountId))
+                .takenAt(LocalDateTime.now())
+                .build());
+    }
+
+    private BigDecimal balanceAt(Account account, LocalDateTime at) {
+        Long accountId = account.getId();
+        BalanceSnapshot before = snapshotRepository
+                .findFirstByAccountIdAndTakenAtLessThanEqualOrderByTakenAtDesc(accountId, at)
+                .orElse(null);
+        if (before != null) {
+            return before.getBalance().add(ledgerEntryRepository.sumAfterSnapshot(
+                    accountId, before.getLastEntryId(), before.getTakenAt(), at));
+        }
+
+        // Older than the first snapshot: walk back from it, or from the current balance if there is none yet
+        BalanceSnapshot after = snapshotRepository
+                .findFirstByAccountIdAndTakenAtGreaterThanOrderByTakenAtAsc(accountId, at)
+                .orElse(null);
+        if (after != null) {
+            return after.getBalance().subtract(ledgerEntryRepository.sumBeforeSnapshot(
+                    accountId, after.getLastEntryId(), after.getTakenAt(), at));
+        }
+        return balanceStripingService.getBalance(account).subtract(ledgerEntryRepository.sumAfter(accountId, at));
+    }
+
+    private Account findAccount(String iban) {
+        return accountRepository.findByIban(iban)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+    }
+
+    private static BigDecimal signed(LedgerEntry entry) {
+        return entry.getDirection() == EntryDirection.CREDIT ? entry.getAmount() : entry.getAmount().negate();
+    }
+
+    private static LedgerEntry entry(
+            Long accountId,
+            EntryDirection direction,
+            BigDecimal amount,
+            LedgerReferenceType referenceType,
+            Long referenceId,
+            LocalDateTime createdAt
+    ) {
+        return LedgerEntry.builder()
+                .accountId(accountId)
+                .direction(direction)
+                .amount(amount)
+                .referenceType(referenceType)
+                .referenceId(referenceId)
+                .createdAt(createdAt)
+                .build();
+    }
+}
@@ -0,0 +1,137 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.transaction.Transactional;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.model.entities.DailyLimitUsage;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.repository.DailyLimitUsageRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps per account, day and kind running totals, so daily limit checks don't have to sum the history
+@Service
+@Log
+public class LimitAccountingService {
+    private final DailyLimitUsageRepository usageRepository;
+    private final Map<UsageKey, BigDecimal> cache = new ConcurrentHashMap<>();
+    private volatile LocalDate cacheDate = LocalDate.now();
+
+    // The cache is local to this instance, only enable it when a single instance writes the totals
+    @Value("${bank.limits.cache.enabled:false}")
+    private boolean cacheEnabled;
+
+    @Value("${bank.limits.rebuild-on-startup:false}")
+    private boolean rebuildOnStartup;
+
+    public LimitAccountingService(DailyLimitUsageRepository usageRepository) {
+        this.usageRepository = usageRepository;
+    }
+
+    public BigDecimal getUsedToday(Long accountId, LimitKind kind) {
+        LocalDate today = LocalDate.now();
+        if (!cacheEnabled) {
+            return load(accountId, today, kind);
+        }
+
+        evictPreviousDays(today);
+        return cache.computeIfAbsent(new UsageKey(accountId, today, kind), key -> load(accountId, today, kind));
+    }
+
+    public Map<Long, BigDecimal> getUsedToday(Collection<Long> accountIds, LimitKind kind) {
+        Map<Long, BigDecimal> totals = new HashMap<>();
+        if (accountIds.isEmpty()) {
+            return totals;
+        }
+
+        accountIds.forEach(accountId -> totals.put(accountId, BigDecimal.ZERO));
+        for (DailyLimitUsage usage : usageRepository.findByAccountIdInAndUsageDateAndKind(accountIds, LocalDate.now(), kind)) {
+            totals.put(usage.getAccountId(), usage.getAmount());
+        }
+        return totals;
+    }
+
+    // Must run in the transaction of the debit, so the total and the balance change commit together
+    public void recordUsage(Long accountId, LimitKind kind, BigDecimal amount) {
+        addUsage(accountId, LocalDate.now(), kind, amount);
+    }
+
+    // Takes back usage that was recorded on the given day for something that did not happen after all
+    public void revokeUsage(Long accountId, LocalDate date, LimitKind kind, BigDecimal amount) {
+        addUsage(accountId, date, kind, amount.negate());
+    }
+
+    // Recomputes the totals from the transaction history, for example after restoring a backup. Debits that
+    // commit while it runs are lost or counted twice, so it is a recovery operation for when nothing is processed.
+    @Transactional
+    public int rebuildFromHistory(LocalDate from) {
+        usageRepository.deleteFromDate(from);
+        int rows = usageRepository.insertTransferUsageFromHistory(from.atStartOfDay())
+                + usageRepository.insertAtmWithdrawalUsageFromHistory(from.atStartOfDay());
+        cache.clear();
+
+        log.info("Rebuilt " + rows + " daily limit totals from " + from);
+        return rows;
+    }
+
+    // One-off recovery for transactions written before the totals existed or while they were not maintained.
+    // Never leave it on with several instances: every start would drop the usage the others just recorded.
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildTodayOnStartup() {
+        if (rebuildOnStartup) {
+            rebuildFromHistory(LocalDate.now());
+        }
+    }
+
+    private void addUsage(Long accountId, LocalDate date, LimitKind kind, BigDecimal amount) {
+        usageRepository.addAmount(accountId, date, kind.name(), amount);
+
+        if (cacheEnabled) {
+            invalidate(new UsageKey(accountId, date, kind));
+        }
+    }
+
+    private BigDecimal load(Long accountId, LocalDate date, LimitKind kind) {
+        return usageRepository.findAmount(accountId, date, kind).orElse(BigDecimal.ZERO);
+    }
+
+    private void evictPreviousDays(LocalDate today) {
+        if (!today.equals(cacheDate)) {
+            cache.clear();
+            cacheDate = today;
+        }
+    }
+
+    // Dropped before the commit releases the account lock and again once the transaction has finished
+    private void invalidate(UsageKey key) {
+        cache.remove(key);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                cache.remove(key);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                cache.remove(key);
+            }
+        });
+    }
+
+    private record UsageKey(Long accountId, LocalDate date, LimitKind kind) {
+    }
+}
@@ -1,8 +1,11 @@
 package nl.inholland.bank_api.service;
 
+import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.UserRole;
 import nl.inholland.bank_api.repository.AccountRepository;
 import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
 import nl.inholland.bank_api.repository.UserRepository;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -13,15 +16,18 @@ public class SecurityService {
     private final AccountRepository accountRepository;
     private final UserRepository userRepository;
     private final AtmTransactionRepository transactionRepository;
+    private final TransactionRepository transferRepository;
 
     public SecurityService(
             AccountRepository accountRepository,
             UserRepository userRepository,
-            AtmTransactionRepository transactionRepository
+            AtmTransactionRepository transactionRepository,
+            TransactionRepository transferRepository
     ) {
         this.accountRepository = accountRepository;
         this.userRepository = userRepository;
         this.transactionRepository = transactionRepository;
+        this.transferRepository = transferRepository;
     }
 
     private User getCurrentUser() {
@@ -48,4 +54,29 @@ public class SecurityService {
                 .map(ownerId -> ownerId.equals(currentUser.getId()))
                 .orElse(false);
     }
+
+    public boolean canViewAccount(String iban) {
+        User currentUser = getCurrentUser();
+        if (currentUser == null) return false;
+        if (currentUser.getRole() == UserRole.EMPLOYEE) return true;
+
+        return isOwnerOfAccount(iban);
+    }
+
+    // Employees, the initiator and the owners of both accounts can follow a transfer
+    public boolean canViewTransfer(Long id) {
+        User currentUser = getCurrentUser();
+        if (currentUser == null) return false;
+        if (currentUser.getRole() == UserRole.EMPLOYEE) return true;
+
+        return transferRepository.findById(id)
+                .map(transfer -> currentUser.getId().equals(transfer.getInitiatedBy().getId())
+                        || isOwner(currentUser, transfer.getSourceAccount())
+                        || isOwner(currentUser, transfer.getTargetAccount()))
+                .orElse(true); // a missing transfer is left to the lookup, which answers 404
+    }
+
+    private boolean isOwner(User user, Account account) {
+        return account != null && user.getId().equals(account.getUser().getId());
+    }
 }
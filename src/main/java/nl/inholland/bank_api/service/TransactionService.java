@@ -1,23 +1,68 @@
 package nl.inholland.bank_api.service;
 
+import jakarta.persistence.EntityNotFoundException;
+import nl.inholland.bank_api.constant.ErrorMessages;
 import nl.inholland.bank_api.mapper.TransactionMapper;
+import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
+import nl.inholland.bank_api.model.dto.TransactionBatchItemDTO;
 import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
-import nl.inholland.bank_api.model.entities.Transaction;
 import nl.inholland.bank_api.repository.TransactionRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class TransactionService {
+    private final TransferEngine transferEngine;
+    private final ObjectProvider<TransferSequencer> transferSequencer;
+    private final ObjectProvider<TransferSettlementPipeline> settlementPipeline;
     private final TransactionRepository transactionRepository;
     private final TransactionMapper transactionMapper;
 
-    public TransactionService(TransactionRepository transactionRepository, TransactionMapper transactionMapper) {
+    public TransactionService(
+            TransferEngine transferEngine,
+            ObjectProvider<TransferSequencer> transferSequencer,
+            ObjectProvider<TransferSettlementPipeline> settlementPipeline,
+            TransactionRepository transactionRepository,
+            TransactionMapper transactionMapper
+    ) {
+        this.transferEngine = transferEngine;
+        this.transferSequencer = transferSequencer;
+        this.settlementPipeline = settlementPipeline;
         this.transactionRepository = transactionRepository;
         this.transactionMapper = transactionMapper;
     }
 
-    public Long postTransaction(TransactionRequestDTO dto) {
-        Transaction transaction = transactionRepository.save(transactionMapper.toEntity(dto));
-        return transaction.getId();
+    public Long postTransaction(TransactionRequestDTO dto, Long initiatorId) {
+        // The pipeline is only present when bank.transfers.async.enabled=true, the transfer is then still PENDING
+        TransferSettlementPipeline pipeline = settlementPipeline.getIfAvailable();
+        if (pipeline != null) {
+            return pipeline.submit(dto, initiatorId);
+        }
+
+        // The sequencer is only present when bank.transfers.sequencer.enabled=true
+        TransferSequencer sequencer = transferSequencer.getIfAvailable();
+        if (sequencer != null) {
+            return sequencer.submit(dto, initiatorId);
+        }
+
+        return transferEngine.transfer(dto, initiatorId);
+    }
+
+    public boolean isAsync() {
+        return settlementPipeline.getIfAvailable() != null;
+    }
+
+    public List<TransactionBatchItemDTO> postTransactions(List<TransactionRequestDTO> dtos, Long initiatorId) {
+        return transferEngine.transferBatch(dtos, initiatorId);
+    }
+
+    @PreAuthorize("@securityService.canViewTransfer(#id)")
+    public CombinedTransactionDTO getTransaction(Long id) {
+        return transactionRepository.findById(id)
+                .map(transactionMapper::toCombinedDTO)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.TRANSACTION_NOT_FOUND));
     }
-}
\ No newline at end of file
+}
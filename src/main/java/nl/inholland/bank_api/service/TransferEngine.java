@@ -0,0 +1,296 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.transaction.Transactional;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.mapper.TransactionMapper;
+import nl.inholland.bank_api.model.dto.TransactionBatchItemDTO;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.TransferBatchRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Executes a single transfer: the transaction row and both balance changes are committed together
+@Service
+public class TransferEngine {
+    private final AccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final UserRepository userRepository;
+    private final TransferBatchRepository transferBatchRepository;
+    private final TransactionMapper transactionMapper;
+    private final LimitAccountingService limitAccountingService;
+    private final LedgerService ledgerService;
+    private final AccountActivityService accountActivityService;
+    private final BalanceStripingService balanceStripingService;
+
+    @Value("${bank.transfers.batch.max-size:1000}")
+    private int maxBatchSize;
+
+    public TransferEngine(
+            AccountRepository accountRepository,
+            TransactionRepository transactionRepository,
+            UserRepository userRepository,
+            TransferBatchRepository transferBatchRepository,
+            TransactionMapper transactionMapper,
+            LimitAccountingService limitAccountingService,
+            LedgerService ledgerService,
+            AccountActivityService accountActivityService,
+            BalanceStripingService balanceStripingService
+    ) {
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.userRepository = userRepository;
+        this.transferBatchRepository = transferBatchRepository;
+        this.transactionMapper = transactionMapper;
+        this.limitAccountingService = limitAccountingService;
+        this.ledgerService = ledgerService;
+        this.accountActivityService = accountActivityService;
+        this.balanceStripingService = balanceStripingService;
+    }
+
+    @Transactional
+    public Long transfer(TransactionRequestDTO dto, Long initiatorId) {
+        String sourceIban = dto.getSourceAccount().trim();
+        String targetIban = dto.getTargetAccount().trim();
+
+        List<Account> accounts = lockTransferAccounts(sourceIban, targetIban);
+        Account sourceAccount = findByIban(accounts, sourceIban);
+        Account targetAccount = findByIban(accounts, targetIban);
+
+        String failureReason = findLimitViolation(sourceAccount, targetAccount, dto.getAmount(),
+                balanceStripingService.getAvailableBalance(sourceAccount),
+                () -> limitAccountingService.getUsedToday(sourceAccount.getId(), LimitKind.TRANSFER));
+        Status status = failureReason == null ? Status.SUCCEEDED : Status.FAILED;
+
+        if (status == Status.SUCCEEDED) {
+            // The source is locked, so the guarded debit can only fail if the checks above are wrong
+            if (!balanceStripingService.debit(sourceAccount, dto.getAmount())) {
+                throw new IllegalStateException(ErrorMessages.INSUFFICIENT_BALANCE);
+            }
+            balanceStripingService.credit(targetAccount, dto.getAmount());
+            limitAccountingService.recordUsage(sourceAccount.getId(), LimitKind.TRANSFER, dto.getAmount());
+        }
+
+        // The initiator comes from the token, a reference is enough to set the foreign key
+        Transaction transaction = transactionMapper.toEntity(
+                dto, sourceAccount, targetAccount, userRepository.getReferenceById(initiatorId), status);
+        transaction.setFailureReason(failureReason);
+        Transaction saved = transactionRepository.save(transaction);
+        ledgerService.recordTransfers(List.of(saved));
+        accountActivityService.recordTransfers(List.of(saved));
+        return saved.getId();
+    }
+
+    // Stores the transfer as PENDING, the settlement pipeline executes it later
+    @Transactional
+    public Transaction submit(TransactionRequestDTO dto, Long initiatorId) {
+        Account sourceAccount = accountRepository.findByIban(dto.getSourceAccount().trim())
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+        Account targetAccount = accountRepository.findByIban(dto.getTargetAccount().trim())
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+
+        Transaction transaction = transactionMapper.toEntity(
+                dto, sourceAccount, targetAccount, userRepository.getReferenceById(initiatorId), Status.PENDING);
+        return transactionRepository.save(transaction);
+    }
+
+    // Settles a pending transfer with the same checks as a synchronous one.
+    // Returns the transfer, or empty when another worker already settled it.
+    @Transactional
+    public Optional<Transaction> settle(Long transactionId) {
+        TransactionRepository.TransferIbans ibans = transactionRepository.findIbansById(transactionId)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.TRANSACTION_NOT_FOUND));
+
+        // Accounts first, in the same order as every other transfer, then the transfer itself
+        lockTransferAccounts(ibans.getSourceIban(), ibans.getTargetIban());
+        Transaction transaction = transactionRepository.findByIdForUpdate(transactionId)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.TRANSACTION_NOT_FOUND));
+        if (transaction.getStatus() != Status.PENDING) {
+            return Optional.empty();
+        }
+
+        Account sourceAccount = transaction.getSourceAccount();
+        Account targetAccount = transaction.getTargetAccount();
+        BigDecimal amount = transaction.getAmount();
+        String failureReason = findLimitViolation(sourceAccount, targetAccount, amount,
+                balanceStripingService.getAvailableBalance(sourceAccount),
+                () -> limitAccountingService.getUsedToday(sourceAccount.getId(), LimitKind.TRANSFER));
+
+        if (failureReason == null) {
+            if (balanceStripingService.debit(sourceAccount, amount)) {
+                balanceStripingService.credit(targetAccount, amount);
+                limitAccountingService.recordUsage(sourceAccount.getId(), LimitKind.TRANSFER, amount);
+            } else {
+                failureReason = ErrorMessages.INSUFFICIENT_BALANCE;
+            }
+        }
+
+        transaction.setStatus(failureReason == null ? Status.SUCCEEDED : Status.FAILED);
+        transaction.setFailureReason(failureReason);
+        ledgerService.recordTransfers(List.of(transaction));
+        accountActivityService.recordTransfers(List.of(transaction));
+        return Optional.of(transactionRepository.save(transaction));
+    }
+
+    // Applies the transfers in request order and writes them with JDBC batching in a single transaction
+    @Transactional
+    public List<TransactionBatchItemDTO> transferBatch(List<TransactionRequestDTO> dtos, Long initiatorId) {
+        if (dtos == null || dtos.isEmpty()) {
+            throw new IllegalArgumentException(ErrorMessages.BATCH_EMPTY);
+        }
+        if (dtos.size() > maxBatchSize) {
+            throw new IllegalArgumentException(ErrorMessages.BATCH_SIZE_EXCEEDED);
+        }
+
+        // Every referenced account in one query, locked in id order
+        Set<String> ibans = new HashSet<>();
+        for (TransactionRequestDTO dto : dtos) {
+            if (dto.getSourceAccount() != null && dto.getTargetAccount() != null) {
+                ibans.add(dto.getSourceAccount().trim());
+                ibans.add(dto.getTargetAccount().trim());
+            }
+        }
+        Map<String, Account> accounts = accountRepository.findByIbanInForUpdate(ibans).stream()
+                .collect(Collectors.toMap(Account::getIban, Function.identity()));
+
+        // Running balances and daily totals, so later transfers see the effect of earlier ones
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        accounts.values().forEach(account ->
+                balances.put(account.getId(), balanceStripingService.getAvailableBalance(account)));
+        Map<Long, BigDecimal> totalsToday = limitAccountingService.getUsedToday(balances.keySet(), LimitKind.TRANSFER);
+        Map<Long, BigDecimal> spentInBatch = new TreeMap<>();
+
+        User initiatedBy = userRepository.getReferenceById(initiatorId);
+        LocalDateTime timestamp = LocalDateTime.now();
+        Map<Long, BigDecimal> balanceChanges = new TreeMap<>();
+        List<Transaction> transactions = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        List<String> failureReasons = new ArrayList<>();
+        TransactionBatchItemDTO[] results = new TransactionBatchItemDTO[dtos.size()];
+
+        for (int i = 0; i < dtos.size(); i++) {
+            TransactionRequestDTO dto = dtos.get(i);
+            String rejection = validate(dto, accounts);
+            if (rejection != null) {
+                results[i] = new TransactionBatchItemDTO(i, null, Status.FAILED, rejection);
+                continue;
+            }
+
+            Account sourceAccount = accounts.get(dto.getSourceAccount().trim());
+            Account targetAccount = accounts.get(dto.getTargetAccount().trim());
+            BigDecimal amount = dto.getAmount();
+            String failureReason = findLimitViolation(sourceAccount, targetAccount, amount,
+                    balances.get(sourceAccount.getId()), () -> totalsToday.getOrDefault(sourceAccount.getId(), BigDecimal.ZERO));
+
+            Status status = failureReason == null ? Status.SUCCEEDED : Status.FAILED;
+            if (status == Status.SUCCEEDED) {
+                balances.merge(sourceAccount.getId(), amount.negate(), BigDecimal::add);
+                balances.merge(targetAccount.getId(), amount, BigDecimal::add);
+                totalsToday.merge(sourceAccount.getId(), amount, BigDecimal::add);
+                spentInBatch.merge(sourceAccount.getId(), amount, BigDecimal::add);
+                balanceChanges.merge(sourceAccount.getId(), amount.negate(), BigDecimal::add);
+                balanceChanges.merge(targetAccount.getId(), amount, BigDecimal::add);
+            }
+
+            Transaction transaction = transactionMapper.toEntity(dto, sourceAccount, targetAccount, initiatedBy, status);
+            transaction.setFailureReason(failureReason);
+            transaction.setTimestamp(timestamp);
+            transactions.add(transaction);
+            positions.add(i);
+            failureReasons.add(failureReason);
+        }
+
+        // One balance update per account, however many transfers touched it
+        balanceChanges.values().removeIf(change -> change.signum() == 0);
+        transferBatchRepository.adjustBalances(balanceChanges);
+        spentInBatch.forEach((accountId, amount) ->
+                limitAccountingService.recordUsage(accountId, LimitKind.TRANSFER, amount));
+
+        List<Long> ids = transactions.isEmpty() ? List.of() : transferBatchRepository.insertTransactions(transactions);
+        for (int i = 0; i < transactions.size(); i++) {
+            transactions.get(i).setId(ids.get(i));
+        }
+        ledgerService.recordTransfers(transactions);
+        accountActivityService.recordTransfers(transactions);
+
+        for (int i = 0; i < transactions.size(); i++) {
+            int position = positions.get(i);
+            results[position] = new TransactionBatchItemDTO(
+                    position, ids.get(i), transactions.get(i).getStatus(), failureReasons.get(i));
+        }
+
+        return List.of(results);
+    }
+
+    private String validate(TransactionRequestDTO dto, Map<String, Account> accounts) {
+        if (dto.getSourceAccount() == null || dto.getTargetAccount() == null) {
+            return ErrorMessages.IBAN_REQUIRED;
+        }
+        if (dto.getAmount() == null || dto.getAmount().signum() <= 0) {
+            return ErrorMessages.AMOUNT_MINIMUM;
+        }
+        if (!accounts.containsKey(dto.getSourceAccount().trim()) || !accounts.containsKey(dto.getTargetAccount().trim())) {
+            return ErrorMessages.ACCOUNT_NOT_FOUND;
+        }
+
+        return null;
+    }
+
+    // Locked in id order so opposite transfers cannot deadlock. A striped target is read without a lock,
+    // its credit only touches one of its stripes.
+    private List<Account> lockTransferAccounts(String sourceIban, String targetIban) {
+        List<Account> accounts = new ArrayList<>(accountRepository.findTransferAccountsForUpdate(sourceIban, targetIban));
+        if (accounts.stream().noneMatch(account -> account.getIban().equals(targetIban))) {
+            accountRepository.findByIban(targetIban).ifPresent(accounts::add);
+        }
+        return accounts;
+    }
+
+    private Account findByIban(List<Account> accounts, String iban) {
+        return accounts.stream()
+                .filter(account -> account.getIban().equals(iban))
+                .findFirst()
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+    }
+
+    // Returns the reason the transfer is not allowed, or null. The daily total is only loaded when needed.
+    private String findLimitViolation(
+            Account sourceAccount,
+            Account targetAccount,
+            BigDecimal amount,
+            BigDecimal balance,
+            Supplier<BigDecimal> totalToday
+    ) {
+        if (sourceAccount.getId().equals(targetAccount.getId())) {
+            return ErrorMessages.SAME_ACCOUNT_TRANSFER;
+        }
+
+        // Check absolute limit
+        BigDecimal resultingBalance = balance.subtract(amount);
+        if (resultingBalance.compareTo(sourceAccount.getAbsoluteLimit()) < 0) {
+            return ErrorMessages.INSUFFICIENT_BALANCE; // would go below absolute limit
+        }
+
+        // Check daily limit
+        if (totalToday.get().add(amount).compareTo(sourceAccount.getDailyLimit()) > 0) {
+            return ErrorMessages.DAILY_LIMIT_EXCEEDED; // daily limit exceeded
+        }
+
+        return null;
+    }
+}
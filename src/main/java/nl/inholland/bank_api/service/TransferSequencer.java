@@ -0,0 +1,346 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.mapper.TransactionMapper;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+// Routes every transfer to the shard that owns its source account. Each shard has a single writer
+// thread, so the balance and limit checks of one account never race and are persisted in batches.
+@Service
+@ConditionalOnProperty(name = "bank.transfers.sequencer.enabled", havingValue = "true")
+@Log
+public class TransferSequencer {
+    private final AccountService accountService;
+    private final AccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final UserRepository userRepository;
+    private final TransactionMapper transactionMapper;
+    private final LimitAccountingService limitAccountingService;
+    private final LedgerService ledgerService;
+    private final AccountActivityService accountActivityService;
+    private final BalanceStripingService balanceStripingService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${bank.transfers.sequencer.shards:4}")
+    private int shardCount;
+
+    @Value("${bank.transfers.sequencer.buffer-size:1024}")
+    private int bufferSize;
+
+    @Value("${bank.transfers.sequencer.batch-size:64}")
+    private int batchSize;
+
+    private Shard[] shards;
+    private volatile boolean running;
+
+    public TransferSequencer(
+            AccountService accountService,
+            AccountRepository accountRepository,
+            TransactionRepository transactionRepository,
+            UserRepository userRepository,
+            TransactionMapper transactionMapper,
+            LimitAccountingService limitAccountingService,
+            LedgerService ledgerService,
+            AccountActivityService accountActivityService,
+            BalanceStripingService balanceStripingService,
+            PlatformTransactionManager transactionManager
+    ) {
+        this.accountService = accountService;
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.userRepository = userRepository;
+        this.transactionMapper = transactionMapper;
+        this.limitAccountingService = limitAccountingService;
+        this.ledgerService = ledgerService;
+        this.accountActivityService = accountActivityService;
+        this.balanceStripingService = balanceStripingService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+            shards[i].thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.thread.join();
+        }
+
+        // Commands queued after their shard exited would otherwise never complete
+        for (Shard shard : shards) {
+            List<TransferCommand> remaining = new ArrayList<>();
+            shard.buffer.drainTo(remaining);
+            remaining.forEach(command -> command.result().completeExceptionally(
+                    new IllegalStateException(ErrorMessages.TRANSFER_SEQUENCER_STOPPED)));
+        }
+    }
+
+    public Long submit(TransactionRequestDTO dto, Long initiatorId) {
+        if (!running) {
+            throw new IllegalStateException(ErrorMessages.TRANSFER_SEQUENCER_STOPPED);
+        }
+
+        // Unknown source accounts are rejected before the command is queued
+        Account source = accountService.fetchAccountByIban(dto.getSourceAccount());
+        TransferCommand command = new TransferCommand(dto, source, initiatorId);
+
+        try {
+            BlockingQueue<TransferCommand> buffer = shards[Math.floorMod(source.getId(), shards.length)].buffer;
+            buffer.put(command);
+            // stop() may have drained the buffer just before the put, then nobody else will take the command
+            if (!running && buffer.remove(command)) {
+                throw new IllegalStateException(ErrorMessages.TRANSFER_SEQUENCER_STOPPED);
+            }
+            return command.result().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ErrorMessages.TRANSFER_SEQUENCER_STOPPED, e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private class Shard {
+        private final BlockingQueue<TransferCommand> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final Thread thread;
+
+        private Shard(int index) {
+            thread = new Thread(this::run, "transfer-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void run() {
+            // Keep draining after stop() so that no submitted command is left waiting
+            while (running || !buffer.isEmpty()) {
+                try {
+                    TransferCommand first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+
+                    List<TransferCommand> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                    process(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void process(List<TransferCommand> batch) {
+        try {
+            // Results are published only after the batch has been committed
+            BatchOutcome outcome = transactionTemplate.execute(status -> applyBatch(batch));
+            outcome.ids().forEach((command, id) -> command.result().complete(id));
+            outcome.rejected().forEach((command, e) -> command.result().completeExceptionally(e));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.getFirst().result().completeExceptionally(e);
+                return;
+            }
+
+            // One command broke the batch, so retry every command on its own
+            log.log(Level.WARNING, "Transfer batch failed, retrying commands individually", e);
+            for (TransferCommand command : batch) {
+                process(List.of(command));
+            }
+        }
+    }
+
+    private BatchOutcome applyBatch(List<TransferCommand> batch) {
+        Set<String> targetIbans = batch.stream()
+                .map(command -> command.dto().getTargetAccount().trim())
+                .collect(Collectors.toSet());
+        Map<String, Account> targets = accountRepository.findByIbanIn(targetIbans).stream()
+                .collect(Collectors.toMap(Account::getIban, Function.identity()));
+
+        Map<Long, SourceState> sources = new HashMap<>();
+        Map<Long, List<Transaction>> succeededBySource = new LinkedHashMap<>();
+        Map<TransferCommand, Transaction> transactions = new LinkedHashMap<>();
+        Map<TransferCommand, RuntimeException> rejected = new HashMap<>();
+
+        for (TransferCommand command : batch) {
+            Account target = targets.get(command.dto().getTargetAccount().trim());
+            if (target == null) {
+                rejected.put(command, new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+                continue;
+            }
+
+            BigDecimal amount = command.dto().getAmount();
+            SourceState source = sources.computeIfAbsent(command.source().getId(), this::loadSourceState);
+            String failureReason = source.tryDebit(target, amount);
+
+            User initiatedBy = userRepository.getReferenceById(command.initiatorId());
+            Transaction transaction = transactionMapper.toEntity(command.dto(), source.account, target, initiatedBy,
+                    failureReason == null ? Status.SUCCEEDED : Status.FAILED);
+            transaction.setFailureReason(failureReason);
+            if (failureReason == null) {
+                succeededBySource.computeIfAbsent(source.account.getId(), id -> new ArrayList<>()).add(transaction);
+            }
+            transactions.put(command, transaction);
+        }
+
+        // One guarded debit per source for the whole batch. When it is rejected, a hold or another instance took
+        // part of the balance since it was read, so the transfers are debited one by one and those that no longer
+        // fit fail like any other transfer over the balance.
+        Map<Long, BigDecimal> credits = new LinkedHashMap<>();
+        Map<Long, Account> creditedAccounts = new HashMap<>();
+        succeededBySource.forEach((accountId, succeeded) -> {
+            Account source = sources.get(accountId).account;
+            List<Transaction> debited = balanceStripingService.debit(source, total(succeeded))
+                    ? succeeded
+                    : debitOneByOne(source, succeeded);
+            for (Transaction transaction : debited) {
+                credits.merge(transaction.getTargetAccount().getId(), transaction.getAmount(), BigDecimal::add);
+                creditedAccounts.put(transaction.getTargetAccount().getId(), transaction.getTargetAccount());
+            }
+            if (!debited.isEmpty()) {
+                limitAccountingService.recordUsage(accountId, LimitKind.TRANSFER, total(debited));
+            }
+        });
+        credits.forEach((accountId, amount) -> balanceStripingService.credit(creditedAccounts.get(accountId), amount));
+        transactionRepository.saveAll(transactions.values());
+        ledgerService.recordTransfers(new ArrayList<>(transactions.values()));
+        accountActivityService.recordTransfers(new ArrayList<>(transactions.values()));
+
+        Map<TransferCommand, Long> ids = new LinkedHashMap<>();
+        transactions.forEach((command, transaction) -> ids.put(command, transaction.getId()));
+        return new BatchOutcome(ids, rejected);
+    }
+
+    private List<Transaction> debitOneByOne(Account source, List<Transaction> transfers) {
+        List<Transaction> debited = new ArrayList<>();
+        for (Transaction transfer : transfers) {
+            if (balanceStripingService.debit(source, transfer.getAmount())) {
+                debited.add(transfer);
+            } else {
+                transfer.setStatus(Status.FAILED);
+                transfer.setFailureReason(ErrorMessages.INSUFFICIENT_BALANCE);
+            }
+        }
+        return debited;
+    }
+
+    private static BigDecimal total(List<Transaction> transfers) {
+        return transfers.stream().map(Transaction::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private SourceState loadSourceState(Long accountId) {
+        Account account = accountRepository.findById(accountId)
+                .orElseThrow(() -> new EntityNotFoundException(ErrorMessages.ACCOUNT_NOT_FOUND));
+        BigDecimal totalToday = limitAccountingService.getUsedToday(accountId, LimitKind.TRANSFER);
+        return new SourceState(account, balanceStripingService.getAvailableBalance(account), totalToday);
+    }
+
+    // Running view of a source account while a batch is applied
+    private static class SourceState {
+        private final Account account;
+        private BigDecimal balance;
+        private BigDecimal totalToday;
+
+        private SourceState(Account account, BigDecimal balance, BigDecimal totalToday) {
+            this.account = account;
+            this.balance = balance;
+            this.totalToday = totalToday;
+        }
+
+        // Same rules as the synchronous transfer path. Returns the reason the transfer is not allowed, or null.
+        private String tryDebit(Account target, BigDecimal amount) {
+            if (account.getId().equals(target.getId())) {
+                return ErrorMessages.SAME_ACCOUNT_TRANSFER;
+            }
+
+            BigDecimal resultingBalance = balance.subtract(amount);
+            if (resultingBalance.compareTo(account.getAbsoluteLimit()) < 0) {
+                return ErrorMessages.INSUFFICIENT_BALANCE;
+            }
+
+            BigDecimal resultingTotal = totalToday.add(amount);
+            if (resultingTotal.compareTo(account.getDailyLimit()) > 0) {
+                return ErrorMessages.DAILY_LIMIT_EXCEEDED;
+            }
+
+            balance = resultingBalance;
+            totalToday = resultingTotal;
+            return null;
+        }
+    }
+
+    // Compared by identity, the entities it carries are not safe to hash outside a session
+    private static final class TransferCommand {
+        private final TransactionRequestDTO dto;
+        private final Account source;
+        private final Long initiatorId;
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        private TransferCommand(TransactionRequestDTO dto, Account source, Long initiatorId) {
+            this.dto = dto;
+            this.source = source;
+            this.initiatorId = initiatorId;
+        }
+
+        private TransactionRequestDTO dto() {
+            return dto;
+        }
+
+        private Account source() {
+            return source;
+        }
+
+        private Long initiatorId() {
+            return initiatorId;
+        }
+
+        private CompletableFuture<Long> result() {
+            return result;
+        }
+    }
+
+    private record BatchOutcome(
+            Map<TransferCommand, Long> ids,
+            Map<TransferCommand, RuntimeException> rejected
+    ) {
+    }
+}
@@ -0,0 +1,164 @@
+package nl.inholland.bank_api.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.java.Log;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+// Persists transfers as PENDING and settles them in the background. Transfers are routed to the
+// worker that owns their source account, so the transfers of one account settle in submission order.
+@Service
+@ConditionalOnProperty(name = "bank.transfers.async.enabled", havingValue = "true")
+@Log
+public class TransferSettlementPipeline {
+    private final TransferEngine transferEngine;
+    private final TransactionRepository transactionRepository;
+    private final MeterRegistry meterRegistry;
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    private final Timer settlementLag;
+
+    @Value("${bank.transfers.async.workers:4}")
+    private int workerCount;
+
+    @Value("${bank.transfers.async.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // Pending transfers older than this are picked up by the recovery sweep
+    @Value("${bank.transfers.async.sweep-after:PT10S}")
+    private Duration sweepAfter;
+
+    private Worker[] workers;
+    private volatile boolean running;
+
+    public TransferSettlementPipeline(
+            TransferEngine transferEngine,
+            TransactionRepository transactionRepository,
+            MeterRegistry meterRegistry
+    ) {
+        this.transferEngine = transferEngine;
+        this.transactionRepository = transactionRepository;
+        this.meterRegistry = meterRegistry;
+        this.settlementLag = Timer.builder("bank.transfers.async.settlement.lag")
+                .description("Time between the submission and the settlement of a transfer")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+            workers[i].thread.start();
+        }
+
+        Gauge.builder("bank.transfers.async.queue.depth", this, TransferSettlementPipeline::getQueueDepth)
+                .description("Transfers waiting for a settlement worker")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Worker worker : workers) {
+            worker.thread.join();
+        }
+    }
+
+    // The transfer is committed before it is queued, so a full queue or a restart only delays it
+    public Long submit(TransactionRequestDTO dto, Long initiatorId) {
+        Transaction transaction = transferEngine.submit(dto, initiatorId);
+        enqueue(transaction.getId(), transaction.getSourceAccount().getId());
+        return transaction.getId();
+    }
+
+    // Queues transfers that were never queued or were lost with a previous instance
+    public int sweepPending() {
+        int found = 0;
+        for (TransactionRepository.PendingTransfer pending :
+                transactionRepository.findPendingBefore(LocalDateTime.now().minus(sweepAfter))) {
+            if (enqueue(pending.getId(), pending.getSourceAccountId())) {
+                found++;
+            }
+        }
+
+        if (found > 0) {
+            log.info("Recovered " + found + " pending transfers");
+        }
+        return found;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    private boolean enqueue(Long transactionId, Long sourceAccountId) {
+        if (!queued.add(transactionId)) {
+            return false;
+        }
+
+        if (!workers[Math.floorMod(sourceAccountId, workers.length)].queue.offer(transactionId)) {
+            queued.remove(transactionId);
+            return false;
+        }
+        return true;
+    }
+
+    private void settle(Long transactionId) {
+        try {
+            transferEngine.settle(transactionId).ifPresent(transaction -> settlementLag.record(
+                    Duration.between(transaction.getTimestamp(), LocalDateTime.now())));
+        } catch (RuntimeException e) {
+            // Stays PENDING, the recovery sweep retries it
+            log.log(Level.WARNING, "Could not settle transfer " + transactionId, e);
+        } finally {
+            queued.remove(transactionId);
+        }
+    }
+
+    private class Worker {
+        private final BlockingQueue<Long> queue = new LinkedBlockingQueue<>(queueCapacity);
+        private final Thread thread;
+
+        private Worker(int index) {
+            thread = new Thread(this::run, "transfer-settlement-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void run() {
+            while (running) {
+                try {
+                    Long transactionId = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (transactionId != null) {
+                        settle(transactionId);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nl.inholland.bank_api.util;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+// Position in a transaction history, the sort key of the last row on a page: newest first, transfers (kind 0)
+// before ATM transactions (kind 1) with the same timestamp, then by id. Clients only pass it back as they got it.
+public record HistoryCursor(LocalDateTime timestamp, int kind, long id) {
+    public static final int TRANSFER = 0;
+    public static final int ATM = 1;
+
+    public String encode() {
+        String key = timestamp + "|" + kind + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A blank cursor asks for the first page and decodes to null
+    public static HistoryCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+
+        try {
+            String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+            int kind = Integer.parseInt(key[1]);
+            if (key.length != 3 || (kind != TRANSFER && kind != ATM)) {
+                throw new IllegalArgumentException(ErrorMessages.INVALID_CURSOR);
+            }
+            return new HistoryCursor(LocalDateTime.parse(key[0]), kind, Long.parseLong(key[2]));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_CURSOR);
+        }
+    }
+}
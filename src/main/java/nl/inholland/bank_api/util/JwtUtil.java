@@ -17,6 +17,7 @@ import nl.inholland.bank_api.constant.ErrorMessages;
 import java.io.IOException;
 import java.security.Key;
 import java.security.PublicKey;
+import java.time.Instant;
 import java.util.Date;
 import java.util.List;
 
@@ -55,7 +56,13 @@ public class JwtUtil {
 
             String username = claims.getSubject();
             UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-            return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+            UsernamePasswordAuthenticationToken authentication =
+                    new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+
+            // Keep the user id from the token, so callers don't need to look the user up again
+            Number userId = claims.get("userId", Number.class);
+            authentication.setDetails(userId != null ? userId.longValue() : null);
+            return authentication;
 
         } catch (io.jsonwebtoken.JwtException e) {
             // Rethrow to preserve the specific exception type
@@ -63,6 +70,25 @@ public class JwtUtil {
         }
     }
 
+    // Expiry of a token that validateToken accepted, null when it has none
+    public Instant getExpiration(String token) {
+        Date expiration = Jwts.parserBuilder()
+                .setSigningKey(keyProvider.getPublicKey())
+                .build()
+                .parseClaimsJws(token)
+                .getBody()
+                .getExpiration();
+        return expiration == null ? null : expiration.toInstant();
+    }
+
+    public static Long getUserId(Authentication authentication) {
+        if (authentication != null && authentication.getDetails() instanceof Long userId) {
+            return userId;
+        }
+
+        return null;
+    }
+
     public void sendJwtErrorResponse(HttpServletResponse response, JwtException e) throws IOException {
         String message = switch (e.getClass().getSimpleName()) {
             case "ExpiredJwtException" -> ErrorMessages.EXPIRED_TOKEN;
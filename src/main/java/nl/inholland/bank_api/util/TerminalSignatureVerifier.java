@@ -0,0 +1,57 @@
+package nl.inholland.bank_api.util;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import org.springframework.core.env.Environment;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+// Terminals sign the raw request body with HMAC-SHA256 and send the Base64 signature in a header.
+// Every terminal has its own key, configured as bank.atm.terminals.<terminal id>.key (Base64)
+@Component
+public class TerminalSignatureVerifier {
+    public static final String HEADER = "X-Terminal-Signature";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final Environment environment;
+
+    public TerminalSignatureVerifier(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void verify(String terminalId, byte[] body, String signature) {
+        verify(terminalId, body, signature == null ? null : decode(signature));
+    }
+
+    // For a signature that is sent as raw bytes, as the ATM gateway does
+    public void verify(String terminalId, byte[] body, byte[] signature) {
+        String key = environment.getProperty("bank.atm.terminals." + terminalId + ".key");
+        if (key == null || key.isBlank() || signature == null
+                || !MessageDigest.isEqual(sign(Base64.getDecoder().decode(key), body), signature)) {
+            throw new AccessDeniedException(ErrorMessages.INVALID_TERMINAL_SIGNATURE);
+        }
+    }
+
+    public static byte[] sign(byte[] key, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac.doFinal(body);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] decode(String signature) {
+        try {
+            return Base64.getDecoder().decode(signature.trim());
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package nl.inholland.bank_api.controller;
+
+import nl.inholland.bank_api.service.AccountActivityService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(AccountActivityController.class)
+@AutoConfigureMockMvc(addFilters = false)
+class AccountActivityControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private AccountActivityService accountActivityService;
+
+    @Test
+    void backfillActivity_ReturnsTheAddedLines() throws Exception {
+        when(accountActivityService.backfill()).thenReturn(3);
+
+        mockMvc.perform(post("/activity/backfill"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.lines").value(3));
+    }
+}
@@ -1,26 +1,36 @@
 package nl.inholland.bank_api.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import nl.inholland.bank_api.constant.ErrorMessages;
 import nl.inholland.bank_api.constant.FieldNames;
+import nl.inholland.bank_api.exception.ConflictException;
 import nl.inholland.bank_api.exception.GlobalExceptionHandler;
+import nl.inholland.bank_api.exception.ServiceUnavailableException;
+import nl.inholland.bank_api.exception.TooManyRequestsException;
+import nl.inholland.bank_api.model.dto.AtmBatchUploadResponseDTO;
 import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
 import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
 import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.model.enums.AtmTransactionType;
 import nl.inholland.bank_api.service.AccountService;
+import nl.inholland.bank_api.repository.IdempotencyRecordRepository;
+import nl.inholland.bank_api.service.AtmBatchUploadService;
 import nl.inholland.bank_api.service.AtmTransactionService;
+import nl.inholland.bank_api.service.IdempotencyService;
 import nl.inholland.bank_api.service.UserService;
 import nl.inholland.bank_api.util.JwtUtil;
 import nl.inholland.bank_api.util.StringUtils;
+import nl.inholland.bank_api.util.TerminalSignatureVerifier;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -28,23 +38,30 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(AtmTransactionController.class)
 @AutoConfigureMockMvc(addFilters = false)
-@Import(GlobalExceptionHandler.class)
+@Import({GlobalExceptionHandler.class, IdempotencyService.class, SimpleMeterRegistry.class})
 class AtmTransactionControllerTest {
     private final String ATM_TRANSACTIONS_ENDPOINT = "/atm/transactions";
 
@@ -57,6 +74,9 @@ class AtmTransactionControllerTest {
     @MockitoBean
     private AtmTransactionService atmTransactionService;
 
+    @MockitoBean
+    private AtmBatchUploadService batchUploadService;
+
     @MockitoBean
     private AccountService accountService;
 
@@ -66,6 +86,9 @@ class AtmTransactionControllerTest {
     @MockitoBean
     private JwtUtil jwtUtil;
 
+    @MockitoBean
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
     private AtmTransactionRequestDTO getValidRequest(AtmTransactionType type, BigDecimal amount) {
         AtmTransactionRequestDTO dto = new AtmTransactionRequestDTO();
         dto.iban = "NL01INHO0123456789";
@@ -116,6 +139,62 @@ class AtmTransactionControllerTest {
                 .createTransaction(any(AtmTransactionRequestDTO.class), any(Account.class), any(User.class));
     }
 
+    @Test
+    void createTransactionReturns429WithRetryAfterWhenAccountHasTooManyPending() throws Exception {
+        AtmTransactionRequestDTO request = getValidRequest(AtmTransactionType.WITHDRAW, new BigDecimal("50.00"));
+        when(userService.getUserByEmail("john.doe@example.com")).thenReturn(new User());
+        when(accountService.fetchAccountByIban(request.iban)).thenReturn(new Account());
+        when(atmTransactionService
+                .createTransaction(any(AtmTransactionRequestDTO.class), any(Account.class), any(User.class)))
+                .thenThrow(new TooManyRequestsException(ErrorMessages.ATM_ACCOUNT_BACKLOG_FULL, Duration.ofSeconds(5)));
+
+        mockMvc.perform(post(ATM_TRANSACTIONS_ENDPOINT)
+                        .principal(auth())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"))
+                .andExpect(jsonPath("$.message", hasItem(ErrorMessages.ATM_ACCOUNT_BACKLOG_FULL)));
+    }
+
+    @Test
+    void createTransactionReturns503WithRetryAfterWhenBacklogIsFull() throws Exception {
+        AtmTransactionRequestDTO request = getValidRequest(AtmTransactionType.DEPOSIT, new BigDecimal("50.00"));
+        when(userService.getUserByEmail("john.doe@example.com")).thenReturn(new User());
+        when(accountService.fetchAccountByIban(request.iban)).thenReturn(new Account());
+        when(atmTransactionService
+                .createTransaction(any(AtmTransactionRequestDTO.class), any(Account.class), any(User.class)))
+                .thenThrow(new ServiceUnavailableException(ErrorMessages.ATM_BACKLOG_FULL, Duration.ofSeconds(30)));
+
+        mockMvc.perform(post(ATM_TRANSACTIONS_ENDPOINT)
+                        .principal(auth())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "30"));
+    }
+
+    @Test
+    void uploadBatchPassesTheSignedBodyAndReturnsTheTransactionIds() throws Exception {
+        String body = "{\"terminalId\":\"atm-0001\",\"operations\":[]}";
+        User user = new User();
+        when(userService.getUserByEmail("john.doe@example.com")).thenReturn(user);
+        when(batchUploadService.upload(any(byte[].class), eq("c2lnbmF0dXJl"), eq(user)))
+                .thenReturn(new AtmBatchUploadResponseDTO("atm-0001", Map.of(1L, 40L, 2L, 41L), 2));
+
+        mockMvc.perform(post(ATM_TRANSACTIONS_ENDPOINT + "/batch")
+                        .principal(auth())
+                        .header(TerminalSignatureVerifier.HEADER, "c2lnbmF0dXJl")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactionIds.1").value(40))
+                .andExpect(jsonPath("$.transactionIds.2").value(41))
+                .andExpect(jsonPath("$.created").value(2));
+
+        verify(batchUploadService).upload(eq(body.getBytes(StandardCharsets.UTF_8)), eq("c2lnbmF0dXJl"), eq(user));
+    }
+
     @Test
     void createTransactionValidationErrorsReturn400ForEmptyDtoFields() throws Exception {
         AtmTransactionRequestDTO request = new AtmTransactionRequestDTO();
@@ -189,6 +268,29 @@ class AtmTransactionControllerTest {
         verify(atmTransactionService).getTransaction(5L);
     }
 
+    @Test
+    void releaseHoldReturns200WithDto() throws Exception {
+        AtmTransactionDTO response = getValidResponse(
+                getValidRequest(AtmTransactionType.WITHDRAW, new BigDecimal("50.00"))
+        );
+        when(atmTransactionService.releaseHold(5L)).thenReturn(response);
+
+        mockMvc.perform(post(ATM_TRANSACTIONS_ENDPOINT + "/5/release"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(5L));
+
+        verify(atmTransactionService).releaseHold(5L);
+    }
+
+    @Test
+    void releaseHoldReturns409WhenTheHoldIsNotOpen() throws Exception {
+        when(atmTransactionService.releaseHold(5L)).thenThrow(new ConflictException(ErrorMessages.HOLD_NOT_OPEN));
+
+        mockMvc.perform(post(ATM_TRANSACTIONS_ENDPOINT + "/5/release"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message", hasItem(ErrorMessages.HOLD_NOT_OPEN)));
+    }
+
     @Test
     void getTransactionReturns404WhenServiceThrowsException() throws Exception {
         // Mock the AtmTransactionService to throw an exception
@@ -200,4 +302,12 @@ class AtmTransactionControllerTest {
                 .andExpect(status().isNotFound())
                 .andExpect(jsonPath("$.message", hasItem(ErrorMessages.TRANSACTION_NOT_FOUND)));
     }
-}
\ No newline at end of file
+
+    @Test
+    void streamTransactionStatusOpensEventStream() throws Exception {
+        when(atmTransactionService.subscribeToStatus(5L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get(ATM_TRANSACTIONS_ENDPOINT + "/5/events").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted());
+    }
+}
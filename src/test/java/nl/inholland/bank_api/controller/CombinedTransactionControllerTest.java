@@ -5,8 +5,10 @@ import nl.inholland.bank_api.constant.ErrorMessages;
 import nl.inholland.bank_api.exception.GlobalExceptionHandler;
 import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
 import nl.inholland.bank_api.model.dto.CombinedTransactionFullHistoryDTO;
+import nl.inholland.bank_api.model.dto.CursorPageDTO;
 import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
 import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.ExportFormat;
 import nl.inholland.bank_api.model.enums.Status;
 import nl.inholland.bank_api.model.enums.UserRole;
 import nl.inholland.bank_api.service.AccountService;
@@ -22,26 +24,38 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith(SpringExtension.class)
-@WebMvcTest(CombinedTransactionController.class)
+@WebMvcTest(controllers = CombinedTransactionController.class, properties = "bank.export.max-concurrent=1")
 @AutoConfigureMockMvc(addFilters = false)
 @Import(GlobalExceptionHandler.class)
 public class CombinedTransactionControllerTest {
@@ -201,4 +215,144 @@ public class CombinedTransactionControllerTest {
                 .andExpect(jsonPath("$.totalElements").value(2))
                 .andExpect(jsonPath("$.totalPages").value(1));
     }
-}
\ No newline at end of file
+
+    @Test
+    void cursorModeReturnsTheNextCursorInsteadOfPageMetadata() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("user@mail.com");
+        user.setRole(UserRole.CUSTOMER);
+
+        CombinedTransactionDTO dto = new CombinedTransactionDTO();
+        dto.id = 7L;
+
+        when(userService.getUserByEmail("user@mail.com")).thenReturn(user);
+        when(accountService.ownsAccount(1L, 1L)).thenReturn(true);
+        when(combinedTransactionService.getFilteredTransactions(eq(1L), any(), eq(""), eq(1), eq(false)))
+                .thenReturn(new CursorPageDTO<>(List.of(dto), "next", null));
+
+        mockMvc.perform(get("/accounts/1/transactions")
+                        .principal(auth("user@mail.com"))
+                        .param("cursor", "")
+                        .param("size", "1")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value(7))
+                .andExpect(jsonPath("$.nextCursor").value("next"))
+                .andExpect(jsonPath("$.totalElements").doesNotExist())
+                .andExpect(jsonPath("$.totalPages").doesNotExist());
+    }
+
+    @Test
+    void invalidCursorReturns400() throws Exception {
+        when(combinedTransactionService.getAllCombinedTransactions("broken", 10, true))
+                .thenThrow(new IllegalArgumentException(ErrorMessages.INVALID_CURSOR));
+
+        mockMvc.perform(get("/combined-transactions")
+                        .param("cursor", "broken")
+                        .param("includeTotal", "true")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message", hasItem(ErrorMessages.INVALID_CURSOR)));
+    }
+
+    private void customer() {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("user@mail.com");
+        user.setRole(UserRole.CUSTOMER);
+        when(userService.getUserByEmail("user@mail.com")).thenReturn(user);
+        when(accountService.ownsAccount(1L, 1L)).thenReturn(true);
+    }
+
+    @Test
+    void exportStreamsGzippedCsvWhenTheClientAcceptsIt() throws Exception {
+        customer();
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(3);
+            out.write("id,type\n7,TRANSFER\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(combinedTransactionService).exportTransactions(eq(1L), any(), eq(ExportFormat.CSV), any());
+
+        MvcResult started = mockMvc.perform(get("/accounts/1/transactions/export")
+                        .principal(auth("user@mail.com"))
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("text/csv")))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION,
+                        containsString("account-1-transactions.csv")))
+                .andReturn();
+
+        byte[] body = result.getResponse().getContentAsByteArray();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertEquals("id,type\n7,TRANSFER\n",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void exportAsNdjsonIsNotCompressedWithoutAcceptEncoding() throws Exception {
+        customer();
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(3);
+            out.write("{\"id\":7}\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(combinedTransactionService).exportTransactions(eq(1L), any(), eq(ExportFormat.NDJSON), any());
+
+        MvcResult started = mockMvc.perform(get("/accounts/1/transactions/export")
+                        .principal(auth("user@mail.com"))
+                        .param("format", "ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith(MediaType.APPLICATION_NDJSON_VALUE)))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().string("{\"id\":7}\n"));
+    }
+
+    @Test
+    void exportsOverTheLimitReturn503UntilARunningExportEnds() throws Exception {
+        customer();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            running.countDown();
+            finish.await();
+            return null;
+        }).when(combinedTransactionService).exportTransactions(eq(1L), any(), eq(ExportFormat.CSV), any());
+
+        MvcResult started = mockMvc.perform(get("/accounts/1/transactions/export").principal(auth("user@mail.com")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        running.await();
+
+        mockMvc.perform(get("/accounts/1/transactions/export").principal(auth("user@mail.com")))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "30"))
+                .andExpect(jsonPath("$.message", hasItem(ErrorMessages.TOO_MANY_EXPORTS)));
+
+        finish.countDown();
+        mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk());
+        MvcResult next = mockMvc.perform(get("/accounts/1/transactions/export").principal(auth("user@mail.com")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(next)).andExpect(status().isOk());
+    }
+
+    @Test
+    void exportWithAnUnknownFormatReturns400() throws Exception {
+        customer();
+
+        mockMvc.perform(get("/accounts/1/transactions/export")
+                        .principal(auth("user@mail.com"))
+                        .param("format", "xml"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message", hasItem(ErrorMessages.INVALID_EXPORT_FORMAT)));
+        verify(combinedTransactionService, never()).exportTransactions(any(), any(), any(), any());
+    }
+}
@@ -0,0 +1,36 @@
+package nl.inholland.bank_api.controller;
+
+import nl.inholland.bank_api.service.LimitAccountingService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(LimitController.class)
+@AutoConfigureMockMvc(addFilters = false)
+class LimitControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private LimitAccountingService limitAccountingService;
+
+    @Test
+    void rebuildLimitTotals_ReturnsTheRebuiltRows() throws Exception {
+        when(limitAccountingService.rebuildFromHistory(LocalDate.of(2025, 6, 1))).thenReturn(12);
+
+        mockMvc.perform(post("/limits/rebuild").param("from", "2025-06-01"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.from").value("2025-06-01"))
+                .andExpect(jsonPath("$.rows").value(12));
+    }
+}
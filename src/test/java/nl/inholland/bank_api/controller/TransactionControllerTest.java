@@ -1,25 +1,43 @@
 package nl.inholland.bank_api.controller;
 
+import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
+import nl.inholland.bank_api.model.dto.TransactionBatchItemDTO;
 import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.enums.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.inholland.bank_api.model.entities.IdempotencyRecord;
+import nl.inholland.bank_api.repository.IdempotencyRecordRepository;
+import nl.inholland.bank_api.service.IdempotencyService;
 import nl.inholland.bank_api.service.TransactionService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(TransactionController.class)
 @AutoConfigureMockMvc(addFilters = false)
+@Import({IdempotencyService.class, SimpleMeterRegistry.class})
 class TransactionControllerTest {
     @Autowired
     private MockMvc mockMvc;
@@ -27,6 +45,16 @@ class TransactionControllerTest {
     @MockitoBean
     private TransactionService transactionService;
 
+    @MockitoBean
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private static UsernamePasswordAuthenticationToken auth(Long userId) {
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken("john.doe@example.com", null, List.of());
+        authentication.setDetails(userId);
+        return authentication;
+    }
+
     @Test
     void postTransaction_ReturnsCreatedId() throws Exception {
         TransactionRequestDTO dto = new TransactionRequestDTO();
@@ -36,9 +64,10 @@ class TransactionControllerTest {
         dto.setAmount(new BigDecimal("250.00"));
         dto.setDescription("Monthly savings");
 
-        when(transactionService.postTransaction(any(TransactionRequestDTO.class))).thenReturn(42L);
+        when(transactionService.postTransaction(any(TransactionRequestDTO.class), eq(1L))).thenReturn(42L);
 
         mockMvc.perform(post("/transactions")
+                        .principal(auth(1L))
                         .contentType(MediaType.APPLICATION_JSON)
                         .content("""
                     {
@@ -52,4 +81,147 @@ class TransactionControllerTest {
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.id").value(42));
     }
-}
\ No newline at end of file
+
+    @Test
+    void postTransaction_RetryWithSameIdempotencyKeyReplaysResponse() throws Exception {
+        when(transactionService.postTransaction(any(TransactionRequestDTO.class), eq(1L))).thenReturn(42L);
+        when(idempotencyRecordRepository.saveAndFlush(any(IdempotencyRecord.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        String body = """
+                    {
+                      "sourceAccount": "NL91ABNA0417164300",
+                      "targetAccount": "NL91ABNA0417164301",
+                      "initiatedBy": 1,
+                      "amount": 250.00
+                    }
+                """;
+
+        mockMvc.perform(post("/transactions")
+                        .principal(auth(1L))
+                        .header(IdempotencyService.HEADER, "retry-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(42));
+        mockMvc.perform(post("/transactions")
+                        .principal(auth(1L))
+                        .header(IdempotencyService.HEADER, "retry-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyService.REPLAYED_HEADER, "true"))
+                .andExpect(jsonPath("$.id").value(42));
+
+        verify(transactionService, times(1)).postTransaction(any(TransactionRequestDTO.class), eq(1L));
+    }
+
+    @Test
+    void postTransaction_ReturnsAcceptedWithStatusUrl_WhenAsync() throws Exception {
+        when(transactionService.postTransaction(any(TransactionRequestDTO.class), eq(1L))).thenReturn(42L);
+        when(transactionService.isAsync()).thenReturn(true);
+
+        mockMvc.perform(post("/transactions")
+                        .principal(auth(1L))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                    {
+                      "sourceAccount": "NL91ABNA0417164300",
+                      "targetAccount": "NL91ABNA0417164301",
+                      "initiatedBy": 1,
+                      "amount": 250.00
+                    }
+                """))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/transactions/42"))
+                .andExpect(jsonPath("$.id").value(42))
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.statusUrl").value("/transactions/42"));
+    }
+
+    @Test
+    void getTransaction_ReturnsCurrentStatus() throws Exception {
+        CombinedTransactionDTO dto = new CombinedTransactionDTO();
+        dto.id = 42L;
+        dto.type = "TRANSFER";
+        dto.status = Status.FAILED;
+        dto.failureReason = "Insufficient balance";
+        when(transactionService.getTransaction(42L)).thenReturn(dto);
+
+        mockMvc.perform(get("/transactions/42"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("FAILED"))
+                .andExpect(jsonPath("$.failureReason").value("Insufficient balance"));
+    }
+
+    @Test
+    void postTransactions_ReturnsStatusPerTransfer() throws Exception {
+        when(transactionService.postTransactions(anyList(), eq(1L))).thenReturn(List.of(
+                new TransactionBatchItemDTO(0, 42L, Status.SUCCEEDED, null),
+                new TransactionBatchItemDTO(1, 43L, Status.FAILED, "Insufficient balance")
+        ));
+
+        mockMvc.perform(post("/transactions/batch")
+                        .principal(auth(1L))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                    [
+                      { "sourceAccount": "NL91ABNA0417164300", "targetAccount": "NL91ABNA0417164301", "initiatedBy": 1, "amount": 10.00 },
+                      { "sourceAccount": "NL91ABNA0417164300", "targetAccount": "NL91ABNA0417164301", "initiatedBy": 1, "amount": 9999.00 }
+                    ]
+                """))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(42))
+                .andExpect(jsonPath("$[0].status").value("SUCCEEDED"))
+                .andExpect(jsonPath("$[1].status").value("FAILED"))
+                .andExpect(jsonPath("$[1].failureReason").value("Insufficient balance"));
+    }
+
+    @Test
+    void postTransactions_RejectsTheBatchWhenATransferIsInvalid() throws Exception {
+        mockMvc.perform(post("/transactions/batch")
+                        .principal(auth(1L))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                    [
+                      { "sourceAccount": "NL91ABNA0417164300", "targetAccount": "NL91ABNA0417164301", "initiatedBy": 1, "amount": 10.00 },
+                      { "targetAccount": "NL91ABNA0417164301", "initiatedBy": 1, "amount": 0 }
+                    ]
+                """))
+                .andExpect(status().isBadRequest());
+
+        verify(transactionService, never()).postTransactions(anyList(), any());
+    }
+
+    @Test
+    void postTransaction_ReturnsUnauthorized_WhenTokenHasNoUserId() throws Exception {
+        mockMvc.perform(post("/transactions")
+                        .principal(auth(null))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                    {
+                      "sourceAccount": "NL91ABNA0417164300",
+                      "targetAccount": "NL91ABNA0417164301",
+                      "initiatedBy": 2,
+                      "amount": 250.00
+                    }
+                """))
+                .andExpect(status().isUnauthorized());
+
+        verify(transactionService, never()).postTransaction(any(TransactionRequestDTO.class), any());
+    }
+
+    @Test
+    void postTransactions_ReturnsUnauthorized_WhenTokenHasNoUserId() throws Exception {
+        mockMvc.perform(post("/transactions/batch")
+                        .principal(auth(null))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                    [
+                      { "sourceAccount": "NL91ABNA0417164300", "targetAccount": "NL91ABNA0417164301", "initiatedBy": 2, "amount": 10.00 }
+                    ]
+                """))
+                .andExpect(status().isUnauthorized());
+
+        verify(transactionService, never()).postTransactions(anyList(), any());
+    }
+}
@@ -5,7 +5,11 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
 @CucumberContextConfiguration
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+// Scenarios sweep pending ATM transactions themselves instead of waiting for the scheduler
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"bank.atm.sweep-after=PT0S", "bank.scheduler.sweep-interval=PT1H"}
+)
 @ActiveProfiles("test")
 public class CucumberSpringConfiguration {
 }
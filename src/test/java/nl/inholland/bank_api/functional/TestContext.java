@@ -1,14 +1,17 @@
 package nl.inholland.bank_api.functional;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.cucumber.spring.ScenarioScope;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 
+// A new context per scenario, so a scenario without a login step never sends the token of an earlier one
 @Data
 @Component
+@ScenarioScope
 public class TestContext {
     @Autowired
     private ObjectMapper objectMapper;
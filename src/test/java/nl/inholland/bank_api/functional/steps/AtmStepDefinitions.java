@@ -9,7 +9,9 @@ import nl.inholland.bank_api.constant.FieldNames;
 import nl.inholland.bank_api.functional.TestContext;
 import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
 import nl.inholland.bank_api.model.enums.AtmTransactionType;
-import nl.inholland.bank_api.scheduler.TransactionScheduler;
+import nl.inholland.bank_api.model.enums.HoldStatus;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.service.AtmProcessingQueue;
 import nl.inholland.bank_api.util.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.web.client.TestRestTemplate;
@@ -26,10 +28,13 @@ public class AtmStepDefinitions {
     private TestRestTemplate restTemplate;
 
     @Autowired
-    private TransactionScheduler scheduler;
+    private TestContext context;
 
     @Autowired
-    private TestContext context;
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private AtmProcessingQueue atmProcessingQueue;
 
     private AtmTransactionRequestDTO request;
     private Long transactionId;
@@ -76,18 +81,27 @@ public class AtmStepDefinitions {
         context.setResponse(restTemplate.exchange(endpoint, HttpMethod.POST, entity, String.class));
     }
 
+    // Withdrawals are authorized right away: the amount is held, posting is left to the sweep
+    @And("the withdrawal should be approved with an open hold")
+    public void theWithdrawalShouldBeApprovedWithAnOpenHold() throws Exception {
+        JsonNode json = context.getObjectMapper().readTree(context.getResponse().getBody());
+        assertThat(json.get("status").asText()).isEqualTo("PENDING");
+        assertThat(atmTransactionRepository.findById(json.get("id").asLong()))
+                .hasValueSatisfying(transaction -> assertThat(transaction.getHoldStatus()).isEqualTo(HoldStatus.OPEN));
+    }
+
+    // The scheduler would do this every bank.scheduler.sweep-interval, the scenarios do not wait for it
+    @When("the pending ATM transactions are swept")
+    public void thePendingAtmTransactionsAreSwept() {
+        atmProcessingQueue.sweepPending();
+    }
+
     @And("after processing the status should be {string}")
     public void afterProcessingTheStatusShouldBe(String expected) throws Exception {
-        scheduler.processAllPendingTransactions();
-
         JsonNode json = context.getObjectMapper().readTree(context.getResponse().getBody());
         transactionId = json.get("id").asLong();
 
-        HttpEntity<Void> entity = new HttpEntity<>(context.getHeaders());
-        ResponseEntity<String> get = restTemplate
-                .exchange("/atm/transactions/" + transactionId, HttpMethod.GET, entity, String.class);
-
-        JsonNode getJson = context.getObjectMapper().readTree(get.getBody());
+        JsonNode getJson = awaitProcessed();
         assertThat(getJson.get("status").asText()).isEqualTo(expected);
     }
 
@@ -95,13 +109,7 @@ public class AtmStepDefinitions {
     public void afterProcessingTheFailureReasonShouldBe(String messageKey) throws Exception {
         String expectedFailureReason = resolveFailureReason(messageKey);
 
-        scheduler.processAllPendingTransactions();
-
-        HttpEntity<Void> entity = new HttpEntity<>(context.getHeaders());
-        ResponseEntity<String> get = restTemplate
-                .exchange("/atm/transactions/" + transactionId, HttpMethod.GET, entity, String.class);
-
-        JsonNode getJson = context.getObjectMapper().readTree(get.getBody());
+        JsonNode getJson = awaitProcessed();
         String reason = getJson.get("failureReason").isNull() ? null : getJson.get("failureReason").asText();
 
         assertThat(reason).isEqualTo(expectedFailureReason);
@@ -153,4 +161,21 @@ public class AtmStepDefinitions {
             default -> throw new IllegalArgumentException(ErrorMessages.UNKNOWN_ERROR_KEY);
         };
     }
+
+    // The transaction is processed by the ATM queue right after it was created
+    private JsonNode awaitProcessed() throws Exception {
+        HttpEntity<Void> entity = new HttpEntity<>(context.getHeaders());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            ResponseEntity<String> get = restTemplate
+                    .exchange("/atm/transactions/" + transactionId, HttpMethod.GET, entity, String.class);
+            JsonNode json = context.getObjectMapper().readTree(get.getBody());
+            String status = json.get("status").asText();
+            boolean processed = !"PENDING".equals(status) && !"PROCESSING".equals(status);
+            if (processed || System.currentTimeMillis() > deadline) {
+                return json;
+            }
+            Thread.sleep(20);
+        }
+    }
 }
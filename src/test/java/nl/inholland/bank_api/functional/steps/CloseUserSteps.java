@@ -33,9 +33,10 @@ public class CloseUserSteps {
     @Given("a registered customer with active accounts")
     public void aRegisteredCustomerWithActiveAccounts() {
         testUser = userRepository.save(User.builder()
-                .firstName("John")
-                .lastName("Doe")
-                .email("john.doe@example.com")
+                // Not John Doe, the name lookup scenarios expect the seeded John Doe to be the only one
+                .firstName("Chris")
+                .lastName("Closer")
+                .email("chris.closer@example.com")
                 .password("Password123!")
                 .phoneNumber("+31612345678")
                 .bsn("888888888")
@@ -0,0 +1,112 @@
+package nl.inholland.bank_api.gateway;
+
+import nl.inholland.bank_api.util.TerminalSignatureVerifier;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+// Blocking terminal for the ATM gateway. Requests can be pipelined: send several, flush, then read the
+// responses, which come back in the same order.
+public class AtmGatewayClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+    private final ByteBuffer input = ByteBuffer.allocate(AtmGatewayProtocol.RESPONSE_LENGTH);
+
+    public AtmGatewayClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    // Signs the token with the terminal's key
+    public Response authenticate(String terminalId, byte[] key, String token) throws IOException {
+        sendAuth(terminalId, key, token);
+        flush();
+        return read();
+    }
+
+    public Response deposit(int requestId, long operationId, String iban, long cents) throws IOException {
+        sendTransaction(AtmGatewayProtocol.DEPOSIT, requestId, operationId, iban, cents);
+        flush();
+        return read();
+    }
+
+    public Response withdraw(int requestId, long operationId, String iban, long cents) throws IOException {
+        sendTransaction(AtmGatewayProtocol.WITHDRAW, requestId, operationId, iban, cents);
+        flush();
+        return read();
+    }
+
+    public Response status(int requestId, long transactionId) throws IOException {
+        sendStatus(requestId, transactionId);
+        flush();
+        return read();
+    }
+
+    public Response dispenseFailed(int requestId, long transactionId) throws IOException {
+        AtmGatewayProtocol.writeDispenseFailed(output, requestId, transactionId);
+        flush();
+        return read();
+    }
+
+    public void sendAuth(String terminalId, byte[] key, String token) throws IOException {
+        if (output.remaining() < AtmGatewayProtocol.AUTH_HEADER_LENGTH + token.length()) {
+            flush();
+        }
+        byte[] signature = TerminalSignatureVerifier.sign(key, token.getBytes(StandardCharsets.US_ASCII));
+        AtmGatewayProtocol.writeAuth(output, terminalId, signature, token);
+    }
+
+    public void sendTransaction(byte type, int requestId, long operationId, String iban, long cents) throws IOException {
+        if (output.remaining() < AtmGatewayProtocol.TRANSACTION_REQUEST_LENGTH) {
+            flush();
+        }
+        AtmGatewayProtocol.writeTransactionRequest(output, type, requestId, operationId, cents, iban);
+    }
+
+    public void sendStatus(int requestId, long transactionId) throws IOException {
+        if (output.remaining() < AtmGatewayProtocol.STATUS_REQUEST_LENGTH) {
+            flush();
+        }
+        AtmGatewayProtocol.writeStatusRequest(output, requestId, transactionId);
+    }
+
+    public void flush() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+
+    public Response read() throws IOException {
+        input.clear();
+        while (input.hasRemaining()) {
+            if (channel.read(input) < 0) {
+                throw new EOFException("The gateway closed the connection");
+            }
+        }
+
+        input.flip();
+        return new Response((byte) (input.get() & ~AtmGatewayProtocol.RESPONSE), input.getInt(), input.get(),
+                input.getLong(), input.get(), input.get());
+    }
+
+    // -1 when the gateway closed the connection
+    public int readEndOfStream() throws IOException {
+        input.clear();
+        return channel.read(input);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public record Response(byte type, int requestId, byte result, long transactionId, byte status, byte reason) {
+    }
+}
@@ -0,0 +1,303 @@
+package nl.inholland.bank_api.gateway;
+
+import io.jsonwebtoken.Jwts;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.util.JwtKeyProvider;
+import nl.inholland.bank_api.util.JwtUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.EOFException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-gateway-test",
+        "bank.atm.gateway.enabled=true",
+        "bank.atm.gateway.port=0",
+        "bank.atm.terminals.gateway-test.key=" + AtmGatewayTest.TERMINAL_KEY
+})
+@ActiveProfiles("test")
+class AtmGatewayTest {
+    static final String TERMINAL_KEY = "Z2F0ZXdheS10ZXJtaW5hbC10ZXN0LWtleQ==";
+    private static final String TERMINAL = "gateway-test";
+
+    // Every test signs in as the same terminal, so its operation ids are unique across the tests
+    private static final AtomicLong operations = new AtomicLong();
+
+    @Autowired
+    private AtmGateway gateway;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private JwtKeyProvider keyProvider;
+
+    private User createUser(String email, String bsn) {
+        return userRepository.save(User.builder()
+                .firstName("Terry").lastName("Terminal")
+                .email(email).password("pw")
+                .bsn(bsn).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    private Account createAccount(User user, String iban) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal("100.00"))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("500.00"))
+                .dailyLimit(new BigDecimal("1000.00"))
+                .build());
+    }
+
+    private AtmGatewayClient connect(User user) throws Exception {
+        return connect(jwtUtil.generateToken(user.getEmail(), user.getRole(), user.getId()));
+    }
+
+    private AtmGatewayClient connect(String token) throws Exception {
+        AtmGatewayClient client = new AtmGatewayClient("localhost", gateway.getPort());
+        AtmGatewayClient.Response response = client.authenticate(TERMINAL, Base64.getDecoder().decode(TERMINAL_KEY), token);
+        assertThat(response.result()).isEqualTo(AtmGatewayProtocol.OK);
+        return client;
+    }
+
+    private static long nextOperation() {
+        return operations.incrementAndGet();
+    }
+
+    private AtmGatewayClient.Response awaitProcessed(AtmGatewayClient client, long transactionId) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        AtmGatewayClient.Response response = client.status(1, transactionId);
+        while (response.status() == AtmGatewayProtocol.PENDING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            response = client.status(1, transactionId);
+        }
+        return response;
+    }
+
+    @Test
+    void depositAndWithdrawalAreProcessedLikeRestTransactions() throws Exception {
+        User user = createUser("terminal@test.com", "975318642");
+        Account account = createAccount(user, "NL01GATE0000000001");
+
+        try (AtmGatewayClient client = connect(user)) {
+            AtmGatewayClient.Response deposit = client.deposit(10, nextOperation(), account.getIban(), 5_025);
+            assertThat(deposit.type()).isEqualTo(AtmGatewayProtocol.DEPOSIT);
+            assertThat(deposit.requestId()).isEqualTo(10);
+            assertThat(deposit.result()).isEqualTo(AtmGatewayProtocol.OK);
+            assertThat(awaitProcessed(client, deposit.transactionId()).status()).isEqualTo(AtmGatewayProtocol.SUCCEEDED);
+
+            AtmGatewayClient.Response withdrawal = client.withdraw(11, nextOperation(), account.getIban(), 1_000_000);
+            AtmGatewayClient.Response failed = awaitProcessed(client, withdrawal.transactionId());
+            assertThat(failed.status()).isEqualTo(AtmGatewayProtocol.FAILED);
+            assertThat(failed.reason()).isEqualTo(AtmGatewayProtocol.INSUFFICIENT_BALANCE);
+        }
+
+        AtmTransaction stored = atmTransactionRepository.findByStatus(Status.SUCCEEDED).stream()
+                .filter(transaction -> transaction.getAccount().getId().equals(account.getId()))
+                .findFirst()
+                .orElseThrow();
+        assertThat(stored.getType()).isEqualTo(AtmTransactionType.DEPOSIT);
+        assertThat(stored.getAmount()).isEqualByComparingTo("50.25");
+        assertThat(stored.getInitiatedBy().getId()).isEqualTo(user.getId());
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance())
+                .isEqualByComparingTo("150.25");
+    }
+
+    @Test
+    void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+        User user = createUser("terminal2@test.com", "975318643");
+        Account account = createAccount(user, "NL01GATE0000000002");
+
+        try (AtmGatewayClient client = connect(user)) {
+            for (int i = 0; i < 50; i++) {
+                client.sendTransaction(AtmGatewayProtocol.DEPOSIT, i, nextOperation(), account.getIban(), 100);
+            }
+            client.flush();
+
+            List<Long> transactionIds = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                AtmGatewayClient.Response response = client.read();
+                assertThat(response.requestId()).isEqualTo(i);
+                assertThat(response.result()).isEqualTo(AtmGatewayProtocol.OK);
+                transactionIds.add(response.transactionId());
+            }
+            assertThat(transactionIds).isSorted().doesNotHaveDuplicates();
+        }
+    }
+
+    @Test
+    void terminalsCannotUseOtherUsersAccounts() throws Exception {
+        User owner = createUser("terminal3@test.com", "975318644");
+        User other = createUser("terminal4@test.com", "975318645");
+        Account account = createAccount(owner, "NL01GATE0000000003");
+
+        try (AtmGatewayClient ownerClient = connect(owner); AtmGatewayClient otherClient = connect(other)) {
+            AtmGatewayClient.Response deposit = ownerClient.deposit(1, nextOperation(), account.getIban(), 100);
+
+            assertThat(otherClient.withdraw(2, nextOperation(), account.getIban(), 100).result()).isEqualTo(AtmGatewayProtocol.FORBIDDEN);
+            assertThat(otherClient.status(3, deposit.transactionId()).result()).isEqualTo(AtmGatewayProtocol.FORBIDDEN);
+            assertThat(otherClient.deposit(4, nextOperation(), "NL01GATE0000009999", 100).result()).isEqualTo(AtmGatewayProtocol.NOT_FOUND);
+            assertThat(otherClient.deposit(5, nextOperation(), "INVALID", 100).result()).isEqualTo(AtmGatewayProtocol.INVALID);
+            assertThat(otherClient.deposit(6, nextOperation(), account.getIban(), 0).result()).isEqualTo(AtmGatewayProtocol.INVALID);
+        }
+    }
+
+    @Test
+    void terminalsReleaseWithdrawalsTheyCouldNotPayOut() throws Exception {
+        User user = createUser("terminal8@test.com", "975318649");
+        Account account = createAccount(user, "NL01GATE0000000008");
+
+        try (AtmGatewayClient client = connect(user)) {
+            AtmGatewayClient.Response withdrawal = client.withdraw(1, nextOperation(), account.getIban(), 4_000);
+            assertThat(withdrawal.status()).isEqualTo(AtmGatewayProtocol.PENDING);
+
+            AtmGatewayClient.Response released = client.dispenseFailed(2, withdrawal.transactionId());
+            assertThat(released.type()).isEqualTo(AtmGatewayProtocol.DISPENSE_FAILED);
+            assertThat(released.result()).isEqualTo(AtmGatewayProtocol.OK);
+            assertThat(released.status()).isEqualTo(AtmGatewayProtocol.FAILED);
+            assertThat(client.dispenseFailed(3, withdrawal.transactionId()).result())
+                    .isEqualTo(AtmGatewayProtocol.CONFLICT);
+        }
+
+        Account stored = accountRepository.findById(account.getId()).orElseThrow();
+        assertThat(stored.getHeldAmount()).isEqualByComparingTo("0.00");
+        assertThat(stored.getBalance()).isEqualByComparingTo("100.00");
+    }
+
+    @Test
+    void requestsBeforeAuthenticationCloseTheConnection() throws Exception {
+        User user = createUser("terminal5@test.com", "975318646");
+        Account account = createAccount(user, "NL01GATE0000000004");
+
+        try (AtmGatewayClient client = new AtmGatewayClient("localhost", gateway.getPort())) {
+            assertThat(client.deposit(1, nextOperation(), account.getIban(), 100).result())
+                    .isEqualTo(AtmGatewayProtocol.UNAUTHENTICATED);
+            assertThat(client.readEndOfStream()).isEqualTo(-1);
+        }
+
+        try (AtmGatewayClient client = new AtmGatewayClient("localhost", gateway.getPort())) {
+            assertThat(client.authenticate(TERMINAL, Base64.getDecoder().decode(TERMINAL_KEY), "not-a-token").result())
+                    .isEqualTo(AtmGatewayProtocol.UNAUTHENTICATED);
+            assertThat(client.readEndOfStream()).isEqualTo(-1);
+        }
+
+        // A valid token signed with another key
+        try (AtmGatewayClient client = new AtmGatewayClient("localhost", gateway.getPort())) {
+            String token = jwtUtil.generateToken(user.getEmail(), user.getRole(), user.getId());
+            assertThat(client.authenticate(TERMINAL, "wrong-key".getBytes(), token).result())
+                    .isEqualTo(AtmGatewayProtocol.UNAUTHENTICATED);
+            assertThat(client.readEndOfStream()).isEqualTo(-1);
+        }
+        assertThat(atmTransactionRepository.findAll())
+                .noneMatch(transaction -> transaction.getAccount().getId().equals(account.getId()));
+    }
+
+    @Test
+    void operationsResentAfterAReconnectAreStoredOnce() throws Exception {
+        User user = createUser("terminal6@test.com", "975318647");
+        Account account = createAccount(user, "NL01GATE0000000005");
+        long operation = nextOperation();
+
+        AtmGatewayClient.Response first;
+        try (AtmGatewayClient client = connect(user)) {
+            first = client.deposit(1, operation, account.getIban(), 2_500);
+            assertThat(first.result()).isEqualTo(AtmGatewayProtocol.OK);
+        }
+
+        try (AtmGatewayClient client = connect(user)) {
+            AtmGatewayClient.Response resent = client.deposit(2, operation, account.getIban(), 2_500);
+            assertThat(resent.result()).isEqualTo(AtmGatewayProtocol.OK);
+            assertThat(resent.transactionId()).isEqualTo(first.transactionId());
+
+            // The same operation id for another operation
+            assertThat(client.deposit(3, operation, account.getIban(), 9_900).result())
+                    .isEqualTo(AtmGatewayProtocol.INVALID);
+            assertThat(awaitProcessed(client, first.transactionId()).status()).isEqualTo(AtmGatewayProtocol.SUCCEEDED);
+        }
+
+        assertThat(atmTransactionRepository.findAll())
+                .filteredOn(transaction -> transaction.getAccount().getId().equals(account.getId()))
+                .hasSize(1);
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance())
+                .isEqualByComparingTo("125.00");
+    }
+
+    @Test
+    void sessionsEndWhenTheTokenExpires() throws Exception {
+        User user = createUser("terminal7@test.com", "975318648");
+        Account account = createAccount(user, "NL01GATE0000000006");
+        String token = Jwts.builder()
+                .setSubject(user.getEmail())
+                .claim("auth", user.getRole().name())
+                .claim("userId", user.getId())
+                .setExpiration(new Date(System.currentTimeMillis() + 2_000))
+                .signWith(keyProvider.getPrivateKey())
+                .compact();
+
+        try (AtmGatewayClient client = connect(token)) {
+            assertThat(client.deposit(1, nextOperation(), account.getIban(), 100).result())
+                    .isEqualTo(AtmGatewayProtocol.OK);
+
+            Thread.sleep(2_500);
+            assertThat(client.deposit(2, nextOperation(), account.getIban(), 100).result())
+                    .isEqualTo(AtmGatewayProtocol.UNAUTHENTICATED);
+            assertThat(client.readEndOfStream()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void failedReauthenticationEndsTheSessionForPipelinedRequests() throws Exception {
+        User user = createUser("terminal9@test.com", "975318650");
+        Account account = createAccount(user, "NL01GATE0000000009");
+        String token = jwtUtil.generateToken(user.getEmail(), user.getRole(), user.getId());
+
+        try (AtmGatewayClient client = connect(user)) {
+            // A re-AUTH signed with the wrong key, with a deposit right behind it
+            client.sendAuth(TERMINAL, "wrong-key".getBytes(), token);
+            client.sendTransaction(AtmGatewayProtocol.DEPOSIT, 2, nextOperation(), account.getIban(), 100);
+            client.flush();
+
+            assertThat(client.read().result()).isEqualTo(AtmGatewayProtocol.UNAUTHENTICATED);
+            // The deposit is either refused or never read before the connection closes
+            try {
+                assertThat(client.read().result()).isEqualTo(AtmGatewayProtocol.UNAUTHENTICATED);
+            } catch (EOFException e) {
+                // Closed before the deposit was read
+            }
+        }
+
+        assertThat(atmTransactionRepository.findAll())
+                .noneMatch(transaction -> transaction.getAccount().getId().equals(account.getId()));
+    }
+}
@@ -0,0 +1,148 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountActivityBatchRepository;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.CombinedTransactionService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Exports a history of a million lines into a stream that only counts them, sampling the used heap after
+// every block of lines. The heap must not grow above what it was before the export started.
+@Tag("performance")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:export-benchmark",
+        "bank.activity.backfill-on-startup=false",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AccountHistoryExportBenchmark {
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1_000_000);
+    private static final int BATCH = 10_000;
+    private static final int SAMPLE_EVERY = 50_000;
+    private static final long MAX_HEAP_GROWTH = 16L * 1024 * 1024;
+
+    @Autowired
+    private CombinedTransactionService combinedTransactionService;
+
+    @Autowired
+    private AccountActivityBatchRepository activityBatchRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    // Counts lines and samples the heap while they are written, keeps nothing
+    private static class SamplingOutputStream extends OutputStream {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final List<Long> samples = new ArrayList<>();
+        private long baseline;
+        private long bytes;
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            if (b == '\n' && ++lines % SAMPLE_EVERY == 0) {
+                System.gc();
+                samples.add(memory.getHeapMemoryUsage().getUsed());
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                write(buffer[i]);
+            }
+        }
+    }
+
+    private Account createAccounts() {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName("Export")
+                .email("export@bench.com").password("pw")
+                .bsn("123412342").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        Account account = accountRepository.save(Account.builder()
+                .user(user).status(AccountStatus.ACTIVE).iban("NL01EXPO0000000001")
+                .type(AccountType.CHECKING).balance(BigDecimal.ZERO).absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(BigDecimal.ZERO).dailyLimit(BigDecimal.ZERO)
+                .build());
+
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        List<AccountActivity> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < ROWS; i++) {
+            boolean transfer = i % 4 != 0;
+            batch.add(AccountActivity.builder()
+                    .accountId(account.getId())
+                    .referenceType(transfer ? LedgerReferenceType.TRANSFER : LedgerReferenceType.ATM)
+                    .referenceId((long) i)
+                    .direction(i % 2 == 0 ? EntryDirection.CREDIT : EntryDirection.DEBIT)
+                    .counterpartIban(transfer ? "NL01EXPO0000000002" : null)
+                    .amount(new BigDecimal("12.34"))
+                    .description(transfer ? "Transfer " + i : "DEPOSIT")
+                    .status(Status.SUCCEEDED)
+                    .timestamp(start.plusSeconds(i))
+                    .build());
+            if (batch.size() == BATCH) {
+                activityBatchRepository.append(batch);
+                batch.clear();
+            }
+        }
+        activityBatchRepository.append(batch);
+        return account;
+    }
+
+    private SamplingOutputStream export(Account account, ExportFormat format) throws IOException {
+        SamplingOutputStream out = new SamplingOutputStream();
+        System.gc();
+        out.baseline = out.memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+        combinedTransactionService.exportTransactions(account.getId(), new TransactionFilterDTO(), format, out);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        long growth = out.samples.stream().mapToLong(Long::longValue).max().orElse(0) - out.baseline;
+        System.out.printf("export %s: %d lines, %d MB in %d ms, heap growth %d KB%n",
+                format, out.lines, out.bytes / (1024 * 1024), millis, growth / 1024);
+        return out;
+    }
+
+    @Test
+    void exportingAMillionLinesKeepsTheHeapFlat() throws IOException {
+        Account account = createAccounts();
+
+        // The first pass over the history warms up the database page cache, which is not kept per export
+        export(account, ExportFormat.CSV);
+        for (ExportFormat format : ExportFormat.values()) {
+            SamplingOutputStream out = export(account, format);
+
+            long lines = format == ExportFormat.CSV ? ROWS + 1 : ROWS;
+            assertThat(out.lines).isEqualTo(lines);
+            assertThat(out.samples).allSatisfy(used -> assertThat(used - out.baseline).isLessThan(MAX_HEAP_GROWTH));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package nl.inholland.bank_api.performance;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.AtmClaimService;
+import nl.inholland.bank_api.service.AtmProcessingQueue;
+import nl.inholland.bank_api.service.AtmTransactionService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Leaves a backlog of pending ATM transactions spread over many accounts and measures how long
+// queues with 1 to 16 workers take to drain it. The application's own queue and scheduler are
+// switched off, so only the queue under test processes the backlog.
+@Tag("performance")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-drain-benchmark",
+        "spring.datasource.hikari.maximum-pool-size=32",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AtmBacklogDrainBenchmark {
+    private static final int BACKLOG = Integer.getInteger("benchmark.atm.backlog", 2000);
+    private static final int ACCOUNTS = Integer.getInteger("benchmark.atm.accounts", 200);
+    private static final int[] WORKERS = {1, 2, 4, 8, 16};
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private AtmClaimService claimService;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private List<Account> createAccounts(User user, String prefix) {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(accountRepository.save(Account.builder()
+                    .user(user)
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01%s%010d", prefix, i))
+                    .type(AccountType.CHECKING)
+                    .balance(new BigDecimal("1000000"))
+                    .absoluteLimit(BigDecimal.ZERO)
+                    .withdrawLimit(new BigDecimal("1000000"))
+                    .dailyLimit(new BigDecimal("1000000"))
+                    .build()));
+        }
+        return accounts;
+    }
+
+    private void createBacklog(User user, List<Account> accounts, int size) {
+        List<AtmTransaction> backlog = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            backlog.add(AtmTransaction.builder()
+                    .account(accounts.get(i % accounts.size()))
+                    .initiatedBy(user)
+                    .type(i % 2 == 0 ? AtmTransactionType.DEPOSIT : AtmTransactionType.WITHDRAW)
+                    .amount(BigDecimal.ONE)
+                    .status(Status.PENDING)
+                    .build());
+        }
+        atmTransactionRepository.saveAll(backlog);
+    }
+
+    private AtmProcessingQueue createQueue(int workers) {
+        AtmProcessingQueue queue = new AtmProcessingQueue(
+                atmTransactionService, claimService, atmTransactionRepository, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(queue, "workerCount", workers);
+        ReflectionTestUtils.setField(queue, "virtualThreads", false);
+        ReflectionTestUtils.setField(queue, "queueCapacity", BACKLOG);
+        ReflectionTestUtils.setField(queue, "sweepAfter", Duration.ZERO);
+        return queue;
+    }
+
+    private double drain(User user, List<Account> accounts, int workers, int size) throws Exception {
+        createBacklog(user, accounts, size);
+        Thread.sleep(10);
+
+        AtmProcessingQueue queue = createQueue(workers);
+        queue.start();
+        try {
+            long start = System.nanoTime();
+            // Each sweep claims only as much as the workers can take
+            while (!atmTransactionRepository.findByStatus(Status.PENDING).isEmpty()
+                    || !atmTransactionRepository.findByStatus(Status.PROCESSING).isEmpty()) {
+                queue.sweepPending();
+                Thread.sleep(5);
+            }
+            return (System.nanoTime() - start) / 1_000_000.0;
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    void backlogDrainTimeShrinksWithTheWorkerCount() throws Exception {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName("Drain")
+                .email("drain@bench.com").password("pw")
+                .bsn("918273645").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        List<Account> accounts = createAccounts(user, "DRAN");
+
+        drain(user, accounts, 4, 500);
+
+        List<String> results = new ArrayList<>();
+        for (int workers : WORKERS) {
+            double millis = drain(user, accounts, workers, BACKLOG);
+            results.add(String.format("%2d workers %8d transactions %10.1f ms %10.1f tx/s",
+                    workers, BACKLOG, millis, BACKLOG / (millis / 1000)));
+        }
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+        results.forEach(System.out::println);
+    }
+}
@@ -0,0 +1,152 @@
+package nl.inholland.bank_api.performance;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.inholland.bank_api.gateway.AtmGateway;
+import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.util.JwtUtil;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// The same deposits from the same number of terminals, once as JSON over HTTP with a JWT per request
+// and once over the binary gateway, one request in flight per terminal and then pipelined.
+// Both paths store a PENDING transaction and hand it to the processing queue.
+@Tag("performance")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-gateway-benchmark",
+        "spring.datasource.hikari.maximum-pool-size=32",
+        "bank.atm.gateway.enabled=true",
+        "bank.atm.gateway.port=0",
+        "bank.atm.gateway.workers=16",
+        "bank.atm.admission.enabled=false",
+        "bank.atm.terminals.load-test.key=" + AtmGatewayBenchmark.TERMINAL_KEY
+})
+@ActiveProfiles("test")
+class AtmGatewayBenchmark {
+    private static final int TERMINALS = Integer.getInteger("benchmark.terminals", 16);
+    private static final int REQUESTS_PER_TERMINAL = Integer.getInteger("benchmark.requests", 300);
+    private static final int WINDOW = Integer.getInteger("benchmark.window", 16);
+    static final String TERMINAL_KEY = "Z2F0ZXdheS1sb2FkLXRlc3QtdGVybWluYWwta2V5";
+
+    @LocalServerPort
+    private int httpPort;
+
+    @Autowired
+    private AtmGateway gateway;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private LatencyRecorder rest(String token, String iban) throws Exception {
+        AtmTransactionRequestDTO dto = new AtmTransactionRequestDTO();
+        dto.iban = iban;
+        dto.type = AtmTransactionType.DEPOSIT;
+        dto.amount = BigDecimal.ONE;
+        String body = objectMapper.writeValueAsString(dto);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + httpPort + "/atm/transactions"))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        LatencyRecorder recorder = new LatencyRecorder(TERMINALS * REQUESTS_PER_TERMINAL);
+        ExecutorService executor = Executors.newFixedThreadPool(TERMINALS);
+        try {
+            List<Future<?>> terminals = new ArrayList<>();
+            recorder.start();
+            for (int t = 0; t < TERMINALS; t++) {
+                terminals.add(executor.submit(() -> {
+                    for (int i = 0; i < REQUESTS_PER_TERMINAL; i++) {
+                        long start = System.nanoTime();
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 201) {
+                            throw new IllegalStateException("POST /atm/transactions returned " + response.statusCode());
+                        }
+                        recorder.record(start);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> terminal : terminals) {
+                terminal.get();
+            }
+            recorder.stop();
+        } finally {
+            executor.shutdown();
+            client.close();
+        }
+        return recorder;
+    }
+
+    @Test
+    void restVersusGatewayThroughput() throws Exception {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName("Gateway")
+                .email("gateway@bench.com").password("pw")
+                .bsn("918273640").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        List<String> ibans = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Account account = accountRepository.save(Account.builder()
+                    .user(user)
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01GWBN%010d", i))
+                    .type(AccountType.CHECKING)
+                    .balance(BigDecimal.ZERO)
+                    .absoluteLimit(BigDecimal.ZERO)
+                    .withdrawLimit(new BigDecimal("1000000000"))
+                    .dailyLimit(new BigDecimal("1000000000"))
+                    .build());
+            ibans.add(account.getIban());
+        }
+        String token = jwtUtil.generateToken(user.getEmail(), user.getRole(), user.getId());
+        byte[] key = Base64.getDecoder().decode(TERMINAL_KEY);
+
+        // Warm-up, so neither path pays for class loading and JIT alone
+        rest(token, ibans.get(0));
+        AtmGatewayLoadGenerator.run("localhost", gateway.getPort(), "load-test", key, token, ibans.get(0),
+                TERMINALS, REQUESTS_PER_TERMINAL, 1);
+
+        LatencyRecorder rest = rest(token, ibans.get(0));
+        LatencyRecorder gatewayRecorder = AtmGatewayLoadGenerator.run("localhost", gateway.getPort(), "load-test", key,
+                token, ibans.get(1), TERMINALS, REQUESTS_PER_TERMINAL, 1);
+        LatencyRecorder pipelined = AtmGatewayLoadGenerator.run("localhost", gateway.getPort(), "load-test", key,
+                token, ibans.get(2), TERMINALS, REQUESTS_PER_TERMINAL, WINDOW);
+
+        System.out.println(rest.summary("rest (json + jwt)"));
+        System.out.println(gatewayRecorder.summary("gateway"));
+        System.out.println(pipelined.summary("gateway, window " + WINDOW));
+    }
+}
@@ -0,0 +1,104 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.gateway.AtmGatewayClient;
+import nl.inholland.bank_api.gateway.AtmGatewayProtocol;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Simulated terminals that send deposits to the ATM gateway, each with up to `window` requests in flight.
+// They all sign in as one terminal, whose key is configured as bank.atm.terminals.<terminal id>.key.
+// Against a running instance with bank.atm.gateway.enabled=true:
+//   java ... AtmGatewayLoadGenerator <host> <port> <terminal id> <terminal key> <jwt> <iban>
+//            [terminals] [requests per terminal] [window]
+public class AtmGatewayLoadGenerator {
+    private AtmGatewayLoadGenerator() {
+    }
+
+    public static LatencyRecorder run(
+            String host,
+            int port,
+            String terminalId,
+            byte[] terminalKey,
+            String token,
+            String iban,
+            int terminals,
+            int requestsPerTerminal,
+            int window
+    ) throws Exception {
+        // Operation ids of earlier runs against the same terminal id are never sent again
+        long firstOperation = System.currentTimeMillis() * 1_000_000L;
+        LatencyRecorder recorder = new LatencyRecorder(terminals * requestsPerTerminal);
+        ExecutorService executor = Executors.newFixedThreadPool(terminals);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            recorder.start();
+            for (int t = 0; t < terminals; t++) {
+                long operations = firstOperation + (long) t * requestsPerTerminal;
+                running.add(executor.submit(() -> {
+                    terminal(host, port, terminalId, terminalKey, token, iban, operations, requestsPerTerminal,
+                            window, recorder);
+                    return null;
+                }));
+            }
+            for (Future<?> terminal : running) {
+                terminal.get();
+            }
+            recorder.stop();
+        } finally {
+            executor.shutdown();
+        }
+        return recorder;
+    }
+
+    private static void terminal(
+            String host,
+            int port,
+            String terminalId,
+            byte[] terminalKey,
+            String token,
+            String iban,
+            long firstOperation,
+            int requests,
+            int window,
+            LatencyRecorder recorder
+    ) throws Exception {
+        long[] sentAt = new long[requests];
+        try (AtmGatewayClient client = new AtmGatewayClient(host, port)) {
+            if (client.authenticate(terminalId, terminalKey, token).result() != AtmGatewayProtocol.OK) {
+                throw new IllegalStateException("The gateway did not accept the token");
+            }
+
+            int sent = 0;
+            int received = 0;
+            while (received < requests) {
+                while (sent < requests && sent - received < window) {
+                    sentAt[sent] = System.nanoTime();
+                    client.sendTransaction(AtmGatewayProtocol.DEPOSIT, sent, firstOperation + sent, iban, 100);
+                    sent++;
+                }
+                client.flush();
+
+                AtmGatewayClient.Response response = client.read();
+                if (response.result() != AtmGatewayProtocol.OK) {
+                    throw new IllegalStateException("Request " + response.requestId() + " failed: " + response.result());
+                }
+                recorder.record(sentAt[response.requestId()]);
+                received++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int terminals = args.length > 6 ? Integer.parseInt(args[6]) : 16;
+        int requests = args.length > 7 ? Integer.parseInt(args[7]) : 1000;
+        int window = args.length > 8 ? Integer.parseInt(args[8]) : 1;
+        LatencyRecorder recorder = run(args[0], Integer.parseInt(args[1]), args[2], Base64.getDecoder().decode(args[3]),
+                args[4], args[5], terminals, requests, window);
+        System.out.println(recorder.summary("gateway, window " + window));
+    }
+}
@@ -0,0 +1,106 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
+import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.AtmTransactionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Creates ATM deposits at a steady rate and measures the time until each one was processed.
+// The subclasses run it once with the processing queue and once with only the scheduler, as before.
+abstract class AtmSettlementBenchmarkSupport {
+    private static final int TRANSACTIONS = Integer.getInteger("benchmark.atm.transactions", 200);
+    private static final int RATE_PER_SECOND = Integer.getInteger("benchmark.atm.rate", 20);
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    protected abstract String name();
+
+    @Test
+    void endToEndSettlementLatency() throws Exception {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName("Atm")
+                .email("atm@bench.com").password("pw")
+                .bsn("192837465").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        Account account = accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban("NL01BNCH0000000001")
+                .type(AccountType.CHECKING)
+                .balance(BigDecimal.ZERO)
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000000"))
+                .dailyLimit(new BigDecimal("1000000"))
+                .build());
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user.getEmail(), null, List.of()));
+
+        AtmTransactionRequestDTO dto = new AtmTransactionRequestDTO();
+        dto.iban = account.getIban();
+        dto.type = AtmTransactionType.DEPOSIT;
+        dto.amount = BigDecimal.TEN;
+
+        LatencyRecorder recorder = new LatencyRecorder(TRANSACTIONS);
+        Map<Long, Long> outstanding = new ConcurrentHashMap<>();
+        Thread watcher = new Thread(() -> watch(outstanding, recorder));
+
+        recorder.start();
+        watcher.start();
+        long interval = TimeUnit.SECONDS.toNanos(1) / RATE_PER_SECOND;
+        long next = System.nanoTime();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            long start = System.nanoTime();
+            AtmTransactionDTO created = atmTransactionService.createTransaction(dto, account, user);
+            outstanding.put(created.id(), start);
+            next += interval;
+        }
+        watcher.join();
+        recorder.stop();
+
+        System.out.println(recorder.summary(name()));
+    }
+
+    // Polls the outstanding transactions and records each one once it was processed
+    private void watch(Map<Long, Long> outstanding, LatencyRecorder recorder) {
+        while (recorder.count() < TRANSACTIONS) {
+            // A copy, the query must not see the map change while it binds the ids
+            List<Long> ids = List.copyOf(outstanding.keySet());
+            for (AtmTransaction transaction : atmTransactionRepository.findAllById(ids)) {
+                if (transaction.getStatus() == Status.SUCCEEDED || transaction.getStatus() == Status.FAILED) {
+                    recorder.record(outstanding.remove(transaction.getId()));
+                }
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+}
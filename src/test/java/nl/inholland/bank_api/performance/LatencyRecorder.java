@@ -0,0 +1,52 @@
+package nl.inholland.bank_api.performance;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Collects per-operation latencies from many threads and prints throughput and percentiles
+public class LatencyRecorder {
+    private final long[] latencies;
+    private final AtomicInteger count = new AtomicInteger();
+    private long startedAt;
+    private long finishedAt;
+
+    public LatencyRecorder(int capacity) {
+        this.latencies = new long[capacity];
+    }
+
+    public void start() {
+        startedAt = System.nanoTime();
+    }
+
+    public void stop() {
+        finishedAt = System.nanoTime();
+    }
+
+    public void record(long startNanos) {
+        latencies[count.getAndIncrement()] = System.nanoTime() - startNanos;
+    }
+
+    public int count() {
+        return count.get();
+    }
+
+    public double throughput() {
+        return count.get() / ((finishedAt - startedAt) / 1_000_000_000.0);
+    }
+
+    public double percentileMillis(double percentile) {
+        long[] sorted = Arrays.copyOf(latencies, count.get());
+        Arrays.sort(sorted);
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    public String summary(String name) {
+        return String.format("%-28s %8d ops %10.1f ops/s   p50 %7.2f ms   p99 %7.2f ms   p99.9 %7.2f ms",
+                name, count(), throughput(), percentileMillis(50), percentileMillis(99), percentileMillis(99.9));
+    }
+}
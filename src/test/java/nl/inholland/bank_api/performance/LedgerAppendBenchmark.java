@@ -0,0 +1,154 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.LedgerEntry;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.LedgerBatchRepository;
+import nl.inholland.bank_api.repository.LedgerEntryRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.LedgerService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Appends the two legs of every movement through the JDBC batch and through JPA, then compares
+// point-in-time balance lookups on an account with periodic snapshots and on one without any
+@Tag("performance")
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:ledger-benchmark")
+@ActiveProfiles("test")
+class LedgerAppendBenchmark {
+    private static final int MOVEMENTS = Integer.getInteger("benchmark.movements", 20_000);
+    private static final int SNAPSHOT_EVERY = 1000;
+    private static final int LOOKUPS = 500;
+
+    @Autowired
+    private LedgerBatchRepository ledgerBatchRepository;
+
+    @Autowired
+    private LedgerEntryRepository ledgerEntryRepository;
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private List<LedgerEntry> legs(Long source, Long target, long reference) {
+        LocalDateTime now = LocalDateTime.now();
+        return List.of(
+                LedgerEntry.builder().accountId(source).direction(EntryDirection.DEBIT).amount(BigDecimal.ONE)
+                        .referenceType(LedgerReferenceType.TRANSFER).referenceId(reference).createdAt(now).build(),
+                LedgerEntry.builder().accountId(target).direction(EntryDirection.CREDIT).amount(BigDecimal.ONE)
+                        .referenceType(LedgerReferenceType.TRANSFER).referenceId(reference).createdAt(now).build());
+    }
+
+    // One database transaction per movement, like the transfer paths. Snapshots are taken between the
+    // measured appends and the point in time after every block of movements is kept for the lookups.
+    private LatencyRecorder append(Account source, Account target, int count, boolean jdbc,
+            boolean snapshots, List<LocalDateTime> checkpoints) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        LatencyRecorder recorder = new LatencyRecorder(count);
+        recorder.start();
+        for (int i = 0; i < count; i++) {
+            List<LedgerEntry> entries = legs(source.getId(), target.getId(), i);
+            long start = System.nanoTime();
+            transactionTemplate.executeWithoutResult(status -> {
+                if (jdbc) {
+                    ledgerBatchRepository.append(entries);
+                } else {
+                    ledgerEntryRepository.saveAll(entries);
+                }
+            });
+            recorder.record(start);
+
+            if ((i + 1) % SNAPSHOT_EVERY == 0) {
+                checkpoints.add(LocalDateTime.now());
+                if (snapshots) {
+                    ledgerService.takeSnapshots();
+                }
+            }
+        }
+        recorder.stop();
+        return recorder;
+    }
+
+    private LatencyRecorder lookUpBalances(Account account, List<LocalDateTime> checkpoints) {
+        LatencyRecorder recorder = new LatencyRecorder(LOOKUPS);
+        recorder.start();
+        for (int i = 0; i < LOOKUPS; i++) {
+            LocalDateTime at = checkpoints.get(i % checkpoints.size());
+            long start = System.nanoTime();
+            ledgerService.getBalanceAt(account.getIban(), at);
+            recorder.record(start);
+        }
+        recorder.stop();
+        return recorder;
+    }
+
+    private Account createAccount(User user, String iban) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(BigDecimal.ZERO)
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(BigDecimal.ZERO)
+                .dailyLimit(BigDecimal.ZERO)
+                .build());
+    }
+
+    @Test
+    void compareAppendPathsAndBalanceLookups() {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName("Ledger")
+                .email("ledger@bench.com").password("pw")
+                .bsn("123412341").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.EMPLOYEE)
+                .build());
+        Account first = createAccount(user, "NL01LEDG0000000001");
+        Account second = createAccount(user, "NL01LEDG0000000002");
+        Account third = createAccount(user, "NL01LEDG0000000003");
+        Account fourth = createAccount(user, "NL01LEDG0000000004");
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user.getEmail(), null, List.of()));
+
+        // Warm up both paths before measuring
+        append(first, second, 1000, true, false, new ArrayList<>());
+        append(first, second, 1000, false, false, new ArrayList<>());
+
+        List<LocalDateTime> snapshotted = new ArrayList<>();
+        List<LocalDateTime> unsnapshotted = new ArrayList<>();
+        LatencyRecorder jdbc = append(first, second, MOVEMENTS, true, true, snapshotted);
+        LatencyRecorder jpa = append(third, fourth, MOVEMENTS, false, false, unsnapshotted);
+
+        LatencyRecorder replay = lookUpBalances(third, unsnapshotted);
+        LatencyRecorder snapshot = lookUpBalances(first, snapshotted);
+        SecurityContextHolder.clearContext();
+
+        System.out.println(jdbc.summary("append, JDBC batch"));
+        System.out.println(jpa.summary("append, JPA saveAll"));
+        System.out.println(replay.summary("balance, replay from current"));
+        System.out.println(snapshot.summary("balance, snapshot + tail"));
+    }
+}
@@ -0,0 +1,279 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.scheduler.TransactionScheduler;
+import nl.inholland.bank_api.service.AtmProcessingQueue;
+import nl.inholland.bank_api.service.BalanceStripingService;
+import nl.inholland.bank_api.service.TransactionService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Transfers, ATM requests, the ATM queue and the recovery sweep hit the same accounts at once, while the
+// Spring-scheduled sweep and the stripe fold keep going in the background. Most operations go to a few
+// hot accounts, so the limit checks race each other. Afterwards no money may have appeared or disappeared
+// and no limit may be broken.
+// Run with: mvn test -Pstress [-Dstress.threads=16 -Dstress.operations=300 -Dstress.hotRatio=0.8]
+@Tag("stress")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:stress-test;LOCK_TIMEOUT=10000",
+        "spring.datasource.hikari.maximum-pool-size=32",
+        "bank.accounts.striping.fold-interval=PT1S",
+        "bank.atm.sweep-after=PT0S",
+        "bank.scheduler.sweep-interval=PT1S"
+})
+@ActiveProfiles("test")
+class MoneyPathStressTest {
+    private static final int THREADS = Integer.getInteger("stress.threads", 16);
+    private static final int OPERATIONS_PER_THREAD = Integer.getInteger("stress.operations", 300);
+    private static final int ACCOUNTS = Integer.getInteger("stress.accounts", 40);
+    private static final int HOT_ACCOUNTS = Integer.getInteger("stress.hotAccounts", 4);
+    private static final double HOT_RATIO = Double.parseDouble(System.getProperty("stress.hotRatio", "0.8"));
+    private static final double ATM_RATIO = Double.parseDouble(System.getProperty("stress.atmRatio", "0.3"));
+
+    // Small limits compared to the traffic, so a good share of the operations is rejected by them
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("1000.00");
+    private static final BigDecimal ABSOLUTE_LIMIT = new BigDecimal("-200.00");
+    private static final BigDecimal DAILY_LIMIT = new BigDecimal("2500.00");
+    private static final BigDecimal WITHDRAW_LIMIT = new BigDecimal("400.00");
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private TransactionScheduler transactionScheduler;
+
+    @Autowired
+    private AtmProcessingQueue atmProcessingQueue;
+
+    @Autowired
+    private BalanceStripingService stripingService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User createUser() {
+        return userRepository.save(User.builder()
+                .firstName("Stress").lastName("Test")
+                .email("stress@test.com").password("pw")
+                .bsn("987654320").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    private List<Account> createAccounts(User user) {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(accountRepository.save(Account.builder()
+                    .user(user)
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01STRS%010d", i))
+                    .type(AccountType.CHECKING)
+                    .balance(OPENING_BALANCE)
+                    .absoluteLimit(ABSOLUTE_LIMIT)
+                    .withdrawLimit(WITHDRAW_LIMIT)
+                    .dailyLimit(DAILY_LIMIT)
+                    .build()));
+        }
+
+        // Half of the hot accounts take their credits on stripes
+        for (int i = 0; i < HOT_ACCOUNTS; i += 2) {
+            stripingService.setStripes(accounts.get(i).getIban(), 4);
+        }
+        return accounts;
+    }
+
+    private static Account pick(List<Account> accounts) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < HOT_RATIO) {
+            return accounts.get(random.nextInt(HOT_ACCOUNTS));
+        }
+        return accounts.get(HOT_ACCOUNTS + random.nextInt(accounts.size() - HOT_ACCOUNTS));
+    }
+
+    private static BigDecimal randomAmount() {
+        return BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(100, 10_000), 2);
+    }
+
+    private void transfer(List<Account> accounts, User user) {
+        Account source = pick(accounts);
+        Account target = pick(accounts);
+        while (target.getId().equals(source.getId())) {
+            target = pick(accounts);
+        }
+
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(source.getIban());
+        dto.setTargetAccount(target.getIban());
+        dto.setInitiatedBy(user.getId());
+        dto.setAmount(randomAmount());
+        transactionService.postTransaction(dto, user.getId());
+    }
+
+    // Stored as PENDING like the ATM endpoint does. Half of them are queued right away and the other half
+    // are left to the sweep, which may queue the first half a second time
+    private void atm(List<Account> accounts, User user) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        AtmTransaction transaction = atmTransactionRepository.save(AtmTransaction.builder()
+                .account(pick(accounts))
+                .initiatedBy(user)
+                .type(random.nextDouble() < 0.4 ? AtmTransactionType.DEPOSIT : AtmTransactionType.WITHDRAW)
+                .amount(randomAmount())
+                .status(Status.PENDING)
+                .build());
+        if (random.nextBoolean()) {
+            atmProcessingQueue.submitAfterCommit(transaction.getId(), transaction.getAccount().getId());
+        }
+    }
+
+    private BigDecimal totalBalance(List<Account> accounts) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            total = total.add(stripingService.getBalance(accountRepository.findById(account.getId()).orElseThrow()));
+        }
+        return total;
+    }
+
+    private boolean isAtmBacklogLeft() {
+        return !atmTransactionRepository.findByStatus(Status.PENDING).isEmpty()
+                || !atmTransactionRepository.findByStatus(Status.PROCESSING).isEmpty();
+    }
+
+    private BigDecimal atmNet() {
+        BigDecimal net = BigDecimal.ZERO;
+        for (AtmTransaction transaction : atmTransactionRepository.findByStatus(Status.SUCCEEDED)) {
+            net = transaction.getType() == AtmTransactionType.DEPOSIT
+                    ? net.add(transaction.getAmount())
+                    : net.subtract(transaction.getAmount());
+        }
+        return net;
+    }
+
+    @Test
+    void moneyIsConservedAndLimitsHoldUnderConcurrentLoad() throws Exception {
+        User user = createUser();
+        List<Account> accounts = createAccounts(user);
+        BigDecimal openingTotal = totalBalance(accounts);
+
+        LatencyRecorder transfers = new LatencyRecorder(THREADS * OPERATIONS_PER_THREAD);
+        LatencyRecorder atmRequests = new LatencyRecorder(THREADS * OPERATIONS_PER_THREAD);
+        LatencyRecorder sweeps = new LatencyRecorder(1_000_000);
+        AtomicInteger errors = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            transfers.start();
+            atmRequests.start();
+            sweeps.start();
+
+            // A second sweep next to the Spring-scheduled one, as with two application instances
+            Future<?> scheduler = executor.submit(() -> {
+                while (running.get()) {
+                    long start = System.nanoTime();
+                    try {
+                        transactionScheduler.processAllPendingTransactions();
+                    } catch (RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                    sweeps.record(start);
+                }
+            });
+
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        boolean isAtm = ThreadLocalRandom.current().nextDouble() < ATM_RATIO;
+                        long start = System.nanoTime();
+                        try {
+                            if (isAtm) {
+                                atm(accounts, user);
+                            } else {
+                                transfer(accounts, user);
+                            }
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                        }
+                        (isAtm ? atmRequests : transfers).record(start);
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            transfers.stop();
+            atmRequests.stop();
+
+            running.set(false);
+            scheduler.get();
+            sweeps.stop();
+        } finally {
+            executor.shutdown();
+        }
+
+        // Drain what the last runs left behind
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (isAtmBacklogLeft() && System.currentTimeMillis() < deadline) {
+            transactionScheduler.processAllPendingTransactions();
+            Thread.sleep(100);
+        }
+        stripingService.foldAll();
+
+        System.out.println(transfers.summary("transfers"));
+        System.out.println(atmRequests.summary("atm requests"));
+        System.out.println(sweeps.summary("sweeps"));
+        System.out.println("errors: " + errors.get());
+
+        assertEquals(0, errors.get());
+        assertFalse(isAtmBacklogLeft());
+        assertEquals(0, openingTotal.add(atmNet()).compareTo(totalBalance(accounts)),
+                "money was created or destroyed");
+
+        LocalDate today = LocalDate.now();
+        for (Account account : accounts) {
+            Account current = accountRepository.findById(account.getId()).orElseThrow();
+            assertTrue(stripingService.getBalance(current).compareTo(ABSOLUTE_LIMIT) >= 0,
+                    current.getIban() + " is below its absolute limit");
+            assertTrue(transactionRepository.sumAmountForAccountToday(current.getId(), today)
+                    .compareTo(DAILY_LIMIT) <= 0, current.getIban() + " exceeded its daily transfer limit");
+            assertTrue(atmTransactionRepository.sumTodayWithdrawalsByAccount(current.getId(), today)
+                    .compareTo(WITHDRAW_LIMIT) <= 0, current.getIban() + " exceeded its daily withdrawal limit");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package nl.inholland.bank_api.performance;
+
+import org.junit.jupiter.api.Tag;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+// The previous behaviour: no queue, the scheduler picks up every pending transaction each 5 seconds
+@Tag("performance")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-polled-benchmark",
+        "bank.atm.queue.enabled=false",
+        "bank.atm.admission.enabled=false",
+        "bank.atm.holds.enabled=false",
+        "bank.scheduler.sweep-interval=PT5S"
+})
+@ActiveProfiles("test")
+class PolledAtmSettlementBenchmark extends AtmSettlementBenchmarkSupport {
+    @Override
+    protected String name() {
+        return "atm settlement, polled";
+    }
+}
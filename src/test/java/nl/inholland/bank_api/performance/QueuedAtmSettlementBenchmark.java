@@ -0,0 +1,20 @@
+package nl.inholland.bank_api.performance;
+
+import org.junit.jupiter.api.Tag;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+// New ATM transactions are handed to the processing queue after the commit
+@Tag("performance")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-queued-benchmark",
+        "bank.atm.admission.enabled=false",
+        "bank.atm.holds.enabled=false"
+})
+@ActiveProfiles("test")
+class QueuedAtmSettlementBenchmark extends AtmSettlementBenchmarkSupport {
+    @Override
+    protected String name() {
+        return "atm settlement, queued";
+    }
+}
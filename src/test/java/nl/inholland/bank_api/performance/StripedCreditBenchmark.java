@@ -0,0 +1,128 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.BalanceStripingService;
+import nl.inholland.bank_api.service.TransferEngine;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Many payers credit one merchant account at the same time, with the merchant striped over 0 to 16 rows.
+// Every payer has its own source account, so the merchant is the only contended row.
+@Tag("performance")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:striping-benchmark",
+        "bank.accounts.striping.fold-interval=PT1S",
+        "spring.datasource.hikari.maximum-pool-size=32"
+})
+@ActiveProfiles("test")
+class StripedCreditBenchmark {
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 16);
+    private static final int CREDITS_PER_THREAD = Integer.getInteger("benchmark.credits", 500);
+    private static final int[] STRIPES = {0, 4, 16};
+
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @Autowired
+    private BalanceStripingService stripingService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private Account createAccount(User user, String iban, String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000000000"))
+                .dailyLimit(new BigDecimal("1000000000"))
+                .build());
+    }
+
+    private LatencyRecorder run(String prefix, int stripes, int creditsPerThread) throws Exception {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName(prefix)
+                .email(prefix + "@bench.com").password("pw")
+                .bsn(String.format("%09d", Math.floorMod(prefix.hashCode(), 1_000_000_000))).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        Account merchant = createAccount(user, String.format("NL01%s%010d", prefix, 0), "0");
+        stripingService.setStripes(merchant.getIban(), stripes);
+
+        List<Account> payers = new ArrayList<>();
+        for (int i = 1; i <= THREADS; i++) {
+            payers.add(createAccount(user, String.format("NL01%s%010d", prefix, i), "1000000000"));
+        }
+
+        LatencyRecorder recorder = new LatencyRecorder(THREADS * creditsPerThread);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            recorder.start();
+            for (Account payer : payers) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < creditsPerThread; i++) {
+                        TransactionRequestDTO dto = new TransactionRequestDTO();
+                        dto.setSourceAccount(payer.getIban());
+                        dto.setTargetAccount(merchant.getIban());
+                        dto.setInitiatedBy(user.getId());
+                        dto.setAmount(BigDecimal.ONE);
+                        long start = System.nanoTime();
+                        transferEngine.transfer(dto, user.getId());
+                        recorder.record(start);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            recorder.stop();
+        } finally {
+            executor.shutdown();
+        }
+
+        stripingService.foldAll();
+        BigDecimal balance = accountRepository.findById(merchant.getId()).orElseThrow().getBalance();
+        if (balance.compareTo(BigDecimal.valueOf((long) THREADS * creditsPerThread)) != 0) {
+            throw new IllegalStateException("Lost credits: merchant balance is " + balance);
+        }
+        return recorder;
+    }
+
+    @Test
+    void creditThroughputScalesWithTheStripeCount() throws Exception {
+        run("WARM", 4, 100);
+
+        List<String> results = new ArrayList<>();
+        for (int stripes : STRIPES) {
+            LatencyRecorder recorder = run("STRP" + stripes, stripes, CREDITS_PER_THREAD);
+            results.add(recorder.summary(stripes + " stripes, " + THREADS + " threads"));
+        }
+        results.forEach(System.out::println);
+    }
+}
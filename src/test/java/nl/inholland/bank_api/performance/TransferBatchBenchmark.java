@@ -0,0 +1,144 @@
+package nl.inholland.bank_api.performance;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Payroll style workload: 10k transfers from one employer account, posted one by one and as batches
+@Tag("performance")
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:batch-benchmark")
+@AutoConfigureMockMvc(addFilters = false)
+@ActiveProfiles("test")
+class TransferBatchBenchmark {
+    private static final int TRANSFERS = Integer.getInteger("benchmark.transfers", 10_000);
+    private static final int BATCH_SIZE = 1000;
+    private static final int EMPLOYEES = 200;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private List<TransactionRequestDTO> createWorkload(String prefix, int count) {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName(prefix)
+                .email(prefix + "@bench.com").password("pw")
+                .bsn(String.format("%09d", Math.floorMod(prefix.hashCode(), 1_000_000_000))).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i <= EMPLOYEES; i++) {
+            accounts.add(accountRepository.save(Account.builder()
+                    .user(user)
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01%s%010d", prefix, i))
+                    .type(AccountType.CHECKING)
+                    .balance(new BigDecimal("1000000000"))
+                    .absoluteLimit(BigDecimal.ZERO)
+                    .withdrawLimit(new BigDecimal("1000000000"))
+                    .dailyLimit(new BigDecimal("1000000000"))
+                    .build()));
+        }
+
+        List<TransactionRequestDTO> workload = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TransactionRequestDTO dto = new TransactionRequestDTO();
+            dto.setSourceAccount(accounts.getFirst().getIban());
+            dto.setTargetAccount(accounts.get(1 + i % EMPLOYEES).getIban());
+            dto.setInitiatedBy(user.getId());
+            dto.setAmount(BigDecimal.ONE);
+            dto.setDescription("Salary");
+            workload.add(dto);
+        }
+        return workload;
+    }
+
+    // The controller takes the initiator from the token's userId claim
+    private static UsernamePasswordAuthenticationToken auth(Long userId) {
+        UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken("bench@bench.com", null, List.of());
+        authentication.setDetails(userId);
+        return authentication;
+    }
+
+    private LatencyRecorder postOneByOne(List<TransactionRequestDTO> workload) throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder(workload.size());
+        recorder.start();
+        for (TransactionRequestDTO dto : workload) {
+            long start = System.nanoTime();
+            mockMvc.perform(post("/transactions")
+                            .principal(auth(dto.getInitiatedBy()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(dto)))
+                    .andExpect(status().isCreated());
+            recorder.record(start);
+        }
+        recorder.stop();
+        return recorder;
+    }
+
+    // Records one latency per batch request
+    private LatencyRecorder postInBatches(List<TransactionRequestDTO> workload) throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder(workload.size() / BATCH_SIZE + 1);
+        recorder.start();
+        for (int from = 0; from < workload.size(); from += BATCH_SIZE) {
+            List<TransactionRequestDTO> batch = workload.subList(from, Math.min(from + BATCH_SIZE, workload.size()));
+            long start = System.nanoTime();
+            mockMvc.perform(post("/transactions/batch")
+                            .principal(auth(batch.getFirst().getInitiatedBy()))
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(batch)))
+                    .andExpect(status().isOk());
+            recorder.record(start);
+        }
+        recorder.stop();
+        return recorder;
+    }
+
+    @Test
+    void compareSingleCallsWithBatches() throws Exception {
+        // Warm up both endpoints before measuring
+        postOneByOne(createWorkload("WARMA", 500));
+        postInBatches(createWorkload("WARMB", 2 * BATCH_SIZE));
+
+        LatencyRecorder single = postOneByOne(createWorkload("SINGLE", TRANSFERS));
+        LatencyRecorder batched = postInBatches(createWorkload("BATCH", TRANSFERS));
+
+        System.out.println(single.summary("single calls (per transfer)"));
+        System.out.println(batched.summary("batches of " + BATCH_SIZE + " (per batch)"));
+        System.out.printf("transfers per second: single %.1f, batched %.1f%n",
+                single.throughput(), batched.throughput() * BATCH_SIZE);
+    }
+}
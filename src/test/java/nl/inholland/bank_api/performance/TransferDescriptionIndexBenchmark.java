@@ -0,0 +1,176 @@
+package nl.inholland.bank_api.performance;
+
+import jakarta.persistence.EntityManager;
+import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountActivityBatchRepository;
+import nl.inholland.bank_api.repository.CombinedTransactionRepository;
+import nl.inholland.bank_api.repository.TransferDescriptionIndex;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Indexes the descriptions of a million synthetic transfer lines spread over a few accounts, reports the heap the
+// index takes, then compares a filtered history page read through the index with the same page read by scanning
+@Tag("performance")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:description-benchmark",
+        "bank.activity.backfill-on-startup=false",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class TransferDescriptionIndexBenchmark {
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1_000_000);
+    private static final int ACCOUNTS = 10;
+    // Above the accounts of the seed data, which has its own transfer lines
+    private static final long FIRST_ACCOUNT = 1001;
+    private static final int BATCH = 10_000;
+    private static final int QUERIES = 200;
+    private static final String[] PURPOSES = {"Groceries", "Rent", "Salary", "Insurance", "Electricity bill",
+            "Phone bill", "Dinner with friends", "Birthday gift", "Savings", "Refund webshop order"};
+
+    @Autowired
+    private AccountActivityBatchRepository activityBatchRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    // Lines of a transfer to and from each account in turn, described by a purpose and an invoice number
+    private void createLines() {
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        List<AccountActivity> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < ROWS; i++) {
+            batch.add(AccountActivity.builder()
+                    .accountId(account(i))
+                    .referenceType(LedgerReferenceType.TRANSFER)
+                    .referenceId((long) i)
+                    .direction(i % 2 == 0 ? EntryDirection.CREDIT : EntryDirection.DEBIT)
+                    .counterpartIban("NL01DESC0000000001")
+                    .amount(new BigDecimal("12.34"))
+                    .description(PURPOSES[random.nextInt(PURPOSES.length)] + " INV-" + invoice(i))
+                    .status(Status.SUCCEEDED)
+                    .timestamp(start.plusSeconds(i))
+                    .build());
+            if (batch.size() == BATCH) {
+                activityBatchRepository.append(batch);
+                batch.clear();
+            }
+        }
+        activityBatchRepository.append(batch);
+    }
+
+    private static long account(int line) {
+        return FIRST_ACCOUNT + line % ACCOUNTS;
+    }
+
+    // Unique per line, so searching one finds a single transfer
+    private static String invoice(int line) {
+        return String.format("%07d", (line * 7_919L) % 10_000_000);
+    }
+
+    private long usedHeap() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private LatencyRecorder readPages(CombinedTransactionRepository repository, List<String> texts) {
+        LatencyRecorder recorder = new LatencyRecorder(texts.size());
+        recorder.start();
+        for (int i = 0; i < texts.size(); i++) {
+            TransactionFilterDTO filter = new TransactionFilterDTO();
+            filter.setDescription(texts.get(i));
+            long start = System.nanoTime();
+            repository.findAccountHistory(account(i), filter, 20, 0);
+            recorder.record(start);
+        }
+        recorder.stop();
+        return recorder;
+    }
+
+    private CombinedTransactionRepository repository(TransferDescriptionIndex index) {
+        CombinedTransactionRepository repository = new CombinedTransactionRepository(index);
+        repository.setEntityManager(entityManager);
+        return repository;
+    }
+
+    @Test
+    void compareIndexedAndScannedDescriptionSearches() {
+        createLines();
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ofSeconds(1));
+        index.build();
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+        long footprint = usedHeap() - before;
+        System.out.printf("index of %d lines: built in %d ms, %d MB of heap%n",
+                ROWS, buildMillis, footprint / (1024 * 1024));
+
+        // Invoice numbers of lines of the account each query reads
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            int line = (i * 4_999) % (ROWS / ACCOUNTS) * ACCOUNTS + i % ACCOUNTS;
+            texts.add("inv-" + invoice(line));
+        }
+
+        // Invoice numbers share their digit trigrams, so a lookup finds more candidates than matches
+        LatencyRecorder lookups = new LatencyRecorder(QUERIES);
+        long candidates = 0;
+        lookups.start();
+        for (int i = 0; i < QUERIES; i++) {
+            long lookup = System.nanoTime();
+            List<Long> found = index.findCandidates(account(i), texts.get(i));
+            lookups.record(lookup);
+            assertThat(found).isNotNull().isNotEmpty();
+            candidates += found.size();
+        }
+        lookups.stop();
+        System.out.printf("%.1f candidates per lookup%n", (double) candidates / QUERIES);
+
+        CombinedTransactionRepository indexed = repository(index);
+        CombinedTransactionRepository scanned = repository(new TransferDescriptionIndex(dataSource, false, 1000, Duration.ofMinutes(1), Duration.ZERO));
+        List<String> sample = texts.subList(0, 20);
+        for (int i = 0; i < sample.size(); i++) {
+            TransactionFilterDTO filter = new TransactionFilterDTO();
+            filter.setDescription(sample.get(i));
+            long accountId = account(i);
+            assertThat(indexed.findAccountHistory(accountId, filter, 20, 0)).hasSize(1)
+                    .first().satisfies(row -> assertThat(row).isEqualTo(
+                            scanned.findAccountHistory(accountId, filter, 20, 0).getFirst()));
+        }
+
+        // Warm up both paths before measuring
+        readPages(indexed, sample);
+        readPages(scanned, sample);
+        LatencyRecorder indexedPages = readPages(indexed, texts);
+        LatencyRecorder scannedPages = readPages(scanned, sample);
+
+        System.out.println(lookups.summary("index lookup"));
+        System.out.println(indexedPages.summary("page, index candidates"));
+        System.out.println(scannedPages.summary("page, LIKE scan"));
+    }
+}
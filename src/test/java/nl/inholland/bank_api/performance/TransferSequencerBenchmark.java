@@ -0,0 +1,161 @@
+package nl.inholland.bank_api.performance;
+
+import nl.inholland.bank_api.mapper.TransactionMapper;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.service.AccountActivityService;
+import nl.inholland.bank_api.service.AccountService;
+import nl.inholland.bank_api.service.BalanceStripingService;
+import nl.inholland.bank_api.service.LedgerService;
+import nl.inholland.bank_api.service.LimitAccountingService;
+import nl.inholland.bank_api.service.TransactionService;
+import nl.inholland.bank_api.service.TransferSequencer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Compares the synchronous transfer path with the sharded sequencer on a few hot accounts
+@Tag("performance")
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:sequencer-benchmark")
+@ActiveProfiles("test")
+class TransferSequencerBenchmark {
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 16);
+    private static final int TRANSFERS = Integer.getInteger("benchmark.transfers", 4000);
+    private static final int HOT_ACCOUNTS = 4;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private TransactionMapper transactionMapper;
+
+    @Autowired
+    private LimitAccountingService limitAccountingService;
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private AccountActivityService accountActivityService;
+
+    @Autowired
+    private BalanceStripingService balanceStripingService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private List<TransactionRequestDTO> createWorkload(String prefix) {
+        User user = userRepository.save(User.builder()
+                .firstName("Bench").lastName(prefix)
+                .email(prefix + "@bench.com").password("pw")
+                .bsn(String.format("%09d", Math.floorMod(prefix.hashCode(), 1_000_000_000))).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < HOT_ACCOUNTS * 2; i++) {
+            accounts.add(accountRepository.save(Account.builder()
+                    .user(user)
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01%s%010d", prefix, i))
+                    .type(AccountType.CHECKING)
+                    .balance(new BigDecimal("1000000000"))
+                    .absoluteLimit(BigDecimal.ZERO)
+                    .withdrawLimit(new BigDecimal("1000000000"))
+                    .dailyLimit(new BigDecimal("1000000000"))
+                    .build()));
+        }
+
+        List<TransactionRequestDTO> workload = new ArrayList<>();
+        for (int i = 0; i < TRANSFERS; i++) {
+            TransactionRequestDTO dto = new TransactionRequestDTO();
+            dto.setSourceAccount(accounts.get(i % HOT_ACCOUNTS).getIban());
+            dto.setTargetAccount(accounts.get(HOT_ACCOUNTS + i % HOT_ACCOUNTS).getIban());
+            dto.setInitiatedBy(user.getId());
+            dto.setAmount(BigDecimal.ONE);
+            dto.setDescription("Benchmark");
+            workload.add(dto);
+        }
+        return workload;
+    }
+
+    private LatencyRecorder run(List<TransactionRequestDTO> workload, Function<TransactionRequestDTO, Long> transfer)
+            throws InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder(workload.size());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        recorder.start();
+        for (TransactionRequestDTO dto : workload) {
+            executor.submit(() -> {
+                long start = System.nanoTime();
+                transfer.apply(dto);
+                recorder.record(start);
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        recorder.stop();
+        return recorder;
+    }
+
+    @Test
+    void compareSynchronousPathWithSequencer() throws Exception {
+        TransferSequencer sequencer = new TransferSequencer(
+                accountService, accountRepository, transactionRepository, userRepository, transactionMapper,
+                limitAccountingService, ledgerService, accountActivityService, balanceStripingService, transactionManager);
+        ReflectionTestUtils.setField(sequencer, "shardCount", HOT_ACCOUNTS);
+        ReflectionTestUtils.setField(sequencer, "bufferSize", 1024);
+        ReflectionTestUtils.setField(sequencer, "batchSize", 64);
+        sequencer.start();
+
+        Function<TransactionRequestDTO, Long> synchronous = dto -> transactionService.postTransaction(dto, dto.getInitiatedBy());
+        Function<TransactionRequestDTO, Long> sharded = dto -> sequencer.submit(dto, dto.getInitiatedBy());
+
+        try {
+            // Warm up both paths before measuring
+            run(createWorkload("WARMA").subList(0, 500), synchronous);
+            run(createWorkload("WARMB").subList(0, 500), sharded);
+
+            LatencyRecorder direct = run(createWorkload("DIRECT"), synchronous);
+            LatencyRecorder sequenced = run(createWorkload("SHARDS"), sharded);
+
+            System.out.println(direct.summary("synchronous path"));
+            System.out.println(sequenced.summary("sharded sequencer"));
+        } finally {
+            sequencer.stop();
+        }
+    }
+}
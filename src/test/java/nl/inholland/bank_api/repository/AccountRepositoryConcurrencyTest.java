@@ -0,0 +1,168 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs without a test transaction so that every update is committed and visible to the other threads
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AccountRepositoryConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int UPDATES_PER_THREAD = 250;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.save(User.builder()
+                .firstName("John").lastName("Doe")
+                .email("concurrency@test.com").password("pw")
+                .bsn("987654321").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        accountRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    private Account createAccount(String iban, BigDecimal balance, BigDecimal absoluteLimit) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(balance)
+                .absoluteLimit(absoluteLimit)
+                .withdrawLimit(new BigDecimal("1000000"))
+                .dailyLimit(new BigDecimal("1000000"))
+                .build());
+    }
+
+    // Starts all workers at the same time and returns how many updates reported success
+    private int hammer(Callable<Integer> update) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    int succeeded = 0;
+                    for (int j = 0; j < UPDATES_PER_THREAD; j++) {
+                        succeeded += update.call();
+                    }
+                    return succeeded;
+                }));
+            }
+
+            start.countDown();
+
+            int succeeded = 0;
+            for (Future<Integer> future : futures) {
+                succeeded += future.get();
+            }
+            return succeeded;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BigDecimal balanceOf(Account account) {
+        return accountRepository.findById(account.getId()).orElseThrow().getBalance();
+    }
+
+    @Test
+    void concurrentDebitsAndCreditsDoNotLoseUpdates() throws Exception {
+        Account account = createAccount("NL01INHO0000000101", new BigDecimal("100000.00"), BigDecimal.ZERO);
+
+        // Every thread alternates a debit of 2.00 and a credit of 1.00
+        int succeeded = hammer(() -> accountRepository.decreaseBalance(account.getId(), new BigDecimal("2.00"))
+                + accountRepository.increaseBalance(account.getId(), BigDecimal.ONE));
+
+        int operations = THREADS * UPDATES_PER_THREAD;
+        assertThat(succeeded).isEqualTo(operations * 2);
+        assertThat(balanceOf(account))
+                .isEqualByComparingTo(new BigDecimal("100000.00").subtract(BigDecimal.valueOf(operations)));
+    }
+
+    @Test
+    void concurrentDebitsNeverGoBelowAbsoluteLimit() throws Exception {
+        Account account = createAccount("NL01INHO0000000102", new BigDecimal("100.00"), new BigDecimal("-50.00"));
+
+        int succeeded = hammer(() -> accountRepository.decreaseBalance(account.getId(), BigDecimal.ONE));
+
+        // Exactly 150 debits fit between the balance and the absolute limit
+        assertThat(succeeded).isEqualTo(150);
+        assertThat(balanceOf(account)).isEqualByComparingTo(new BigDecimal("-50.00"));
+    }
+
+    @Test
+    void savingALoadedAccountKeepsTheBalanceAndStripesChangedSinceItWasLoaded() {
+        Account account = createAccount("NL01INHO0000000103", new BigDecimal("100.00"), BigDecimal.ZERO);
+        Account loaded = accountRepository.findById(account.getId()).orElseThrow();
+
+        accountRepository.increaseBalance(account.getId(), new BigDecimal("25.00"));
+        accountRepository.updateBalanceStripes(account.getId(), 4);
+        loaded.setDailyLimit(new BigDecimal("500.00"));
+        loaded.setStatus(AccountStatus.CLOSED);
+        accountRepository.save(loaded);
+
+        Account saved = accountRepository.findById(account.getId()).orElseThrow();
+        assertThat(saved.getBalance()).isEqualByComparingTo("125.00");
+        assertThat(saved.getBalanceStripes()).isEqualTo(4);
+        assertThat(saved.getDailyLimit()).isEqualByComparingTo("500.00");
+        assertThat(saved.getStatus()).isEqualTo(AccountStatus.CLOSED);
+    }
+
+    @Test
+    void concurrentLimitChangesDoNotUndoCredits() throws Exception {
+        Account account = createAccount("NL01INHO0000000104", new BigDecimal("100000.00"), BigDecimal.ZERO);
+
+        // Every thread alternates a credit of 1.00 with a limit change saved from a freshly loaded account
+        int succeeded = hammer(() -> {
+            int credited = accountRepository.increaseBalance(account.getId(), BigDecimal.ONE);
+            Account loaded = accountRepository.findById(account.getId()).orElseThrow();
+            loaded.setWithdrawLimit(loaded.getWithdrawLimit().add(BigDecimal.ONE));
+            accountRepository.save(loaded);
+            return credited;
+        });
+
+        int operations = THREADS * UPDATES_PER_THREAD;
+        assertThat(succeeded).isEqualTo(operations);
+        assertThat(balanceOf(account))
+                .isEqualByComparingTo(new BigDecimal("100000.00").add(BigDecimal.valueOf(operations)));
+    }
+}
@@ -1,19 +1,27 @@
 package nl.inholland.bank_api.repository;
 
+import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
 import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.AtmTransaction;
 import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.model.enums.*;
 import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.util.HistoryCursor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 
 import jakarta.persistence.EntityManager;
+import javax.sql.DataSource;
 import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,14 +30,23 @@ class CombinedTransactionRepositoryTest {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private AccountActivityRepository activityRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
     private CombinedTransactionRepository combinedTransactionRepository;
+    private User user;
+    private Account source;
+    private Account target;
 
     @BeforeEach
     void setUp() {
-        combinedTransactionRepository = new CombinedTransactionRepository();
+        combinedTransactionRepository = new CombinedTransactionRepository(new TransferDescriptionIndex(dataSource, false, 1000, Duration.ofMinutes(1), Duration.ZERO));
         combinedTransactionRepository.setEntityManager(entityManager);
         // Seed user and accounts
-        User user = User.builder()
+        user = User.builder()
                 .firstName("John")
                 .lastName("Doe")
                 .email("john@example.com")
@@ -41,7 +58,7 @@ class CombinedTransactionRepositoryTest {
                 .build();
         entityManager.persist(user);
 
-        Account source = Account.builder()
+        source = Account.builder()
                 .user(user)
                 .iban("NL01BANK0000000001")
                 .status(AccountStatus.ACTIVE)
@@ -51,7 +68,7 @@ class CombinedTransactionRepositoryTest {
                 .withdrawLimit(BigDecimal.valueOf(1000))
                 .dailyLimit(BigDecimal.valueOf(2000))
                 .build();
-        Account target = Account.builder()
+        target = Account.builder()
                 .user(user)
                 .iban("NL01BANK0000000002")
                 .status(AccountStatus.ACTIVE)
@@ -89,6 +106,23 @@ class CombinedTransactionRepositoryTest {
         entityManager.persist(atmTx);
 
         entityManager.flush();
+        setTimestamp("transaction", tx.getId(), LocalDateTime.of(2025, 1, 1, 12, 0));
+        setTimestamp("atm_transaction", atmTx.getId(), LocalDateTime.of(2025, 1, 1, 12, 1));
+    }
+
+    // The timestamps are set on insert, so rows from other days are moved there afterwards
+    private void setTimestamp(String table, Long id, LocalDateTime timestamp) {
+        entityManager.createNativeQuery("UPDATE " + table + " SET timestamp = :timestamp WHERE id = :id")
+                .setParameter("timestamp", timestamp)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    // Account histories are read from account_activity, here it is built from the rows above
+    private void backfill() {
+        activityRepository.insertMissingOutgoingTransfers();
+        activityRepository.insertMissingIncomingTransfers();
+        activityRepository.insertMissingAtmTransactions();
     }
 
     @Test
@@ -104,4 +138,178 @@ class CombinedTransactionRepositoryTest {
         long count = combinedTransactionRepository.countAllCombined();
         assertEquals(2, count);
     }
-}
\ No newline at end of file
+
+    private void persistTransfer(Account from, Account to, String amount, LocalDateTime timestamp, String description, Status status) {
+        Transaction transaction = Transaction.builder()
+                .sourceAccount(from).targetAccount(to).initiatedBy(user)
+                .amount(new BigDecimal(amount)).status(status).description(description)
+                .build();
+        entityManager.persist(transaction);
+        entityManager.flush();
+        setTimestamp("transaction", transaction.getId(), timestamp);
+    }
+
+    private void persistAtm(AtmTransactionType type, String amount, LocalDateTime timestamp, Status status) {
+        AtmTransaction transaction = AtmTransaction.builder()
+                .account(source).initiatedBy(user)
+                .type(type).amount(new BigDecimal(amount)).status(status)
+                .build();
+        entityManager.persist(transaction);
+        entityManager.flush();
+        setTimestamp("atm_transaction", transaction.getId(), timestamp);
+    }
+
+    private List<String> descriptions(Consumer<TransactionFilterDTO> filter) {
+        TransactionFilterDTO dto = new TransactionFilterDTO();
+        filter.accept(dto);
+        backfill();
+        List<String> descriptions = combinedTransactionRepository.findAccountHistory(source.getId(), dto, 50, 0).stream()
+                .map(row -> (String) row[6])
+                .toList();
+        assertEquals(descriptions.size(), combinedTransactionRepository.countAccountHistory(source.getId(), dto));
+
+        // Reading the transfers found by the description index returns the same rows
+        TransferDescriptionIndex descriptionIndex = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ZERO);
+        descriptionIndex.build();
+        CombinedTransactionRepository indexed = new CombinedTransactionRepository(descriptionIndex);
+        indexed.setEntityManager(entityManager);
+        assertEquals(descriptions, indexed.findAccountHistory(source.getId(), dto, 50, 0).stream()
+                .map(row -> (String) row[6])
+                .toList());
+        assertEquals(descriptions.size(), indexed.countAccountHistory(source.getId(), dto));
+        return descriptions;
+    }
+
+    @Test
+    void findAccountHistory_ShouldReturnSucceededTransfersAndAtmTransactionsNewestFirst() {
+        LocalDateTime noon = LocalDateTime.of(2025, 1, 1, 12, 0);
+        persistTransfer(target, source, "10.00", noon.minusDays(1), "Incoming", Status.SUCCEEDED);
+        persistTransfer(source, target, "20.00", noon.plusHours(1), "Failed", Status.FAILED);
+        persistAtm(AtmTransactionType.DEPOSIT, "30.00", noon, Status.SUCCEEDED);
+        persistAtm(AtmTransactionType.WITHDRAW, "40.00", noon.plusHours(2), Status.PENDING);
+        backfill();
+
+        List<Object[]> rows = combinedTransactionRepository.findAccountHistory(source.getId(), new TransactionFilterDTO(), 10, 0);
+
+        // Transfers come before ATM transactions with the same timestamp
+        assertEquals(List.of("WITHDRAW", "Test transfer", "DEPOSIT", "Incoming"), rows.stream().map(row -> (String) row[6]).toList());
+        assertEquals(List.of("ATM", "TRANSFER", "ATM", "TRANSFER"), rows.stream().map(row -> (String) row[1]).toList());
+        Object[] deposit = rows.get(2);
+        assertNull(deposit[3]);
+        assertEquals("NL01BANK0000000001", deposit[4]);
+        assertEquals(0, new BigDecimal("30.00").compareTo((BigDecimal) deposit[5]));
+        assertEquals("SUCCEEDED", deposit[8]);
+
+        assertEquals(List.of("Test transfer", "DEPOSIT"),
+                combinedTransactionRepository.findAccountHistory(source.getId(), new TransactionFilterDTO(), 2, 1).stream()
+                        .map(row -> (String) row[6]).toList());
+        assertEquals(4, combinedTransactionRepository.countAccountHistory(source.getId(), new TransactionFilterDTO()));
+    }
+
+    @Test
+    void findAccountHistory_ShouldApplyTheFiltersToBothKinds() {
+        persistTransfer(source, target, "50.00", LocalDateTime.of(2025, 1, 2, 23, 59), "Rent 50% off_", Status.SUCCEEDED);
+        persistAtm(AtmTransactionType.DEPOSIT, "50.00", LocalDateTime.of(2025, 1, 3, 0, 0), Status.SUCCEEDED);
+
+        // Dates are inclusive
+        assertEquals(List.of("Rent 50% off_", "WITHDRAW", "Test transfer"), descriptions(filter -> {
+            filter.setStartDate("2025-01-01");
+            filter.setEndDate("2025-01-02");
+        }));
+        assertEquals(List.of("DEPOSIT"), descriptions(filter -> filter.setStartDate("2025-01-03")));
+
+        assertEquals(List.of("Rent 50% off_", "WITHDRAW"), descriptions(filter -> {
+            filter.setAmount(new BigDecimal("100"));
+            filter.setComparison("lt");
+            filter.setEndDate("2025-01-02");
+        }));
+        assertEquals(List.of("DEPOSIT", "Rent 50% off_", "WITHDRAW"), descriptions(filter -> {
+            filter.setAmount(new BigDecimal("50"));
+            filter.setComparison("eq");
+        }));
+        assertEquals(4, descriptions(filter -> {
+            filter.setAmount(new BigDecimal("50"));
+            filter.setComparison("unknown");
+        }).size());
+
+        // ATM transactions have their account as source when they are withdrawals, as target when they are deposits
+        assertEquals(List.of("Rent 50% off_", "WITHDRAW", "Test transfer"),
+                descriptions(filter -> filter.setSourceIban("NL01BANK0000000001")));
+        assertEquals(List.of("DEPOSIT"), descriptions(filter -> filter.setTargetIban("NL01BANK0000000001")));
+        assertEquals(List.of(), descriptions(filter -> filter.setSourceIban("nl01bank0000000001")));
+
+        // Case-insensitive and literal, ATM transactions are matched on their type
+        assertEquals(List.of("Rent 50% off_"), descriptions(filter -> filter.setDescription("50% OFF_")));
+        assertEquals(List.of(), descriptions(filter -> filter.setDescription("rent_")));
+        assertEquals(List.of("WITHDRAW"), descriptions(filter -> filter.setDescription("draw")));
+        assertEquals(4, descriptions(filter -> filter.setDescription(" ")).size());
+        assertEquals(List.of(), descriptions(filter -> filter.setDescription("groceries")));
+    }
+
+    private static LocalDateTime timestamp(Object value) {
+        return value instanceof Timestamp ts ? ts.toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    // Walks the history two rows at a time, reading one row more like the service does
+    private List<Long> walk(Function<HistoryCursor, List<Object[]>> page, Function<Object[], HistoryCursor> key,
+                            int idIndex) {
+        List<Long> ids = new ArrayList<>();
+        HistoryCursor cursor = null;
+        List<Object[]> rows;
+        do {
+            rows = page.apply(cursor);
+            rows.stream().limit(2).forEach(row -> ids.add(((Number) row[idIndex]).longValue()));
+            cursor = rows.size() > 2 ? key.apply(rows.get(1)) : null;
+        } while (cursor != null);
+        return ids;
+    }
+
+    @Test
+    void cursorPages_ShouldMatchTheOffsetPagesAcrossEqualTimestamps() {
+        LocalDateTime tie = LocalDateTime.of(2025, 1, 1, 12, 0);
+        persistTransfer(target, source, "10.00", tie, "Incoming", Status.SUCCEEDED);
+        persistTransfer(source, source, "11.00", tie, "Own account", Status.SUCCEEDED);
+        persistAtm(AtmTransactionType.DEPOSIT, "30.00", tie, Status.SUCCEEDED);
+        persistAtm(AtmTransactionType.WITHDRAW, "40.00", tie, Status.SUCCEEDED);
+        persistTransfer(source, target, "20.00", tie.minusDays(1), "Older", Status.SUCCEEDED);
+        TransactionFilterDTO filter = new TransactionFilterDTO();
+        backfill();
+
+        List<Object[]> all = combinedTransactionRepository.findAccountHistory(source.getId(), filter, 50, 0);
+        // A transfer between the account and itself is listed once
+        assertEquals(7, all.size());
+        assertEquals(all.stream().map(row -> ((Number) row[0]).longValue()).toList(), walk(
+                cursor -> combinedTransactionRepository.findAccountHistoryAfter(source.getId(), filter, cursor, 3),
+                row -> new HistoryCursor(timestamp(row[7]), ((Number) row[2]).intValue(), ((Number) row[0]).longValue()),
+                0));
+
+        List<Object[]> combined = combinedTransactionRepository.findAllCombined(50, 0);
+        assertEquals(combinedTransactionRepository.countAllCombined(), combined.size());
+        assertEquals(combined.stream().map(row -> ((Number) row[7]).longValue()).toList(), walk(
+                cursor -> combinedTransactionRepository.findAllCombinedAfter(cursor, 3),
+                row -> new HistoryCursor(timestamp(row[4]), ((Number) row[8]).intValue(), ((Number) row[7]).longValue()),
+                7));
+    }
+
+    @Test
+    void streamAccountHistory_ShouldReturnTheFilteredHistoryInPageOrder() {
+        persistTransfer(target, source, "10.00", LocalDateTime.of(2025, 1, 2, 9, 0), "Incoming", Status.SUCCEEDED);
+        persistAtm(AtmTransactionType.DEPOSIT, "30.00", LocalDateTime.of(2025, 1, 3, 9, 0), Status.SUCCEEDED);
+        persistTransfer(source, target, "20.00", LocalDateTime.of(2025, 1, 4, 9, 0), "Failed", Status.FAILED);
+        TransactionFilterDTO filter = new TransactionFilterDTO();
+        filter.setEndDate("2025-01-02");
+        backfill();
+
+        // A fetch size below the number of rows, so the result set is read in several round trips
+        AccountHistoryExportRepository exportRepository = new AccountHistoryExportRepository(dataSource,
+                new TransferDescriptionIndex(dataSource, false, 1000, Duration.ofMinutes(1), Duration.ZERO), 2);
+        List<Object[]> streamed = new ArrayList<>();
+        exportRepository.streamAccountHistory(source.getId(), filter, streamed::add);
+
+        List<Object[]> paged = combinedTransactionRepository.findAccountHistory(source.getId(), filter, 50, 0);
+        assertEquals(3, streamed.size());
+        for (int i = 0; i < paged.size(); i++) {
+            assertArrayEquals(paged.get(i), streamed.get(i));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package nl.inholland.bank_api.repository;
+
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import nl.inholland.bank_api.model.enums.EntryDirection;
+import nl.inholland.bank_api.model.enums.LedgerReferenceType;
+import nl.inholland.bank_api.model.enums.Status;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+class TransferDescriptionIndexTest {
+    @Autowired
+    private AccountActivityRepository activityRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private AccountActivity line(long accountId, LedgerReferenceType type, long referenceId, String description) {
+        return AccountActivity.builder()
+                .accountId(accountId)
+                .referenceType(type)
+                .referenceId(referenceId)
+                .direction(EntryDirection.DEBIT)
+                .amount(BigDecimal.TEN)
+                .description(description)
+                .status(Status.SUCCEEDED)
+                .timestamp(LocalDateTime.of(2025, 6, 1, 12, 0))
+                .build();
+    }
+
+    private void save(AccountActivity... lines) {
+        activityRepository.saveAllAndFlush(List.of(lines));
+    }
+
+    private void insert(long id, long referenceId, String description) {
+        jdbcTemplate.update("""
+                INSERT INTO account_activity (id, account_id, reference_type, reference_id, direction, amount,
+                    description, status, timestamp)
+                VALUES (?, 1, 'TRANSFER', ?, 'DEBIT', 10, ?, 'SUCCEEDED', ?)
+                """, id, referenceId, description, LocalDateTime.of(2025, 6, 1, 12, 0));
+    }
+
+    @Test
+    void candidatesAreTheTransfersOfTheAccountWithEveryTrigramOfTheText() {
+        save(line(1, LedgerReferenceType.TRANSFER, 10, "Groceries June"),
+                line(1, LedgerReferenceType.TRANSFER, 20, "Rent June"),
+                line(1, LedgerReferenceType.TRANSFER, 30, "groceries July"),
+                line(1, LedgerReferenceType.ATM, 40, "DEPOSIT"),
+                line(2, LedgerReferenceType.TRANSFER, 10, "Groceries"));
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ZERO);
+        assertThat(index.findCandidates(1L, "groceries")).isNull();
+
+        index.build();
+
+        assertThat(index.findCandidates(1L, "GROCER")).containsExactly(10L, 30L);
+        assertThat(index.findCandidates(1L, "june")).containsExactly(10L, 20L);
+        assertThat(index.findCandidates(1L, "ries jul")).containsExactly(30L);
+        assertThat(index.findCandidates(1L, "insurance")).isEmpty();
+        assertThat(index.findCandidates(2L, "groc")).containsExactly(10L);
+        assertThat(index.findCandidates(3L, "groc")).isEmpty();
+
+        // Too short for a trigram, or ATM lines may match on their type
+        assertThat(index.findCandidates(1L, "ro")).isNull();
+        assertThat(index.findCandidates(1L, "posit")).isNull();
+    }
+
+    @Test
+    void buildingAgainAddsLinesWithLowerIdsInOrderAndOnce() {
+        save(line(1, LedgerReferenceType.TRANSFER, 10, "Groceries"),
+                line(1, LedgerReferenceType.TRANSFER, 30, "Groceries"));
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ZERO);
+        index.build();
+
+        save(line(1, LedgerReferenceType.TRANSFER, 20, "More groceries"));
+        index.build();
+
+        assertThat(index.findCandidates(1L, "groceries")).containsExactly(10L, 20L, 30L);
+    }
+
+    @Test
+    void tooManyCandidatesAreLeftToTheScan() {
+        save(line(1, LedgerReferenceType.TRANSFER, 10, "Groceries"),
+                line(1, LedgerReferenceType.TRANSFER, 20, "Groceries"));
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1, Duration.ofMinutes(1), Duration.ZERO);
+        index.build();
+
+        assertThat(index.findCandidates(1L, "groceries")).isNull();
+        assertThat(index.findCandidates(1L, "insurance")).isEmpty();
+    }
+
+    @Test
+    void linesWrittenAfterTheBuildAreReadBeforeTheNextLookup() {
+        save(line(1, LedgerReferenceType.TRANSFER, 10, "Groceries"));
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ZERO);
+        index.build();
+
+        // Another instance settles a transfer
+        save(line(1, LedgerReferenceType.TRANSFER, 20, "Insurance"));
+
+        assertThat(index.findCandidates(1L, "insurance")).containsExactly(20L);
+    }
+
+    @Test
+    void linesThatCommitAfterALineWithAHigherIdAreStillRead() {
+        save(line(1, LedgerReferenceType.TRANSFER, 10, "Groceries"));
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ZERO);
+        index.build();
+        long next = jdbcTemplate.queryForObject("SELECT MAX(id) FROM account_activity", Long.class) + 1;
+
+        // The transaction of the first line commits last
+        insert(next + 1, 30, "Insurance June");
+        assertThat(index.findCandidates(1L, "insurance")).containsExactly(30L);
+        insert(next, 20, "Insurance May");
+
+        assertThat(index.findCandidates(1L, "insurance")).containsExactly(20L, 30L);
+    }
+
+    @Test
+    void lookupsWithinTheCatchUpIntervalSkipTheCatchUp() {
+        save(line(1, LedgerReferenceType.TRANSFER, 10, "Groceries"));
+        TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ofHours(1));
+        index.build();
+
+        save(line(1, LedgerReferenceType.TRANSFER, 20, "Insurance"));
+
+        assertThat(index.findCandidates(1L, "insurance")).isEmpty();
+        assertThat(index.findCandidates(1L, "groceries")).containsExactly(10L);
+    }
+
+    @Test
+    void descriptionsAreLowerCasedIndependentOfTheDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        try {
+            save(line(1, LedgerReferenceType.TRANSFER, 10, "INVOICE 2025"));
+            TransferDescriptionIndex index = new TransferDescriptionIndex(dataSource, true, 1000, Duration.ofMinutes(1), Duration.ZERO);
+            index.build();
+
+            assertThat(index.findCandidates(1L, "invoice")).containsExactly(10L);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
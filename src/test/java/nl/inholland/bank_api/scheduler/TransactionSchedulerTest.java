@@ -1,15 +1,23 @@
 package nl.inholland.bank_api.scheduler;
 
 import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.service.AtmProcessingQueue;
 import nl.inholland.bank_api.service.AtmTransactionService;
+import nl.inholland.bank_api.service.TransferSettlementPipeline;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.List;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -18,23 +26,87 @@ class TransactionSchedulerTest {
     @Mock
     private AtmTransactionService atmTransactionService;
 
-    @InjectMocks
+    @Mock
+    private ObjectProvider<AtmProcessingQueue> atmProcessingQueue;
+
+    @Mock
+    private AtmProcessingQueue queue;
+
+    @Mock
+    private ObjectProvider<TransferSettlementPipeline> settlementPipeline;
+
+    @Mock
+    private TransferSettlementPipeline pipeline;
+
     private TransactionScheduler scheduler;
 
+    @BeforeEach
+    void setUp() {
+        // Both providers have the same raw type, so they are passed explicitly
+        scheduler = new TransactionScheduler(atmTransactionService, atmProcessingQueue, settlementPipeline);
+    }
+
+    private static AtmTransactionRepository.PendingAtmTransaction claimed(Long id) {
+        return new AtmTransactionRepository.PendingAtmTransaction() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public Long getAccountId() {
+                return 10L;
+            }
+        };
+    }
+
     @Test
-    void processAllPendingTransactionsShouldCallProcessTransactionForEachPending() {
+    void processAllPendingTransactionsShouldProcessClaimedBatchesUntilNoneAreLeft() {
         AtmTransaction transaction1 = AtmTransaction.builder().id(1L).build();
         AtmTransaction transaction2 = AtmTransaction.builder().id(2L).build();
-        List<AtmTransaction> pendingTransactions = List.of(transaction1, transaction2);
 
-        // Mock the behaviour of atmTransactionService to return the pending transactions
-        when(atmTransactionService.getPendingTransactions()).thenReturn(pendingTransactions);
+        // Mock the behaviour of atmTransactionService to return one batch of claimed transactions
+        when(atmTransactionService.claimPendingTransactions()).thenReturn(List.of(claimed(1L), claimed(2L)), List.of());
+        when(atmTransactionService.loadForProcessing(List.of(1L, 2L))).thenReturn(List.of(transaction1, transaction2));
 
         scheduler.processAllPendingTransactions();
 
         // Verify that the service methods were called correctly
-        verify(atmTransactionService).getPendingTransactions();
+        verify(atmTransactionService, times(2)).claimPendingTransactions();
         verify(atmTransactionService).processTransaction(transaction1);
         verify(atmTransactionService).processTransaction(transaction2);
     }
-}
\ No newline at end of file
+
+    @Test
+    void processAllPendingTransactionsShouldOnlySweepTheAtmQueueWhenItIsEnabled() {
+        when(atmProcessingQueue.getIfAvailable()).thenReturn(queue);
+
+        scheduler.processAllPendingTransactions();
+
+        verify(queue).sweepPending();
+        verify(atmTransactionService, never()).claimPendingTransactions();
+        verify(atmTransactionService, never()).processTransaction(any());
+    }
+
+    @Test
+    void processAllPendingTransactionsShouldSweepPendingTransfersInAsyncMode() {
+        when(atmTransactionService.claimPendingTransactions()).thenReturn(List.of());
+        when(settlementPipeline.getIfAvailable()).thenReturn(pipeline);
+
+        scheduler.processAllPendingTransactions();
+
+        verify(pipeline).sweepPending();
+    }
+
+    @Test
+    void processAllPendingTransactionsShouldProcessClaimedBatchesAtOnceInBatchMode() {
+        ReflectionTestUtils.setField(scheduler, "batchEnabled", true);
+        when(atmTransactionService.claimPendingTransactions()).thenReturn(List.of(claimed(1L), claimed(2L)), List.of());
+
+        scheduler.processAllPendingTransactions();
+
+        verify(atmTransactionService).processBatch(List.of(1L, 2L));
+        verify(atmTransactionService, never()).loadForProcessing(any());
+        verify(atmTransactionService, never()).processTransaction(any());
+    }
+}
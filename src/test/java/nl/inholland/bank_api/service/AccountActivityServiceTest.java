@@ -0,0 +1,197 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
+import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AccountActivity;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountActivityRepository;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.TransferDescriptionIndex;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:activity-test",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H",
+        "bank.search.description-index.catch-up-interval=PT0S"
+})
+@ActiveProfiles("test")
+class AccountActivityServiceTest {
+    @Autowired
+    private AccountActivityService activityService;
+
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private CombinedTransactionService combinedTransactionService;
+
+    @Autowired
+    private AccountActivityRepository activityRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransferDescriptionIndex descriptionIndex;
+
+    private User createUser(String email, String bsn) {
+        return userRepository.save(User.builder()
+                .firstName("Ada").lastName("Activity")
+                .email(email).password("pw")
+                .bsn(bsn).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    private Account createAccount(User user, String iban) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal("100.00"))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000.00"))
+                .dailyLimit(new BigDecimal("1000.00"))
+                .build());
+    }
+
+    private void transfer(User user, Account from, Account to, String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(from.getIban());
+        dto.setTargetAccount(to.getIban());
+        dto.setInitiatedBy(user.getId());
+        dto.setAmount(new BigDecimal(amount));
+        dto.setDescription("Groceries");
+        transferEngine.transfer(dto, user.getId());
+    }
+
+    private List<AccountActivity> lines(Account account) {
+        return activityRepository.findAll().stream()
+                .filter(activity -> activity.getAccountId().equals(account.getId()))
+                .toList();
+    }
+
+    @Test
+    void succeededTransfersAndAtmTransactionsAreRecordedOnEveryAccountTheyTouch() {
+        User user = createUser("activity@test.com", "864209768");
+        Account source = createAccount(user, "NL01ACTI0000000001");
+        Account target = createAccount(user, "NL01ACTI0000000002");
+
+        transfer(user, source, target, "40.00");
+        transfer(user, source, target, "500.00"); // fails on the balance
+        AtmTransaction deposit = atmTransactionRepository.save(AtmTransaction.builder()
+                .account(source)
+                .initiatedBy(user)
+                .type(AtmTransactionType.DEPOSIT)
+                .amount(new BigDecimal("25.00"))
+                .timestamp(LocalDateTime.now())
+                .status(Status.PENDING)
+                .build());
+        atmTransactionService.processTransaction(deposit);
+
+        assertThat(lines(source)).extracting(AccountActivity::getDirection, AccountActivity::getCounterpartIban,
+                        AccountActivity::getReferenceType)
+                .containsExactlyInAnyOrder(
+                        tuple(EntryDirection.DEBIT, target.getIban(), LedgerReferenceType.TRANSFER),
+                        tuple(EntryDirection.CREDIT, null, LedgerReferenceType.ATM));
+        assertThat(lines(target)).singleElement().satisfies(line -> {
+            assertThat(line.getDirection()).isEqualTo(EntryDirection.CREDIT);
+            assertThat(line.getCounterpartIban()).isEqualTo(source.getIban());
+            assertThat(line.getAmount()).isEqualByComparingTo("40.00");
+            assertThat(line.getDescription()).isEqualTo("Groceries");
+        });
+
+        // Both sides of the transfer read the same way
+        List<CombinedTransactionDTO> history = combinedTransactionService
+                .getFilteredTransactions(target.getId(), new TransactionFilterDTO(), PageRequest.of(0, 10))
+                .getContent();
+        assertThat(history).singleElement().satisfies(row -> {
+            assertThat(row.sourceIban).isEqualTo(source.getIban());
+            assertThat(row.targetIban).isEqualTo(target.getIban());
+            assertThat(row.status).isEqualTo(Status.SUCCEEDED);
+        });
+        assertThat(combinedTransactionService
+                .getFilteredTransactions(source.getId(), new TransactionFilterDTO(), PageRequest.of(0, 10))
+                .getContent()).extracting(row -> row.type).containsExactly("ATM", "TRANSFER");
+
+        // The committed transfer reached the description index of both accounts
+        assertThat(descriptionIndex.findCandidates(target.getId(), "grocer")).containsExactly(history.getFirst().id);
+        assertThat(descriptionIndex.findCandidates(source.getId(), "grocer")).containsExactly(history.getFirst().id);
+        TransactionFilterDTO filter = new TransactionFilterDTO();
+        filter.setDescription("grocer");
+        assertThat(combinedTransactionService.getFilteredTransactions(source.getId(), filter, PageRequest.of(0, 10))
+                .getContent()).extracting(row -> row.description).containsExactly("Groceries");
+    }
+
+    @Test
+    void backfillAddsTheLinesOfEarlierTransactionsOnce() {
+        User user = createUser("activity2@test.com", "864209769");
+        Account source = createAccount(user, "NL01ACTI0000000003");
+        Account target = createAccount(user, "NL01ACTI0000000004");
+
+        // Written without the services, like data from before the read model existed
+        transactionRepository.save(Transaction.builder()
+                .sourceAccount(source).targetAccount(target).initiatedBy(user)
+                .amount(new BigDecimal("12.50")).description("Imported")
+                .status(Status.SUCCEEDED)
+                .build());
+        atmTransactionRepository.save(AtmTransaction.builder()
+                .account(target).initiatedBy(user)
+                .type(AtmTransactionType.WITHDRAW).amount(new BigDecimal("5.00"))
+                .timestamp(LocalDateTime.now())
+                .status(Status.SUCCEEDED)
+                .build());
+        atmTransactionRepository.save(AtmTransaction.builder()
+                .account(target).initiatedBy(user)
+                .type(AtmTransactionType.WITHDRAW).amount(new BigDecimal("7.00"))
+                .timestamp(LocalDateTime.now())
+                .status(Status.FAILED)
+                .build());
+
+        assertThat(descriptionIndex.findCandidates(target.getId(), "imported")).isEmpty();
+        assertThat(activityService.backfill()).isEqualTo(3);
+        assertThat(activityService.backfill()).isZero();
+        assertThat(descriptionIndex.findCandidates(target.getId(), "imported")).hasSize(1);
+
+        assertThat(lines(source)).singleElement().satisfies(line ->
+                assertThat(line.getDirection()).isEqualTo(EntryDirection.DEBIT));
+        assertThat(lines(target)).extracting(AccountActivity::getDirection, AccountActivity::getDescription)
+                .containsExactlyInAnyOrder(
+                        tuple(EntryDirection.CREDIT, "Imported"),
+                        tuple(EntryDirection.DEBIT, "WITHDRAW"));
+    }
+}
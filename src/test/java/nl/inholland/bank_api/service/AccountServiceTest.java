@@ -15,6 +15,7 @@ import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.model.enums.AccountStatus;
 import nl.inholland.bank_api.model.enums.AccountType;
 import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.BalanceStripeRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,6 +26,7 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.util.List;
 import java.util.Optional;
@@ -35,7 +37,7 @@ import static org.mockito.Mockito.*;
 import java.math.BigDecimal;
 
 @ExtendWith(SpringExtension.class)
-@Import(AccountService.class)
+@Import({AccountService.class, BalanceStripingService.class})
 public class AccountServiceTest {
     @Autowired
     private AccountService accountService;
@@ -43,6 +45,12 @@ public class AccountServiceTest {
     @MockitoBean
     private AccountRepository accountRepository;
 
+    @MockitoBean
+    private BalanceStripeRepository stripeRepository;
+
+    @MockitoBean
+    private PlatformTransactionManager transactionManager;
+
     @MockitoBean
     private AccountMapper mapper;
 
@@ -215,35 +223,55 @@ public class AccountServiceTest {
     }
 
     @Test
-    void shouldAddAmountToBalanceAndSaveAccount() {
+    void shouldAddAmountToBalanceWithSingleUpdate() {
         // Arrange
         Account account = new Account();
-        account.setBalance(new BigDecimal("100.00"));
+        account.setId(1L);
 
         BigDecimal amountToAdd = new BigDecimal("50.00");
+        when(accountRepository.increaseBalance(1L, amountToAdd)).thenReturn(1);
 
         // Act
-        accountService.updateBalance(account, amountToAdd, Operation.ADDITION);
+        boolean updated = accountService.updateBalance(account, amountToAdd, Operation.ADDITION);
 
         // Assert
-        assertEquals(new BigDecimal("150.00"), account.getBalance());
-        verify(accountRepository, times(1)).save(account);
+        assertTrue(updated);
+        verify(accountRepository).increaseBalance(1L, amountToAdd);
+        verify(accountRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldSubtractAmountFromBalanceWithSingleUpdate() {
+        // Arrange
+        Account account = new Account();
+        account.setId(1L);
+
+        BigDecimal amountToSubtract = new BigDecimal("75.00");
+        when(accountRepository.decreaseBalance(1L, amountToSubtract)).thenReturn(1);
+
+        // Act
+        boolean updated = accountService.updateBalance(account, amountToSubtract, Operation.SUBTRACTION);
+
+        // Assert
+        assertTrue(updated);
+        verify(accountRepository).decreaseBalance(1L, amountToSubtract);
+        verify(accountRepository, never()).save(any());
     }
 
     @Test
-    void shouldSubtractAmountFromBalanceAndSaveAccount() {
+    void shouldReportFailedSubtractionWhenAbsoluteLimitWouldBeExceeded() {
         // Arrange
         Account account = new Account();
-        account.setBalance(new BigDecimal("200.00"));
+        account.setId(1L);
 
         BigDecimal amountToSubtract = new BigDecimal("75.00");
+        when(accountRepository.decreaseBalance(1L, amountToSubtract)).thenReturn(0);
 
         // Act
-        accountService.updateBalance(account, amountToSubtract, Operation.SUBTRACTION);
+        boolean updated = accountService.updateBalance(account, amountToSubtract, Operation.SUBTRACTION);
 
         // Assert
-        assertEquals(new BigDecimal("125.00"), account.getBalance());
-        verify(accountRepository, times(1)).save(account);
+        assertFalse(updated);
     }
 
     @Test
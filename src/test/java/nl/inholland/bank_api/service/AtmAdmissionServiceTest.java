@@ -0,0 +1,139 @@
+package nl.inholland.bank_api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.inholland.bank_api.exception.ServiceUnavailableException;
+import nl.inholland.bank_api.exception.TooManyRequestsException;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AtmAdmissionServiceTest {
+    private AtmTransactionRepository transactionRepository;
+    private AtmAdmissionService admissionService;
+
+    @BeforeEach
+    void setUp() {
+        transactionRepository = mock(AtmTransactionRepository.class);
+        admissionService = new AtmAdmissionService(transactionRepository, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(admissionService, "enabled", true);
+        ReflectionTestUtils.setField(admissionService, "maxPending", 5);
+        ReflectionTestUtils.setField(admissionService, "maxPendingPerAccount", 2);
+        ReflectionTestUtils.setField(admissionService, "maxLag", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(admissionService, "retryAfter", Duration.ofSeconds(5));
+    }
+
+    private static AtmTransactionRepository.AccountBacklog backlog(Long accountId, long pending, LocalDateTime oldest) {
+        return new AtmTransactionRepository.AccountBacklog() {
+            @Override
+            public Long getAccountId() {
+                return accountId;
+            }
+
+            @Override
+            public long getPending() {
+                return pending;
+            }
+
+            @Override
+            public LocalDateTime getOldest() {
+                return oldest;
+            }
+        };
+    }
+
+    private static AtmTransaction processed(Long accountId) {
+        Account account = new Account();
+        account.setId(accountId);
+        AtmTransaction transaction = new AtmTransaction();
+        transaction.setAccount(account);
+        return transaction;
+    }
+
+    @Test
+    void accountsAreCappedWithoutAffectingOthers() {
+        admissionService.admit(1L);
+        admissionService.admit(1L);
+
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> admissionService.admit(1L));
+        assertEquals(Duration.ofSeconds(5), e.getRetryAfter());
+        admissionService.admit(2L);
+        assertEquals(3, admissionService.getPendingCount());
+        assertEquals(2, admissionService.getPendingCount(1L));
+    }
+
+    @Test
+    void processedTransactionsFreeTheirSlots() {
+        admissionService.admit(1L);
+        admissionService.admit(1L);
+
+        admissionService.releaseAfterCommit(List.of(processed(1L)));
+
+        admissionService.admit(1L);
+        assertEquals(2, admissionService.getPendingCount());
+    }
+
+    @Test
+    void uploadedOperationsOnlyCountAgainstTheTotalBacklog() {
+        admissionService.admitUploaded(List.of(1L, 1L, 1L));
+
+        assertEquals(3, admissionService.getPendingCount(1L));
+        assertThrows(TooManyRequestsException.class, () -> admissionService.admit(1L));
+        assertThrows(ServiceUnavailableException.class, () -> admissionService.admitUploaded(List.of(2L, 2L, 2L)));
+        assertEquals(3, admissionService.getPendingCount());
+    }
+
+    @Test
+    void fullBacklogRejectsEveryAccount() {
+        when(transactionRepository.findBacklogByAccount()).thenReturn(List.of(
+                backlog(1L, 3, LocalDateTime.now()), backlog(2L, 2, LocalDateTime.now())));
+        admissionService.refresh();
+
+        assertEquals(5, admissionService.getPendingCount());
+        assertThrows(ServiceUnavailableException.class, () -> admissionService.admit(3L));
+    }
+
+    @Test
+    void settlementLagRejectsEveryAccount() {
+        when(transactionRepository.findBacklogByAccount()).thenReturn(List.of(
+                backlog(1L, 1, LocalDateTime.now().minusMinutes(5))));
+        admissionService.refresh();
+
+        assertThrows(ServiceUnavailableException.class, () -> admissionService.admit(2L));
+
+        // Once the backlog has been worked off the lag no longer counts
+        admissionService.release(1L);
+        assertDoesNotThrow(() -> admissionService.admit(2L));
+    }
+
+    @Test
+    void refreshReplacesTheCountersWithTheDatabaseBacklog() {
+        admissionService.admit(1L);
+        admissionService.admit(1L);
+        when(transactionRepository.findBacklogByAccount()).thenReturn(List.of());
+
+        admissionService.refresh();
+
+        assertEquals(0, admissionService.getPendingCount());
+        assertDoesNotThrow(() -> admissionService.admit(1L));
+    }
+
+    @Test
+    void nothingIsCountedWhenDisabled() {
+        ReflectionTestUtils.setField(admissionService, "enabled", false);
+
+        for (int i = 0; i < 10; i++) {
+            admissionService.admit(1L);
+        }
+        assertEquals(0, admissionService.getPendingCount());
+    }
+}
@@ -0,0 +1,168 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs the same random ATM traffic once through processTransaction and once through processBatch,
+// on two identical sets of accounts, and compares every result
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-batch-test",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AtmBatchSettlementTest {
+    private static final int ACCOUNTS = 5;
+    private static final int TRANSACTIONS = 300;
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private BalanceStripingService stripingService;
+
+    @Autowired
+    private LimitAccountingService limitAccountingService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private List<Account> createAccounts(User user, String prefix) {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(accountRepository.save(Account.builder()
+                    .user(user)
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01%s%010d", prefix, i))
+                    .type(AccountType.CHECKING)
+                    .balance(new BigDecimal("300.00"))
+                    .absoluteLimit(new BigDecimal("-100.00"))
+                    .withdrawLimit(new BigDecimal("500.00"))
+                    .dailyLimit(new BigDecimal("1000.00"))
+                    .build()));
+        }
+
+        // One striped account, its balance is partly held in stripes
+        stripingService.setStripes(accounts.get(0).getIban(), 4);
+        return accounts;
+    }
+
+    private BigDecimal balance(Account account) {
+        return stripingService.getBalance(accountRepository.findById(account.getId()).orElseThrow());
+    }
+
+    @Test
+    void batchProcessingGivesTheSameResultsAsProcessingOneByOne() {
+        User user = userRepository.save(User.builder()
+                .firstName("Bea").lastName("Batch")
+                .email("atmbatch@test.com").password("pw")
+                .bsn("246813579").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        List<Account> sequentialAccounts = createAccounts(user, "SEQU");
+        List<Account> batchAccounts = createAccounts(user, "BTCH");
+
+        // Enough withdrawals to hit both the absolute limit and the daily withdrawal limit
+        Random random = new Random(42);
+        List<AtmTransaction> sequential = new ArrayList<>();
+        List<AtmTransaction> batched = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            int account = random.nextInt(ACCOUNTS);
+            AtmTransactionType type = random.nextInt(3) == 0 ? AtmTransactionType.DEPOSIT : AtmTransactionType.WITHDRAW;
+            BigDecimal amount = BigDecimal.valueOf(random.nextInt(1, 12_000), 2);
+            sequential.add(atmTransactionRepository.save(AtmTransaction.builder()
+                    .account(sequentialAccounts.get(account)).initiatedBy(user)
+                    .type(type).amount(amount).status(Status.PENDING)
+                    .build()));
+            batched.add(atmTransactionRepository.save(AtmTransaction.builder()
+                    .account(batchAccounts.get(account)).initiatedBy(user)
+                    .type(type).amount(amount).status(Status.PENDING)
+                    .build()));
+        }
+
+        for (AtmTransaction transaction : sequential) {
+            atmTransactionService.processTransaction(transaction);
+        }
+
+        // Several cycles, so later batches start from the balances and totals of earlier ones
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        for (int from = 0; from < batched.size(); from += 70) {
+            atmTransactionService.processBatch(batched.subList(from, Math.min(from + 70, batched.size())).stream()
+                    .map(AtmTransaction::getId)
+                    .toList());
+        }
+        assertThat(statistics.getEntityUpdateCount()).isZero();
+
+        int failed = 0;
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            AtmTransaction one = atmTransactionRepository.findById(sequential.get(i).getId()).orElseThrow();
+            AtmTransaction batch = atmTransactionRepository.findById(batched.get(i).getId()).orElseThrow();
+            assertThat(batch.getStatus()).as("status of transaction %d", i).isEqualTo(one.getStatus());
+            assertThat(batch.getFailureReason()).as("failure reason of transaction %d", i).isEqualTo(one.getFailureReason());
+            if (one.getStatus() == Status.FAILED) {
+                failed++;
+            }
+        }
+        assertThat(failed).isPositive();
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertThat(balance(batchAccounts.get(i))).isEqualByComparingTo(balance(sequentialAccounts.get(i)));
+            assertThat(limitAccountingService.getUsedToday(batchAccounts.get(i).getId(), LimitKind.ATM_WITHDRAWAL))
+                    .isEqualByComparingTo(limitAccountingService.getUsedToday(
+                            sequentialAccounts.get(i).getId(), LimitKind.ATM_WITHDRAWAL));
+        }
+    }
+
+    @Test
+    void batchSkipsTransactionsThatWereAlreadyProcessed() {
+        User user = userRepository.save(User.builder()
+                .firstName("Bo").lastName("Batch")
+                .email("atmbatch2@test.com").password("pw")
+                .bsn("246813570").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        Account account = createAccounts(user, "SKIP").get(1);
+        AtmTransaction deposit = atmTransactionRepository.save(AtmTransaction.builder()
+                .account(account).initiatedBy(user)
+                .type(AtmTransactionType.DEPOSIT).amount(new BigDecimal("50.00")).status(Status.PENDING)
+                .build());
+
+        atmTransactionService.processTransaction(deposit);
+        List<AtmTransaction> processed = atmTransactionService.processBatch(List.of(deposit.getId()));
+
+        assertThat(processed).isEmpty();
+        assertThat(balance(account)).isEqualByComparingTo("350.00");
+    }
+}
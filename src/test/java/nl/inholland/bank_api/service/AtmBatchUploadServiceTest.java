@@ -0,0 +1,243 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.validation.ConstraintViolationException;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.AtmBatchUploadResponseDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.util.TerminalSignatureVerifier;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-upload-test",
+        "bank.atm.terminals.atm-0001.key=b2ZmbGluZS10ZXJtaW5hbC10ZXN0LWtleQ==",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AtmBatchUploadServiceTest {
+    private static final byte[] KEY = "offline-terminal-test-key".getBytes(StandardCharsets.US_ASCII);
+
+    @Autowired
+    private AtmBatchUploadService uploadService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private LimitAccountingService limitAccountingService;
+
+    private User createUser(String email, String bsn) {
+        return userRepository.save(User.builder()
+                .firstName("Otto").lastName("Offline")
+                .email(email).password("pw")
+                .bsn(bsn).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    private Account createAccount(User user, String iban) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal("100.00"))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("500.00"))
+                .dailyLimit(new BigDecimal("1000.00"))
+                .build());
+    }
+
+    private static String operation(long sequence, String iban, AtmTransactionType type, String amount) {
+        return String.format("{\"sequence\":%d,\"timestamp\":\"2025-05-24T10:%02d:00\",\"iban\":\"%s\",\"type\":\"%s\",\"amount\":%s}",
+                sequence, sequence % 60, iban, type, amount);
+    }
+
+    private static byte[] batch(String terminalId, String... operations) {
+        return ("{\"terminalId\":\"" + terminalId + "\",\"operations\":[" + String.join(",", operations) + "]}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sign(byte[] body) {
+        return Base64.getEncoder().encodeToString(TerminalSignatureVerifier.sign(KEY, body));
+    }
+
+    private AtmTransaction awaitProcessed(Long id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        AtmTransaction transaction = atmTransactionRepository.findById(id).orElseThrow();
+        while ((transaction.getStatus() == Status.PENDING || transaction.getStatus() == Status.PROCESSING)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            transaction = atmTransactionRepository.findById(id).orElseThrow();
+        }
+        return transaction;
+    }
+
+    @Test
+    void operationsAreStoredAndProcessedInSequenceOrder() throws Exception {
+        User user = createUser("offline@test.com", "864209753");
+        Account account = createAccount(user, "NL01OFFL0000000001");
+
+        // Sent out of order, stored in sequence order
+        byte[] body = batch("atm-0001",
+                operation(3, account.getIban(), AtmTransactionType.WITHDRAW, "150.00"),
+                operation(1, account.getIban(), AtmTransactionType.DEPOSIT, "100.00"),
+                operation(2, account.getIban(), AtmTransactionType.WITHDRAW, "20.00"));
+
+        AtmBatchUploadResponseDTO response = uploadService.upload(body, sign(body), user);
+
+        assertThat(response.terminalId()).isEqualTo("atm-0001");
+        assertThat(response.created()).isEqualTo(3);
+        assertThat(response.transactionIds()).containsOnlyKeys(1L, 2L, 3L);
+        List<Long> ids = new ArrayList<>(response.transactionIds().values());
+        assertThat(ids).isSorted();
+
+        for (Long id : ids) {
+            assertThat(awaitProcessed(id).getStatus()).isEqualTo(Status.SUCCEEDED);
+        }
+        AtmTransaction first = atmTransactionRepository.findById(ids.getFirst()).orElseThrow();
+        assertThat(first.getType()).isEqualTo(AtmTransactionType.DEPOSIT);
+        assertThat(first.getTerminalId()).isEqualTo("atm-0001");
+        assertThat(first.getTerminalSequence()).isEqualTo(1L);
+        assertThat(first.getClientTimestamp()).isEqualTo(LocalDateTime.of(2025, 5, 24, 10, 1));
+        assertThat(first.getInitiatedBy().getId()).isEqualTo(user.getId());
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance())
+                .isEqualByComparingTo("30.00");
+    }
+
+    @Test
+    void resentOperationsAreNotStoredAgain() {
+        User user = createUser("offline2@test.com", "864209754");
+        Account account = createAccount(user, "NL01OFFL0000000002");
+        byte[] body = batch("atm-0001",
+                operation(10, account.getIban(), AtmTransactionType.DEPOSIT, "5.00"),
+                operation(11, account.getIban(), AtmTransactionType.DEPOSIT, "6.00"));
+        AtmBatchUploadResponseDTO first = uploadService.upload(body, sign(body), user);
+
+        AtmBatchUploadResponseDTO resent = uploadService.upload(body, sign(body), user);
+        byte[] extended = batch("atm-0001",
+                operation(11, account.getIban(), AtmTransactionType.DEPOSIT, "6.00"),
+                operation(12, account.getIban(), AtmTransactionType.DEPOSIT, "7.00"));
+        AtmBatchUploadResponseDTO next = uploadService.upload(extended, sign(extended), user);
+
+        assertThat(resent.created()).isZero();
+        assertThat(resent.transactionIds()).isEqualTo(first.transactionIds());
+        assertThat(next.created()).isEqualTo(1);
+        assertThat(next.transactionIds().get(11L)).isEqualTo(first.transactionIds().get(11L));
+        assertThat(next.transactionIds().get(12L)).isGreaterThan(first.transactionIds().get(11L));
+        assertThat(atmTransactionRepository.findByAccountId(account.getId())).hasSize(3);
+    }
+
+    @Test
+    void uploadedWithdrawalsArePostedBeyondTheBalanceAndTheDailyLimit() throws Exception {
+        User user = createUser("offline7@test.com", "864209759");
+        Account account = createAccount(user, "NL01OFFL0000000007");
+
+        // The terminal already paid out 600.00 from a balance of 100.00 with a daily limit of 500.00
+        byte[] body = batch("atm-0001",
+                operation(50, account.getIban(), AtmTransactionType.WITHDRAW, "250.00"),
+                operation(51, account.getIban(), AtmTransactionType.WITHDRAW, "350.00"));
+        AtmBatchUploadResponseDTO response = uploadService.upload(body, sign(body), user);
+
+        for (Long id : response.transactionIds().values()) {
+            AtmTransaction transaction = awaitProcessed(id);
+            assertThat(transaction.getStatus()).isEqualTo(Status.SUCCEEDED);
+            assertThat(transaction.getFailureReason()).isNull();
+            assertThat(transaction.getHoldStatus()).isEqualTo(HoldStatus.CAPTURED);
+        }
+        Account posted = accountRepository.findById(account.getId()).orElseThrow();
+        assertThat(posted.getBalance()).isEqualByComparingTo("-500.00");
+        assertThat(posted.getHeldAmount()).isEqualByComparingTo("0");
+        assertThat(limitAccountingService.getUsedToday(account.getId(), LimitKind.ATM_WITHDRAWAL))
+                .isEqualByComparingTo("600.00");
+    }
+
+    @Test
+    void sequenceNumbersReusedForAnotherOperationAreRejected() {
+        User user = createUser("offline6@test.com", "864209758");
+        Account account = createAccount(user, "NL01OFFL0000000005");
+        Account other = createAccount(user, "NL01OFFL0000000006");
+        byte[] body = batch("atm-0001", operation(40, account.getIban(), AtmTransactionType.DEPOSIT, "5.00"));
+        uploadService.upload(body, sign(body), user);
+
+        for (String reused : List.of(
+                operation(40, account.getIban(), AtmTransactionType.WITHDRAW, "5.00"),
+                operation(40, other.getIban(), AtmTransactionType.DEPOSIT, "5.00"),
+                operation(40, account.getIban(), AtmTransactionType.DEPOSIT, "6.00"))) {
+            byte[] resent = batch("atm-0001", reused, operation(41, account.getIban(), AtmTransactionType.DEPOSIT, "7.00"));
+            assertThatThrownBy(() -> uploadService.upload(resent, sign(resent), user))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage(ErrorMessages.TERMINAL_SEQUENCE_REUSED);
+        }
+        assertThat(atmTransactionRepository.findByAccountId(account.getId())).hasSize(1);
+        assertThat(atmTransactionRepository.findByAccountId(other.getId())).isEmpty();
+    }
+
+    @Test
+    void unsignedOrForeignBatchesAreRejected() {
+        User user = createUser("offline3@test.com", "864209755");
+        User other = createUser("offline4@test.com", "864209756");
+        Account account = createAccount(user, "NL01OFFL0000000003");
+        byte[] body = batch("atm-0001", operation(20, account.getIban(), AtmTransactionType.DEPOSIT, "5.00"));
+        byte[] unknownTerminal = batch("atm-9999", operation(20, account.getIban(), AtmTransactionType.DEPOSIT, "5.00"));
+
+        assertThatThrownBy(() -> uploadService.upload(body, null, user))
+                .isInstanceOf(AccessDeniedException.class)
+                .hasMessage(ErrorMessages.INVALID_TERMINAL_SIGNATURE);
+        assertThatThrownBy(() -> uploadService.upload(body, sign(unknownTerminal), user))
+                .isInstanceOf(AccessDeniedException.class);
+        assertThatThrownBy(() -> uploadService.upload(unknownTerminal, sign(unknownTerminal), user))
+                .isInstanceOf(AccessDeniedException.class);
+        assertThatThrownBy(() -> uploadService.upload(body, sign(body), other))
+                .isInstanceOf(AccessDeniedException.class)
+                .hasMessage(ErrorMessages.ACCESS_DENIED);
+        assertThat(atmTransactionRepository.findByAccountId(account.getId())).isEmpty();
+    }
+
+    @Test
+    void invalidBatchesAreRejected() {
+        User user = createUser("offline5@test.com", "864209757");
+        Account account = createAccount(user, "NL01OFFL0000000004");
+        byte[] duplicate = batch("atm-0001",
+                operation(30, account.getIban(), AtmTransactionType.DEPOSIT, "5.00"),
+                operation(30, account.getIban(), AtmTransactionType.DEPOSIT, "6.00"));
+        byte[] malformed = "{\"terminalId\":".getBytes(StandardCharsets.UTF_8);
+
+        assertThatThrownBy(() -> uploadService.upload(duplicate, sign(duplicate), user))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage(ErrorMessages.TERMINAL_SEQUENCE_DUPLICATE);
+        assertThatThrownBy(() -> uploadService.upload(malformed, sign(malformed), user))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage(ErrorMessages.ATM_BATCH_MALFORMED);
+        assertThatThrownBy(() -> uploadService.upload(batch("atm-0001"), sign(batch("atm-0001")), user))
+                .isInstanceOf(ConstraintViolationException.class)
+                .hasMessageContaining(ErrorMessages.ATM_BATCH_EMPTY);
+        assertThat(atmTransactionRepository.findByAccountId(account.getId())).isEmpty();
+    }
+}
@@ -0,0 +1,166 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.BankApiApplication;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.h2.tools.Server;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Three application instances share one H2 server and sweep the same ATM backlog
+class AtmClaimServiceTest {
+    private static final int INSTANCES = 3;
+
+    private static Server server;
+    private static final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+
+    private static AccountRepository accountRepository;
+    private static AtmTransactionRepository atmTransactionRepository;
+    private static User user;
+
+    @BeforeAll
+    static void startInstances() throws Exception {
+        server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+        String url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:atm-claim-test;DB_CLOSE_DELAY=-1";
+        for (int i = 0; i < INSTANCES; i++) {
+            // Arguments instead of default properties, which application.properties would override
+            instances.add(new SpringApplicationBuilder(BankApiApplication.class)
+                    .profiles("test")
+                    .run(
+                            "--spring.datasource.url=" + url,
+                            "--server.port=0",
+                            "--bank.instance-id=instance-" + i,
+                            "--bank.atm.sweep-after=PT0S",
+                            "--bank.atm.claim.batch-size=10",
+                            "--bank.atm.claim.lease=PT2S",
+                            "--bank.scheduler.sweep-interval=PT0.1S"));
+        }
+
+        ConfigurableApplicationContext first = instances.get(0);
+        accountRepository = first.getBean(AccountRepository.class);
+        atmTransactionRepository = first.getBean(AtmTransactionRepository.class);
+        user = first.getBean(UserRepository.class).findByEmail("123@mail.com").orElseThrow();
+    }
+
+    @AfterAll
+    static void stopInstances() {
+        instances.forEach(ConfigurableApplicationContext::close);
+        server.stop();
+    }
+
+    private Account createAccount(String iban, String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("1000"))
+                .build());
+    }
+
+    private AtmTransaction.AtmTransactionBuilder transaction(Account account, AtmTransactionType type, String amount) {
+        return AtmTransaction.builder()
+                .account(account)
+                .initiatedBy(user)
+                .type(type)
+                .amount(new BigDecimal(amount))
+                .status(Status.PENDING);
+    }
+
+    private AtmTransaction awaitProcessed(Long id) throws InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            AtmTransaction transaction = atmTransactionRepository.findById(id).orElseThrow();
+            if (transaction.getStatus() == Status.SUCCEEDED || transaction.getStatus() == Status.FAILED) {
+                return transaction;
+            }
+            Thread.sleep(100);
+        }
+        return atmTransactionRepository.findById(id).orElseThrow();
+    }
+
+    @Test
+    void instancesShareTheBacklogWithoutProcessingATransactionTwice() throws Exception {
+        // Each account can pay exactly its withdrawals, a withdrawal processed twice would fail another one
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            accounts.add(createAccount(String.format("NL01CLAM%010d", i), "100.00"));
+        }
+        List<AtmTransaction> backlog = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (Account account : accounts) {
+                backlog.add(transaction(account, AtmTransactionType.WITHDRAW, "10.00").build());
+            }
+        }
+        atmTransactionRepository.saveAll(backlog);
+
+        List<AtmTransaction> processed = new ArrayList<>();
+        for (AtmTransaction transaction : backlog) {
+            processed.add(awaitProcessed(transaction.getId()));
+        }
+
+        assertThat(processed).allMatch(transaction -> transaction.getStatus() == Status.SUCCEEDED);
+        for (Account account : accounts) {
+            assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance())
+                    .isEqualByComparingTo("0");
+        }
+        Set<String> claimedBy = processed.stream().map(AtmTransaction::getClaimedBy).collect(Collectors.toSet());
+        assertThat(claimedBy).hasSizeGreaterThan(1);
+    }
+
+    @Test
+    void expiredLeaseIsClaimedByAnotherInstance() throws Exception {
+        Account account = createAccount("NL01CLAM0000000100", "0.00");
+        AtmTransaction abandoned = atmTransactionRepository.save(transaction(account, AtmTransactionType.DEPOSIT, "25.00")
+                .status(Status.PROCESSING)
+                .claimedBy("instance-stopped")
+                .leaseUntil(LocalDateTime.now().minusMinutes(1))
+                .build());
+
+        AtmTransaction processed = awaitProcessed(abandoned.getId());
+
+        assertThat(processed.getStatus()).isEqualTo(Status.SUCCEEDED);
+        assertThat(processed.getClaimedBy()).startsWith("instance-").isNotEqualTo("instance-stopped");
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance()).isEqualByComparingTo("25");
+    }
+
+    @Test
+    void activeLeaseIsLeftToItsInstance() throws Exception {
+        Account account = createAccount("NL01CLAM0000000101", "0.00");
+        AtmTransaction claimed = atmTransactionRepository.save(transaction(account, AtmTransactionType.DEPOSIT, "25.00")
+                .status(Status.PROCESSING)
+                .claimedBy("instance-busy")
+                .leaseUntil(LocalDateTime.now().plusHours(1))
+                .build());
+
+        // Several sweeps of every instance
+        Thread.sleep(1000);
+
+        AtmTransaction current = atmTransactionRepository.findById(claimed.getId()).orElseThrow();
+        assertThat(current.getStatus()).isEqualTo(Status.PROCESSING);
+        assertThat(current.getClaimedBy()).isEqualTo("instance-busy");
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance()).isEqualByComparingTo("0");
+    }
+}
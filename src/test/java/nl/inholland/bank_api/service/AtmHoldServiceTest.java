@@ -0,0 +1,228 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ConflictException;
+import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-hold-test",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AtmHoldServiceTest {
+    @Autowired
+    private AtmHoldService holdService;
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private BalanceStripingService stripingService;
+
+    @Autowired
+    private LimitAccountingService limitAccountingService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User createUser(String email, String bsn) {
+        return userRepository.save(User.builder()
+                .firstName("Hanna").lastName("Hold")
+                .email(email).password("pw")
+                .bsn(bsn).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    private Account createAccount(User user, String iban, String withdrawLimit) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal("100.00"))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal(withdrawLimit))
+                .dailyLimit(new BigDecimal("1000.00"))
+                .build());
+    }
+
+    private AtmTransaction authorize(Account account, User user, String amount) {
+        return holdService.authorize(AtmTransaction.builder()
+                .account(account)
+                .initiatedBy(user)
+                .type(AtmTransactionType.WITHDRAW)
+                .amount(new BigDecimal(amount))
+                .timestamp(LocalDateTime.now())
+                .status(Status.PENDING)
+                .build());
+    }
+
+    private Account reload(Account account) {
+        return accountRepository.findById(account.getId()).orElseThrow();
+    }
+
+    private BigDecimal usedToday(Account account) {
+        return limitAccountingService.getUsedToday(account.getId(), LimitKind.ATM_WITHDRAWAL);
+    }
+
+    @Test
+    void approvedWithdrawalsHoldTheAmountUntilTheyArePosted() {
+        User user = createUser("hold@test.com", "864209758");
+        Account account = createAccount(user, "NL01HOLD0000000001", "500.00");
+
+        AtmTransaction approved = authorize(account, user, "80.00");
+        AtmTransaction declined = authorize(account, user, "30.00");
+
+        assertThat(approved.getStatus()).isEqualTo(Status.PENDING);
+        assertThat(approved.getHoldStatus()).isEqualTo(HoldStatus.OPEN);
+        assertThat(declined.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(declined.getFailureReason()).isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE);
+        assertThat(declined.getHoldStatus()).isNull();
+
+        // The balance is untouched, but debits only see what is not held
+        assertThat(reload(account).getBalance()).isEqualByComparingTo("100.00");
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("80.00");
+        assertThat(stripingService.debit(reload(account), new BigDecimal("30.00"))).isFalse();
+        assertThat(usedToday(account)).isEqualByComparingTo("80.00");
+    }
+
+    @Test
+    void withdrawalsOverTheDailyLimitAreDeclinedWithoutAHold() {
+        User user = createUser("hold2@test.com", "864209759");
+        Account account = createAccount(user, "NL01HOLD0000000002", "50.00");
+        Account striped = createAccount(user, "NL01HOLD0000000003", "500.00");
+        stripingService.setStripes(striped.getIban(), 4);
+        stripingService.credit(reload(striped), new BigDecimal("20.00"));
+
+        assertThat(authorize(account, user, "40.00").getStatus()).isEqualTo(Status.PENDING);
+        AtmTransaction declined = authorize(account, user, "20.00");
+        // The credit is still in a stripe, it counts towards what may be held
+        assertThat(authorize(reload(striped), user, "110.00").getStatus()).isEqualTo(Status.PENDING);
+        assertThat(authorize(reload(striped), user, "20.00").getStatus()).isEqualTo(Status.FAILED);
+
+        assertThat(declined.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(declined.getFailureReason()).isEqualTo(ErrorMessages.DAILY_WITHDRAWAL_LIMIT_EXCEEDED);
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("40.00");
+        assertThat(usedToday(account)).isEqualByComparingTo("40.00");
+        assertThat(reload(striped).getHeldAmount()).isEqualByComparingTo("110.00");
+    }
+
+    @Test
+    void releasedHoldsCancelTheWithdrawal() {
+        User user = createUser("hold3@test.com", "864209760");
+        Account account = createAccount(user, "NL01HOLD0000000004", "500.00");
+        AtmTransaction approved = authorize(account, user, "80.00");
+
+        AtmTransaction released = holdService.release(approved.getId());
+
+        assertThat(released.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(released.getFailureReason()).isEqualTo(ErrorMessages.WITHDRAWAL_CANCELLED);
+        AtmTransaction stored = atmTransactionRepository.findById(approved.getId()).orElseThrow();
+        assertThat(stored.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(stored.getHoldStatus()).isEqualTo(HoldStatus.RELEASED);
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("0.00");
+        assertThat(reload(account).getBalance()).isEqualByComparingTo("100.00");
+        assertThat(usedToday(account)).isEqualByComparingTo("0.00");
+
+        // Only once, and not after the withdrawal was posted
+        assertThat(holdService.release(approved.getId())).isNull();
+        AtmTransaction posted = authorize(account, user, "30.00");
+        atmTransactionService.processTransaction(atmTransactionRepository.findById(posted.getId()).orElseThrow());
+        assertThat(holdService.release(posted.getId())).isNull();
+        assertThat(reload(account).getBalance()).isEqualByComparingTo("70.00");
+    }
+
+    @Test
+    void approvedWithdrawalsAreCapturedHoweverLateTheyArePosted() {
+        User user = createUser("hold4@test.com", "864209761");
+        Account account = createAccount(user, "NL01HOLD0000000005", "500.00");
+        AtmTransaction approved = authorize(account, user, "80.00");
+        approved.setTimestamp(LocalDateTime.now().minusDays(2));
+        atmTransactionRepository.save(approved);
+
+        // The cash may be out, so a lower limit or balance since the approval must not decline it
+        Account changed = reload(account);
+        changed.setWithdrawLimit(new BigDecimal("10.00"));
+        accountRepository.save(changed);
+        stripingService.debit(reload(account), new BigDecimal("20.00"));
+
+        atmTransactionService.processTransaction(atmTransactionRepository.findById(approved.getId()).orElseThrow());
+
+        AtmTransaction posted = atmTransactionRepository.findById(approved.getId()).orElseThrow();
+        assertThat(posted.getStatus()).isEqualTo(Status.SUCCEEDED);
+        assertThat(posted.getHoldStatus()).isEqualTo(HoldStatus.CAPTURED);
+        assertThat(reload(account).getBalance()).isEqualByComparingTo("0.00");
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void terminalsOnlyReleaseTheWithdrawalsTheyCreated() {
+        User user = createUser("hold6@test.com", "864209763");
+        Account account = createAccount(user, "NL01HOLD0000000007", "500.00");
+        AtmTransaction approved = authorize(account, user, "80.00");
+        approved.setTerminalId("atm-hold");
+        approved.setTerminalSequence(1L);
+        atmTransactionRepository.save(approved);
+
+        assertThatThrownBy(() -> atmTransactionService.releaseHoldForTerminal(approved.getId(), "atm-other"))
+                .isInstanceOf(AccessDeniedException.class);
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("80.00");
+
+        AtmTransactionDTO released = atmTransactionService.releaseHoldForTerminal(approved.getId(), "atm-hold");
+
+        assertThat(released.status()).isEqualTo(Status.FAILED.name());
+        assertThat(released.failureReason()).isEqualTo(ErrorMessages.WITHDRAWAL_CANCELLED);
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("0.00");
+        assertThatThrownBy(() -> atmTransactionService.releaseHoldForTerminal(approved.getId(), "atm-hold"))
+                .isInstanceOf(ConflictException.class);
+    }
+
+    @Test
+    void postingCapturesTheHold() {
+        User user = createUser("hold5@test.com", "864209762");
+        Account account = createAccount(user, "NL01HOLD0000000006", "500.00");
+        AtmTransaction first = authorize(account, user, "60.00");
+        AtmTransaction second = authorize(account, user, "30.00");
+
+        atmTransactionService.processTransaction(atmTransactionRepository.findById(first.getId()).orElseThrow());
+        atmTransactionService.processBatch(List.of(second.getId()));
+
+        for (Long id : List.of(first.getId(), second.getId())) {
+            AtmTransaction posted = atmTransactionRepository.findById(id).orElseThrow();
+            assertThat(posted.getStatus()).isEqualTo(Status.SUCCEEDED);
+            assertThat(posted.getHoldStatus()).isEqualTo(HoldStatus.CAPTURED);
+        }
+        assertThat(reload(account).getBalance()).isEqualByComparingTo("10.00");
+        assertThat(reload(account).getHeldAmount()).isEqualByComparingTo("0.00");
+        // Counted when the holds were placed, not again when they were posted
+        assertThat(usedToday(account)).isEqualByComparingTo("90.00");
+    }
+}
@@ -0,0 +1,133 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionBatchRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Counts the SQL statements of the pending ATM scan, which must not grow with the number of claimed rows
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-scan-test",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "bank.atm.queue.enabled=false",
+        "bank.atm.admission.enabled=false",
+        "bank.atm.claim.batch-size=1000",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AtmPendingScanStatementCountTest {
+    private static final int USERS = 5;
+    private static final int ACCOUNTS = 20;
+    private static final int TRANSACTIONS = 1000;
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionBatchRepository atmTransactionBatchRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private void createPending() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(userRepository.save(User.builder()
+                    .firstName("Sam").lastName("Scan")
+                    .email("scan" + i + "@test.com").password("pw")
+                    .bsn(String.valueOf(864209763 + i)).phoneNumber("+1111111111")
+                    .isApproved(UserAccountStatus.APPROVED)
+                    .role(UserRole.CUSTOMER)
+                    .build()));
+        }
+
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(accountRepository.save(Account.builder()
+                    .user(users.get(i % USERS))
+                    .status(AccountStatus.ACTIVE)
+                    .iban(String.format("NL01SCAN%010d", i))
+                    .type(AccountType.CHECKING)
+                    .balance(BigDecimal.ZERO)
+                    .absoluteLimit(BigDecimal.ZERO)
+                    .withdrawLimit(new BigDecimal("500.00"))
+                    .dailyLimit(new BigDecimal("1000.00"))
+                    .build()));
+        }
+
+        // Deposits, so the batch below does not record any daily usage
+        LocalDateTime timestamp = LocalDateTime.now().minusMinutes(1);
+        List<AtmTransaction> pending = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            pending.add(AtmTransaction.builder()
+                    .account(accounts.get(i % ACCOUNTS))
+                    .initiatedBy(users.get(i % USERS))
+                    .type(AtmTransactionType.DEPOSIT)
+                    .amount(BigDecimal.ONE)
+                    .timestamp(timestamp)
+                    .status(Status.PENDING)
+                    .terminalId("atm-scan")
+                    .terminalSequence((long) i)
+                    .clientTimestamp(timestamp)
+                    .build());
+        }
+        atmTransactionBatchRepository.insertTransactions(pending);
+    }
+
+    @Test
+    void pendingScanUsesTheSameStatementsForAThousandRows() {
+        createPending();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        // Select the ids, claim them and read back what was claimed
+        statistics.clear();
+        List<Long> ids = atmTransactionService.claimPendingTransactions().stream()
+                .map(AtmTransactionRepository.PendingAtmTransaction::getId)
+                .toList();
+        assertThat(ids).hasSize(TRANSACTIONS);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+
+        // One statement with the accounts; reading the account and the initiating user's id loads nothing else
+        statistics.clear();
+        List<AtmTransaction> loaded = atmTransactionService.loadForProcessing(ids);
+        loaded.forEach(transaction -> {
+            assertThat(transaction.getAccount().getIban()).startsWith("NL01SCAN");
+            assertThat(transaction.getInitiatedBy().getId()).isNotNull();
+        });
+        assertThat(loaded).hasSize(TRANSACTIONS);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(TRANSACTIONS + ACCOUNTS);
+
+        // The account ids, the locked accounts, the locked transactions and the daily totals; the writes are JDBC batches
+        statistics.clear();
+        assertThat(atmTransactionService.processBatch(ids)).hasSize(TRANSACTIONS);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(4);
+        assertThat(accountRepository.findByIbanIn(List.of("NL01SCAN0000000000")).getFirst().getBalance())
+                .isEqualByComparingTo("50.00");
+    }
+}
@@ -0,0 +1,99 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-queue-overflow-test",
+        "bank.atm.queue.workers=1",
+        "bank.atm.queue.capacity=1",
+        "bank.atm.sweep-after=PT0S",
+        "bank.scheduler.sweep-interval=PT1H",
+        "bank.atm.holds.enabled=false"
+})
+@ActiveProfiles("test")
+class AtmProcessingQueueOverflowTest {
+    @Autowired
+    private AtmProcessingQueue queue;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    private Status awaitProcessed(Long id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Status status = atmTransactionRepository.findById(id).orElseThrow().getStatus();
+            if (status != Status.PENDING && status != Status.PROCESSING) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+        return Status.PENDING;
+    }
+
+    @Test
+    void transactionsSkippedOnAFullQueueAreNotOvertaken() throws Exception {
+        User user = userRepository.save(User.builder()
+                .firstName("Olive").lastName("Overflow")
+                .email("atmoverflow@test.com").password("pw")
+                .bsn("555555555").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        Account account = accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban("NL01INHO0000000701")
+                .type(AccountType.CHECKING)
+                .balance(BigDecimal.ZERO)
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("1000"))
+                .build());
+
+        // Every withdrawal only succeeds after the deposit before it
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            for (AtmTransactionType type : List.of(AtmTransactionType.DEPOSIT, AtmTransactionType.WITHDRAW)) {
+                ids.add(atmTransactionRepository.save(AtmTransaction.builder()
+                        .account(account)
+                        .initiatedBy(user)
+                        .type(type)
+                        .amount(new BigDecimal("50.00"))
+                        .status(Status.PENDING)
+                        .build()).getId());
+            }
+        }
+
+        // Submitted faster than the single worker takes them off its queue of one
+        for (Long id : ids) {
+            queue.submitAfterCommit(id, account.getId());
+        }
+        assertThat(queue.sweepPending()).isGreaterThanOrEqualTo(1);
+
+        for (Long id : ids) {
+            assertThat(awaitProcessed(id)).isEqualTo(Status.SUCCEEDED);
+        }
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance()).isEqualByComparingTo("0");
+    }
+}
@@ -0,0 +1,139 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-queue-test",
+        "bank.atm.queue.workers=2",
+        "bank.atm.sweep-after=PT0S",
+        "bank.scheduler.sweep-interval=PT1H",
+        "bank.atm.holds.enabled=false"
+})
+@ActiveProfiles("test")
+class AtmProcessingQueueTest {
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private AtmProcessingQueue queue;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.findByEmail("atmqueue@test.com").orElseGet(() -> userRepository.save(User.builder()
+                .firstName("Quinn").lastName("Queue")
+                .email("atmqueue@test.com").password("pw")
+                .bsn("444444444").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build()));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user.getEmail(), null, List.of()));
+    }
+
+    private Account createAccount(String iban, String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("1000"))
+                .build());
+    }
+
+    private Long withdraw(Account account, String amount) {
+        AtmTransactionRequestDTO dto = new AtmTransactionRequestDTO();
+        dto.iban = account.getIban();
+        dto.type = AtmTransactionType.WITHDRAW;
+        dto.amount = new BigDecimal(amount);
+        return atmTransactionService.createTransaction(dto, account, user).id();
+    }
+
+    private Status awaitProcessed(Long id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Status status = atmTransactionRepository.findById(id).orElseThrow().getStatus();
+            if (status != Status.PENDING && status != Status.PROCESSING) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+        return Status.PENDING;
+    }
+
+    @Test
+    void transactionsOfOneAccountAreProcessedInOrder() throws Exception {
+        // Consecutive ids land on different workers, so the two accounts are processed in parallel
+        Account first = createAccount("NL01INHO0000000601", "100.00");
+        Account second = createAccount("NL01INHO0000000602", "100.00");
+
+        List<Long> firstIds = new ArrayList<>();
+        List<Long> secondIds = new ArrayList<>();
+        for (String amount : List.of("60.00", "30.00", "20.00")) {
+            firstIds.add(withdraw(first, amount));
+            secondIds.add(withdraw(second, amount));
+        }
+
+        // The third withdrawal fails on both accounts because the first two were processed before it
+        for (List<Long> ids : List.of(firstIds, secondIds)) {
+            assertThat(awaitProcessed(ids.get(0))).isEqualTo(Status.SUCCEEDED);
+            assertThat(awaitProcessed(ids.get(1))).isEqualTo(Status.SUCCEEDED);
+            assertThat(awaitProcessed(ids.get(2))).isEqualTo(Status.FAILED);
+            assertThat(atmTransactionRepository.findById(ids.get(2)).orElseThrow().getFailureReason())
+                    .isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE);
+        }
+        assertThat(accountRepository.findById(first.getId()).orElseThrow().getBalance()).isEqualByComparingTo("10");
+        assertThat(accountRepository.findById(second.getId()).orElseThrow().getBalance()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    void sweepRecoversTransactionsThatWereNeverQueued() throws Exception {
+        Account account = createAccount("NL01INHO0000000603", "0.00");
+        AtmTransaction orphan = atmTransactionRepository.save(AtmTransaction.builder()
+                .account(account)
+                .initiatedBy(user)
+                .type(AtmTransactionType.DEPOSIT)
+                .amount(new BigDecimal("25.00"))
+                .status(Status.PENDING)
+                .build());
+
+        Thread.sleep(10);
+        assertThat(queue.sweepPending()).isGreaterThanOrEqualTo(1);
+
+        assertThat(awaitProcessed(orphan.getId())).isEqualTo(Status.SUCCEEDED);
+        assertThat(accountRepository.findById(account.getId()).orElseThrow().getBalance()).isEqualByComparingTo("25");
+    }
+}
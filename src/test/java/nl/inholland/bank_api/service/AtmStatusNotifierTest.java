@@ -0,0 +1,214 @@
+package nl.inholland.bank_api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import nl.inholland.bank_api.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Far more open streams than request threads: the streams must not hold a thread while they wait
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:atm-events-test",
+        "server.tomcat.threads.max=10",
+        "bank.atm.queue.enabled=false",
+        "bank.scheduler.sweep-interval=PT1H"
+})
+@ActiveProfiles("test")
+class AtmStatusNotifierTest {
+    private static final int TRANSACTIONS = 20;
+    private static final int SUBSCRIBERS_PER_TRANSACTION = 25;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private AtmTransactionService atmTransactionService;
+
+    @Autowired
+    private AtmStatusNotifier statusNotifier;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    private User createUser(String email, String bsn) {
+        return userRepository.save(User.builder()
+                .firstName("Eve").lastName("Events")
+                .email(email).password("pw")
+                .bsn(bsn).phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+    }
+
+    private Account createAccount(User user, String iban) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal("100.00"))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("500.00"))
+                .dailyLimit(new BigDecimal("1000.00"))
+                .build());
+    }
+
+    private AtmTransaction createPending(Account account, User user, AtmTransactionType type, String amount) {
+        return atmTransactionRepository.save(AtmTransaction.builder()
+                .account(account).initiatedBy(user)
+                .type(type).amount(new BigDecimal(amount)).status(Status.PENDING)
+                .build());
+    }
+
+    private String token(User user) {
+        return jwtUtil.generateToken(user.getEmail(), user.getRole(), user.getId());
+    }
+
+    private CompletableFuture<HttpResponse<String>> subscribe(Long transactionId, String token) {
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + port + "/atm/transactions/" + transactionId + "/events"))
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "text/event-stream")
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private AtmTransactionDTO statusEvent(HttpResponse<String> response) throws Exception {
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).contains("event:" + AtmStatusNotifier.STATUS_EVENT);
+        String data = response.body().lines()
+                .filter(line -> line.startsWith("data:"))
+                .findFirst()
+                .orElseThrow()
+                .substring("data:".length());
+        return objectMapper.readValue(data, AtmTransactionDTO.class);
+    }
+
+    @Test
+    void everySubscriberReceivesTheFinalStatusOnceProcessed() throws Exception {
+        User user = createUser("events@test.com", "135792468");
+        Account account = createAccount(user, "NL01EVNT0000000001");
+
+        // The first one is a withdrawal that fails, the rest are deposits
+        List<AtmTransaction> transactions = new ArrayList<>();
+        transactions.add(createPending(account, user, AtmTransactionType.WITHDRAW, "1000.00"));
+        for (int i = 1; i < TRANSACTIONS; i++) {
+            transactions.add(createPending(account, user, AtmTransactionType.DEPOSIT, "10.00"));
+        }
+
+        String token = token(user);
+        List<CompletableFuture<HttpResponse<String>>> streams = new ArrayList<>();
+        for (AtmTransaction transaction : transactions) {
+            for (int i = 0; i < SUBSCRIBERS_PER_TRANSACTION; i++) {
+                streams.add(subscribe(transaction.getId(), token));
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (statusNotifier.getSubscriberCount() < streams.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(statusNotifier.getSubscriberCount()).isEqualTo(streams.size());
+        assertThat(streams).noneMatch(CompletableFuture::isDone);
+
+        // Half one by one, half as a batch, both paths must notify
+        for (AtmTransaction transaction : transactions.subList(0, TRANSACTIONS / 2)) {
+            atmTransactionService.processTransaction(transaction);
+        }
+        atmTransactionService.processBatch(transactions.subList(TRANSACTIONS / 2, TRANSACTIONS).stream()
+                .map(AtmTransaction::getId)
+                .toList());
+
+        CompletableFuture.allOf(streams.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        for (int i = 0; i < streams.size(); i++) {
+            AtmTransaction transaction = transactions.get(i / SUBSCRIBERS_PER_TRANSACTION);
+            AtmTransactionDTO event = statusEvent(streams.get(i).get());
+            assertThat(event.id()).isEqualTo(transaction.getId());
+            if (transaction.getType() == AtmTransactionType.WITHDRAW) {
+                assertThat(event.status()).isEqualTo(Status.FAILED.name());
+                assertThat(event.failureReason()).isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE);
+            } else {
+                assertThat(event.status()).isEqualTo(Status.SUCCEEDED.name());
+                assertThat(event.failureReason()).isNull();
+            }
+        }
+        assertThat(statusNotifier.getSubscriberCount()).isZero();
+    }
+
+    @Test
+    void subscribingToAProcessedTransactionSendsItsStatusRightAway() throws Exception {
+        User user = createUser("events2@test.com", "135792469");
+        Account account = createAccount(user, "NL01EVNT0000000002");
+        AtmTransaction transaction = createPending(account, user, AtmTransactionType.DEPOSIT, "25.00");
+        atmTransactionService.processTransaction(transaction);
+
+        AtmTransactionDTO event = statusEvent(subscribe(transaction.getId(), token(user)).get(30, TimeUnit.SECONDS));
+
+        assertThat(event.status()).isEqualTo(Status.SUCCEEDED.name());
+        assertThat(event.amount()).isEqualByComparingTo("25.00");
+    }
+
+    @Test
+    void otherUsersCannotSubscribe() throws Exception {
+        User owner = createUser("events3@test.com", "135792470");
+        User other = createUser("events4@test.com", "135792471");
+        AtmTransaction transaction = createPending(
+                createAccount(owner, "NL01EVNT0000000003"), owner, AtmTransactionType.DEPOSIT, "25.00");
+
+        HttpResponse<String> response = subscribe(transaction.getId(), token(other)).get(30, TimeUnit.SECONDS);
+
+        assertThat(response.statusCode()).isEqualTo(403);
+        assertThat(statusNotifier.getSubscriberCount()).isZero();
+    }
+}
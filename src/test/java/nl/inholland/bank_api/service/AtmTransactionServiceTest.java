@@ -2,6 +2,8 @@ package nl.inholland.bank_api.service;
 
 import jakarta.persistence.EntityNotFoundException;
 import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ConflictException;
+import nl.inholland.bank_api.exception.TooManyRequestsException;
 import nl.inholland.bank_api.mapper.AtmTransactionMapper;
 import nl.inholland.bank_api.model.dto.AtmTransactionDTO;
 import nl.inholland.bank_api.model.dto.AtmTransactionRequestDTO;
@@ -9,18 +11,24 @@ import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.AtmTransaction;
 import nl.inholland.bank_api.model.entities.User;
 import nl.inholland.bank_api.model.enums.AtmTransactionType;
+import nl.inholland.bank_api.model.enums.HoldStatus;
+import nl.inholland.bank_api.model.enums.LimitKind;
 import nl.inholland.bank_api.model.enums.Status;
 import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionBatchRepository;
 import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.BalanceStripeRepository;
+import nl.inholland.bank_api.repository.TransferBatchRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Import;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
-import java.time.LocalDate;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -28,10 +36,11 @@ import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
-@Import(AtmTransactionService.class)
+@Import({AtmTransactionService.class, BalanceStripingService.class})
 class AtmTransactionServiceTest {
     @Autowired
     private AtmTransactionService service;
@@ -42,9 +51,42 @@ class AtmTransactionServiceTest {
     @MockitoBean
     private AccountRepository accountRepository;
 
+    @MockitoBean
+    private BalanceStripeRepository stripeRepository;
+
+    @MockitoBean
+    private PlatformTransactionManager transactionManager;
+
     @MockitoBean
     private AtmTransactionMapper mapper;
 
+    @MockitoBean
+    private LimitAccountingService limitAccountingService;
+
+    @MockitoBean
+    private LedgerService ledgerService;
+
+    @MockitoBean
+    private AccountActivityService accountActivityService;
+
+    @MockitoBean
+    private AtmClaimService claimService;
+
+    @MockitoBean
+    private AtmStatusNotifier statusNotifier;
+
+    @MockitoBean
+    private AtmAdmissionService admissionService;
+
+    @MockitoBean
+    private AtmHoldService holdService;
+
+    @MockitoBean
+    private AtmTransactionBatchRepository atmTransactionBatchRepository;
+
+    @MockitoBean
+    private TransferBatchRepository transferBatchRepository;
+
     private AtmTransactionRequestDTO getValidAtmTransactionRequest() {
         AtmTransactionRequestDTO dto = new AtmTransactionRequestDTO();
         dto.amount = BigDecimal.TEN;
@@ -65,10 +107,12 @@ class AtmTransactionServiceTest {
 
     private AtmTransaction createTransaction(Account account, AtmTransactionType type, BigDecimal amount) {
         AtmTransaction transaction = new AtmTransaction();
+        transaction.setId(7L);
         transaction.setAccount(account);
         transaction.setType(type);
         transaction.setAmount(amount);
         transaction.setStatus(Status.PENDING);
+        when(transactionRepository.findByIdForUpdate(7L)).thenReturn(Optional.of(transaction));
         return transaction;
     }
 
@@ -91,6 +135,17 @@ class AtmTransactionServiceTest {
         verify(transactionRepository).save(entity);
     }
 
+    @Test
+    void createTransactionIsNotSavedWhenAdmissionRejectsIt() {
+        AtmTransactionRequestDTO request = getValidAtmTransactionRequest();
+        Account account = createAccount(BigDecimal.ZERO);
+        doThrow(new TooManyRequestsException(ErrorMessages.ATM_ACCOUNT_BACKLOG_FULL, Duration.ofSeconds(5)))
+                .when(admissionService).admit(account.getId());
+
+        assertThrows(TooManyRequestsException.class, () -> service.createTransaction(request, account, new User()));
+        verify(transactionRepository, never()).save(any());
+    }
+
     @Test
     void getTransactionReturnsCorrectDto() {
         Account account = createAccount(BigDecimal.ZERO);
@@ -154,14 +209,15 @@ class AtmTransactionServiceTest {
         // Mock repository behaviour
         when(transactionRepository.findByStatus(Status.PENDING)).thenReturn(List.of(transaction));
         when(transactionRepository.save(any(AtmTransaction.class))).thenReturn(transaction);
+        when(accountRepository.increaseBalance(1L, new BigDecimal("50.00"))).thenReturn(1);
 
         service.processTransaction(transaction);
 
-        // Verify the account balance and transaction status
-        assertEquals(new BigDecimal("150.00"), account.getBalance());
+        // Verify the balance update and transaction status
         assertEquals(Status.SUCCEEDED, transaction.getStatus());
         assertNull(transaction.getFailureReason());
-        verify(accountRepository).save(account);
+        verify(accountRepository).increaseBalance(1L, new BigDecimal("50.00"));
+        verify(accountRepository, never()).save(any());
         verify(transactionRepository).save(transaction);
     }
 
@@ -172,16 +228,18 @@ class AtmTransactionServiceTest {
 
         // Mock repository behaviour
         when(transactionRepository.findByStatus(Status.PENDING)).thenReturn(List.of(transaction));
-        when(transactionRepository.sumTodayWithdrawalsByAccount(anyLong(), any(LocalDate.class))).thenReturn(new BigDecimal("100.00"));
+        when(limitAccountingService.getUsedToday(anyLong(), eq(LimitKind.ATM_WITHDRAWAL))).thenReturn(new BigDecimal("100.00"));
         when(transactionRepository.save(any(AtmTransaction.class))).thenReturn(transaction);
+        when(accountRepository.decreaseBalance(1L, new BigDecimal("100.00"))).thenReturn(1);
 
         service.processTransaction(transaction);
 
-        // Verify the account balance and transaction status
-        assertEquals(new BigDecimal("100.00"), account.getBalance());
+        // Verify the balance update and transaction status
         assertEquals(Status.SUCCEEDED, transaction.getStatus());
         assertNull(transaction.getFailureReason());
-        verify(accountRepository).save(account);
+        verify(accountRepository).decreaseBalance(1L, new BigDecimal("100.00"));
+        verify(limitAccountingService).recordUsage(1L, LimitKind.ATM_WITHDRAWAL, new BigDecimal("100.00"));
+        verify(accountRepository, never()).save(any());
         verify(transactionRepository).save(transaction);
     }
 
@@ -212,7 +270,7 @@ class AtmTransactionServiceTest {
 
         // Mock repository behaviour
         when(transactionRepository.findByStatus(Status.PENDING)).thenReturn(List.of(transaction));
-        when(transactionRepository.sumTodayWithdrawalsByAccount(anyLong(), any(LocalDate.class))).thenReturn(new BigDecimal("400.00"));
+        when(limitAccountingService.getUsedToday(anyLong(), eq(LimitKind.ATM_WITHDRAWAL))).thenReturn(new BigDecimal("400.00"));
         when(transactionRepository.save(any(AtmTransaction.class))).thenReturn(transaction);
 
         service.processTransaction(transaction);
@@ -224,4 +282,111 @@ class AtmTransactionServiceTest {
         verify(accountRepository, never()).save(any());
         verify(transactionRepository).save(transaction);
     }
-}
\ No newline at end of file
+
+    @Test
+    void processTransactionFailsWhenGuardedDebitIsRejected() {
+        Account account = createAccount(new BigDecimal("200.00"));
+        AtmTransaction transaction = createTransaction(account, AtmTransactionType.WITHDRAW, new BigDecimal("100.00"));
+
+        // The balance was drained by a concurrent operation after the transaction was loaded
+        when(limitAccountingService.getUsedToday(anyLong(), eq(LimitKind.ATM_WITHDRAWAL))).thenReturn(BigDecimal.ZERO);
+        when(accountRepository.decreaseBalance(1L, new BigDecimal("100.00"))).thenReturn(0);
+
+        service.processTransaction(transaction);
+
+        assertEquals(Status.FAILED, transaction.getStatus());
+        assertEquals(ErrorMessages.INSUFFICIENT_BALANCE, transaction.getFailureReason());
+        verify(limitAccountingService, never()).recordUsage(any(), any(), any());
+        verify(transactionRepository).save(transaction);
+    }
+
+    @Test
+    void processTransactionSkipsTransactionsThatAreNoLongerPending() {
+        Account account = createAccount(new BigDecimal("200.00"));
+        AtmTransaction loaded = createTransaction(account, AtmTransactionType.WITHDRAW, new BigDecimal("100.00"));
+
+        // An overlapping run processed the transaction after this one loaded it
+        AtmTransaction current = createTransaction(account, AtmTransactionType.WITHDRAW, new BigDecimal("100.00"));
+        current.setStatus(Status.SUCCEEDED);
+
+        service.processTransaction(loaded);
+
+        verify(accountRepository).findByIdForUpdate(1L);
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void processTransactionProcessesTransactionsClaimedByThisInstance() {
+        Account account = createAccount(new BigDecimal("100.00"));
+        AtmTransaction transaction = createTransaction(account, AtmTransactionType.DEPOSIT, new BigDecimal("50.00"));
+        transaction.setStatus(Status.PROCESSING);
+        when(claimService.isClaimedByThisInstance(transaction)).thenReturn(true);
+
+        service.processTransaction(transaction);
+
+        assertEquals(Status.SUCCEEDED, transaction.getStatus());
+        verify(accountRepository).increaseBalance(1L, new BigDecimal("50.00"));
+        verify(transactionRepository).save(transaction);
+    }
+
+    @Test
+    void processTransactionSkipsTransactionsClaimedByAnotherInstance() {
+        Account account = createAccount(new BigDecimal("100.00"));
+        AtmTransaction transaction = createTransaction(account, AtmTransactionType.DEPOSIT, new BigDecimal("50.00"));
+        transaction.setStatus(Status.PROCESSING);
+        when(claimService.isClaimedByThisInstance(transaction)).thenReturn(false);
+
+        service.processTransaction(transaction);
+
+        assertEquals(Status.PROCESSING, transaction.getStatus());
+        verify(accountRepository, never()).increaseBalance(any(), any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void createTransactionReleasesAdmissionWhenTheWithdrawalIsDeclined() {
+        AtmTransactionRequestDTO request = getValidAtmTransactionRequest();
+        request.type = AtmTransactionType.WITHDRAW;
+        Account account = createAccount(BigDecimal.ZERO);
+        AtmTransaction entity = createTransaction(account, AtmTransactionType.WITHDRAW, BigDecimal.TEN);
+        AtmTransaction declined = createTransaction(account, AtmTransactionType.WITHDRAW, BigDecimal.TEN);
+        declined.setStatus(Status.FAILED);
+        declined.setFailureReason(ErrorMessages.INSUFFICIENT_BALANCE);
+        when(mapper.toEntity(any(), any(), any())).thenReturn(entity);
+        when(holdService.authorize(entity)).thenReturn(declined);
+
+        service.createTransaction(request, account, new User());
+
+        verify(holdService).authorize(entity);
+        verify(transactionRepository, never()).save(any());
+        verify(admissionService).release(account.getId());
+    }
+
+    @Test
+    void processTransactionCapturesTheHoldOfAnApprovedWithdrawal() {
+        Account account = createAccount(new BigDecimal("100.00"));
+        AtmTransaction transaction = createTransaction(account, AtmTransactionType.WITHDRAW, new BigDecimal("100.00"));
+        transaction.setHoldStatus(HoldStatus.OPEN);
+        when(accountRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(account));
+
+        service.processTransaction(transaction);
+
+        assertEquals(Status.SUCCEEDED, transaction.getStatus());
+        assertEquals(HoldStatus.CAPTURED, transaction.getHoldStatus());
+        verify(accountRepository).captureHeldAmount(1L, new BigDecimal("100.00"));
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+        // Checked and counted when the hold was placed
+        verify(limitAccountingService, never()).recordUsage(anyLong(), any(), any());
+    }
+
+    @Test
+    void releaseHoldConflictsWhenTheHoldIsNotOpen() {
+        when(transactionRepository.existsById(7L)).thenReturn(true);
+        when(holdService.release(7L)).thenReturn(null);
+
+        ConflictException exception = assertThrows(ConflictException.class, () -> service.releaseHold(7L));
+        assertEquals(ErrorMessages.HOLD_NOT_OPEN, exception.getMessage());
+        verify(statusNotifier, never()).publishAfterCommit(any());
+    }
+}
@@ -0,0 +1,210 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.BalanceStripe;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.BalanceStripeRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:striping-test")
+@ActiveProfiles("test")
+class BalanceStripingServiceTest {
+    @Autowired
+    private BalanceStripingService stripingService;
+
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private BalanceStripeRepository stripeRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.findByEmail("stripes@test.com").orElseGet(() -> userRepository.save(User.builder()
+                .firstName("Stella").lastName("Stripe")
+                .email("stripes@test.com").password("pw")
+                .bsn("999999999").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build()));
+    }
+
+    private Account createAccount(String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban("NL01INHO" + String.format("%010d", System.nanoTime() % 10_000_000_000L))
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("100000"))
+                .build());
+    }
+
+    private Long transfer(Account source, Account target, String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(source.getIban());
+        dto.setTargetAccount(target.getIban());
+        dto.setInitiatedBy(user.getId());
+        dto.setAmount(new BigDecimal(amount));
+        return transferEngine.transfer(dto, user.getId());
+    }
+
+    private Account reload(Account account) {
+        return accountRepository.findById(account.getId()).orElseThrow();
+    }
+
+    @Test
+    void creditsGoToTheStripesAndCountTowardsTheBalance() {
+        Account source = createAccount("100.00");
+        Account hot = createAccount("10.00");
+        stripingService.setStripes(hot.getIban(), 4);
+
+        transfer(source, hot, "30.00");
+        transfer(source, hot, "20.00");
+
+        Account reloaded = reload(hot);
+        assertThat(reloaded.getBalanceStripes()).isEqualTo(4);
+        assertThat(reloaded.getBalance()).isEqualByComparingTo("10");
+        assertThat(stripeRepository.sumByAccountId(hot.getId())).isEqualByComparingTo("50");
+        assertThat(stripingService.getBalance(reloaded)).isEqualByComparingTo("60");
+    }
+
+    @Test
+    void debitsCanSpendCreditsThatWereNotFoldedYet() {
+        Account source = createAccount("100.00");
+        Account hot = createAccount("0.00");
+        Account other = createAccount("0.00");
+        stripingService.setStripes(hot.getIban(), 4);
+        transfer(source, hot, "80.00");
+
+        Long spent = transfer(hot, other, "70.00");
+        Long tooMuch = transfer(hot, other, "20.00");
+
+        assertThat(transactionRepository.findById(spent).orElseThrow().getStatus()).isEqualTo(Status.SUCCEEDED);
+        assertThat(transactionRepository.findById(tooMuch).orElseThrow().getStatus()).isEqualTo(Status.FAILED);
+        assertThat(stripingService.getBalance(reload(hot))).isEqualByComparingTo("10");
+    }
+
+    @Test
+    void foldMovesTheStripesIntoTheBalance() {
+        Account source = createAccount("100.00");
+        Account hot = createAccount("5.00");
+        stripingService.setStripes(hot.getIban(), 8);
+        for (int i = 0; i < 10; i++) {
+            transfer(source, hot, "3.00");
+        }
+
+        assertThat(stripingService.foldAll()).isGreaterThanOrEqualTo(1);
+
+        assertThat(reload(hot).getBalance()).isEqualByComparingTo("35");
+        assertThat(stripeRepository.sumByAccountId(hot.getId())).isEqualByComparingTo("0");
+        assertThat(stripeRepository.findAll().stream().filter(stripe -> stripe.getAccountId().equals(hot.getId())))
+                .hasSize(8)
+                .extracting(BalanceStripe::getAmount)
+                .allSatisfy(amount -> assertThat(amount).isEqualByComparingTo("0"));
+    }
+
+    @Test
+    void concurrentCreditsAreNotLost() throws Exception {
+        Account hot = createAccount("0.00");
+        stripingService.setStripes(hot.getIban(), 8);
+        List<Account> sources = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sources.add(createAccount("1000.00"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Account source : sources) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 25; i++) {
+                        transfer(source, hot, "1.00");
+                    }
+                }));
+            }
+            // Folds run while the credits come in
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5; i++) {
+                    stripingService.foldAll();
+                }
+            }));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(stripingService.getBalance(reload(hot))).isEqualByComparingTo("200");
+        stripingService.foldAll();
+        assertThat(reload(hot).getBalance()).isEqualByComparingTo("200");
+    }
+
+    @Test
+    void switchingStripingOffFoldsAndSnapshotsStayConsistent() {
+        Account source = createAccount("100.00");
+        Account hot = createAccount("0.00");
+        stripingService.setStripes(hot.getIban(), 4);
+        transfer(source, hot, "40.00");
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user.getEmail(), null, List.of()));
+        try {
+            ledgerService.takeSnapshots();
+            transfer(source, hot, "2.00");
+            assertThat(ledgerService.getBalanceAt(hot.getIban(), LocalDateTime.now()).balance())
+                    .isEqualByComparingTo("42");
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+
+        stripingService.setStripes(hot.getIban(), 0);
+
+        assertThat(reload(hot).getBalanceStripes()).isZero();
+        assertThat(reload(hot).getBalance()).isEqualByComparingTo("42");
+        assertThat(stripeRepository.sumByAccountId(hot.getId())).isEqualByComparingTo("0");
+        assertThatThrownBy(() -> stripingService.setStripes(hot.getIban(), BalanceStripingService.MAX_STRIPES + 1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage(ErrorMessages.BALANCE_STRIPES_RANGE);
+    }
+}
@@ -1,18 +1,19 @@
 package nl.inholland.bank_api.service;
 
-import nl.inholland.bank_api.mapper.AtmTransactionMapper;
-import nl.inholland.bank_api.mapper.TransactionMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import nl.inholland.bank_api.model.dto.CombinedTransactionDTO;
 import nl.inholland.bank_api.model.dto.CombinedTransactionFullHistoryDTO;
+import nl.inholland.bank_api.model.dto.CursorPageDTO;
 import nl.inholland.bank_api.model.dto.TransactionFilterDTO;
-import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.enums.ExportFormat;
 import nl.inholland.bank_api.model.enums.Status;
-import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.AccountHistoryExportRepository;
 import nl.inholland.bank_api.repository.CombinedTransactionRepository;
-import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.util.HistoryCursor;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.context.annotation.Import;
@@ -21,45 +22,41 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 @Import(CombinedTransactionService.class)
 class CombinedTransactionServiceTest {
-    @InjectMocks
     private CombinedTransactionService combinedTransactionService;
 
     @Mock
     private CombinedTransactionRepository combinedTransactionRepository;
 
     @Mock
-    private AtmTransactionRepository atmTransactionRepository;
+    private AccountHistoryExportRepository exportRepository;
 
-    @Mock
-    private TransactionRepository transactionRepository;
-
-    @Mock
-    private AtmTransactionMapper atmTransactionMapper;
-
-    @Mock
-    private TransactionMapper transactionMapper;
+    @BeforeEach
+    void setUp() {
+        combinedTransactionService = new CombinedTransactionService(combinedTransactionRepository, exportRepository,
+                JsonMapper.builder().findAndAddModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build());
+    }
 
     private final Long accountId = 1L;
 
-    private CombinedTransactionDTO createDTO(BigDecimal amount, LocalDateTime time) {
-        CombinedTransactionDTO dto = new CombinedTransactionDTO();
-        dto.amount = amount;
-        dto.timestamp = time;
-        dto.status = Status.SUCCEEDED;
-        return dto;
-    }
-
     @Test
     void shouldReturnPagedCombinedTransactionDTOs() {
         // Arrange
@@ -85,157 +82,163 @@ class CombinedTransactionServiceTest {
         verify(combinedTransactionRepository).countAllCombined();
     }
 
+    private Object[] historyRow(Long id, String type, BigDecimal amount, String description) {
+        return new Object[]{id, type, 0, "NL01BANK123", "NL02BANK456", amount, description,
+                Timestamp.valueOf(LocalDateTime.of(2025, 6, 1, 12, 0)), Status.SUCCEEDED.toString(), null};
+    }
+
     @Test
     void testGetFilteredTransactions_WithValidData_ReturnsPage() {
-        Transaction transaction = new Transaction();
-        transaction.setAmount(BigDecimal.valueOf(50));
-        transaction.setTimestamp(LocalDateTime.now());
-
-        CombinedTransactionDTO dto = createDTO(BigDecimal.valueOf(50), LocalDateTime.now());
-
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId))
-                .thenReturn(List.of(transaction));
-        when(transactionMapper.toCombinedDTO(transaction)).thenReturn(dto);
-        when(atmTransactionRepository.findByAccountId(accountId))
-                .thenReturn(List.of());
-
         Pageable pageable = PageRequest.of(0, 10);
         TransactionFilterDTO filterDTO = new TransactionFilterDTO(); // no filters
+        List<Object[]> rows = List.<Object[]>of(
+                historyRow(3L, "TRANSFER", BigDecimal.valueOf(50), "Rent"),
+                historyRow(7L, "ATM", BigDecimal.valueOf(20), "WITHDRAW"));
+        when(combinedTransactionRepository.findAccountHistory(accountId, filterDTO, 10, 0)).thenReturn(rows);
 
         Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
 
-        assertEquals(1, result.getTotalElements());
-        assertEquals(BigDecimal.valueOf(50), result.getContent().get(0).amount);
+        // A first page that is not full tells the total, so nothing is counted
+        assertEquals(2, result.getTotalElements());
+        CombinedTransactionDTO first = result.getContent().get(0);
+        assertEquals(3L, first.id);
+        assertEquals("TRANSFER", first.type);
+        assertEquals("NL01BANK123", first.sourceIban);
+        assertEquals("NL02BANK456", first.targetIban);
+        assertEquals(BigDecimal.valueOf(50), first.amount);
+        assertEquals("Rent", first.description);
+        assertEquals(LocalDateTime.of(2025, 6, 1, 12, 0), first.timestamp);
+        assertEquals(Status.SUCCEEDED, first.status);
+        assertEquals("ATM", result.getContent().get(1).type);
+        verify(combinedTransactionRepository, never()).countAccountHistory(any(), any());
     }
 
     @Test
-    void testGetFilteredTransactions() {
-        Long accountId = 1L;
+    void testGetFilteredTransactions_CountsWhenThePageIsFull() {
+        Pageable pageable = PageRequest.of(1, 1);
         TransactionFilterDTO filterDTO = new TransactionFilterDTO();
-        Pageable pageable = PageRequest.of(0, 10);
-
-        Transaction transaction = new Transaction();
-        transaction.setAmount(new BigDecimal("50"));
-        transaction.setTimestamp(LocalDateTime.now());
-
-        CombinedTransactionDTO dto = new CombinedTransactionDTO();
-        dto.amount = new BigDecimal("50");
-        dto.timestamp = LocalDateTime.now();
-        dto.status = Status.SUCCEEDED;
-
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId))
-                .thenReturn(List.of(transaction));
-        when(transactionMapper.toCombinedDTO(transaction)).thenReturn(dto);
-        when(atmTransactionRepository.findByAccountId(accountId)).thenReturn(List.of());
+        filterDTO.setDescription("rent");
+        when(combinedTransactionRepository.findAccountHistory(accountId, filterDTO, 1, 1))
+                .thenReturn(List.<Object[]>of(historyRow(3L, "TRANSFER", BigDecimal.TEN, "Rent")));
+        when(combinedTransactionRepository.countAccountHistory(accountId, filterDTO)).thenReturn(5L);
 
-        Page<CombinedTransactionDTO> page = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
+        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
 
-        assertEquals(1, page.getContent().size());
-        assertEquals(dto.amount, page.getContent().get(0).amount);
+        assertEquals(1, result.getContent().size());
+        assertEquals(5, result.getTotalElements());
+        assertEquals(5, result.getTotalPages());
     }
 
     @Test
     void testGetFilteredTransactions_ReturnsEmptyPageWhenNoData() {
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId))
-                .thenReturn(List.of());
-        when(atmTransactionRepository.findByAccountId(accountId))
-                .thenReturn(List.of());
-
         TransactionFilterDTO filter = new TransactionFilterDTO();
-        Pageable pageable = PageRequest.of(0, 10);
+        when(combinedTransactionRepository.findAccountHistory(accountId, filter, 10, 0)).thenReturn(List.of());
 
-        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filter, pageable);
+        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filter, PageRequest.of(0, 10));
 
         assertTrue(result.isEmpty());
         assertEquals(0, result.getTotalElements());
     }
 
     @Test
-    void testGetFilteredTransactions_FilterByDateRange() {
-        Transaction transaction = new Transaction();
-        transaction.setAmount(new BigDecimal("50"));
-        transaction.setTimestamp(LocalDateTime.of(2025, 6, 1, 12, 0));
-
-        CombinedTransactionDTO dto = createDTO(new BigDecimal("50"), LocalDateTime.of(2025, 6, 1, 12, 0));
-
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId)).thenReturn(List.of(transaction));
-        when(transactionMapper.toCombinedDTO(transaction)).thenReturn(dto);
-        when(atmTransactionRepository.findByAccountId(accountId)).thenReturn(List.of());
-
-        TransactionFilterDTO filterDTO = new TransactionFilterDTO();
-        filterDTO.setStartDate("2025-05-31");
-        filterDTO.setEndDate("2025-06-02");
-
-        Pageable pageable = PageRequest.of(0, 10);
-        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
-
-        assertEquals(1, result.getTotalElements());
+    void testGetFilteredTransactions_CursorModeReturnsTheKeyOfTheLastRow() {
+        TransactionFilterDTO filter = new TransactionFilterDTO();
+        HistoryCursor after = new HistoryCursor(LocalDateTime.of(2025, 6, 2, 9, 0), HistoryCursor.ATM, 9L);
+        when(combinedTransactionRepository.findAccountHistoryAfter(accountId, filter, after, 3)).thenReturn(List.of(
+                historyRow(8L, "TRANSFER", BigDecimal.ONE, "a"),
+                historyRow(7L, "TRANSFER", BigDecimal.ONE, "b"),
+                historyRow(6L, "TRANSFER", BigDecimal.ONE, "c")));
+
+        CursorPageDTO<CombinedTransactionDTO> page =
+                combinedTransactionService.getFilteredTransactions(accountId, filter, after.encode(), 2, false);
+
+        assertEquals(List.of(8L, 7L), page.content().stream().map(dto -> dto.id).toList());
+        assertEquals(new HistoryCursor(LocalDateTime.of(2025, 6, 1, 12, 0), HistoryCursor.TRANSFER, 7L),
+                HistoryCursor.decode(page.nextCursor()));
+        assertNull(page.totalElements());
+        verify(combinedTransactionRepository, never()).countAccountHistory(any(), any());
     }
 
     @Test
-    void testGetFilteredTransactions_FilterByAmount() {
-        Transaction transaction = new Transaction();
-        transaction.setAmount(new BigDecimal("100"));
-        transaction.setTimestamp(LocalDateTime.now());
-
-        CombinedTransactionDTO dto = createDTO(new BigDecimal("100"), LocalDateTime.now());
-
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId)).thenReturn(List.of(transaction));
-        when(transactionMapper.toCombinedDTO(transaction)).thenReturn(dto);
-        when(atmTransactionRepository.findByAccountId(accountId)).thenReturn(List.of());
-
-        TransactionFilterDTO filterDTO = new TransactionFilterDTO();
-        filterDTO.setAmount(new BigDecimal("50"));
-        filterDTO.setComparison("gt");
+    void testGetAllCombinedTransactions_CursorModeCountsOnlyWhenAsked() {
+        when(combinedTransactionRepository.findAllCombinedAfter(null, 11)).thenReturn(List.<Object[]>of(
+                new Object[]{"NL01BANK123", null, 1L, BigDecimal.TEN, LocalDateTime.now(), "WITHDRAW", "SUCCEEDED", 4L, 1}));
+        when(combinedTransactionRepository.countAllCombined()).thenReturn(1L);
 
-        Pageable pageable = PageRequest.of(0, 10);
-        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
+        CursorPageDTO<CombinedTransactionFullHistoryDTO> page = combinedTransactionService.getAllCombinedTransactions("", 10, true);
 
-        assertEquals(1, result.getTotalElements());
+        assertEquals(1, page.content().size());
+        assertNull(page.nextCursor());
+        assertEquals(1L, page.totalElements());
     }
 
     @Test
-    void testGetFilteredTransactions_FilterByDescription() {
-        Transaction transaction = new Transaction();
-        transaction.setAmount(new BigDecimal("200"));
-        transaction.setTimestamp(LocalDateTime.now());
-
-        CombinedTransactionDTO dto = createDTO(new BigDecimal("200"), LocalDateTime.now());
-        dto.description = "Payment for Rent";
-
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId)).thenReturn(List.of(transaction));
-        when(transactionMapper.toCombinedDTO(transaction)).thenReturn(dto);
-        when(atmTransactionRepository.findByAccountId(accountId)).thenReturn(List.of());
-
-        TransactionFilterDTO filterDTO = new TransactionFilterDTO();
-        filterDTO.setDescription("rent");
-
-        Pageable pageable = PageRequest.of(0, 10);
-        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
+    void testCursorMode_RejectsCursorsItDidNotIssue() {
+        assertThrows(IllegalArgumentException.class,
+                () -> combinedTransactionService.getAllCombinedTransactions("not-a-cursor", 10, false));
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.decode(
+                Base64.getUrlEncoder().encodeToString("2025-06-01T12:00|5|1".getBytes(StandardCharsets.UTF_8))));
+    }
 
-        assertEquals(1, result.getTotalElements());
+    private String export(TransactionFilterDTO filter, ExportFormat format, Object[]... rows) throws Exception {
+        doAnswer(invocation -> {
+            java.util.function.Consumer<Object[]> consumer = invocation.getArgument(2);
+            for (Object[] row : rows) {
+                consumer.accept(row);
+            }
+            return null;
+        }).when(exportRepository).streamAccountHistory(eq(accountId), eq(filter), any());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        combinedTransactionService.exportTransactions(accountId, filter, format, out);
+        return out.toString(StandardCharsets.UTF_8);
     }
 
     @Test
-    void testGetFilteredTransactions_FilterByIBAN() {
-        Transaction transaction = new Transaction();
-        transaction.setAmount(new BigDecimal("75"));
-        transaction.setTimestamp(LocalDateTime.now());
-
-        CombinedTransactionDTO dto = createDTO(new BigDecimal("75"), LocalDateTime.now());
-        dto.sourceIban = "NL91ABNA0417164300";
-        dto.targetIban = "NL22RABO0123456789";
-
-        when(transactionRepository.findBySourceAccount_IdOrTargetAccount_Id(accountId, accountId)).thenReturn(List.of(transaction));
-        when(transactionMapper.toCombinedDTO(transaction)).thenReturn(dto);
-        when(atmTransactionRepository.findByAccountId(accountId)).thenReturn(List.of());
-
-        TransactionFilterDTO filterDTO = new TransactionFilterDTO();
-        filterDTO.setSourceIban("NL91ABNA0417164300");
+    void testExportTransactions_WritesCsvWithAHeaderAndQuotedFields() throws Exception {
+        String csv = export(new TransactionFilterDTO(), ExportFormat.CSV,
+                historyRow(3L, "TRANSFER", new BigDecimal("50.00"), "Rent, \"June\""),
+                historyRow(7L, "ATM", new BigDecimal("20.00"), "WITHDRAW"));
+
+        assertEquals("""
+                id,type,sourceIban,targetIban,amount,description,timestamp,status,failureReason
+                3,TRANSFER,NL01BANK123,NL02BANK456,50.00,"Rent, ""June""\",2025-06-01T12:00,SUCCEEDED,
+                7,ATM,NL01BANK123,NL02BANK456,20.00,WITHDRAW,2025-06-01T12:00,SUCCEEDED,
+                """, csv);
+    }
 
-        Pageable pageable = PageRequest.of(0, 10);
-        Page<CombinedTransactionDTO> result = combinedTransactionService.getFilteredTransactions(accountId, filterDTO, pageable);
+    @Test
+    void testExportTransactions_QuotesTextThatASpreadsheetWouldReadAsAFormula() throws Exception {
+        String csv = export(new TransactionFilterDTO(), ExportFormat.CSV,
+                historyRow(3L, "TRANSFER", new BigDecimal("50.00"), "=HYPERLINK(\"http://x\")"),
+                historyRow(4L, "TRANSFER", new BigDecimal("50.00"), "+31 20 123"),
+                historyRow(5L, "TRANSFER", new BigDecimal("50.00"), "-1"),
+                historyRow(6L, "TRANSFER", new BigDecimal("50.00"), "@SUM(A1)"),
+                historyRow(7L, "TRANSFER", new BigDecimal("50.00"), "\tRent"),
+                historyRow(8L, "TRANSFER", new BigDecimal("50.00"), "Rent = 500"));
+
+        assertEquals("""
+                id,type,sourceIban,targetIban,amount,description,timestamp,status,failureReason
+                3,TRANSFER,NL01BANK123,NL02BANK456,50.00,"'=HYPERLINK(""http://x"")\",2025-06-01T12:00,SUCCEEDED,
+                4,TRANSFER,NL01BANK123,NL02BANK456,50.00,'+31 20 123,2025-06-01T12:00,SUCCEEDED,
+                5,TRANSFER,NL01BANK123,NL02BANK456,50.00,'-1,2025-06-01T12:00,SUCCEEDED,
+                6,TRANSFER,NL01BANK123,NL02BANK456,50.00,'@SUM(A1),2025-06-01T12:00,SUCCEEDED,
+                7,TRANSFER,NL01BANK123,NL02BANK456,50.00,'\tRent,2025-06-01T12:00,SUCCEEDED,
+                8,TRANSFER,NL01BANK123,NL02BANK456,50.00,Rent = 500,2025-06-01T12:00,SUCCEEDED,
+                """, csv);
+    }
 
-        assertEquals(1, result.getTotalElements());
+    @Test
+    void testExportTransactions_WritesOneJsonObjectPerLine() throws Exception {
+        String ndjson = export(new TransactionFilterDTO(), ExportFormat.NDJSON,
+                historyRow(3L, "TRANSFER", new BigDecimal("50.00"), "Rent"),
+                historyRow(7L, "ATM", new BigDecimal("20.00"), "WITHDRAW"));
+
+        List<String> lines = ndjson.lines().toList();
+        assertEquals(2, lines.size());
+        assertTrue(ndjson.endsWith("}\n"));
+        assertTrue(lines.get(0).startsWith("{\"id\":3,\"type\":\"TRANSFER\""));
+        assertTrue(lines.get(0).contains("\"timestamp\":\"2025-06-01T12:00:00\""));
+        assertTrue(lines.get(1).startsWith("{\"id\":7,"));
     }
-}
\ No newline at end of file
+}
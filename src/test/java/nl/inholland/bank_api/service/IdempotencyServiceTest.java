@@ -0,0 +1,256 @@
+package nl.inholland.bank_api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.exception.ConflictException;
+import nl.inholland.bank_api.model.entities.IdempotencyRecord;
+import nl.inholland.bank_api.repository.IdempotencyRecordRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Not transactional, so concurrent requests see each other's claims like they do in production
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import({IdempotencyService.class, SimpleMeterRegistry.class})
+class IdempotencyServiceTest {
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private IdempotencyRecordRepository recordRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        recordRepository.deleteAll();
+        clearCache();
+        ReflectionTestUtils.setField(idempotencyService, "ttl", Duration.ofHours(24));
+    }
+
+    private ResponseEntity<Object> execute(String key, Object request) {
+        return idempotencyService.execute("transactions:1", key, request, Object.class, () -> {
+            int execution = executions.incrementAndGet();
+            return ResponseEntity.status(201).body(Map.of("id", execution));
+        });
+    }
+
+    private void clearCache() {
+        ((Map<?, ?>) ReflectionTestUtils.getField(idempotencyService, "cache")).clear();
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("bank.idempotency.lookups").tag("result", result).counter().count();
+    }
+
+    @Test
+    void requestsWithoutAKeyAlwaysRun() {
+        execute(null, Map.of("amount", 10));
+        execute(null, Map.of("amount", 10));
+
+        assertThat(executions).hasValue(2);
+        assertThat(recordRepository.count()).isZero();
+    }
+
+    @Test
+    void retryReplaysTheStoredResponse() {
+        ResponseEntity<Object> first = execute("key-1", Map.of("amount", 10));
+        ResponseEntity<Object> retry = execute("key-1", Map.of("amount", 10));
+
+        assertThat(executions).hasValue(1);
+        assertThat(retry.getStatusCode().value()).isEqualTo(201);
+        assertThat(retry.getBody()).isEqualTo(first.getBody());
+        assertThat(retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+        assertThat(recordRepository.findByIdempotencyKey("transactions:1:key-1").orElseThrow().getStatusCode())
+                .isEqualTo(201);
+    }
+
+    @Test
+    void retryIsReplayedFromTheTableWhenTheCacheNoLongerHasIt() {
+        double storeHits = lookups("store");
+        execute("key-2", Map.of("amount", 10));
+        clearCache();
+
+        ResponseEntity<Object> retry = execute("key-2", Map.of("amount", 10));
+
+        assertThat(executions).hasValue(1);
+        assertThat(retry.getBody()).isEqualTo(Map.of("id", 1));
+        assertThat(lookups("store")).isEqualTo(storeHits + 1);
+        assertThat(meterRegistry.get("bank.idempotency.cache.size").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void reusingAKeyForADifferentRequestIsRejected() {
+        execute("key-3", Map.of("amount", 10));
+
+        assertThatThrownBy(() -> execute("key-3", Map.of("amount", 20)))
+                .isInstanceOf(ConflictException.class)
+                .hasMessage(ErrorMessages.IDEMPOTENCY_KEY_REUSED);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void keysAreScopedPerCaller() {
+        execute("key-4", Map.of("amount", 10));
+        idempotencyService.execute("transactions:2", "key-4", Map.of("amount", 10), Object.class,
+                () -> ResponseEntity.status(201).body(Map.of("id", executions.incrementAndGet())));
+
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void failedRequestsAreNotStored() {
+        assertThatThrownBy(() -> idempotencyService.execute("transactions:1", "key-5", Map.of("amount", 10), Object.class,
+                () -> {
+                    throw new IllegalArgumentException(ErrorMessages.AMOUNT_MINIMUM);
+                }))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        execute("key-5", Map.of("amount", 10));
+
+        assertThat(executions).hasValue(1);
+        assertThat(recordRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentDuplicatesWaitForTheFirstExecution() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<ResponseEntity<Object>> first = executor.submit(() -> idempotencyService.execute(
+                    "transactions:1", "key-6", Map.of("amount", 10), Object.class, () -> {
+                        started.countDown();
+                        await(release);
+                        return ResponseEntity.status(201).body(Map.of("id", executions.incrementAndGet()));
+                    }));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            List<Future<ResponseEntity<Object>>> duplicates = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                duplicates.add(executor.submit(() -> execute("key-6", Map.of("amount", 10))));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            Object body = first.get(5, TimeUnit.SECONDS).getBody();
+            for (Future<ResponseEntity<Object>> duplicate : duplicates) {
+                assertThat(duplicate.get(5, TimeUnit.SECONDS).getBody()).isEqualTo(body);
+            }
+            assertThat(executions).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void expiredResponsesArePurgedAndExecutedAgain() {
+        ReflectionTestUtils.setField(idempotencyService, "ttl", Duration.ofSeconds(-1));
+        execute("key-7", Map.of("amount", 10));
+
+        execute("key-7", Map.of("amount", 10));
+        assertThat(executions).hasValue(2);
+
+        idempotencyService.purgeExpired();
+        assertThat(recordRepository.count()).isZero();
+        assertThat(meterRegistry.get("bank.idempotency.store.size").gauge().value()).isZero();
+    }
+
+    @Test
+    void replayedResponsesKeepTheHeadersOfTheFirstResponse() {
+        for (int i = 0; i < 2; i++) {
+            idempotencyService.execute("transactions:1", "key-8", Map.of("amount", 10), Object.class, () ->
+                    ResponseEntity.accepted().location(URI.create("/transactions/" + executions.incrementAndGet()))
+                            .body(Map.of("id", executions.get())));
+            clearCache();
+        }
+
+        ResponseEntity<Object> retry = execute("key-8", Map.of("amount", 10));
+
+        assertThat(executions).hasValue(1);
+        assertThat(retry.getStatusCode().value()).isEqualTo(202);
+        assertThat(retry.getHeaders().getLocation()).isEqualTo(URI.create("/transactions/1"));
+    }
+
+    @Test
+    void claimsInFlightOnAnotherInstanceConflictUntilTheyExpire() {
+        recordRepository.save(IdempotencyRecord.builder()
+                .idempotencyKey("transactions:1:key-9")
+                .requestHash("in-flight")
+                .createdAt(LocalDateTime.now())
+                .expiresAt(LocalDateTime.now().plusDays(1))
+                .build());
+
+        idempotencyService.purgeExpired();
+
+        assertThatThrownBy(() -> execute("key-9", Map.of("amount", 10)))
+                .isInstanceOf(ConflictException.class)
+                .hasMessage(ErrorMessages.IDEMPOTENCY_REQUEST_IN_PROGRESS);
+        assertThat(executions).hasValue(0);
+        assertThat(recordRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void abandonedClaimsArePurgedOnceExpired() {
+        recordRepository.save(IdempotencyRecord.builder()
+                .idempotencyKey("transactions:1:key-10")
+                .requestHash("abandoned")
+                .createdAt(LocalDateTime.now().minusDays(2))
+                .expiresAt(LocalDateTime.now().minusDays(1))
+                .build());
+
+        idempotencyService.purgeExpired();
+        assertThat(recordRepository.count()).isZero();
+
+        execute("key-10", Map.of("amount", 10));
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void expiredClaimIsReleasedBeforeThePurgeRuns() {
+        recordRepository.save(IdempotencyRecord.builder()
+                .idempotencyKey("transactions:1:key-11")
+                .requestHash("abandoned")
+                .createdAt(LocalDateTime.now().minusDays(2))
+                .expiresAt(LocalDateTime.now().minusDays(1))
+                .build());
+
+        execute("key-11", Map.of("amount", 10));
+
+        assertThat(executions).hasValue(1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.AccountStatementDTO;
+import nl.inholland.bank_api.model.dto.LedgerEntryDTO;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.LedgerEntry;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.BalanceSnapshotRepository;
+import nl.inholland.bank_api.repository.LedgerEntryRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:ledger-test")
+@ActiveProfiles("test")
+class LedgerServiceTest {
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @Autowired
+    private LedgerEntryRepository ledgerEntryRepository;
+
+    @Autowired
+    private BalanceSnapshotRepository snapshotRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+    private Account source;
+    private Account target;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.findByEmail("ledger@test.com").orElseGet(() -> userRepository.save(User.builder()
+                .firstName("Lou").lastName("Ledger")
+                .email("ledger@test.com").password("pw")
+                .bsn("888888888").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build()));
+        source = createAccount("100.00");
+        target = createAccount("0.00");
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user.getEmail(), null, List.of()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private Account createAccount(String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban("NL01INHO" + String.format("%010d", System.nanoTime() % 10_000_000_000L))
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("100000"))
+                .build());
+    }
+
+    private Long transfer(Account from, Account to, String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(from.getIban());
+        dto.setTargetAccount(to.getIban());
+        dto.setInitiatedBy(user.getId());
+        dto.setAmount(new BigDecimal(amount));
+        dto.setDescription("Ledger test");
+        return transferEngine.transfer(dto, user.getId());
+    }
+
+    private BigDecimal currentBalance(Account account) {
+        return accountRepository.findById(account.getId()).orElseThrow().getBalance();
+    }
+
+    // Entries are timestamped when they are written, this keeps the points in time apart
+    private LocalDateTime pause() throws InterruptedException {
+        Thread.sleep(20);
+        LocalDateTime now = LocalDateTime.now();
+        Thread.sleep(20);
+        return now;
+    }
+
+    @Test
+    void successfulTransfersAreJournaledAsBalancedDebitAndCredit() {
+        Long id = transfer(source, target, "40.00");
+        transfer(source, target, "500.00"); // fails on the balance
+
+        List<LedgerEntry> entries = ledgerEntryRepository.findAll().stream()
+                .filter(entry -> entry.getReferenceType() == LedgerReferenceType.TRANSFER && id.equals(entry.getReferenceId()))
+                .toList();
+
+        assertThat(entries).hasSize(2);
+        assertThat(entries).anySatisfy(entry -> {
+            assertThat(entry.getAccountId()).isEqualTo(source.getId());
+            assertThat(entry.getDirection()).isEqualTo(EntryDirection.DEBIT);
+            assertThat(entry.getAmount()).isEqualByComparingTo("40");
+        });
+        assertThat(entries).anySatisfy(entry -> {
+            assertThat(entry.getAccountId()).isEqualTo(target.getId());
+            assertThat(entry.getDirection()).isEqualTo(EntryDirection.CREDIT);
+        });
+        assertThat(ledgerEntryRepository.findStatementEntries(source.getId(), LocalDateTime.now().minusHours(1), LocalDateTime.now()))
+                .hasSize(1);
+    }
+
+    @Test
+    void atmTransactionsHaveACashLeg() {
+        AtmTransaction deposit = atmTransactionRepository.save(AtmTransaction.builder()
+                .account(source)
+                .initiatedBy(user)
+                .type(AtmTransactionType.DEPOSIT)
+                .status(Status.SUCCEEDED)
+                .amount(new BigDecimal("25.00"))
+                .build());
+
+        ledgerService.recordAtmTransaction(deposit);
+
+        List<LedgerEntry> entries = ledgerEntryRepository.findAll().stream()
+                .filter(entry -> entry.getReferenceType() == LedgerReferenceType.ATM && deposit.getId().equals(entry.getReferenceId()))
+                .toList();
+        assertThat(entries).extracting(LedgerEntry::getAccountId).containsExactlyInAnyOrder(source.getId(), null);
+        assertThat(entries).extracting(LedgerEntry::getDirection)
+                .containsExactlyInAnyOrder(EntryDirection.CREDIT, EntryDirection.DEBIT);
+    }
+
+    @Test
+    void snapshotPlusTailMatchesTheCurrentBalance() {
+        transfer(source, target, "30.00");
+        assertThat(ledgerService.takeSnapshots()).isGreaterThanOrEqualTo(2);
+        assertThat(snapshotRepository.findFirstByAccountIdAndTakenAtLessThanEqualOrderByTakenAtDesc(
+                source.getId(), LocalDateTime.now())).isPresent();
+
+        transfer(source, target, "20.00");
+        transfer(target, source, "5.00");
+
+        LocalDateTime now = LocalDateTime.now();
+        assertThat(ledgerService.getBalanceAt(source.getIban(), now).balance()).isEqualByComparingTo(currentBalance(source));
+        assertThat(ledgerService.getBalanceAt(target.getIban(), now).balance()).isEqualByComparingTo(currentBalance(target));
+        assertThat(currentBalance(source)).isEqualByComparingTo("55");
+    }
+
+    @Test
+    void balanceAtAPointInTimeBeforeAndAfterTheSnapshot() throws InterruptedException {
+        LocalDateTime beforeAnything = pause();
+        transfer(source, target, "10.00");
+        LocalDateTime afterFirst = pause();
+        transfer(source, target, "15.00");
+        ledgerService.takeSnapshots();
+        LocalDateTime afterSnapshot = pause();
+        transfer(source, target, "20.00");
+
+        assertThat(ledgerService.getBalanceAt(source.getIban(), beforeAnything).balance()).isEqualByComparingTo("100");
+        assertThat(ledgerService.getBalanceAt(source.getIban(), afterFirst).balance()).isEqualByComparingTo("90");
+        assertThat(ledgerService.getBalanceAt(source.getIban(), afterSnapshot).balance()).isEqualByComparingTo("75");
+        assertThat(ledgerService.getBalanceAt(target.getIban(), afterSnapshot).balance()).isEqualByComparingTo("25");
+        assertThat(ledgerService.getBalanceAt(source.getIban(), LocalDateTime.now()).balance()).isEqualByComparingTo("55");
+    }
+
+    @Test
+    void statementHasOpeningClosingAndRunningBalances() throws InterruptedException {
+        transfer(source, target, "10.00");
+        LocalDateTime from = pause();
+        transfer(source, target, "15.00");
+        ledgerService.takeSnapshots();
+        transfer(target, source, "5.00");
+        LocalDateTime to = pause();
+        transfer(source, target, "1.00");
+
+        AccountStatementDTO statement = ledgerService.getStatement(source.getIban(), from, to);
+
+        assertThat(statement.openingBalance()).isEqualByComparingTo("90");
+        assertThat(statement.entries()).extracting(LedgerEntryDTO::balanceAfter)
+                .usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(new BigDecimal("75"), new BigDecimal("80"));
+        assertThat(statement.closingBalance()).isEqualByComparingTo("80");
+        assertThatThrownBy(() -> ledgerService.getStatement(source.getIban(), to, from))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage(ErrorMessages.INVALID_PERIOD);
+    }
+}
@@ -0,0 +1,174 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.*;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.DailyLimitUsageRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import(LimitAccountingService.class)
+class LimitAccountingServiceTest {
+    @Autowired
+    private LimitAccountingService limitAccountingService;
+
+    @Autowired
+    private DailyLimitUsageRepository usageRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private AtmTransactionRepository atmTransactionRepository;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private User user;
+    private Account first;
+    private Account second;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.save(User.builder()
+                .firstName("Lena").lastName("Limit")
+                .email("limit@test.com").password("pw")
+                .bsn("777777777").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build());
+        first = createAccount("NL01INHO0000000401");
+        second = createAccount("NL01INHO0000000402");
+    }
+
+    private Account createAccount(String iban) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal("1000"))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("1000"))
+                .build());
+    }
+
+    private void saveTransfer(String amount, Status status, LocalDateTime timestamp) {
+        Transaction transaction = transactionRepository.save(Transaction.builder()
+                .sourceAccount(first)
+                .targetAccount(second)
+                .initiatedBy(user)
+                .status(status)
+                .amount(new BigDecimal(amount))
+                .build());
+        setTimestamp("transaction", transaction.getId(), timestamp);
+    }
+
+    private void saveAtmTransaction(AtmTransactionType type, String amount, LocalDateTime timestamp) {
+        AtmTransaction transaction = atmTransactionRepository.save(AtmTransaction.builder()
+                .account(first)
+                .initiatedBy(user)
+                .type(type)
+                .status(Status.SUCCEEDED)
+                .amount(new BigDecimal(amount))
+                .build());
+        setTimestamp("atm_transaction", transaction.getId(), timestamp);
+    }
+
+    // The creation timestamp is set by Hibernate, so history from other days is written directly
+    private void setTimestamp(String table, Long id, LocalDateTime timestamp) {
+        entityManager.flush();
+        entityManager.getEntityManager()
+                .createNativeQuery("UPDATE " + table + " SET timestamp = :timestamp WHERE id = :id")
+                .setParameter("timestamp", timestamp)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    @Test
+    void recordUsageKeepsARunningTotalPerKind() {
+        limitAccountingService.recordUsage(first.getId(), LimitKind.TRANSFER, new BigDecimal("40.00"));
+        limitAccountingService.recordUsage(first.getId(), LimitKind.TRANSFER, new BigDecimal("2.50"));
+        limitAccountingService.recordUsage(first.getId(), LimitKind.ATM_WITHDRAWAL, new BigDecimal("20.00"));
+
+        assertThat(limitAccountingService.getUsedToday(first.getId(), LimitKind.TRANSFER)).isEqualByComparingTo("42.50");
+        assertThat(limitAccountingService.getUsedToday(first.getId(), LimitKind.ATM_WITHDRAWAL)).isEqualByComparingTo("20");
+        assertThat(limitAccountingService.getUsedToday(second.getId(), LimitKind.TRANSFER)).isEqualByComparingTo("0");
+        assertThat(usageRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void getUsedTodayForManyAccountsDefaultsToZero() {
+        limitAccountingService.recordUsage(first.getId(), LimitKind.TRANSFER, new BigDecimal("15.00"));
+
+        Map<Long, BigDecimal> totals = limitAccountingService.getUsedToday(List.of(first.getId(), second.getId()), LimitKind.TRANSFER);
+
+        assertThat(totals.get(first.getId())).isEqualByComparingTo("15");
+        assertThat(totals.get(second.getId())).isEqualByComparingTo("0");
+    }
+
+    @Test
+    void cachedTotalIsDroppedWhenUsageIsRecorded() {
+        ReflectionTestUtils.setField(limitAccountingService, "cacheEnabled", true);
+        try {
+            assertThat(limitAccountingService.getUsedToday(first.getId(), LimitKind.TRANSFER)).isEqualByComparingTo("0");
+
+            limitAccountingService.recordUsage(first.getId(), LimitKind.TRANSFER, new BigDecimal("10.00"));
+
+            assertThat(limitAccountingService.getUsedToday(first.getId(), LimitKind.TRANSFER)).isEqualByComparingTo("10");
+        } finally {
+            ReflectionTestUtils.setField(limitAccountingService, "cacheEnabled", false);
+        }
+    }
+
+    @Test
+    void rebuildFromHistoryMatchesTheSuccessfulDebits() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime yesterday = now.minusDays(1);
+        saveTransfer("100.00", Status.SUCCEEDED, now);
+        saveTransfer("50.00", Status.FAILED, now);
+        saveTransfer("70.00", Status.SUCCEEDED, yesterday);
+        saveTransfer("999.00", Status.SUCCEEDED, now.minusDays(5));
+        saveAtmTransaction(AtmTransactionType.WITHDRAW, "30.00", now);
+        saveAtmTransaction(AtmTransactionType.DEPOSIT, "20.00", now);
+
+        // Totals that drifted away from the history
+        limitAccountingService.recordUsage(first.getId(), LimitKind.TRANSFER, new BigDecimal("5.00"));
+
+        int rows = limitAccountingService.rebuildFromHistory(yesterday.toLocalDate());
+
+        assertThat(rows).isEqualTo(3);
+        assertThat(limitAccountingService.getUsedToday(first.getId(), LimitKind.TRANSFER)).isEqualByComparingTo("100");
+        assertThat(limitAccountingService.getUsedToday(first.getId(), LimitKind.ATM_WITHDRAWAL)).isEqualByComparingTo("30");
+        assertThat(usageRepository.findAmount(first.getId(), yesterday.toLocalDate(), LimitKind.TRANSFER))
+                .hasValueSatisfying(amount -> assertThat(amount).isEqualByComparingTo("70"));
+        assertThat(usageRepository.findAmount(first.getId(), LocalDate.now().minusDays(5), LimitKind.TRANSFER)).isEmpty();
+    }
+}
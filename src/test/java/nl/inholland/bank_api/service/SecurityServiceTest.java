@@ -2,9 +2,12 @@ package nl.inholland.bank_api.service;
 
 import nl.inholland.bank_api.model.entities.Account;
 import nl.inholland.bank_api.model.entities.AtmTransaction;
+import nl.inholland.bank_api.model.entities.Transaction;
 import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.UserRole;
 import nl.inholland.bank_api.repository.AccountRepository;
 import nl.inholland.bank_api.repository.AtmTransactionRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
 import nl.inholland.bank_api.repository.UserRepository;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -37,6 +40,9 @@ class SecurityServiceTest {
     @MockitoBean
     private AtmTransactionRepository transactionRepository;
 
+    @MockitoBean
+    private TransactionRepository transferRepository;
+
     @AfterEach
     void clearContext() {
         SecurityContextHolder.clearContext();
@@ -128,4 +134,66 @@ class SecurityServiceTest {
         // Assert that the service method returns false
         assertFalse(securityService.isOwnerOfTransactionAccount(5L));
     }
-}
\ No newline at end of file
+
+    @Test
+    void canViewTransferReturnsTrueForOwnerOfTargetAccount() {
+        String email = "john.doe@example.com";
+        User currentUser = User.builder().id(1L).email(email).role(UserRole.CUSTOMER).build();
+        User otherUser = User.builder().id(2L).build();
+        Transaction transfer = Transaction.builder()
+                .id(5L)
+                .initiatedBy(otherUser)
+                .sourceAccount(Account.builder().user(otherUser).build())
+                .targetAccount(Account.builder().user(currentUser).build())
+                .build();
+
+        authenticate(email);
+        when(userRepository.findByEmail(email)).thenReturn(Optional.of(currentUser));
+        when(transferRepository.findById(5L)).thenReturn(Optional.of(transfer));
+
+        assertTrue(securityService.canViewTransfer(5L));
+    }
+
+    @Test
+    void canViewTransferReturnsFalseForUninvolvedCustomer() {
+        String email = "john.doe@example.com";
+        User currentUser = User.builder().id(1L).email(email).role(UserRole.CUSTOMER).build();
+        User otherUser = User.builder().id(2L).build();
+        Transaction transfer = Transaction.builder()
+                .id(5L)
+                .initiatedBy(otherUser)
+                .sourceAccount(Account.builder().user(otherUser).build())
+                .targetAccount(Account.builder().user(otherUser).build())
+                .build();
+
+        authenticate(email);
+        when(userRepository.findByEmail(email)).thenReturn(Optional.of(currentUser));
+        when(transferRepository.findById(5L)).thenReturn(Optional.of(transfer));
+
+        assertFalse(securityService.canViewTransfer(5L));
+    }
+
+    @Test
+    void canViewTransferReturnsTrueForEmployee() {
+        String email = "employee@example.com";
+        User employee = User.builder().id(3L).email(email).role(UserRole.EMPLOYEE).build();
+
+        authenticate(email);
+        when(userRepository.findByEmail(email)).thenReturn(Optional.of(employee));
+
+        assertTrue(securityService.canViewTransfer(5L));
+        verifyNoInteractions(transferRepository);
+    }
+
+    @Test
+    void canViewTransferLeavesAMissingTransferToTheLookup() {
+        String email = "john.doe@example.com";
+        User currentUser = User.builder().id(1L).email(email).role(UserRole.CUSTOMER).build();
+
+        authenticate(email);
+        when(userRepository.findByEmail(email)).thenReturn(Optional.of(currentUser));
+        when(transferRepository.findById(5L)).thenReturn(Optional.empty());
+
+        assertTrue(securityService.canViewTransfer(5L));
+    }
+}
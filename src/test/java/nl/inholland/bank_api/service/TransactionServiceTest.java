@@ -1,15 +1,17 @@
 package nl.inholland.bank_api.service;
 
+import jakarta.persistence.EntityNotFoundException;
 import nl.inholland.bank_api.mapper.TransactionMapper;
 import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
-import nl.inholland.bank_api.model.entities.Transaction;
 import nl.inholland.bank_api.repository.TransactionRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.ObjectProvider;
 
 import java.math.BigDecimal;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -19,19 +21,32 @@ class TransactionServiceTest {
     private TransactionService transactionService;
 
     @Mock
-    private TransactionRepository transactionRepository;
+    private TransferEngine transferEngine;
+
+    @Mock
+    private ObjectProvider<TransferSequencer> transferSequencer;
+
+    @Mock
+    private TransferSequencer sequencer;
+
+    @Mock
+    private ObjectProvider<TransferSettlementPipeline> settlementPipeline;
 
     @Mock
-    private TransactionMapper transactionMapper;
+    private TransferSettlementPipeline pipeline;
+
+    @Mock
+    private TransactionRepository transactionRepository;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        transactionService = new TransactionService(transactionRepository, transactionMapper);
+        transactionService = new TransactionService(
+                transferEngine, transferSequencer, settlementPipeline, transactionRepository, new TransactionMapper());
     }
 
     @Test
-    void postTransaction_ShouldSaveAndReturnTransactionId() {
+    void postTransaction_ShouldTransferAndReturnTransactionId() {
         // Arrange
         TransactionRequestDTO dto = new TransactionRequestDTO();
         dto.setSourceAccount("NL01BANK1234567890");
@@ -40,18 +55,45 @@ class TransactionServiceTest {
         dto.setAmount(new BigDecimal("250.00"));
         dto.setDescription("Test Transaction");
 
-        Transaction mockTransaction = new Transaction();
-        mockTransaction.setId(42L);
-
-        when(transactionMapper.toEntity(dto)).thenReturn(mockTransaction);
-        when(transactionRepository.save(mockTransaction)).thenReturn(mockTransaction);
+        when(transferEngine.transfer(dto, 5L)).thenReturn(42L);
 
         // Act
-        Long result = transactionService.postTransaction(dto);
+        Long result = transactionService.postTransaction(dto, 5L);
 
         // Assert
         assertEquals(42L, result);
-        verify(transactionMapper).toEntity(dto);
-        verify(transactionRepository).save(mockTransaction);
+        verify(transferEngine).transfer(dto, 5L);
+    }
+
+    @Test
+    void postTransaction_ShouldDelegateToSequencer_WhenEnabled() {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        when(transferSequencer.getIfAvailable()).thenReturn(sequencer);
+        when(sequencer.submit(dto, 5L)).thenReturn(7L);
+
+        Long result = transactionService.postTransaction(dto, 5L);
+
+        assertEquals(7L, result);
+        verifyNoInteractions(transferEngine);
+    }
+
+    @Test
+    void postTransaction_ShouldSubmitToPipeline_WhenAsync() {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        when(settlementPipeline.getIfAvailable()).thenReturn(pipeline);
+        when(pipeline.submit(dto, 5L)).thenReturn(8L);
+
+        Long result = transactionService.postTransaction(dto, 5L);
+
+        assertEquals(8L, result);
+        assertTrue(transactionService.isAsync());
+        verifyNoInteractions(transferEngine, transferSequencer);
+    }
+
+    @Test
+    void getTransaction_ShouldThrow_WhenNotFound() {
+        when(transactionRepository.findById(9L)).thenReturn(Optional.empty());
+
+        assertThrows(EntityNotFoundException.class, () -> transactionService.getTransaction(9L));
     }
 }
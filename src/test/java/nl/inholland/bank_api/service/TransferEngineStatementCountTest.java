@@ -0,0 +1,197 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityManagerFactory;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.TransactionBatchItemDTO;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Counts the SQL statements that single and batched transfers send to the database
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:transfer-engine-test",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@ActiveProfiles("test")
+class TransferEngineStatementCountTest {
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        user = userRepository.findByEmail("engine@test.com").orElseGet(() -> userRepository.save(User.builder()
+                .firstName("Eve").lastName("Engine")
+                .email("engine@test.com").password("pw")
+                .bsn("666666666").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build()));
+    }
+
+    private Account createAccount(String iban, String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("100000"))
+                .build());
+    }
+
+    private TransactionRequestDTO transfer(Account source, Account target, String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(source.getIban());
+        dto.setTargetAccount(target.getIban());
+        dto.setAmount(new BigDecimal(amount));
+        dto.setDescription("Counted");
+        return dto;
+    }
+
+    private long countStatements(TransactionRequestDTO dto) {
+        statistics.clear();
+        Long id = transferEngine.transfer(dto, user.getId());
+        long statements = statistics.getPrepareStatementCount();
+        assertThat(transactionRepository.findById(id)).isPresent();
+        return statements;
+    }
+
+    @Test
+    void successfulTransferUsesSixStatements() {
+        Account source = createAccount("NL01INHO0000000301", "100.00");
+        Account target = createAccount("NL01INHO0000000302", "0.00");
+
+        // Locking select, daily total lookup, debit, credit, daily total update and the transaction insert;
+        // the ledger entries are appended through a plain JDBC batch
+        assertThat(countStatements(transfer(source, target, "40.00"))).isEqualTo(6);
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("60");
+        assertThat(accountRepository.findById(target.getId()).orElseThrow().getBalance()).isEqualByComparingTo("40");
+    }
+
+    @Test
+    void transferOverAbsoluteLimitUsesTwoStatements() {
+        Account source = createAccount("NL01INHO0000000303", "10.00");
+        Account target = createAccount("NL01INHO0000000304", "0.00");
+
+        // Locking select and the insert of the failed transaction
+        assertThat(countStatements(transfer(source, target, "40.00"))).isEqualTo(2);
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    void opposingConcurrentTransfersDoNotDeadlockOrLoseMoney() throws Exception {
+        Account first = createAccount("NL01INHO0000000305", "1000.00");
+        Account second = createAccount("NL01INHO0000000306", "1000.00");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                TransactionRequestDTO dto = i % 2 == 0 ? transfer(first, second, "1.00") : transfer(second, first, "2.00");
+                futures.add(executor.submit(() -> transferEngine.transfer(dto, user.getId())));
+            }
+
+            List<Long> ids = new ArrayList<>();
+            for (Future<Long> future : futures) {
+                ids.add(future.get());
+            }
+            assertThat(transactionRepository.findAllById(ids))
+                    .allMatch(transaction -> transaction.getStatus() == Status.SUCCEEDED);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(accountRepository.findById(first.getId()).orElseThrow().getBalance()).isEqualByComparingTo("1100");
+        assertThat(accountRepository.findById(second.getId()).orElseThrow().getBalance()).isEqualByComparingTo("900");
+    }
+
+    @Test
+    void batchAppliesTransfersInOrderWithPerItemStatus() {
+        Account first = createAccount("NL01INHO0000000307", "50.00");
+        Account second = createAccount("NL01INHO0000000308", "0.00");
+        TransactionRequestDTO unknownTarget = transfer(first, second, "1.00");
+        unknownTarget.setTargetAccount("NL01INHO0000009999");
+
+        List<TransactionBatchItemDTO> results = transferEngine.transferBatch(List.of(
+                transfer(first, second, "50.00"),
+                transfer(second, first, "20.00"), // only possible because of the first transfer
+                transfer(first, second, "30.00"),
+                unknownTarget,
+                transfer(first, first, "1.00")
+        ), user.getId());
+
+        assertThat(results).extracting(TransactionBatchItemDTO::status).containsExactly(
+                Status.SUCCEEDED, Status.SUCCEEDED, Status.FAILED, Status.FAILED, Status.FAILED);
+        assertThat(results.get(2).failureReason()).isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE);
+        assertThat(results.get(3).id()).isNull();
+        assertThat(results.get(3).failureReason()).isEqualTo(ErrorMessages.ACCOUNT_NOT_FOUND);
+        assertThat(results.get(4).failureReason()).isEqualTo(ErrorMessages.SAME_ACCOUNT_TRANSFER);
+        assertThat(transactionRepository.findById(results.get(2).id()).orElseThrow())
+                .satisfies(stored -> assertThat(stored.getStatus()).isEqualTo(Status.FAILED))
+                .satisfies(stored -> assertThat(stored.getFailureReason()).isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE));
+        assertThat(accountRepository.findById(first.getId()).orElseThrow().getBalance()).isEqualByComparingTo("20");
+        assertThat(accountRepository.findById(second.getId()).orElseThrow().getBalance()).isEqualByComparingTo("30");
+    }
+
+    @Test
+    void batchStatementCountDoesNotGrowWithTheNumberOfTransfers() {
+        Account source = createAccount("NL01INHO0000000309", "1000.00");
+        Account target = createAccount("NL01INHO0000000310", "0.00");
+        List<TransactionRequestDTO> dtos = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            dtos.add(transfer(source, target, "1.00"));
+        }
+
+        statistics.clear();
+        List<TransactionBatchItemDTO> results = transferEngine.transferBatch(dtos, user.getId());
+
+        // Locking select, daily totals lookup and the daily total update; the rest goes through plain JDBC batches
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+        assertThat(results).allMatch(result -> result.status() == Status.SUCCEEDED && result.id() != null);
+        assertThat(results).extracting(TransactionBatchItemDTO::id).doesNotHaveDuplicates();
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("800");
+        assertThat(accountRepository.findById(target.getId()).orElseThrow().getBalance()).isEqualByComparingTo("200");
+    }
+}
@@ -0,0 +1,282 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.mapper.TransactionMapper;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.LimitKind;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.BalanceStripeRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.TransferBatchRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({TransferEngine.class, TransactionMapper.class, BalanceStripingService.class})
+class TransferEngineTest {
+    @Autowired
+    private TransferEngine transferEngine;
+
+    @MockitoBean
+    private AccountRepository accountRepository;
+
+    @MockitoBean
+    private TransactionRepository transactionRepository;
+
+    @MockitoBean
+    private UserRepository userRepository;
+
+    @MockitoBean
+    private TransferBatchRepository transferBatchRepository;
+
+    @MockitoBean
+    private LimitAccountingService limitAccountingService;
+
+    @MockitoBean
+    private LedgerService ledgerService;
+
+    @MockitoBean
+    private AccountActivityService accountActivityService;
+
+    @MockitoBean
+    private BalanceStripeRepository stripeRepository;
+
+    @MockitoBean
+    private PlatformTransactionManager transactionManager;
+
+    private final User user = User.builder().id(1L).build();
+    private Account source;
+    private Account target;
+
+    @BeforeEach
+    void setUp() {
+        source = Account.builder()
+                .id(1L)
+                .iban("NL01INHO0000000001")
+                .balance(new BigDecimal("1000.00"))
+                .absoluteLimit(new BigDecimal("-200.00"))
+                .dailyLimit(new BigDecimal("500.00"))
+                .build();
+        target = Account.builder()
+                .id(2L)
+                .iban("NL01INHO0000000002")
+                .balance(new BigDecimal("500.00"))
+                .build();
+
+        when(userRepository.getReferenceById(1L)).thenReturn(user);
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setId(42L);
+            return transaction;
+        });
+    }
+
+    private TransactionRequestDTO transfer(String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(source.getIban());
+        dto.setTargetAccount(target.getIban() + " ");
+        dto.setAmount(new BigDecimal(amount));
+        dto.setDescription("Rent");
+        return dto;
+    }
+
+    private Transaction savedTransaction() {
+        ArgumentCaptor<Transaction> captor = ArgumentCaptor.forClass(Transaction.class);
+        verify(transactionRepository).save(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    void transferSucceedsWhenLimitsAreValid() {
+        TransactionRequestDTO dto = transfer("100.00");
+        when(accountRepository.findTransferAccountsForUpdate(source.getIban(), target.getIban()))
+                .thenReturn(List.of(source, target));
+        when(limitAccountingService.getUsedToday(1L, LimitKind.TRANSFER)).thenReturn(new BigDecimal("100.00"));
+        when(accountRepository.decreaseBalance(1L, dto.getAmount())).thenReturn(1);
+
+        Long id = transferEngine.transfer(dto, 1L);
+
+        Transaction transaction = savedTransaction();
+        assertEquals(42L, id);
+        assertEquals(Status.SUCCEEDED, transaction.getStatus());
+        assertEquals(source, transaction.getSourceAccount());
+        assertEquals(target, transaction.getTargetAccount());
+        assertEquals(user, transaction.getInitiatedBy());
+        verify(accountRepository).decreaseBalance(1L, dto.getAmount());
+        verify(accountRepository).increaseBalance(2L, dto.getAmount());
+        verify(limitAccountingService).recordUsage(1L, LimitKind.TRANSFER, dto.getAmount());
+        verify(userRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void transferToStripedAccountCreditsAStripeWithoutLockingTheTarget() {
+        TransactionRequestDTO dto = transfer("100.00");
+        target.setBalanceStripes(4);
+        when(accountRepository.findTransferAccountsForUpdate(source.getIban(), target.getIban()))
+                .thenReturn(List.of(source));
+        when(accountRepository.findByIban(target.getIban())).thenReturn(Optional.of(target));
+        when(limitAccountingService.getUsedToday(1L, LimitKind.TRANSFER)).thenReturn(BigDecimal.ZERO);
+        when(accountRepository.decreaseBalance(1L, dto.getAmount())).thenReturn(1);
+        when(stripeRepository.addToStripe(eq(2L), anyInt(), eq(dto.getAmount()))).thenReturn(1);
+
+        transferEngine.transfer(dto, 1L);
+
+        assertEquals(Status.SUCCEEDED, savedTransaction().getStatus());
+        verify(stripeRepository).addToStripe(eq(2L), intThat(stripe -> stripe >= 0 && stripe < 4), eq(dto.getAmount()));
+        verify(accountRepository, never()).increaseBalance(any(), any());
+    }
+
+    @Test
+    void transferFromStripedAccountCountsTheUnfoldedCredits() {
+        TransactionRequestDTO dto = transfer("1500.00");
+        source.setBalanceStripes(4);
+        source.setDailyLimit(new BigDecimal("2000.00"));
+        when(accountRepository.findTransferAccountsForUpdate(any(), any())).thenReturn(List.of(source, target));
+        when(stripeRepository.sumByAccountId(1L)).thenReturn(new BigDecimal("500.00"));
+        when(limitAccountingService.getUsedToday(1L, LimitKind.TRANSFER)).thenReturn(BigDecimal.ZERO);
+        when(accountRepository.decreaseStripedBalance(1L, dto.getAmount())).thenReturn(1);
+
+        transferEngine.transfer(dto, 1L);
+
+        assertEquals(Status.SUCCEEDED, savedTransaction().getStatus());
+        verify(accountRepository).decreaseStripedBalance(1L, dto.getAmount());
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+    }
+
+    @Test
+    void transferFailsWhenAbsoluteLimitExceeded() {
+        when(accountRepository.findTransferAccountsForUpdate(any(), any())).thenReturn(List.of(source, target));
+
+        transferEngine.transfer(transfer("1200.01"), 1L);
+
+        assertEquals(Status.FAILED, savedTransaction().getStatus());
+        assertEquals(ErrorMessages.INSUFFICIENT_BALANCE, savedTransaction().getFailureReason());
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+        verify(accountRepository, never()).increaseBalance(any(), any());
+    }
+
+    @Test
+    void transferFailsWhenDailyLimitExceeded() {
+        when(accountRepository.findTransferAccountsForUpdate(any(), any())).thenReturn(List.of(source, target));
+        when(limitAccountingService.getUsedToday(1L, LimitKind.TRANSFER)).thenReturn(new BigDecimal("200.00"));
+
+        transferEngine.transfer(transfer("400.00"), 1L);
+
+        assertEquals(Status.FAILED, savedTransaction().getStatus());
+        assertEquals(ErrorMessages.DAILY_LIMIT_EXCEEDED, savedTransaction().getFailureReason());
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+        verify(limitAccountingService, never()).recordUsage(any(), any(), any());
+    }
+
+    @Test
+    void transferFailsWhenSourceAndTargetAreTheSameAccount() {
+        TransactionRequestDTO dto = transfer("10.00");
+        dto.setTargetAccount(source.getIban());
+        when(accountRepository.findTransferAccountsForUpdate(any(), any())).thenReturn(List.of(source));
+
+        transferEngine.transfer(dto, 1L);
+
+        assertEquals(Status.FAILED, savedTransaction().getStatus());
+        assertEquals(ErrorMessages.SAME_ACCOUNT_TRANSFER, savedTransaction().getFailureReason());
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+    }
+
+    @Test
+    void transferThrowsWhenAccountDoesNotExist() {
+        when(accountRepository.findTransferAccountsForUpdate(any(), any())).thenReturn(List.of(source));
+
+        assertThrows(EntityNotFoundException.class, () -> transferEngine.transfer(transfer("10.00"), 1L));
+        verify(transactionRepository, never()).save(any());
+    }
+
+    private Transaction pendingTransfer(String amount) {
+        Transaction transaction = Transaction.builder()
+                .id(42L)
+                .sourceAccount(source)
+                .targetAccount(target)
+                .initiatedBy(user)
+                .amount(new BigDecimal(amount))
+                .status(Status.PENDING)
+                .build();
+        TransactionRepository.TransferIbans ibans = mock(TransactionRepository.TransferIbans.class);
+        when(ibans.getSourceIban()).thenReturn(source.getIban());
+        when(ibans.getTargetIban()).thenReturn(target.getIban());
+        when(transactionRepository.findIbansById(42L)).thenReturn(Optional.of(ibans));
+        when(transactionRepository.findByIdForUpdate(42L)).thenReturn(Optional.of(transaction));
+        when(limitAccountingService.getUsedToday(1L, LimitKind.TRANSFER)).thenReturn(BigDecimal.ZERO);
+        return transaction;
+    }
+
+    @Test
+    void settleAppliesPendingTransfer() {
+        Transaction transaction = pendingTransfer("100.00");
+        when(accountRepository.decreaseBalance(1L, transaction.getAmount())).thenReturn(1);
+
+        Optional<Transaction> settled = transferEngine.settle(42L);
+
+        assertTrue(settled.isPresent());
+        assertEquals(Status.SUCCEEDED, transaction.getStatus());
+        assertNull(transaction.getFailureReason());
+        verify(accountRepository).findTransferAccountsForUpdate(source.getIban(), target.getIban());
+        verify(accountRepository).increaseBalance(2L, transaction.getAmount());
+        verify(limitAccountingService).recordUsage(1L, LimitKind.TRANSFER, transaction.getAmount());
+    }
+
+    @Test
+    void settleFailsWhenGuardedDebitIsRejected() {
+        Transaction transaction = pendingTransfer("100.00");
+        when(accountRepository.decreaseBalance(1L, transaction.getAmount())).thenReturn(0);
+
+        transferEngine.settle(42L);
+
+        assertEquals(Status.FAILED, transaction.getStatus());
+        assertEquals(ErrorMessages.INSUFFICIENT_BALANCE, transaction.getFailureReason());
+        verify(accountRepository, never()).increaseBalance(any(), any());
+        verify(limitAccountingService, never()).recordUsage(any(), any(), any());
+    }
+
+    @Test
+    void settleSkipsTransfersThatAreNoLongerPending() {
+        pendingTransfer("100.00").setStatus(Status.SUCCEEDED);
+
+        assertTrue(transferEngine.settle(42L).isEmpty());
+        verify(accountRepository, never()).decreaseBalance(any(), any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void transferBatchRejectsBatchesLargerThanTheMaximum() {
+        List<TransactionRequestDTO> dtos = Collections.nCopies(1001, transfer("1.00"));
+
+        assertThrows(IllegalArgumentException.class, () -> transferEngine.transferBatch(dtos, 1L));
+        verifyNoInteractions(transferBatchRepository);
+    }
+
+    @Test
+    void transferBatchRejectsEmptyBatches() {
+        assertThrows(IllegalArgumentException.class, () -> transferEngine.transferBatch(List.of(), 1L));
+    }
+}
@@ -0,0 +1,239 @@
+package nl.inholland.bank_api.service;
+
+import jakarta.persistence.EntityNotFoundException;
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.mapper.TransactionMapper;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doReturn;
+
+@SpringBootTest(properties = {
+        "bank.transfers.sequencer.enabled=true",
+        "spring.datasource.url=jdbc:h2:mem:sequencer-test"
+})
+@ActiveProfiles("test")
+class TransferSequencerTest {
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private TransactionMapper transactionMapper;
+
+    @Autowired
+    private LimitAccountingService limitAccountingService;
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private AccountActivityService accountActivityService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @MockitoSpyBean
+    private BalanceStripingService balanceStripingService;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.findByEmail("sequencer@test.com").orElseGet(() -> userRepository.save(User.builder()
+                .firstName("Sam").lastName("Sequencer")
+                .email("sequencer@test.com").password("pw")
+                .bsn("555555555").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build()));
+    }
+
+    private Account createAccount(String iban, BigDecimal balance, BigDecimal dailyLimit) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(balance)
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(dailyLimit)
+                .build());
+    }
+
+    private TransactionRequestDTO transfer(Account source, Account target, String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(source.getIban());
+        dto.setTargetAccount(target.getIban());
+        dto.setInitiatedBy(user.getId());
+        dto.setAmount(new BigDecimal(amount));
+        dto.setDescription("Sequenced");
+        return dto;
+    }
+
+    private List<Long> postConcurrently(TransactionRequestDTO dto, int threads, int transfersPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < threads * transfersPerThread; i++) {
+                futures.add(executor.submit(() -> transactionService.postTransaction(dto, user.getId())));
+            }
+
+            List<Long> ids = new ArrayList<>();
+            for (Future<Long> future : futures) {
+                ids.add(future.get());
+            }
+            return ids;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long countWithStatus(List<Long> ids, Status status) {
+        return transactionRepository.findAllById(ids).stream()
+                .filter(transaction -> transaction.getStatus() == status)
+                .count();
+    }
+
+    @Test
+    void concurrentTransfersFromHotAccountRespectAbsoluteLimit() throws Exception {
+        Account source = createAccount("NL01INHO0000000201", new BigDecimal("1000.00"), new BigDecimal("100000"));
+        Account target = createAccount("NL01INHO0000000202", BigDecimal.ZERO, new BigDecimal("100000"));
+
+        List<Long> ids = postConcurrently(transfer(source, target, "10.00"), 8, 50);
+
+        // Only 100 transfers of 10.00 fit into a balance of 1000.00
+        assertThat(ids).hasSize(400).doesNotHaveDuplicates();
+        assertThat(countWithStatus(ids, Status.SUCCEEDED)).isEqualTo(100);
+        assertThat(countWithStatus(ids, Status.FAILED)).isEqualTo(300);
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("0");
+        assertThat(accountRepository.findById(target.getId()).orElseThrow().getBalance()).isEqualByComparingTo("1000");
+    }
+
+    @Test
+    void concurrentTransfersRespectDailyLimit() throws Exception {
+        Account source = createAccount("NL01INHO0000000203", new BigDecimal("1000.00"), new BigDecimal("55"));
+        Account target = createAccount("NL01INHO0000000204", BigDecimal.ZERO, new BigDecimal("100000"));
+
+        List<Long> ids = postConcurrently(transfer(source, target, "10.00"), 4, 5);
+
+        assertThat(countWithStatus(ids, Status.SUCCEEDED)).isEqualTo(5);
+        assertThat(transactionRepository.findAllById(ids))
+                .filteredOn(transaction -> transaction.getStatus() == Status.FAILED)
+                .allMatch(transaction -> ErrorMessages.DAILY_LIMIT_EXCEEDED.equals(transaction.getFailureReason()));
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("950");
+    }
+
+    @Test
+    void unknownTargetAccountIsRejected() {
+        Account source = createAccount("NL01INHO0000000205", new BigDecimal("1000.00"), new BigDecimal("100000"));
+        TransactionRequestDTO dto = transfer(source, source, "10.00");
+        dto.setTargetAccount("NL01INHO0000009999");
+
+        assertThrows(EntityNotFoundException.class, () -> transactionService.postTransaction(dto, user.getId()));
+    }
+
+    @Test
+    void debitRejectedByTheDatabaseFailsTheTransferWithItsReason() {
+        Account source = createAccount("NL01INHO0000000206", new BigDecimal("100.00"), new BigDecimal("100000"));
+        Account target = createAccount("NL01INHO0000000207", BigDecimal.ZERO, new BigDecimal("100000"));
+        // A hold placed after the sequencer read the available balance
+        doReturn(false).when(balanceStripingService)
+                .debit(argThat(account -> account != null && source.getId().equals(account.getId())), any());
+
+        Long id = transactionService.postTransaction(transfer(source, target, "30.00"), user.getId());
+
+        Transaction transaction = transactionRepository.findById(id).orElseThrow();
+        assertThat(transaction.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(transaction.getFailureReason()).isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE);
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("100");
+        assertThat(accountRepository.findById(target.getId()).orElseThrow().getBalance()).isEqualByComparingTo("0");
+    }
+
+    @Test
+    void stoppingWhileTransfersAreSubmittedLeavesNoSubmitterWaiting() throws Exception {
+        Account source = createAccount("NL01INHO0000000208", new BigDecimal("1000000.00"), new BigDecimal("1000000"));
+        Account target = createAccount("NL01INHO0000000209", BigDecimal.ZERO, new BigDecimal("1000000"));
+        TransactionRequestDTO dto = transfer(source, target, "1.00");
+
+        // A sequencer of its own, stopping the shared one would break the other tests
+        TransferSequencer sequencer = new TransferSequencer(accountService, accountRepository, transactionRepository,
+                userRepository, transactionMapper, limitAccountingService, ledgerService, accountActivityService,
+                balanceStripingService, transactionManager);
+        ReflectionTestUtils.setField(sequencer, "shardCount", 2);
+        ReflectionTestUtils.setField(sequencer, "bufferSize", 4);
+        ReflectionTestUtils.setField(sequencer, "batchSize", 8);
+        sequencer.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> submitters = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                submitters.add(executor.submit(() -> {
+                    int submitted = 0;
+                    try {
+                        while (true) {
+                            sequencer.submit(dto, user.getId());
+                            submitted++;
+                        }
+                    } catch (IllegalStateException e) {
+                        assertThat(e).hasMessage(ErrorMessages.TRANSFER_SEQUENCER_STOPPED);
+                        return submitted;
+                    }
+                }));
+            }
+
+            Thread.sleep(200);
+            sequencer.stop();
+
+            // Every submitter is answered, either with its transfer or with the stopped error
+            for (Future<Integer> submitter : submitters) {
+                assertThat(submitter.get(10, TimeUnit.SECONDS)).isNotNegative();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package nl.inholland.bank_api.service;
+
+import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.model.dto.TransactionRequestDTO;
+import nl.inholland.bank_api.model.entities.Account;
+import nl.inholland.bank_api.model.entities.Transaction;
+import nl.inholland.bank_api.model.entities.User;
+import nl.inholland.bank_api.model.enums.AccountStatus;
+import nl.inholland.bank_api.model.enums.AccountType;
+import nl.inholland.bank_api.model.enums.Status;
+import nl.inholland.bank_api.model.enums.UserAccountStatus;
+import nl.inholland.bank_api.model.enums.UserRole;
+import nl.inholland.bank_api.repository.AccountRepository;
+import nl.inholland.bank_api.repository.TransactionRepository;
+import nl.inholland.bank_api.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:settlement-pipeline-test",
+        "bank.transfers.async.enabled=true",
+        "bank.transfers.async.sweep-after=PT0S"
+})
+@ActiveProfiles("test")
+class TransferSettlementPipelineTest {
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private TransferSettlementPipeline pipeline;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = userRepository.findByEmail("pipeline@test.com").orElseGet(() -> userRepository.save(User.builder()
+                .firstName("Pia").lastName("Pipeline")
+                .email("pipeline@test.com").password("pw")
+                .bsn("555555555").phoneNumber("+1111111111")
+                .isApproved(UserAccountStatus.APPROVED)
+                .role(UserRole.CUSTOMER)
+                .build()));
+    }
+
+    private Account createAccount(String iban, String balance) {
+        return accountRepository.save(Account.builder()
+                .user(user)
+                .status(AccountStatus.ACTIVE)
+                .iban(iban)
+                .type(AccountType.CHECKING)
+                .balance(new BigDecimal(balance))
+                .absoluteLimit(BigDecimal.ZERO)
+                .withdrawLimit(new BigDecimal("1000"))
+                .dailyLimit(new BigDecimal("100000"))
+                .build());
+    }
+
+    private TransactionRequestDTO transfer(Account source, Account target, String amount) {
+        TransactionRequestDTO dto = new TransactionRequestDTO();
+        dto.setSourceAccount(source.getIban());
+        dto.setTargetAccount(target.getIban());
+        dto.setAmount(new BigDecimal(amount));
+        return dto;
+    }
+
+    private Status awaitSettled(Long id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Status status = transactionRepository.findById(id).orElseThrow().getStatus();
+            if (status != Status.PENDING) {
+                return status;
+            }
+            Thread.sleep(50);
+        }
+        return Status.PENDING;
+    }
+
+    @Test
+    void submittedTransfersSettleInOrderPerAccount() throws Exception {
+        Account source = createAccount("NL01INHO0000000501", "100.00");
+        Account target = createAccount("NL01INHO0000000502", "0.00");
+
+        assertThat(transactionService.isAsync()).isTrue();
+        List<Long> ids = new ArrayList<>();
+        for (String amount : List.of("60.00", "30.00", "20.00")) {
+            ids.add(transactionService.postTransaction(transfer(source, target, amount), user.getId()));
+        }
+
+        // The third transfer fails because the first two were settled before it
+        assertThat(awaitSettled(ids.get(0))).isEqualTo(Status.SUCCEEDED);
+        assertThat(awaitSettled(ids.get(1))).isEqualTo(Status.SUCCEEDED);
+        assertThat(awaitSettled(ids.get(2))).isEqualTo(Status.FAILED);
+        assertThat(transactionRepository.findById(ids.get(2)).orElseThrow().getFailureReason())
+                .isEqualTo(ErrorMessages.INSUFFICIENT_BALANCE);
+        assertThat(accountRepository.findById(source.getId()).orElseThrow().getBalance()).isEqualByComparingTo("10");
+        assertThat(accountRepository.findById(target.getId()).orElseThrow().getBalance()).isEqualByComparingTo("90");
+    }
+
+    @Test
+    void sweepRecoversTransfersThatWereNeverQueued() throws Exception {
+        Account source = createAccount("NL01INHO0000000503", "100.00");
+        Account target = createAccount("NL01INHO0000000504", "0.00");
+        Transaction orphan = transactionRepository.save(Transaction.builder()
+                .sourceAccount(source)
+                .targetAccount(target)
+                .initiatedBy(user)
+                .amount(new BigDecimal("25.00"))
+                .status(Status.PENDING)
+                .timestamp(LocalDateTime.now())
+                .build());
+
+        Thread.sleep(10);
+        assertThat(pipeline.sweepPending()).isGreaterThanOrEqualTo(1);
+
+        assertThat(awaitSettled(orphan.getId())).isEqualTo(Status.SUCCEEDED);
+        assertThat(accountRepository.findById(target.getId()).orElseThrow().getBalance()).isEqualByComparingTo("25");
+    }
+}
@@ -21,11 +21,18 @@ import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import static org.junit.jupiter.api.Assertions.*;
 import nl.inholland.bank_api.constant.ErrorMessages;
+import nl.inholland.bank_api.service.CustomUserDetailsService;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import java.util.List;
 
 class JwtUtilTest {
     @Mock
     private JwtKeyProvider keyProvider;
 
+    @Mock
+    private CustomUserDetailsService userDetailsService;
+
     @InjectMocks
     private JwtUtil jwtUtil;
 
@@ -71,6 +78,18 @@ class JwtUtilTest {
         assertEquals(userId.intValue(), userIdClaim.intValue());
     }
 
+    // Checks that the userId claim is kept on the authentication
+    @Test
+    void validateTokenKeepsUserIdFromToken() {
+        String token = jwtUtil.generateToken("test@example.com", UserRole.CUSTOMER, 123L);
+        when(userDetailsService.loadUserByUsername("test@example.com"))
+                .thenReturn(new User("test@example.com", "", List.of()));
+
+        Authentication authentication = jwtUtil.validateToken(token);
+
+        assertEquals(123L, JwtUtil.getUserId(authentication));
+    }
+
     // Tests failure on an invalid token
     @Test
     void validateTokenThrowsJwtExceptionForInvalidToken() {
@@ -19,7 +19,9 @@ Feature: ATM
     And a withdrawal request of "100.00"
     When I create an ATM transaction via POST "/atm/transactions"
     Then the response status should be 201
-    And after processing the status should be "SUCCEEDED"
+    And the withdrawal should be approved with an open hold
+    When the pending ATM transactions are swept
+    Then after processing the status should be "SUCCEEDED"
 
   Scenario: Failed due to empty DTO
     Given I am logged in with email "123@mail.com" and password "123"